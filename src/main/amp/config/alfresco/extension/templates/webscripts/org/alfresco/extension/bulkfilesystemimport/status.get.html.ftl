@@ -152,12 +152,20 @@
       </tr>
       <tr>
         <td>Batch Weight:</td>
-        <td>${importStatus.batchWeight}</td>
+        <td id="detailsBatchWeight">${importStatus.batchWeight}</td>
+      </tr>
+      <tr>
+        <td>Batch Weight History:</td>
+        <td id="detailsBatchWeightHistory">[#list importStatus.batchWeightHistory as historicalBatchWeight]${historicalBatchWeight}[#if historicalBatchWeight_has_next], [/#if][/#list]</td>
       </tr>
       <tr>
         <td>Active Threads:</td>
         <td><span id="detailsActiveThreads">${importStatus.numberOfActiveThreads}</span> (of <span id="detailsTotalThreads">${importStatus.totalNumberOfThreads}</span> total)</td>
       </tr>
+      <tr>
+        <td>Pipeline Stages:</td>
+        <td id="detailsPipelineStages">[#if importStatus.pipelineStages?size > 0][#list importStatus.pipelineStages as pipelineStage]${pipelineStage.stage}: ${pipelineStage.activeThreads} of ${pipelineStage.totalThreads} threads active, ${pipelineStage.queueDepth} queued[#if pipelineStage_has_next]; [/#if][/#list][#else]n/a[/#if]</td>
+      </tr>
       <tr>
         <td>Start Date:</td>
         <td>
@@ -192,6 +200,54 @@
         <td>Number of Completed Batches:</td>
         <td id="detailsCompletedBatches">${importStatus.numberOfBatchesCompleted}</td>
       </tr>
+      <tr>
+        <td>Number of Transaction Retries:</td>
+        <td id="detailsTransactionRetries">${importStatus.numberOfTransactionRetries}</td>
+      </tr>
+      <tr>
+        <td>Number of Quarantined Items:</td>
+        <td id="detailsQuarantinedItems">${importStatus.numberOfItemsQuarantined}[#if importStatus.quarantineFile??] (see ${importStatus.quarantineFile})[/#if]</td>
+      </tr>
+      <tr>
+        <td>Source Size:</td>
+        <td id="detailsSourceSize">
+[#if importStatus.sizingInProgress || importStatus.sizingComplete]
+          ${importStatus.estimatedNumberOfFiles} files, ${importStatus.estimatedNumberOfFolders} folders, [@formatBytes importStatus.estimatedNumberOfBytes /][#if importStatus.sizingInProgress] (sizing in progress)[/#if]
+[#else]
+          n/a
+[/#if]
+        </td>
+      </tr>
+      <tr>
+        <td>Percent Complete:</td>
+        <td id="detailsPercentComplete">
+[#if importStatus.percentComplete??]
+          ${importStatus.percentComplete?string("#0.0")}%
+[#else]
+          n/a
+[/#if]
+        </td>
+      </tr>
+      <tr>
+        <td>Current Throughput:</td>
+        <td id="detailsEntriesPerSecond">
+[#if importStatus.throughputInEntriesPerSecond??]
+          ${importStatus.throughputInEntriesPerSecond?string("#0.00")} entries / sec
+[#else]
+          n/a
+[/#if]
+        </td>
+      </tr>
+      <tr>
+        <td>Estimated Completion:</td>
+        <td id="detailsEstimatedCompletionDate">
+[#if importStatus.estimatedCompletionDate??]
+          ${importStatus.estimatedCompletionDate?datetime?iso_utc}
+[#else]
+          n/a
+[/#if]
+        </td>
+      </tr>
       <tr>
         <td colspan="2"><strong>Source (read) Statistics</strong></td>
       </tr>
@@ -207,11 +263,19 @@
               <td>Folders</td>
               <td>Files</td>
               <td>Unreadable</td>
+              <td>Stat Calls Saved (est.)</td>
+              <td>Folders From Manifest</td>
+              <td>Folders Read Ahead</td>
+              <td>Read Ahead Depth</td>
             </tr>
             <tr>
               <td id="detailsFoldersScanned">${importStatus.numberOfFoldersScanned}</td>
               <td id="detailsFilesScanned">${importStatus.numberOfFilesScanned}</td>
               <td id="detailsUnreadableEntries">${importStatus.numberOfUnreadableEntries}</td>
+              <td id="detailsStatCallsSaved">${importStatus.estimatedNumberOfStatCallsSaved}</td>
+              <td id="detailsFoldersReadFromManifest">${importStatus.numberOfFoldersReadFromManifest}</td>
+              <td id="detailsFoldersReadAhead">${importStatus.numberOfFoldersReadAhead}</td>
+              <td id="detailsReadAheadDepth">${importStatus.readAheadDepth}</td>
             </tr>
           </table>
         </td>
@@ -318,6 +382,25 @@
           </table>
         </td>
       <tr>
+      <tr>
+        <td>Content Staged:</td>
+        <td>
+          <table border="1" cellspacing="0" cellpadding="1">
+            <tr>
+              <td>Content</td>
+              <td>Content Versions</td>
+            </tr>
+            <tr>
+              <td><span id="detailsContentFilesStaged">${importStatus.numberOfContentFilesStaged}</span> (<span id="detailsContentBytesStaged">[@formatBytes importStatus.numberOfContentBytesStaged/]</span>)</td>
+              <td><span id="detailsContentVersionFilesStaged">${importStatus.numberOfContentVersionFilesStaged}</span> (<span id="detailsContentVersionBytesStaged">[@formatBytes importStatus.numberOfContentVersionBytesStaged/]</span>)</td>
+            </tr>
+          </table>
+        </td>
+      </tr>
+      <tr>
+        <td>Unchanged Nodes Skipped:</td>
+        <td id="detailsUnchangedNodesSkipped">${importStatus.numberOfUnchangedNodesSkipped}</td>
+      </tr>
       <tr>
         <td>Throughput:</td>
         <td>
@@ -330,10 +413,12 @@
   [#assign totalDataWritten = importStatus.numberOfContentBytesWritten +
                               importStatus.numberOfContentVersionBytesWritten]
           <span id="detailsNodesWrittenPerSecond">${(totalNodesWritten  / (importStatus.durationInNs / (1000 * 1000 * 1000)))?string("#0")} nodes / sec</span><br/>
-          <span id="detailsDataWrittenPerSecond">[@formatBytes (totalDataWritten / (importStatus.durationInNs / (1000 * 1000 * 1000))) /] / sec</span>
+          <span id="detailsDataWrittenPerSecond">[@formatBytes (totalDataWritten / (importStatus.durationInNs / (1000 * 1000 * 1000))) /] / sec</span><br/>
+          <span id="detailsVersionsWrittenPerSecond">${(importStatus.numberOfContentVersionsCreated / (importStatus.durationInNs / (1000 * 1000 * 1000)))?string("#0")} versions / sec, ${(importStatus.numberOfContentVersionPropertiesWritten / (importStatus.durationInNs / (1000 * 1000 * 1000)))?string("#0")} version properties / sec</span>
 [#else]
           <span id="detailsNodesWrittenPerSecond">n/a</span><br/>
-          <span id="detailsDataWrittenPerSecond"></span>
+          <span id="detailsDataWrittenPerSecond"></span><br/>
+          <span id="detailsVersionsWrittenPerSecond"></span>
 [/#if]
         </td>
       </tr>
@@ -18,9 +18,16 @@
   "importType" : "${importStatus.importType}",
 [/#if]
   "batchWeight" : ${importStatus.batchWeight?c},
+  "batchWeightHistory" : [ [#list importStatus.batchWeightHistory as historicalBatchWeight]${historicalBatchWeight?c}[#if historicalBatchWeight_has_next], [/#if][/#list] ],
+  "transactionRetries" : ${importStatus.numberOfTransactionRetries?c},
+  "quarantinedItems" : ${importStatus.numberOfItemsQuarantined?c},
+[#if importStatus.quarantineFile??]
+  "quarantineFile" : "${importStatus.quarantineFile?js_string?replace("\\'", "'")}",
+[/#if]
 [#if importStatus.inProgress()]
   "totalThreads" : ${importStatus.totalNumberOfThreads?c},
   "activeThreads" : ${importStatus.numberOfActiveThreads?c},
+  "pipelineStages" : [ [#list importStatus.pipelineStages as pipelineStage]{ "name" : "${pipelineStage.stage}", "activeThreads" : ${pipelineStage.activeThreads?c}, "totalThreads" : ${pipelineStage.totalThreads?c}, "queueDepth" : ${pipelineStage.queueDepth?c} }[#if pipelineStage_has_next], [/#if][/#list] ],
 [/#if]
 [#if importStatus.startDate??]
   "startDate" : "${importStatus.startDate?datetime?iso_utc}",
@@ -32,12 +39,33 @@
   "durationInNS" : ${importStatus.durationInNs?c},
 [/#if]
   "completedBatches" : ${importStatus.numberOfBatchesCompleted?c},
+  "progress" : {
+[#if importStatus.percentComplete??]
+    "percentComplete" : ${importStatus.percentComplete?c},
+[/#if]
+[#if importStatus.throughputInEntriesPerSecond??]
+    "entriesPerSecond" : ${importStatus.throughputInEntriesPerSecond?c},
+[/#if]
+[#if importStatus.estimatedCompletionDate??]
+    "estimatedCompletionDate" : "${importStatus.estimatedCompletionDate?datetime?iso_utc}",
+[/#if]
+    "sizingInProgress" : ${importStatus.sizingInProgress?string("true", "false")},
+    "sizingComplete" : ${importStatus.sizingComplete?string("true", "false")},
+    "estimatedFolders" : ${importStatus.estimatedNumberOfFolders?c},
+    "estimatedFiles" : ${importStatus.estimatedNumberOfFiles?c},
+    "estimatedBytes" : ${importStatus.estimatedNumberOfBytes?c},
+    "entriesProcessed" : ${importStatus.numberOfEntriesProcessed?c}
+  },
   "currentFileOrFolder" : "${importStatus.currentFileBeingProcessed!"n/a"}",
   "sourceStatistics" : {
     "lastFileOrFolderProcessed" : "${importStatus.currentFileBeingProcessed!"n/a"?js_string?replace("\\'", "'")}",
     "filesScanned" : ${importStatus.numberOfFilesScanned?c},
     "foldersScanned" : ${importStatus.numberOfFoldersScanned?c},
     "unreadableEntries" : ${importStatus.numberOfUnreadableEntries?c},
+    "estimatedStatCallsSaved" : ${importStatus.estimatedNumberOfStatCallsSaved?c},
+    "foldersReadFromManifest" : ${importStatus.numberOfFoldersReadFromManifest?c},
+    "foldersReadAhead" : ${importStatus.numberOfFoldersReadAhead?c},
+    "readAheadDepth" : ${importStatus.readAheadDepth?c},
     "contentFilesRead" : ${importStatus.numberOfContentFilesRead?c},
     "contentBytesRead" : ${importStatus.numberOfContentBytesRead?c},
     "metadataFilesRead" : ${importStatus.numberOfMetadataFilesRead?c},
@@ -55,11 +83,16 @@
     "contentNodesCreated" : ${importStatus.numberOfContentNodesCreated?c},
     "contentNodesReplaced" : ${importStatus.numberOfContentNodesReplaced?c},
     "contentNodesSkipped" : ${importStatus.numberOfContentNodesSkipped?c},
+    "unchangedNodesSkipped" : ${importStatus.numberOfUnchangedNodesSkipped?c},
     "contentBytesWritten" : ${importStatus.numberOfContentBytesWritten?c},
     "contentPropertiesWritten" : ${importStatus.numberOfContentPropertiesWritten?c},
     "contentVersionsCreated" : ${importStatus.numberOfContentVersionsCreated?c},
     "contentVersionsBytesWritten" : ${importStatus.numberOfContentVersionBytesWritten?c},
-    "contentVersionsPropertiesWritten" : ${importStatus.numberOfContentVersionPropertiesWritten?c}
+    "contentVersionsPropertiesWritten" : ${importStatus.numberOfContentVersionPropertiesWritten?c},
+    "contentFilesStaged" : ${importStatus.numberOfContentFilesStaged?c},
+    "contentBytesStaged" : ${importStatus.numberOfContentBytesStaged?c},
+    "contentVersionFilesStaged" : ${importStatus.numberOfContentVersionFilesStaged?c},
+    "contentVersionBytesStaged" : ${importStatus.numberOfContentVersionBytesStaged?c}
   }
 [#if importStatus.lastExceptionAsString??]
   ,
@@ -19,9 +19,29 @@
   <ImportType>${importStatus.importType}</ImportType>
 [/#if]
   <BatchWeight>${importStatus.batchWeight?c}</BatchWeight>
+  <BatchWeightHistory>
+[#list importStatus.batchWeightHistory as historicalBatchWeight]
+    <BatchWeight>${historicalBatchWeight?c}</BatchWeight>
+[/#list]
+  </BatchWeightHistory>
+  <TransactionRetries>${importStatus.numberOfTransactionRetries?c}</TransactionRetries>
+  <QuarantinedItems>${importStatus.numberOfItemsQuarantined?c}</QuarantinedItems>
+[#if importStatus.quarantineFile??]
+  <QuarantineFile>${importStatus.quarantineFile}</QuarantineFile>
+[/#if]
 [#if importStatus.inProgress()]
   <TotalThreads>${importStatus.totalNumberOfThreads?c}</TotalThreads>
   <ActiveThreads>${importStatus.numberOfActiveThreads?c}</ActiveThreads>
+  <PipelineStages>
+[#list importStatus.pipelineStages as pipelineStage]
+    <PipelineStage>
+      <Name>${pipelineStage.stage}</Name>
+      <ActiveThreads>${pipelineStage.activeThreads?c}</ActiveThreads>
+      <TotalThreads>${pipelineStage.totalThreads?c}</TotalThreads>
+      <QueueDepth>${pipelineStage.queueDepth?c}</QueueDepth>
+    </PipelineStage>
+[/#list]
+  </PipelineStages>
 [/#if]
 [#if importStatus.startDate??]
   <StartDate>${importStatus.startDate?datetime?iso_utc}</StartDate>
@@ -33,12 +53,33 @@
   <DurationInNS>${importStatus.durationInNs?c}</DurationInNS>
 [/#if]
   <CompletedBatches>${importStatus.numberOfBatchesCompleted?c}</CompletedBatches>
+  <Progress>
+    <SizingInProgress>${importStatus.sizingInProgress?string("true", "false")}</SizingInProgress>
+    <SizingComplete>${importStatus.sizingComplete?string("true", "false")}</SizingComplete>
+    <EstimatedFolders>${importStatus.estimatedNumberOfFolders?c}</EstimatedFolders>
+    <EstimatedFiles>${importStatus.estimatedNumberOfFiles?c}</EstimatedFiles>
+    <EstimatedBytes>${importStatus.estimatedNumberOfBytes?c}</EstimatedBytes>
+    <EntriesProcessed>${importStatus.numberOfEntriesProcessed?c}</EntriesProcessed>
+[#if importStatus.percentComplete??]
+    <PercentComplete>${importStatus.percentComplete?c}</PercentComplete>
+[/#if]
+[#if importStatus.throughputInEntriesPerSecond??]
+    <EntriesPerSecond>${importStatus.throughputInEntriesPerSecond?c}</EntriesPerSecond>
+[/#if]
+[#if importStatus.estimatedCompletionDate??]
+    <EstimatedCompletionDate>${importStatus.estimatedCompletionDate?datetime?iso_utc}</EstimatedCompletionDate>
+[/#if]
+  </Progress>
   <CurrentFileOrFolder>${importStatus.currentFileBeingProcessed!"n/a"}</CurrentFileOrFolder>
   <SourceStatistics>
     <LastFileOrFolderProcessed>${importStatus.currentFileBeingProcessed!"n/a"}</LastFileOrFolderProcessed>
     <FilesScanned>${importStatus.numberOfFilesScanned?c}</FilesScanned>
     <FoldersScanned>${importStatus.numberOfFoldersScanned?c}</FoldersScanned>
     <UnreadableEntries>${importStatus.numberOfUnreadableEntries?c}</UnreadableEntries>
+    <EstimatedStatCallsSaved>${importStatus.estimatedNumberOfStatCallsSaved?c}</EstimatedStatCallsSaved>
+    <FoldersReadFromManifest>${importStatus.numberOfFoldersReadFromManifest?c}</FoldersReadFromManifest>
+    <FoldersReadAhead>${importStatus.numberOfFoldersReadAhead?c}</FoldersReadAhead>
+    <ReadAheadDepth>${importStatus.readAheadDepth?c}</ReadAheadDepth>
     <ContentFilesRead>${importStatus.numberOfContentFilesRead?c}</ContentFilesRead>
     <ContentBytesRead>${importStatus.numberOfContentBytesRead?c}</ContentBytesRead>
     <MetadataFilesRead>${importStatus.numberOfMetadataFilesRead?c}</MetadataFilesRead>
@@ -56,11 +97,16 @@
     <ContentNodesCreated>${importStatus.numberOfContentNodesCreated?c}</ContentNodesCreated>
     <ContentNodesReplaced>${importStatus.numberOfContentNodesReplaced?c}</ContentNodesReplaced>
     <ContentNodesSkipped>${importStatus.numberOfContentNodesSkipped?c}</ContentNodesSkipped>
+    <UnchangedNodesSkipped>${importStatus.numberOfUnchangedNodesSkipped?c}</UnchangedNodesSkipped>
     <ContentBytesWritten>${importStatus.numberOfContentBytesWritten?c}</ContentBytesWritten>
     <ContentPropertiesWritten>${importStatus.numberOfContentPropertiesWritten?c}</ContentPropertiesWritten>
     <ContentVersionsCreated>${importStatus.numberOfContentVersionsCreated?c}</ContentVersionsCreated>
     <ContentVersionsBytesWritten>${importStatus.numberOfContentVersionBytesWritten?c}</ContentVersionsBytesWritten>
     <ContentVersionsPropertiesWritten>${importStatus.numberOfContentVersionPropertiesWritten?c}</ContentVersionsPropertiesWritten>
+    <ContentFilesStaged>${importStatus.numberOfContentFilesStaged?c}</ContentFilesStaged>
+    <ContentBytesStaged>${importStatus.numberOfContentBytesStaged?c}</ContentBytesStaged>
+    <ContentVersionFilesStaged>${importStatus.numberOfContentVersionFilesStaged?c}</ContentVersionFilesStaged>
+    <ContentVersionBytesStaged>${importStatus.numberOfContentVersionBytesStaged?c}</ContentVersionBytesStaged>
   </TargetStatistics>
 [#if importStatus.lastExceptionAsString??]
   <ErrorInformation>
@@ -0,0 +1,20 @@
+[#ftl]
+<!DOCTYPE HTML>
+<html>
+<head>
+  <title>Bulk Filesystem Import Tune</title>
+  <link rel="stylesheet" href="${url.context}/css/main.css" type="text/css"/>
+</head>
+<body>
+  <table>
+    <tr>
+      <td><img src="${url.context}/images/logo/AlfrescoLogo32.png" alt="Alfresco" /></td>
+      <td><nobr><strong>Bulk Filesystem Import Tool v1.3.5-SNAPSHOT (Community maintained)</strong></nobr></td>
+    </tr>
+    <tr><td><td>Alfresco ${server.edition} v${server.version}
+  </table>
+  <blockquote>
+    <p>${message}</p>
+  </blockquote>
+</body>
+</html>
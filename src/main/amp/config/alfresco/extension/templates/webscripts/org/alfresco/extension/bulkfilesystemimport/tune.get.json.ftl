@@ -0,0 +1,4 @@
+[#ftl]
+{
+  "message" : "${message?js_string?replace("\\'", "'")}"
+}
\ No newline at end of file
@@ -114,7 +114,15 @@ function getStatusInfo()
         }
         else  // We're not idle, so update the duration in the current status
         {
-          document.getElementById("currentStatus").textContent = "In progress " + formatDuration(currentData.durationInNS, false);
+          var progressText = "";
+
+          if (currentData.progress && currentData.progress.percentComplete !== undefined)
+          {
+            progressText = " (" + roundToDigits(currentData.progress.percentComplete, 1) + "%" +
+                           (currentData.progress.estimatedCompletionDate ? ", ETA " + currentData.progress.estimatedCompletionDate : "") + ")";
+          }
+
+          document.getElementById("currentStatus").textContent = "In progress " + formatDuration(currentData.durationInNS, false) + progressText;
         }
       }
     };
@@ -360,6 +368,24 @@ function refreshTextElements(cd)
       document.getElementById("detailsTotalThreads").textContent = cd.totalThreads;
     }
 
+    // Pipeline stages
+    if (cd.pipelineStages === undefined || cd.pipelineStages.length === 0)
+    {
+      document.getElementById("detailsPipelineStages").textContent = "n/a";
+    }
+    else
+    {
+      var pipelineStages = [];
+
+      for (var i = 0; i < cd.pipelineStages.length; i++)
+      {
+        var pipelineStage = cd.pipelineStages[i];
+        pipelineStages.push(pipelineStage.name + ": " + pipelineStage.activeThreads + " of " + pipelineStage.totalThreads + " threads active, " + pipelineStage.queueDepth + " queued");
+      }
+
+      document.getElementById("detailsPipelineStages").textContent = pipelineStages.join("; ");
+    }
+
     // End date
     if (cd.endDate) document.getElementById("detailsEndDate").textContent = cd.endDate;
 
@@ -369,6 +395,38 @@ function refreshTextElements(cd)
     // Completed batches
     document.getElementById("detailsCompletedBatches").textContent = cd.completedBatches;
 
+    // Batch weight (this changes during the import, if adaptive batch weighting is enabled)
+    document.getElementById("detailsBatchWeight").textContent        = cd.batchWeight;
+    document.getElementById("detailsBatchWeightHistory").textContent = cd.batchWeightHistory.join(", ");
+    document.getElementById("detailsTransactionRetries").textContent = cd.transactionRetries;
+
+    // Quarantined items
+    document.getElementById("detailsQuarantinedItems").textContent = cd.quarantinedItems + (cd.quarantineFile ? " (see " + cd.quarantineFile + ")" : "");
+
+    // Progress
+    if (cd.progress)
+    {
+      if (cd.progress.sizingInProgress || cd.progress.sizingComplete)
+      {
+        document.getElementById("detailsSourceSize").textContent = cd.progress.estimatedFiles + " files, " +
+                                                                   cd.progress.estimatedFolders + " folders, " +
+                                                                   formatBytes(cd.progress.estimatedBytes) +
+                                                                   (cd.progress.sizingInProgress ? " (sizing in progress)" : "");
+      }
+
+      if (cd.progress.percentComplete !== undefined)
+      {
+        document.getElementById("detailsPercentComplete").textContent = roundToDigits(cd.progress.percentComplete, 1) + "%";
+      }
+
+      if (cd.progress.entriesPerSecond !== undefined)
+      {
+        document.getElementById("detailsEntriesPerSecond").textContent = roundToDigits(cd.progress.entriesPerSecond, 2) + " entries / sec";
+      }
+
+      document.getElementById("detailsEstimatedCompletionDate").textContent = cd.progress.estimatedCompletionDate ? cd.progress.estimatedCompletionDate : "n/a";
+    }
+
     // Current file or folder
     document.getElementById("detailsCurrentFileOrFolder").textContent = cd.currentFileOrFolder;
 
@@ -376,6 +434,10 @@ function refreshTextElements(cd)
     document.getElementById("detailsFoldersScanned").textContent           = cd.sourceStatistics.foldersScanned;
     document.getElementById("detailsFilesScanned").textContent             = cd.sourceStatistics.filesScanned;
     document.getElementById("detailsUnreadableEntries").textContent        = cd.sourceStatistics.unreadableEntries;
+    document.getElementById("detailsStatCallsSaved").textContent           = cd.sourceStatistics.estimatedStatCallsSaved;
+    document.getElementById("detailsFoldersReadFromManifest").textContent  = cd.sourceStatistics.foldersReadFromManifest;
+    document.getElementById("detailsFoldersReadAhead").textContent         = cd.sourceStatistics.foldersReadAhead;
+    document.getElementById("detailsReadAheadDepth").textContent           = cd.sourceStatistics.readAheadDepth;
     document.getElementById("detailsContentFilesRead").textContent         = cd.sourceStatistics.contentFilesRead;
     document.getElementById("detailsContentBytesRead").textContent         = formatBytes(cd.sourceStatistics.contentBytesRead);
     document.getElementById("detailsMetadataFilesRead").textContent        = cd.sourceStatistics.metadataFilesRead;
@@ -420,6 +482,11 @@ function refreshTextElements(cd)
     document.getElementById("detailsContentVersionsCreated").textContent          = cd.targetStatistics.contentVersionsCreated;
     document.getElementById("detailsContentVersionBytesWritten").textContent      = formatBytes(cd.targetStatistics.contentVersionsBytesWritten);
     document.getElementById("detailsContentVersionPropertiesWritten").textContent = cd.targetStatistics.contentVersionsPropertiesWritten;
+    document.getElementById("detailsUnchangedNodesSkipped").textContent           = cd.targetStatistics.unchangedNodesSkipped;
+    document.getElementById("detailsContentFilesStaged").textContent              = cd.targetStatistics.contentFilesStaged;
+    document.getElementById("detailsContentBytesStaged").textContent              = formatBytes(cd.targetStatistics.contentBytesStaged);
+    document.getElementById("detailsContentVersionFilesStaged").textContent       = cd.targetStatistics.contentVersionFilesStaged;
+    document.getElementById("detailsContentVersionBytesStaged").textContent       = formatBytes(cd.targetStatistics.contentVersionBytesStaged);
 
     // Throughput (write)
     if (cd.durationInNS)
@@ -436,6 +503,11 @@ function refreshTextElements(cd)
                                                                             formatBytes((cd.targetStatistics.contentBytesWritten +
                                                                                          cd.targetStatistics.contentVersionsBytesWritten) / durationInS) +
                                                                             " / sec";
+      document.getElementById("detailsVersionsWrittenPerSecond").textContent = "" +
+                                                                               roundToDigits(cd.targetStatistics.contentVersionsCreated / durationInS, 2) +
+                                                                               " versions / sec, " +
+                                                                               roundToDigits(cd.targetStatistics.contentVersionsPropertiesWritten / durationInS, 2) +
+                                                                               " version properties / sec";
     }
 
     if (cd.errorInformation)
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport;
+
+
+/**
+ * Definition of a batch weigher - a class that decides how importable items are grouped into batches (i.e.
+ * transactions).  Batches are filled one item at a time, in order, until the next item doesn't fit.
+ *
+ * Implementations must be thread safe - the same batch weigher is used by all of the threads of an import (the scales
+ * it returns are only ever used by a single thread though).
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public interface BatchWeigher
+{
+
+    /**
+     * Starts weighing a new, empty batch.
+     *
+     * @param batchWeight The current batch weight (either as configured, or as adjusted by adaptive batch weighting).
+     * @return A scale for the new batch <i>(must not be null)</i>.
+     */
+    Scale newBatch(final int batchWeight);
+
+
+    /**
+     * The running total of a single batch.
+     */
+    public interface Scale
+    {
+        /**
+         * Note: the first item of a batch is always added, regardless of what this method returns (so that items that
+         * exceed the limits on their own are imported in a batch of their own).
+         *
+         * @param importableItem The next importable item <i>(will not be null)</i>.
+         * @return True if the given importable item fits into the batch, false if a new batch should be started for it.
+         */
+        boolean fits(final ImportableItem importableItem);
+
+        /**
+         * Adds the given importable item to the batch.
+         *
+         * @param importableItem The importable item that's been added to the batch <i>(will not be null)</i>.
+         */
+        void add(final ImportableItem importableItem);
+
+        /**
+         * @return The weight of the batch so far, in the same units as the batch weight.
+         */
+        long getWeight();
+    }
+
+}
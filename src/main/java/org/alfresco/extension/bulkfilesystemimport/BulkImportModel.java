@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport;
+
+import org.alfresco.service.namespace.QName;
+
+
+/**
+ * QName constants for the bulk filesystem import tool's content model (<code>model/bulkImportModel.xml</code>).
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public interface BulkImportModel
+{
+    public final static String BULK_IMPORT_MODEL_URI    = "http://www.alfresco.org/model/extension/bulkfilesystemimport/1.0";
+    public final static String BULK_IMPORT_MODEL_PREFIX = "bfsit";
+
+    // Aspect recording the source an imported node came from (used by delta imports)
+    public final static QName ASPECT_IMPORTED        = QName.createQName(BULK_IMPORT_MODEL_URI, "imported");
+    public final static QName PROP_SOURCE_SIGNATURE  = QName.createQName(BULK_IMPORT_MODEL_URI, "sourceSignature");
+}
@@ -20,6 +20,7 @@
 package org.alfresco.extension.bulkfilesystemimport;
 
 import java.util.Date;
+import java.util.List;
 
 
 /**
@@ -41,9 +42,13 @@ public interface BulkImportStatus
     Date getStartDate();
     Date getEndDate();
     
-    long getBatchWeight();
-    int  getNumberOfActiveThreads();
-    int  getTotalNumberOfThreads();
+    long       getBatchWeight();                  // The current batch weight (this may change during an import, if adaptive batch weighting is enabled)
+    List<Long> getBatchWeightHistory();           // The effective batch weights used so far (most recent last, older changes may be dropped)
+    long       getNumberOfTransactionRetries();
+    long       getNumberOfItemsQuarantined();     // Items that failed to import, and were set aside so that the rest of the import could continue
+    String     getQuarantineFile();               // Note: may be null, if nothing has been quarantined
+    int        getNumberOfActiveThreads();
+    int        getTotalNumberOfThreads();
     
     String getCurrentFileBeingProcessed();
     long   getNumberOfBatchesCompleted();
@@ -52,11 +57,26 @@ public interface BulkImportStatus
     Throwable getLastException();
     String    getLastExceptionAsString();
     
+    // Progress information (only available if the sizing scan is enabled)
+    boolean isSizingInProgress();
+    boolean isSizingComplete();
+    long    getEstimatedNumberOfFolders();
+    long    getEstimatedNumberOfFiles();
+    long    getEstimatedNumberOfBytes();
+    long    getNumberOfEntriesProcessed();
+    Float   getPercentComplete();             // Note: may be null, if the size of the source isn't known (yet)
+    Float   getThroughputInEntriesPerSecond(); // Note: smoothed over roughly the last minute - may be null
+    Date    getEstimatedCompletionDate();      // Note: may be null, if the size of the source or the throughput isn't known (yet)
+    
 
     // Read-side information
     long getNumberOfFoldersScanned();
     long getNumberOfFilesScanned();
     long getNumberOfUnreadableEntries();
+    long getEstimatedNumberOfStatCallsSaved();  // An estimate - see FileAttributes.EQUIVALENT_FILE_CALLS
+    long getNumberOfFoldersReadFromManifest();
+    long getNumberOfFoldersReadAhead();  // Folders analysed by the read-ahead crawler that haven't yet been imported
+    long getReadAheadDepth();            // How many levels deeper than the importer the read-ahead crawler currently is
 
     long getNumberOfContentFilesRead();
     long getNumberOfContentBytesRead();
@@ -79,12 +99,55 @@ public interface BulkImportStatus
     long getNumberOfContentNodesCreated();
     long getNumberOfContentNodesReplaced();
     long getNumberOfContentNodesSkipped();
+    long getNumberOfUnchangedNodesSkipped();  // Nodes skipped by a delta import because their source hadn't changed
     long getNumberOfContentBytesWritten();
     long getNumberOfContentPropertiesWritten();
     
     long getNumberOfContentVersionsCreated();
     long getNumberOfContentVersionBytesWritten();
     long getNumberOfContentVersionPropertiesWritten();
+    
+    long getNumberOfContentFilesStaged();          // Content files copied into the content store ahead of their transaction
+    long getNumberOfContentBytesStaged();
+    long getNumberOfContentVersionFilesStaged();
+    long getNumberOfContentVersionBytesStaged();
+    
+    // Pipeline information
+    List<PipelineStageStatus> getPipelineStages();  // The thread pools used by the current import, in pipeline order
+
+    /**
+     * Point-in-time utilisation of one of the thread pools used by an import.
+     */
+    public interface PipelineStageStatus
+    {
+        PipelineStage getStage();
+        int           getActiveThreads();
+        int           getTotalThreads();
+        int           getQueueDepth();  // Tasks waiting for a thread
+    }
+    
+    public enum PipelineStage
+    {
+        SCAN("Scan"),          // The read-ahead crawler, listing and analysing source directories
+        PREPARE("Prepare"),    // Parsing metadata files ahead of each batch's transaction
+        STREAM("Stream"),      // Copying content files into the content store ahead of each batch's transaction
+        COMMIT("Commit");      // The importer's own threads, writing batches to the repository
+        
+        // The following allows us to create human-readable names for this enum.
+        // Note that it breaks round-tripping (enum -> String -> enum).
+        private final String name;
+        
+        private PipelineStage(final String name)
+        {
+            this.name = name;
+        }
+        
+        @Override
+        public String toString()
+        {
+            return(name);
+        }
+    };
 
     public enum ImportType
     {
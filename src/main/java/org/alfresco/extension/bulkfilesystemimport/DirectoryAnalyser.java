@@ -52,4 +52,31 @@ public interface DirectoryAnalyser
      * @throws InterruptedException If the thread executing the method is interrupted.
      */
     public AnalysedDirectory analyseDirectory(final File directory) throws InterruptedException;
+    
+    /**
+     * Analyses the given directory in "streaming" mode.  Rather than building the complete list of
+     * <code>ImportableItem</code>s in memory, each valid <code>ImportableItem</code> is handed to the
+     * given handler as soon as all of the files that make it up (content, metadata and version files)
+     * have been seen.  This allows very large directories to be analysed in bounded memory.
+     * 
+     * @param directory The directory to analyse (note: <u>must</u> be a directory) <i>(must not be null)</i>.
+     * @param handler   The handler that will receive each <code>ImportableItem</code> <i>(must not be null)</i>.
+     * @throws InterruptedException If the thread executing the method is interrupted.
+     */
+    public void analyseDirectory(final File directory, final ImportableItemHandler handler) throws InterruptedException;
+    
+    
+    /**
+     * Callback interface used by streaming directory analysis.
+     */
+    public interface ImportableItemHandler
+    {
+        /**
+         * Called once for each valid <code>ImportableItem</code> found in the directory being analysed.
+         * 
+         * @param importableItem The importable item that was found <i>(will not be null)</i>.
+         * @throws InterruptedException If the thread executing the method is interrupted.
+         */
+        void importableItemFound(final ImportableItem importableItem) throws InterruptedException;
+    }
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+package org.alfresco.extension.bulkfilesystemimport;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+
+/**
+ * Definition of an executor factory - a class that creates the pool of worker threads used by the multi-threaded
+ * importer.  A new pool is created for each import, since a pool can't be restarted once it's been shut down (which is
+ * how an import is stopped).
+ *
+ * Implementations must be thread safe.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public interface ExecutorFactory
+{
+
+    /**
+     * @return A new thread pool, for a single import <i>(must not be null)</i>.
+     */
+    ThreadPoolExecutor newThreadPool();
+
+
+    /**
+     * @return The maximum number of import transactions that may be open at once <i>(&lt;= 0 means no limit other than the number of worker threads)</i>.
+     */
+    int getMaximumConcurrentTransactions();
+
+
+    /**
+     * @return The maximum number of units of work (directories) that may be listed, analysed or imported at once <i>(&lt;= 0 means no limit other than the number of worker threads)</i>.
+     */
+    int getMaximumUnitsOfWorkInFlight();
+
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Date;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+
+
+/**
+ * This class is an immutable snapshot of the attributes of a single file or directory, captured with (typically)
+ * a single filesystem call.  It exists so that the various parts of the import that need to know about a file
+ * (the directory analyser, the import filters, the metadata loaders, etc.) don't each go back to the disk to ask -
+ * something that can be very expensive on network filesystems, where each call is a network round trip.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public final class FileAttributes
+{
+    /**
+     * An <u>estimate</u> of the number of individual java.io.File calls (<code>exists</code>, <code>canRead</code>,
+     * <code>length</code>, <code>lastModified</code>, <code>isFile</code>, <code>isDirectory</code>,
+     * <code>isHidden</code>) that a snapshot stands in for.  The calls that were actually avoided aren't counted (they
+     * depend on which consumers look at each file), so figures derived from this are estimates only.
+     */
+    public final static int EQUIVALENT_FILE_CALLS = 7;
+
+    // The account the JVM runs as - the owner permission bits only apply to files owned by this account
+    private final static String PROCESS_OWNER = System.getProperty("user.name");
+
+    private final static FileAttributes DOES_NOT_EXIST = new FileAttributes();
+
+    private final boolean                 exists;
+    private final boolean                 readable;
+    private final boolean                 hidden;
+    private final ImportableItem.FileType fileType;
+    private final long                    size;
+    private final Date                    created;
+    private final Date                    modified;
+    private final int                     filesystemCalls;
+
+
+    private FileAttributes()
+    {
+        this.exists          = false;
+        this.readable        = false;
+        this.hidden          = false;
+        this.fileType        = ImportableItem.FileType.UNKNOWN;
+        this.size            = -1;
+        this.created         = null;
+        this.modified        = null;
+        this.filesystemCalls = 1;
+    }
+
+
+    private FileAttributes(final Path path, final BasicFileAttributes attributes)
+    {
+        int calls = 1;
+
+        this.exists   = true;
+        this.size     = attributes.size();
+        this.created  = new Date(attributes.creationTime().toMillis());
+        this.modified = new Date(attributes.lastModifiedTime().toMillis());
+
+        if (attributes.isRegularFile())
+        {
+            this.fileType = ImportableItem.FileType.FILE;
+        }
+        else if (attributes.isDirectory())
+        {
+            this.fileType = ImportableItem.FileType.DIRECTORY;
+        }
+        else
+        {
+            this.fileType = ImportableItem.FileType.OTHER;
+        }
+
+        if (attributes instanceof DosFileAttributes)
+        {
+            this.hidden = ((DosFileAttributes)attributes).isHidden();
+        }
+        else
+        {
+            // This is the same definition java.io.File.isHidden() uses on Unix
+            final Path filename = path.getFileName();
+            this.hidden = filename != null && filename.toString().startsWith(".");
+        }
+
+        // The only permission bits we can rely on without asking the OS are the owner bits, and only when the JVM owns
+        // the file (the owner class takes precedence over everything else, and a successful stat proves the parent is
+        // traversable).  Otherwise group membership, named user / group ACL entries, privileges etc. all come into play,
+        // so we have to ask.
+        if (ownerCanRead(attributes))
+        {
+            this.readable = true;
+        }
+        else
+        {
+            this.readable = Files.isReadable(path);
+            calls++;
+        }
+
+        this.filesystemCalls = calls;
+    }
+
+
+    /**
+     * Constructs a snapshot from previously captured attributes (e.g. from a scan manifest).  Such snapshots cost
+     * no filesystem calls at all.
+     */
+    public FileAttributes(final boolean                 exists,
+                          final boolean                 readable,
+                          final boolean                 hidden,
+                          final ImportableItem.FileType fileType,
+                          final long                    size,
+                          final Date                    created,
+                          final Date                    modified)
+    {
+        this.exists          = exists;
+        this.readable        = readable;
+        this.hidden          = hidden;
+        this.fileType        = fileType;
+        this.size            = size;
+        this.created         = created;
+        this.modified        = modified;
+        this.filesystemCalls = 0;
+    }
+
+
+    /**
+     * Reads the attributes of the given file, preferring the richest attribute view the underlying filesystem supports.
+     *
+     * @param file The file to read the attributes of <i>(must not be null)</i>.
+     * @return The attributes of that file <i>(will not be null)</i>.
+     */
+    public static FileAttributes read(final File file)
+    {
+        // PRECONDITIONS
+        assert file != null : "file must not be null.";
+
+        // Body
+        return(read(file.toPath()));
+    }
+
+
+    /**
+     * Reads the attributes of the given path, preferring the richest attribute view the underlying filesystem supports.
+     *
+     * @param path The path to read the attributes of <i>(must not be null)</i>.
+     * @return The attributes of that path <i>(will not be null)</i>.
+     */
+    public static FileAttributes read(final Path path)
+    {
+        // PRECONDITIONS
+        assert path != null : "path must not be null.";
+
+        // Body
+        FileAttributes result = null;
+
+        try
+        {
+            result = new FileAttributes(path, readAttributes(path));
+        }
+        catch (final NoSuchFileException nsfe)
+        {
+            result = DOES_NOT_EXIST;
+        }
+        catch (final IOException ioe)
+        {
+            // We can't stat the file, so treat it as non-existent - this is what java.io.File.exists() does too
+            result = DOES_NOT_EXIST;
+        }
+
+        return(result);
+    }
+
+
+    private static boolean ownerCanRead(final BasicFileAttributes attributes)
+    {
+        boolean result = false;
+
+        if (attributes instanceof PosixFileAttributes && PROCESS_OWNER != null)
+        {
+            final PosixFileAttributes posixAttributes = (PosixFileAttributes)attributes;
+
+            result = posixAttributes.owner() != null &&
+                     PROCESS_OWNER.equals(posixAttributes.owner().getName()) &&
+                     posixAttributes.permissions().contains(PosixFilePermission.OWNER_READ);
+        }
+
+        return(result);
+    }
+
+
+    private static BasicFileAttributes readAttributes(final Path path)
+        throws IOException
+    {
+        BasicFileAttributes result = null;
+
+        try
+        {
+            result = Files.readAttributes(path, PosixFileAttributes.class);
+        }
+        catch (final UnsupportedOperationException uoe)
+        {
+            try
+            {
+                result = Files.readAttributes(path, DosFileAttributes.class);
+            }
+            catch (final UnsupportedOperationException uoe2)
+            {
+                result = Files.readAttributes(path, BasicFileAttributes.class);
+            }
+        }
+
+        return(result);
+    }
+
+
+    public boolean exists()
+    {
+        return(exists);
+    }
+
+    public boolean isReadable()
+    {
+        return(readable);
+    }
+
+    public boolean isHidden()
+    {
+        return(hidden);
+    }
+
+    public ImportableItem.FileType getFileType()
+    {
+        return(fileType);
+    }
+
+    public long getSize()
+    {
+        return(size);
+    }
+
+    public Date getCreated()
+    {
+        return(created);
+    }
+
+    public Date getModified()
+    {
+        return(modified);
+    }
+
+    /**
+     * @return The number of filesystem calls it took to capture this snapshot (typically 1).
+     */
+    public int getFilesystemCalls()
+    {
+        return(filesystemCalls);
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return(new ToStringBuilder(this)
+               .append("exists",   exists)
+               .append("readable", readable)
+               .append("hidden",   hidden)
+               .append("fileType", fileType)
+               .append("size",     size)
+               .append("modified", modified)
+               .toString());
+    }
+}
@@ -22,6 +22,8 @@ package org.alfresco.extension.bulkfilesystemimport;
 import java.io.File;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -39,21 +41,58 @@ import org.apache.commons.lang.builder.ToStringBuilder;
  */
 public final class ImportableItem
 {
+    private final static Pattern VERSION_NUMBER_PATTERN = Pattern.compile(DirectoryAnalyser.VERSION_LABEL_REGEX);
+    
     private final String parentFilename;
     
+    private SourcePath                             directory      = null;
     private ContentAndMetadata                     headRevision   = new ContentAndMetadata();
     private SortedSet<VersionedContentAndMetadata> versionEntries = null;
+    private Map<Long, VersionedContentAndMetadata> versionIndex   = null;  // Constant time lookup of version entries by version number
     
     
     public ImportableItem(final String parentFilename)
+    {
+        this(null, parentFilename);
+    }
+    
+    
+    /**
+     * @param directory      The directory containing this importable item <i>(may be null, in which case it is determined from the first file added)</i>.
+     * @param parentFilename The name of the content file of this importable item <i>(must not be null, empty or blank)</i>.
+     */
+    public ImportableItem(final SourcePath directory, final String parentFilename)
     {
         // PRECONDITIONS
         assert parentFilename != null             : "parentFilename must not be null.";
         assert parentFilename.trim().length() > 0 : "parentFilename must not be blank or empty.";
         
         // Body
+        this.directory      = directory;
         this.parentFilename = parentFilename;
     }
+    
+    
+    /**
+     * @return The directory containing this importable item <i>(may be null if no files have been added yet)</i>.
+     */
+    public SourcePath getDirectory()
+    {
+        return(directory);
+    }
+    
+    
+    private SourcePath directoryOf(final File file)
+    {
+        if (directory == null)
+        {
+            final File parentDirectory = file.getParentFile();
+            
+            directory = SourcePath.forDirectory(parentDirectory == null ? file.getAbsoluteFile().getParentFile() : parentDirectory);
+        }
+        
+        return(directory);
+    }
 
     
     public String getParentFilename()
@@ -132,19 +171,40 @@ public final class ImportableItem
     
         if (hasVersionEntries())
         {
-            for (final ImportableItem.VersionedContentAndMetadata versionEntry : versionEntries)
+            Matcher m = VERSION_NUMBER_PATTERN.matcher(versionLabel);
+            
+            if (m.matches())
             {
-                if (versionEntry.getVersionLabel().equals(versionLabel))
-                {
-                    result = versionEntry;
-                    break;
-                }
+                result = getVersionEntry(Integer.parseInt(m.group(1)), m.group(3) == null ? 0 : Integer.parseInt(m.group(3)));
             }
         }
     
         return(result);
     }
     
+    /**
+     * @param majorVersion The major version number to search for.
+     * @param minorVersion The minor version number to search for.
+     * @return The version entry corresponding to that version number <i>(may be null)</i>.
+     */
+    public VersionedContentAndMetadata getVersionEntry(final int majorVersion, final int minorVersion)
+    {
+        VersionedContentAndMetadata result = null;
+        
+        if (versionIndex != null)
+        {
+            result = versionIndex.get(versionKey(majorVersion, minorVersion));
+        }
+        
+        return(result);
+    }
+    
+    
+    private static Long versionKey(final int majorVersion, final int minorVersion)
+    {
+        return(((long)majorVersion << 32) | (minorVersion & 0xFFFFFFFFL));
+    }
+    
     
     /**
      * @return A read-only copy of all version entries in this importable item, in increasing version label order.
@@ -165,9 +225,11 @@ public final class ImportableItem
             if (versionEntries == null)
             {
                 versionEntries = new TreeSet<VersionedContentAndMetadata>();
+                versionIndex   = new HashMap<Long, VersionedContentAndMetadata>();
             }
                 
             versionEntries.add(versionEntry);
+            versionIndex.put(versionKey(versionEntry.getMajorVersion(), versionEntry.getMinorVersion()), versionEntry);
         }
     }
     
@@ -182,15 +244,11 @@ public final class ImportableItem
     
     public class ContentAndMetadata
     {
-        private File     contentFile           = null;
-        private boolean  contentFileExists     = false;
-        private boolean  contentFileIsReadable = false;
-        private FileType contentFileType       = FileType.UNKNOWN;
-        private long     contentFileSize       = -1;
-        private Date     contentFileCreated    = null;
-        private Date     contentFileModified   = null;
-        private File     metadataFile          = null;
-        private long     metadataFileSize      = -1;
+        // Note: we only store leaf names - the directory is held (once) by the ImportableItem
+        private String         contentFileName        = null;
+        private FileAttributes contentFileAttributes  = null;
+        private String         metadataFileName       = null;
+        private FileAttributes metadataFileAttributes = null;
 
         
         
@@ -201,54 +259,67 @@ public final class ImportableItem
         
         public final File getContentFile()
         {
-            return(contentFile);
+            return(contentFileName == null ? null : directory.childFile(contentFileName));
+        }
+        
+        /**
+         * @return The leaf name of the content file <i>(will be null if there is no content file)</i>.
+         */
+        public final String getContentFileName()
+        {
+            return(contentFileName);
+        }
+        
+        /**
+         * @return The canonical path of the content file, for display purposes.  Unlike <code>File.getCanonicalPath()</code>
+         *         this doesn't require I/O (beyond once per directory) <i>(will be null if there is no content file)</i>.
+         */
+        public final String getContentFilePath()
+        {
+            return(contentFileName == null ? null : directory.getCanonicalPath(contentFileName));
         }
         
         public final void setContentFile(final File contentFile)
         {
-            this.contentFile = contentFile;
-            
+            setContentFile(contentFile, contentFile == null ? null : FileAttributes.read(contentFile));
+        }
+        
+        /**
+         * @param contentFile           The content file <i>(may be null)</i>.
+         * @param contentFileAttributes A snapshot of the content file's attributes <i>(must not be null if contentFile is not null)</i>.
+         */
+        public final void setContentFile(final File contentFile, final FileAttributes contentFileAttributes)
+        {
             if (contentFile != null)
             {
-                // stat the file, to find out a few key details
-                contentFileExists = contentFile.exists();
-                
-                if (contentFileExists)
-                {
-                    contentFileIsReadable = contentFile.canRead();
-                    contentFileSize       = contentFile.length();
-                    contentFileModified   = new Date(contentFile.lastModified());
-                    contentFileCreated    = contentFileModified;    // TODO: determine proper file creation time (awaiting JDK 1.7 NIO2 library)
-                    
-                    if (contentFile.isFile())
-                    {
-                        contentFileType = FileType.FILE;
-                    }
-                    else if (contentFile.isDirectory())
-                    {
-                        contentFileType = FileType.DIRECTORY;
-                    }
-                    else
-                    {
-                        contentFileType = FileType.OTHER;
-                    }
-                }
+                directoryOf(contentFile);
             }
+            
+            this.contentFileName       = contentFile == null ? null : contentFile.getName();
+            this.contentFileAttributes = contentFile == null ? null : contentFileAttributes;
+        }
+        
+        /**
+         * @return A snapshot of the content file's attributes <i>(will be null if there is no content file)</i>.
+         */
+        public final FileAttributes getContentFileAttributes()
+        {
+            return(contentFileAttributes);
         }
         
         public final boolean contentFileExists()
         {
-            return(contentFileExists);
+            return(contentFileAttributes != null && contentFileAttributes.exists());
         }
         
         public final boolean isContentFileReadable()
         {
-            return(contentFileIsReadable);
+            return(contentFileExists() && contentFileAttributes.isReadable());
         }
         
         public final FileType getContentFileType()
         {
-            return(contentFileType);
+            return(contentFileExists() ? contentFileAttributes.getFileType() : FileType.UNKNOWN);
         }
         
         public final long getContentFileSize()
@@ -258,7 +329,7 @@ public final class ImportableItem
                 throw new IllegalStateException("Cannot determine content file size if content file doesn't exist.");
             }
             
-            return(contentFileSize);
+            return(contentFileAttributes.getSize());
         }
         
         public final Date getContentFileCreatedDate()
@@ -268,7 +339,7 @@ public final class ImportableItem
                 throw new IllegalStateException("Cannot determine content file creation date if content file doesn't exist.");
             }
             
-            return(contentFileCreated);
+            return(contentFileAttributes.getCreated());
         }
         
         public final Date getContentFileModifiedDate()
@@ -278,28 +349,56 @@ public final class ImportableItem
                 throw new IllegalStateException("Cannot determine content file modification date if content file doesn't exist.");
             }
             
-            return(contentFileModified);
+            return(contentFileAttributes.getModified());
         }
         
         public final boolean metadataFileExists()
         {
-            return(metadataFile != null);
+            return(metadataFileName != null);
         }
         
         public final File getMetadataFile()
         {
-            return(metadataFile);
+            return(metadataFileName == null ? null : directory.childFile(metadataFileName));
+        }
+        
+        /**
+         * @return The canonical path of the metadata file, for display purposes.  Unlike <code>File.getCanonicalPath()</code>
+         *         this doesn't require I/O (beyond once per directory) <i>(will be null if there is no metadata file)</i>.
+         */
+        public final String getMetadataFilePath()
+        {
+            return(metadataFileName == null ? null : directory.getCanonicalPath(metadataFileName));
         }
         
         public final void setMetadataFile(final File metadataFile)
         {
-            if (metadataFile != null && metadataFile.exists())
+            setMetadataFile(metadataFile, metadataFile == null ? null : FileAttributes.read(metadataFile));
+        }
+        
+        /**
+         * @param metadataFile           The metadata file <i>(may be null)</i>.
+         * @param metadataFileAttributes A snapshot of the metadata file's attributes <i>(must not be null if metadataFile is not null)</i>.
+         */
+        public final void setMetadataFile(final File metadataFile, final FileAttributes metadataFileAttributes)
+        {
+            if (metadataFile != null && metadataFileAttributes.exists())
             {
-                this.metadataFile     = metadataFile;
-                this.metadataFileSize = metadataFile.length();
+                directoryOf(metadataFile);
+                
+                this.metadataFileName       = metadataFile.getName();
+                this.metadataFileAttributes = metadataFileAttributes;
             }
         }
         
+        /**
+         * @return A snapshot of the metadata file's attributes <i>(will be null if there is no metadata file)</i>.
+         */
+        public final FileAttributes getMetadataFileAttributes()
+        {
+            return(metadataFileAttributes);
+        }
+        
         public final long getMetadataFileSize()
         {
             if (!metadataFileExists())
@@ -307,21 +406,21 @@ public final class ImportableItem
                 throw new IllegalStateException("Cannot determine metadata file size if metadata file doesn't exist.");
             }
             
-            return(metadataFileSize);
+            return(metadataFileAttributes.getSize());
         }
         
         public final int weight()
         {
-            return((contentFile  == null || !contentFileExists ? 0 : 1) +
-                   (metadataFile == null ? 0 : 1));
+            return((contentFileName  == null || !contentFileExists() ? 0 : 1) +
+                   (metadataFileName == null ? 0 : 1));
         }
 
         @Override
         public String toString()
         {
             return(new ToStringBuilder(this)
-                   .append("contentFile",  (contentFileExists    ? contentFile.getAbsolutePath()  : null))
-                   .append("metadatafile", (metadataFile != null ? metadataFile.getAbsolutePath() : null))
+                   .append("contentFile",  (contentFileExists()      ? directory.childPath(contentFileName)  : null))
+                   .append("metadatafile", (metadataFileName != null ? directory.childPath(metadataFileName) : null))
                    .toString());
         }
     }
@@ -331,8 +430,6 @@ public final class ImportableItem
         extends ContentAndMetadata
         implements Comparable<VersionedContentAndMetadata>
     {
-        private final Pattern VERSION_NUMBER_PATTERN = Pattern.compile(DirectoryAnalyser.VERSION_LABEL_REGEX);
-        
         private final int majorVersion;
         private final int minorVersion;
 
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport;
+
+import java.io.File;
+import java.io.IOException;
+
+
+/**
+ * This class represents a single directory in the source tree, as a node in a parent-pointer tree.  The files within
+ * a directory are represented by their leaf names alone - this saves holding a full absolute path <code>String</code>
+ * for every file in the import.
+ *
+ * Canonical paths are derived from the parent's canonical path wherever possible, so only the root of a tree requires
+ * I/O to canonicalise (and then only once).  The link to the parent travels with the <code>File</code>s returned by
+ * {@link #childFile(String)}, so there's no shared registry of directories - each tree is only reachable from the
+ * import that's using it, and is garbage collected along with it.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public final class SourcePath
+{
+    private final SourcePath parent;
+    private final String     name;
+    private final String     path;
+
+    private volatile String canonicalPath = null;
+
+
+    private SourcePath(final SourcePath parent, final String name, final String path)
+    {
+        this.parent = parent;
+        this.name   = name;
+        this.path   = path;
+    }
+
+
+    /**
+     * Returns the <code>SourcePath</code> for the given directory.  If the directory was obtained from
+     * {@link #childFile(String)} the result is linked to its parent, otherwise a new root is created.
+     *
+     * @param directory The directory <i>(must not be null)</i>.
+     * @return The <code>SourcePath</code> for that directory <i>(will not be null)</i>.
+     */
+    public static SourcePath forDirectory(final File directory)
+    {
+        // PRECONDITIONS
+        assert directory != null : "directory must not be null.";
+
+        // Body
+        SourcePath result = null;
+
+        if (directory instanceof ChildFile)
+        {
+            result = ((ChildFile)directory).directory.subDirectory(directory.getName());
+        }
+        else
+        {
+            result = new SourcePath(null, directory.getName(), directory.getPath());
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Returns the <code>SourcePath</code> for the given sub-directory of this directory.
+     *
+     * @param subDirectoryName The leaf name of the sub-directory <i>(must not be null, empty or blank)</i>.
+     * @return The <code>SourcePath</code> for that sub-directory <i>(will not be null)</i>.
+     */
+    public SourcePath subDirectory(final String subDirectoryName)
+    {
+        return(new SourcePath(this, subDirectoryName, childPath(subDirectoryName)));
+    }
+
+
+    /**
+     * @return The parent of this directory <i>(will be null if this directory was not discovered via its parent)</i>.
+     */
+    public SourcePath getParent()
+    {
+        return(parent);
+    }
+
+    /**
+     * @return The leaf name of this directory.
+     */
+    public String getName()
+    {
+        return(name);
+    }
+
+    /**
+     * @return The (uncanonicalised) path of this directory.  Does not require I/O.
+     */
+    public String getPath()
+    {
+        return(path);
+    }
+
+    /**
+     * @return This directory as a <code>java.io.File</code>.
+     */
+    public File toFile()
+    {
+        return(new File(path));
+    }
+
+    /**
+     * @param leafName The leaf name of a file in this directory <i>(must not be null)</i>.
+     * @return The (uncanonicalised) path of that file.  Does not require I/O.
+     */
+    public String childPath(final String leafName)
+    {
+        return(new File(path, leafName).getPath());
+    }
+
+    /**
+     * @param leafName The leaf name of a file in this directory <i>(must not be null)</i>.
+     * @return That file as a <code>java.io.File</code>, that remembers this directory (see {@link #forDirectory(File)}).
+     */
+    public File childFile(final String leafName)
+    {
+        return(new ChildFile(this, leafName));
+    }
+
+
+    /**
+     * @return The canonical path of this directory (assuming the directory itself isn't a symlink).  For root directories
+     *         this requires I/O the first time it's called, but is cached thereafter.
+     */
+    public String getCanonicalPath()
+    {
+        String result = canonicalPath;
+
+        if (result == null)
+        {
+            if (parent != null)
+            {
+                result = parent.getCanonicalPath(name);
+            }
+            else
+            {
+                try
+                {
+                    result = new File(path).getCanonicalPath();
+                }
+                catch (final IOException ioe)
+                {
+                    result = path;
+                }
+            }
+
+            canonicalPath = result;
+        }
+
+        return(result);
+    }
+
+    /**
+     * @param leafName The leaf name of a file in this directory <i>(must not be null)</i>.
+     * @return The canonical path of that file (assuming the file itself isn't a symlink).
+     */
+    public String getCanonicalPath(final String leafName)
+    {
+        return(getCanonicalPath() + File.separator + leafName);
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return(path);
+    }
+
+
+    /**
+     * A file within a known directory.  Behaves exactly like a regular <code>java.io.File</code> (including equality).
+     */
+    private final static class ChildFile
+        extends File
+    {
+        private static final long serialVersionUID = 3497621604187528113L;
+
+        private final transient SourcePath directory;
+
+        private ChildFile(final SourcePath directory, final String leafName)
+        {
+            super(directory.path, leafName);
+            this.directory = directory;
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ * 
+ */
+
+
+package org.alfresco.extension.bulkfilesystemimport;
+
+
+/**
+ * Interface defining a bulk filesystem importer whose import in progress can be tuned without being stopped and
+ * restarted.
+ *
+ * @author Peter Monks (peter.monks@alfresco.com)
+ */
+public interface TunableBulkFilesystemImporter
+    extends BulkFilesystemImporter
+{
+    /**
+     * Changes the number of worker threads used by the import in progress, if the implementation supports that.  The
+     * change only applies to the remainder of that import - subsequent imports use the configured number of threads.
+     * 
+     * @param numberOfThreads The new number of worker threads <i>(must be &gt; 0)</i>.
+     * @return True if the number of threads was changed, false if no import is in progress, the implementation doesn't support it, or the import starts a thread per unit of work.
+     */
+    boolean resizeThreadPool(int numberOfThreads);
+    
+    /**
+     * Changes the batch weight used by the import in progress.  The change only applies to the remainder of that import
+     * (if adaptive batch weighting is enabled, it continues to adapt from the new weight).
+     * 
+     * @param batchWeight The new batch weight <i>(must be &gt; 0)</i>.
+     * @return True if the batch weight was changed, false if no import is in progress.
+     */
+    boolean changeBatchWeight(int batchWeight);
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.batchweighers;
+
+
+import org.alfresco.extension.bulkfilesystemimport.ImportableItem;
+
+
+/**
+ * This class is a <code>SizeAwareBatchWeigher</code> that also accounts for the cost of creating versions, and of
+ * writing metadata properties, when weighing each item.  On top of the file count, each version costs
+ * <code>versionWeight</code>, and every <code>propertiesPerWeight</code> metadata properties cost 1.
+ *
+ * Metadata files aren't parsed until the item is imported, so the number of properties is estimated from the size of
+ * the item's metadata file(s).
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public class CostModelBatchWeigher
+    extends SizeAwareBatchWeigher
+{
+    private final static int DEFAULT_VERSION_WEIGHT        = 2;
+    private final static int DEFAULT_PROPERTIES_PER_WEIGHT = 20;
+    private final static int ESTIMATED_BYTES_PER_PROPERTY  = 64;
+
+    private int versionWeight       = DEFAULT_VERSION_WEIGHT;
+    private int propertiesPerWeight = DEFAULT_PROPERTIES_PER_WEIGHT;
+
+
+    public final void setVersionWeight(final int versionWeight)
+    {
+        if (versionWeight >= 0)
+        {
+            this.versionWeight = versionWeight;
+        }
+    }
+
+    public final void setPropertiesPerWeight(final int propertiesPerWeight)
+    {
+        if (propertiesPerWeight > 0)
+        {
+            this.propertiesPerWeight = propertiesPerWeight;
+        }
+    }
+
+
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.batchweighers.SizeAwareBatchWeigher#weigh(org.alfresco.extension.bulkfilesystemimport.ImportableItem)
+     */
+    @Override
+    protected long weigh(final ImportableItem importableItem)
+    {
+        long numberOfVersions    = 0;
+        long metadataBytes       = metadataBytesOf(importableItem.getHeadRevision());
+        long estimatedProperties = 0;
+
+        if (importableItem.hasVersionEntries())
+        {
+            numberOfVersions = importableItem.getVersionEntries().size();
+
+            for (final ImportableItem.VersionedContentAndMetadata versionEntry : importableItem.getVersionEntries())
+            {
+                metadataBytes += metadataBytesOf(versionEntry);
+            }
+        }
+
+        estimatedProperties = metadataBytes / ESTIMATED_BYTES_PER_PROPERTY;
+
+        return(importableItem.weight() + (numberOfVersions * versionWeight) + (estimatedProperties / propertiesPerWeight));
+    }
+
+}
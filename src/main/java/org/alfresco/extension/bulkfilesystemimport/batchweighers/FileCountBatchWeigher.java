@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.batchweighers;
+
+
+import org.alfresco.extension.bulkfilesystemimport.BatchWeigher;
+import org.alfresco.extension.bulkfilesystemimport.ImportableItem;
+
+
+/**
+ * This class is a <code>BatchWeigher</code> that weighs each importable item by the number of files (content, metadata
+ * and versions) it consists of - see <code>ImportableItem.weight()</code>.  Batches are closed once they reach the batch
+ * weight.  This is the default batch weigher.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public class FileCountBatchWeigher
+    implements BatchWeigher
+{
+
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.BatchWeigher#newBatch(int)
+     */
+    @Override
+    public Scale newBatch(final int batchWeight)
+    {
+        return(new FileCountScale(batchWeight));
+    }
+
+
+    private final static class FileCountScale
+        implements Scale
+    {
+        private final int batchWeight;
+        private long      weight = 0;
+
+        private FileCountScale(final int batchWeight)
+        {
+            this.batchWeight = batchWeight;
+        }
+
+        @Override
+        public boolean fits(final ImportableItem importableItem)
+        {
+            return(weight < batchWeight);
+        }
+
+        @Override
+        public void add(final ImportableItem importableItem)
+        {
+            weight += importableItem.weight();
+        }
+
+        @Override
+        public long getWeight()
+        {
+            return(weight);
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.batchweighers;
+
+
+import org.alfresco.extension.bulkfilesystemimport.BatchWeigher;
+import org.alfresco.extension.bulkfilesystemimport.ImportableItem;
+
+
+/**
+ * This class is a <code>BatchWeigher</code> that caps both the weight (by default, the number of files) and the total
+ * number of bytes in each batch.  Large files therefore end up in small batches (or batches of their own), so that
+ * transactions aren't held open for the duration of several large uploads, while small files are still grouped densely.
+ *
+ * Subclasses can change how each item is weighed by overriding {@link #weigh(ImportableItem)}.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public class SizeAwareBatchWeigher
+    implements BatchWeigher
+{
+    private final static long DEFAULT_MAXIMUM_BYTES_PER_BATCH = 100L * 1024 * 1024;  // 100MB
+
+    private long maximumBytesPerBatch = DEFAULT_MAXIMUM_BYTES_PER_BATCH;
+
+
+    public final void setMaximumBytesPerBatch(final long maximumBytesPerBatch)
+    {
+        if (maximumBytesPerBatch > 0)
+        {
+            this.maximumBytesPerBatch = maximumBytesPerBatch;
+        }
+    }
+
+
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.BatchWeigher#newBatch(int)
+     */
+    @Override
+    public Scale newBatch(final int batchWeight)
+    {
+        return(new SizeAwareScale(batchWeight));
+    }
+
+
+    /**
+     * @param importableItem The importable item to weigh <i>(will not be null)</i>.
+     * @return The weight of the given item, in the same units as the batch weight.
+     */
+    protected long weigh(final ImportableItem importableItem)
+    {
+        return(importableItem.weight());
+    }
+
+
+    /**
+     * @param importableItem The importable item to measure <i>(must not be null)</i>.
+     * @return The total number of bytes that will be read to import the given item (i.e. the sizes of all of its content and metadata files, including versions).
+     */
+    protected final static long bytesOf(final ImportableItem importableItem)
+    {
+        long result = 0;
+
+        // Directories have no content, only metadata
+        if (!ImportableItem.FileType.DIRECTORY.equals(importableItem.getFileType()))
+        {
+            result += contentBytesOf(importableItem.getHeadRevision());
+
+            if (importableItem.hasVersionEntries())
+            {
+                for (final ImportableItem.VersionedContentAndMetadata versionEntry : importableItem.getVersionEntries())
+                {
+                    result += contentBytesOf(versionEntry);
+                }
+            }
+        }
+
+        result += metadataBytesOf(importableItem.getHeadRevision());
+
+        if (importableItem.hasVersionEntries())
+        {
+            for (final ImportableItem.VersionedContentAndMetadata versionEntry : importableItem.getVersionEntries())
+            {
+                result += metadataBytesOf(versionEntry);
+            }
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * @param contentAndMetadata The revision to measure <i>(must not be null)</i>.
+     * @return The size of the revision's metadata file, or 0 if it doesn't have one.
+     */
+    protected final static long metadataBytesOf(final ImportableItem.ContentAndMetadata contentAndMetadata)
+    {
+        return(contentAndMetadata.metadataFileExists() ? contentAndMetadata.getMetadataFileSize() : 0);
+    }
+
+
+    private final static long contentBytesOf(final ImportableItem.ContentAndMetadata contentAndMetadata)
+    {
+        return(contentAndMetadata.contentFileExists() ? contentAndMetadata.getContentFileSize() : 0);
+    }
+
+
+    private final class SizeAwareScale
+        implements Scale
+    {
+        private final int batchWeight;
+        private long      weight = 0;
+        private long      bytes  = 0;
+
+        private SizeAwareScale(final int batchWeight)
+        {
+            this.batchWeight = batchWeight;
+        }
+
+        @Override
+        public boolean fits(final ImportableItem importableItem)
+        {
+            return(weight + weigh(importableItem) <= batchWeight &&
+                   bytes  + bytesOf(importableItem) <= maximumBytesPerBatch);
+        }
+
+        @Override
+        public void add(final ImportableItem importableItem)
+        {
+            weight += weigh(importableItem);
+            bytes  += bytesOf(importableItem);
+        }
+
+        @Override
+        public long getWeight()
+        {
+            return(weight);
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+package org.alfresco.extension.bulkfilesystemimport.executorfactories;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.extension.bulkfilesystemimport.ExecutorFactory;
+import org.alfresco.extension.bulkfilesystemimport.impl.BulkFilesystemImporterThreadPoolExecutor;
+
+
+/**
+ * This class is an <code>ExecutorFactory</code> that creates pools of regular (platform) threads.  Each worker thread
+ * holds at most one transaction at a time, so the size of the pool also limits the number of concurrent transactions.
+ * This is the default executor factory.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public class PlatformThreadExecutorFactory
+    implements ExecutorFactory
+{
+    private final int      corePoolSize;
+    private final int      maximumPoolSize;
+    private final long     keepAliveTime;
+    private final TimeUnit keepAliveTimeUnit;
+    private final int      blockingQueueSize;
+
+
+    /**
+     * Creates auto-sized thread pools - see <code>BulkFilesystemImporterThreadPoolExecutor</code> for details.
+     */
+    public PlatformThreadExecutorFactory()
+    {
+        this(-1, -1, -1, null, -1);
+    }
+
+    /**
+     * Creates manually-sized thread pools.  Values &lt;= 0 (or null) mean the default - see
+     * <code>BulkFilesystemImporterThreadPoolExecutor</code> for details.
+     */
+    public PlatformThreadExecutorFactory(final int      corePoolSize,
+                                         final int      maximumPoolSize,
+                                         final long     keepAliveTime,
+                                         final TimeUnit keepAliveTimeUnit,
+                                         final int      blockingQueueSize)
+    {
+        this.corePoolSize      = corePoolSize;
+        this.maximumPoolSize   = maximumPoolSize;
+        this.keepAliveTime     = keepAliveTime;
+        this.keepAliveTimeUnit = keepAliveTimeUnit;
+        this.blockingQueueSize = blockingQueueSize;
+    }
+
+
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.ExecutorFactory#newThreadPool()
+     */
+    @Override
+    public ThreadPoolExecutor newThreadPool()
+    {
+        return(new BulkFilesystemImporterThreadPoolExecutor(corePoolSize, maximumPoolSize, keepAliveTime, keepAliveTimeUnit, blockingQueueSize));
+    }
+
+
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.ExecutorFactory#getMaximumConcurrentTransactions()
+     */
+    @Override
+    public int getMaximumConcurrentTransactions()
+    {
+        return(-1);
+    }
+
+
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.ExecutorFactory#getMaximumUnitsOfWorkInFlight()
+     */
+    @Override
+    public int getMaximumUnitsOfWorkInFlight()
+    {
+        return(-1);
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+package org.alfresco.extension.bulkfilesystemimport.executorfactories;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.alfresco.extension.bulkfilesystemimport.ExecutorFactory;
+
+
+/**
+ * This class is an <code>ExecutorFactory</code> that runs each unit of work on a virtual thread of its own (JDK 21 and
+ * up).  Virtual threads are cheap to create and to block, so they aren't pooled - units of work are never queued, and
+ * those blocked on (e.g. NFS) reads don't tie up an OS thread each.  Since each unit of work may hold a transaction
+ * (and therefore a database connection), the number of concurrent import transactions is limited separately.  So is
+ * the number of units of work in flight - each unit of work lists and analyses its directory before it waits for a
+ * transaction, so without that limit the number of directory listings (and analyses held in memory) would be unbounded.
+ * There's no pool size to tune, so these pools can't be resized during an import.
+ *
+ * Virtual threads are created via reflection, so this class can be deployed on older JVMs - on those it logs a
+ * warning and falls back to a pool of as many platform threads as there are transaction permits (so the configured
+ * concurrency still applies, but workers blocked on reads do hold up repository work).
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public class VirtualThreadExecutorFactory
+    implements ExecutorFactory
+{
+    private final static Log log = LogFactory.getLog(VirtualThreadExecutorFactory.class);
+
+    private final static String THREAD_NAME_PREFIX              = "BulkFilesystemImportVirtualWorkerThread";
+    private final static int    DEFAULT_CONCURRENT_TRANSACTIONS = Runtime.getRuntime().availableProcessors() * 2;
+    private final static int    DEFAULT_UNITS_OF_WORK_PER_TXN   = 4;  // Enough to keep each transaction busy while other units of work list their directories
+
+    private final int                           maximumConcurrentTransactions;
+    private final int                           maximumUnitsOfWorkInFlight;
+    private final ThreadFactory                 virtualThreadFactory;  // Null if virtual threads aren't supported by this JVM
+    private final PlatformThreadExecutorFactory fallback;
+
+
+    /**
+     * @param maximumConcurrentTransactions The maximum number of import transactions that may be open at once <i>(&lt;= 0 means twice the number of processors)</i>.
+     * @param maximumUnitsOfWorkInFlight    The maximum number of units of work (directories) being listed, analysed or imported at once <i>(&lt;= 0 means four per transaction)</i>.
+     */
+    public VirtualThreadExecutorFactory(final int maximumConcurrentTransactions, final int maximumUnitsOfWorkInFlight)
+    {
+        this.maximumConcurrentTransactions = maximumConcurrentTransactions <= 0 ? DEFAULT_CONCURRENT_TRANSACTIONS : maximumConcurrentTransactions;
+        this.maximumUnitsOfWorkInFlight    = maximumUnitsOfWorkInFlight    <= 0 ? this.maximumConcurrentTransactions * DEFAULT_UNITS_OF_WORK_PER_TXN : maximumUnitsOfWorkInFlight;
+        this.virtualThreadFactory          = createVirtualThreadFactory();
+        this.fallback                      = new PlatformThreadExecutorFactory(this.maximumConcurrentTransactions, this.maximumConcurrentTransactions, -1, null, -1);
+    }
+
+
+    /**
+     * @return True if this JVM supports virtual threads.
+     */
+    public boolean isSupported()
+    {
+        return(virtualThreadFactory != null);
+    }
+
+
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.ExecutorFactory#newThreadPool()
+     */
+    @Override
+    public ThreadPoolExecutor newThreadPool()
+    {
+        ThreadPoolExecutor result = null;
+
+        if (isSupported())
+        {
+            // Thread per task: a SynchronousQueue hands each unit of work straight to a new thread, since no thread is ever idle
+            result = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), virtualThreadFactory);
+        }
+        else
+        {
+            result = fallback.newThreadPool();
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.ExecutorFactory#getMaximumConcurrentTransactions()
+     */
+    @Override
+    public int getMaximumConcurrentTransactions()
+    {
+        return(isSupported() ? maximumConcurrentTransactions : fallback.getMaximumConcurrentTransactions());
+    }
+
+
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.ExecutorFactory#getMaximumUnitsOfWorkInFlight()
+     */
+    @Override
+    public int getMaximumUnitsOfWorkInFlight()
+    {
+        return(isSupported() ? maximumUnitsOfWorkInFlight : fallback.getMaximumUnitsOfWorkInFlight());
+    }
+
+
+    /*
+     * Equivalent to Thread.ofVirtual().name(THREAD_NAME_PREFIX, 1).factory(), which we can't call directly since this
+     * code is compiled for older JVMs.
+     */
+    private final static ThreadFactory createVirtualThreadFactory()
+    {
+        ThreadFactory result = null;
+
+        try
+        {
+            final Method   ofVirtual = Thread.class.getMethod("ofVirtual");
+            final Class<?> builder   = Class.forName("java.lang.Thread$Builder");
+            final Method   name      = builder.getMethod("name", String.class, long.class);
+            final Method   factory   = builder.getMethod("factory");
+
+            result = (ThreadFactory)factory.invoke(name.invoke(ofVirtual.invoke(null), THREAD_NAME_PREFIX, 1L));
+
+            if (log.isDebugEnabled()) log.debug("Virtual threads are supported by this JVM.");
+        }
+        catch (final Exception e)
+        {
+            if (log.isWarnEnabled()) log.warn("Virtual threads are not supported by this JVM (Java " + System.getProperty("java.version") + ") - platform threads will be used instead.");
+            if (log.isDebugEnabled()) log.debug("Unable to create a virtual thread factory.", e);
+        }
+
+        return(result);
+    }
+
+}
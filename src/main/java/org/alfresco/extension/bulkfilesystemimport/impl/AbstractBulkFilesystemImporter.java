@@ -28,11 +28,23 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -43,12 +55,18 @@ import org.alfresco.repo.content.ContentStore;
 import org.alfresco.repo.content.encoding.ContentCharsetFinder;
 import org.alfresco.repo.content.filestore.FileContentStore;
 import org.alfresco.repo.policy.BehaviourFilter;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
 import org.alfresco.repo.tenant.AbstractTenantRoutingContentStore;
-import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport.TxnReadState;
 import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.repo.transaction.TransactionListener;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
 import org.alfresco.repo.version.VersionModel;
 import org.alfresco.service.ServiceRegistry;
 import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.cmr.dictionary.PropertyDefinition;
+import org.alfresco.service.cmr.dictionary.TypeDefinition;
 import org.alfresco.service.cmr.model.FileFolderService;
 import org.alfresco.service.cmr.model.FileInfo;
 import org.alfresco.service.cmr.model.FileNotFoundException;
@@ -59,19 +77,22 @@ import org.alfresco.service.cmr.repository.InvalidNodeRefException;
 import org.alfresco.service.cmr.repository.MimetypeService;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.rule.RuleService;
 import org.alfresco.service.cmr.security.AccessStatus;
 import org.alfresco.service.cmr.security.PermissionService;
 import org.alfresco.service.cmr.version.VersionService;
 import org.alfresco.service.cmr.version.VersionType;
 import org.alfresco.service.namespace.QName;
-import org.alfresco.util.Pair;
 import org.alfresco.extension.bulkfilesystemimport.AnalysedDirectory;
-import org.alfresco.extension.bulkfilesystemimport.BulkFilesystemImporter;
+import org.alfresco.extension.bulkfilesystemimport.BatchWeigher;
+import org.alfresco.extension.bulkfilesystemimport.TunableBulkFilesystemImporter;
+import org.alfresco.extension.bulkfilesystemimport.BulkImportModel;
 import org.alfresco.extension.bulkfilesystemimport.BulkImportStatus;
 import org.alfresco.extension.bulkfilesystemimport.DirectoryAnalyser;
 import org.alfresco.extension.bulkfilesystemimport.ImportableItem;
 import org.alfresco.extension.bulkfilesystemimport.MetadataLoader;
 import org.alfresco.extension.bulkfilesystemimport.ImportFilter;
+import org.alfresco.extension.bulkfilesystemimport.batchweighers.FileCountBatchWeigher;
 import org.alfresco.extension.bulkfilesystemimport.impl.BulkImportStatusImpl.NodeState;
 import org.alfresco.extension.bulkfilesystemimport.util.DataDictionaryBuilder;
 
@@ -84,13 +105,26 @@ import org.alfresco.extension.bulkfilesystemimport.util.DataDictionaryBuilder;
  * @version $Id: AbstractBulkFilesystemImporter.java 136 2011-08-05 20:42:10Z pmonks@gmail.com $
  */
 public abstract class AbstractBulkFilesystemImporter
-    implements BulkFilesystemImporter
+    implements TunableBulkFilesystemImporter
 {
     private final static Log log = LogFactory.getLog(AbstractBulkFilesystemImporter.class);
     
-    private final static int    DEFAULT_BATCH_WEIGHT   = 100;
-    private final static String DEFAULT_TEXT_ENCODING  = "UTF-8";
-    private final static int    MAX_CONTENT_URL_LENGTH = 255;
+    private final static int    DEFAULT_BATCH_WEIGHT      = 100;
+    private final static int    DEFAULT_BATCH_CONCURRENCY = 1;
+    private final static String DEFAULT_TEXT_ENCODING     = "UTF-8";
+    private final static int    MAX_CONTENT_URL_LENGTH    = 255;
+    
+    private final static int DEFAULT_CHILD_INDEX_PAGE_SIZE = 1000;
+    
+    private final static int  DEFAULT_MINIMUM_BATCH_WEIGHT       = 10;
+    private final static int  DEFAULT_MAXIMUM_BATCH_WEIGHT       = 1000;
+    private final static long DEFAULT_TARGET_BATCH_LATENCY_IN_MS = 2000;
+    
+    private final static String ALL_BEHAVIOURS                      = "*";
+    private final static int    DEFAULT_POST_PROCESSING_BATCH_SIZE  = 50;
+    private final static long   DEFAULT_POST_PROCESSING_PAUSE_IN_MS = 0;
+    
+    private final static String STATUS_UPDATES_TXN_RESOURCE_KEY = AbstractBulkFilesystemImporter.class.getName() + ".statusUpdates";
 
     protected final ServiceRegistry      serviceRegistry;
     protected final BehaviourFilter      behaviourFilter;
@@ -101,15 +135,80 @@ public abstract class AbstractBulkFilesystemImporter
     protected final VersionService       versionService;
     protected final MimetypeService      mimeTypeService;
     protected final DictionaryService    dictionaryService;
+    protected final RuleService          ruleService;
     
     protected final BulkImportStatusImpl  importStatus;
     protected final DataDictionaryBuilder dataDictionaryBuilder;
 
 
-    private DirectoryAnalyser  directoryAnalyser = null;
-    private List<ImportFilter> importFilters     = null;
-    private MetadataLoader     metadataLoader    = null;
-    private int                batchWeight       = DEFAULT_BATCH_WEIGHT;
+    private DirectoryAnalyser  directoryAnalyser   = null;
+    private List<ImportFilter> importFilters       = null;
+    private MetadataLoader     metadataLoader      = null;
+    private int                batchWeight         = DEFAULT_BATCH_WEIGHT;
+    private volatile int       batchWeightOverride = -1;  // Set via changeBatchWeight, for the import in progress only
+    private int                batchConcurrency    = DEFAULT_BATCH_CONCURRENCY;
+    private BatchWeigher       batchWeigher        = new FileCountBatchWeigher();
+    private boolean            streamingAnalysis   = false;
+    
+    private boolean                sizingEnabled           = false;
+    private boolean                sizingWaitForCompletion = false;
+    private int                    sizingParallelism       = -1;
+    private volatile SizingScanner sizingScanner           = null;
+    
+    private boolean deltaEnabled            = false;
+    private boolean deltaCompareContentHash = false;
+    
+    private boolean childIndexEnabled  = true;
+    private int     childIndexPageSize = DEFAULT_CHILD_INDEX_PAGE_SIZE;
+    
+    private boolean singleCallCreateEnabled = true;
+    
+    private final PipelineStages pipelineStages;  // Metadata preparation and content staging
+    
+    private boolean                        adaptiveBatchWeightEnabled = false;
+    private int                            minimumBatchWeight         = DEFAULT_MINIMUM_BATCH_WEIGHT;
+    private int                            maximumBatchWeight         = DEFAULT_MAXIMUM_BATCH_WEIGHT;
+    private long                           targetBatchLatency         = DEFAULT_TARGET_BATCH_LATENCY_IN_MS;
+    private volatile BatchWeightController batchWeightController      = null;
+    
+    private volatile Semaphore transactionPermits = null;  // Limits the number of concurrent import transactions (null means unlimited)
+    
+    private List<String>         disabledBehaviours      = Arrays.asList(new String[] { "cm:auditable" });  // Allows creation & modification dates to be set
+    private boolean              rulesDisabled           = false;
+    private volatile List<QName> disabledBehaviourQNames = null;
+    
+    private List<String>           postProcessingActions   = new ArrayList<String>();
+    private int                    postProcessingBatchSize = DEFAULT_POST_PROCESSING_BATCH_SIZE;
+    private long                   postProcessingPause     = DEFAULT_POST_PROCESSING_PAUSE_IN_MS;
+    private volatile PostProcessor postProcessor           = null;
+    
+    private boolean             quarantineEnabled        = false;
+    private File                quarantineDirectory      = null;
+    private float               quarantineAbortThreshold = 0;
+    private volatile Quarantine quarantine               = null;
+    
+    private boolean                                      coalescingEnabled = false;
+    private final ConcurrentMap<File, AnalysedDirectory> deferredAnalyses  = new ConcurrentHashMap<File, AnalysedDirectory>();  // Directories analysed while coalescing, that didn't fit
+    
+    private final AtomicBoolean importStarting = new AtomicBoolean(false);  // True while an import is being set up (before its status says it's in progress)
+    
+    private final TransactionListener statusUpdater = new TransactionListenerAdapter()
+    {
+        @Override
+        public void afterCommit()
+        {
+            @SuppressWarnings("unchecked")
+            final List<Runnable> statusUpdates = (List<Runnable>)AlfrescoTransactionSupport.getResource(STATUS_UPDATES_TXN_RESOURCE_KEY);
+            
+            if (statusUpdates != null)
+            {
+                for (final Runnable statusUpdate : statusUpdates)
+                {
+                    statusUpdate.run();
+                }
+            }
+        }
+    };
 
 
     protected AbstractBulkFilesystemImporter(final ServiceRegistry       serviceRegistry,
@@ -128,8 +227,17 @@ public abstract class AbstractBulkFilesystemImporter
         this.versionService    = serviceRegistry.getVersionService();
         this.mimeTypeService   = serviceRegistry.getMimetypeService();
         this.dictionaryService = serviceRegistry.getDictionaryService();
+        this.ruleService       = serviceRegistry.getRuleService();
         
         this.importStatus      = importStatus;
+        this.pipelineStages    = new PipelineStages(contentService, configuredContentStore, importStatus, new MetadataPreparer.MetadataSource()
+            {
+                @Override
+                public MetadataLoader.Metadata loadMetadata(final ImportableItem.FileType fileType, final ImportableItem.ContentAndMetadata contentAndMetadata)
+                {
+                    return(AbstractBulkFilesystemImporter.this.loadMetadata(fileType, contentAndMetadata));
+                }
+            });
         
         this.dataDictionaryBuilder = dataDictionaryBuilder;
         this.importFilters         = new ArrayList<ImportFilter>();
@@ -161,18 +269,348 @@ public abstract class AbstractBulkFilesystemImporter
         }
     }
     
+    public final void setBatchConcurrency(final int batchConcurrency)
+    {
+        if (batchConcurrency > 0)
+        {
+            this.batchConcurrency = batchConcurrency;
+        }
+    }
+    
+    public final void setCoalescingEnabled(final boolean coalescingEnabled)
+    {
+        this.coalescingEnabled = coalescingEnabled;
+    }
+    
+    public final void setBatchWeigher(final BatchWeigher batchWeigher)
+    {
+        if (batchWeigher != null)
+        {
+            this.batchWeigher = batchWeigher;
+        }
+    }
+    
+    public final void setStreamingAnalysis(final boolean streamingAnalysis)
+    {
+        this.streamingAnalysis = streamingAnalysis;
+    }
+    
+    public final void setSizingEnabled(final boolean sizingEnabled)
+    {
+        this.sizingEnabled = sizingEnabled;
+    }
+    
+    public final void setSizingWaitForCompletion(final boolean sizingWaitForCompletion)
+    {
+        this.sizingWaitForCompletion = sizingWaitForCompletion;
+    }
+    
+    public final void setSizingParallelism(final int sizingParallelism)
+    {
+        this.sizingParallelism = sizingParallelism;
+    }
+    
+    public final void setDeltaEnabled(final boolean deltaEnabled)
+    {
+        this.deltaEnabled = deltaEnabled;
+    }
+    
+    public final void setDeltaCompareContentHash(final boolean deltaCompareContentHash)
+    {
+        this.deltaCompareContentHash = deltaCompareContentHash;
+    }
+    
+    public final void setChildIndexEnabled(final boolean childIndexEnabled)
+    {
+        this.childIndexEnabled = childIndexEnabled;
+    }
+    
+    public final void setChildIndexPageSize(final int childIndexPageSize)
+    {
+        if (childIndexPageSize > 0)
+        {
+            this.childIndexPageSize = childIndexPageSize;
+        }
+    }
+    
+    public final void setSingleCallCreateEnabled(final boolean singleCallCreateEnabled)
+    {
+        this.singleCallCreateEnabled = singleCallCreateEnabled;
+    }
+    
+    public final void setContentStagingEnabled(final boolean contentStagingEnabled)
+    {
+        pipelineStages.setContentStagingEnabled(contentStagingEnabled);
+    }
+    
+    public final void setContentStagingParallelism(final int contentStagingParallelism)
+    {
+        pipelineStages.setContentStagingParallelism(contentStagingParallelism);
+    }
+    
+    public final void setContentStagingQueueSize(final int contentStagingQueueSize)
+    {
+        pipelineStages.setContentStagingQueueSize(contentStagingQueueSize);
+    }
+    
+    public final void setMetadataPreparationEnabled(final boolean metadataPreparationEnabled)
+    {
+        pipelineStages.setMetadataPreparationEnabled(metadataPreparationEnabled);
+    }
+    
+    public final void setMetadataPreparationParallelism(final int metadataPreparationParallelism)
+    {
+        pipelineStages.setMetadataPreparationParallelism(metadataPreparationParallelism);
+    }
+    
+    public final void setMetadataPreparationQueueSize(final int metadataPreparationQueueSize)
+    {
+        pipelineStages.setMetadataPreparationQueueSize(metadataPreparationQueueSize);
+    }
+    
+    /**
+     * @param disabledBehaviours A comma separated list of the classes (types and aspects, in prefixed form e.g. "cm:versionable")
+     *                           whose behaviours are disabled in import transactions, or "*" to disable all behaviours <i>(may be null or empty)</i>.
+     */
+    public final void setDisabledBehaviours(final String disabledBehaviours)
+    {
+        this.disabledBehaviours = splitList(disabledBehaviours);
+    }
+    
+    public final void setRulesDisabled(final boolean rulesDisabled)
+    {
+        this.rulesDisabled = rulesDisabled;
+    }
+    
+    /**
+     * @param postProcessingActions A comma separated list of the names of the actions to run against every content node
+     *                              once the import is complete (e.g. "extract-metadata") <i>(may be null or empty)</i>.
+     */
+    public final void setPostProcessingActions(final String postProcessingActions)
+    {
+        this.postProcessingActions = splitList(postProcessingActions);
+    }
+    
+    public final void setPostProcessingBatchSize(final int postProcessingBatchSize)
+    {
+        if (postProcessingBatchSize > 0)
+        {
+            this.postProcessingBatchSize = postProcessingBatchSize;
+        }
+    }
+    
+    public final void setPostProcessingPause(final long postProcessingPause)
+    {
+        if (postProcessingPause >= 0)
+        {
+            this.postProcessingPause = postProcessingPause;
+        }
+    }
+    
+    public final void setQuarantineEnabled(final boolean quarantineEnabled)
+    {
+        this.quarantineEnabled = quarantineEnabled;
+    }
+    
+    public final void setQuarantineDirectory(final String quarantineDirectory)
+    {
+        if (quarantineDirectory != null && quarantineDirectory.trim().length() > 0)
+        {
+            this.quarantineDirectory = new File(quarantineDirectory.trim());
+        }
+    }
+    
+    public final void setQuarantineAbortThreshold(final float quarantineAbortThreshold)
+    {
+        this.quarantineAbortThreshold = quarantineAbortThreshold;
+    }
+    
+    public final void setAdaptiveBatchWeightEnabled(final boolean adaptiveBatchWeightEnabled)
+    {
+        this.adaptiveBatchWeightEnabled = adaptiveBatchWeightEnabled;
+    }
+    
+    public final void setMinimumBatchWeight(final int minimumBatchWeight)
+    {
+        if (minimumBatchWeight > 0)
+        {
+            this.minimumBatchWeight = minimumBatchWeight;
+        }
+    }
+    
+    public final void setMaximumBatchWeight(final int maximumBatchWeight)
+    {
+        if (maximumBatchWeight > 0)
+        {
+            this.maximumBatchWeight = maximumBatchWeight;
+        }
+    }
+    
+    public final void setTargetBatchLatency(final long targetBatchLatency)
+    {
+        if (targetBatchLatency > 0)
+        {
+            this.targetBatchLatency = targetBatchLatency;
+        }
+    }
+    
+    protected final DirectoryAnalyser getDirectoryAnalyser()
+    {
+        return(directoryAnalyser);
+    }
+    
+    protected final List<ImportFilter> getImportFilters()
+    {
+        return(importFilters);
+    }
+    
+    protected final boolean isStreamingAnalysis()
+    {
+        return(streamingAnalysis);
+    }
+    
+    /**
+     * @return True if small descendant directories may be imported along with their ancestor, in the same transaction
+     *         (i.e. without being returned from {@link #importDirectory(NodeRef, boolean, String, File, boolean, boolean)}).
+     */
+    protected boolean supportsCoalescing()
+    {
+        return(true);
+    }
+    
+    /**
+     * Runs the given task on one of the importer's worker threads, if it has any.  Used to import the batches of a single
+     * directory concurrently (see the <code>batchConcurrency</code> property).  The default implementation doesn't
+     * dispatch anything, in which case each directory's batches are imported sequentially by the calling thread.
+     * 
+     * @param task The task to run <i>(will not be null)</i>.
+     * @return True if the task was dispatched (it may still never run, e.g. if the import is stopped first), false if
+     *         it wasn't (and never will be run).
+     */
+    protected boolean dispatchBatchTask(final Runnable task)
+    {
+        return(false);
+    }
+    
+    /**
+     * Hands the sub-directories found by a batch to the implementation as soon as that batch has committed, so that
+     * implementations that import sub-directories concurrently can start on them without waiting for the rest of the
+     * directory's batches.  Sub-directories that are dispatched aren't returned from
+     * {@link #importDirectory(NodeRef, boolean, String, File, boolean, boolean)}.  The default implementation doesn't
+     * dispatch anything.
+     * 
+     * @param sourceRoot      The original directory from which this import was initiated <i>(will not be null)</i>.
+     * @param subDirectories  The sub-directories, along with their associated NodeRefs in the repository and whether those were created by this import <i>(will not be null or empty)</i>.
+     * @param replaceExisting A flag indicating whether to replace (true) or skip (false) files that are already in the repository.
+     * @param inPlaceImport   A flag indicating whether this is an "in place" import.
+     * @return True if the sub-directories were dispatched, false if they should be returned as usual.
+     */
+    protected boolean dispatchSubDirectories(final String                               sourceRoot,
+                                             final List<Triple<NodeRef, File, Boolean>> subDirectories,
+                                             final boolean                              replaceExisting,
+                                             final boolean                              inPlaceImport)
+        throws InterruptedException
+    {
+        return(false);
+    }
+    
+    /**
+     * Runs the configured post-processing actions against the content nodes imported so far (if any).  Subclasses should
+     * call this once the import is complete, before reporting success.  Does nothing if post-processing is disabled.
+     */
+    protected final void postProcess()
+    {
+        final PostProcessor processor = postProcessor;
+        
+        if (processor != null)
+        {
+            processor.replay();
+        }
+    }
+    
+    
+    /**
+     * Throws away the content nodes recorded for post-processing that haven't been post-processed yet, and deletes their
+     * spool file.  Subclasses should call this when an import fails or is stopped.  Does nothing if post-processing is
+     * disabled.
+     */
+    protected final void discardPostProcessing()
+    {
+        final PostProcessor processor = postProcessor;
+        
+        if (processor != null)
+        {
+            processor.discard();
+        }
+    }
+    
 
     /**
      * @see org.alfresco.extension.bulkfilesystemimport.BulkFilesystemImporter#bulkImport(java.io.File, org.alfresco.service.cmr.repository.NodeRef, boolean)
      */
     public final void bulkImport(final NodeRef target, final File source, final boolean replaceExisting)
         throws Throwable
+    {
+        // Nothing that the import in progress (if any) depends on may be reset until we know there isn't one.  The
+        // implementation marks the import as in progress when it starts it, so until then the flag keeps other callers out.
+        if (importStatus.inProgress() || !importStarting.compareAndSet(false, true))
+        {
+            throw new IllegalStateException("Import already in progress.");
+        }
+        
+        try
+        {
+            startImport(target, source, replaceExisting);
+        }
+        finally
+        {
+            importStarting.set(false);
+        }
+    }
+    
+    
+    private final void startImport(final NodeRef target, final File source, final boolean replaceExisting)
+        throws Throwable
     {
         validateNodeRefIsWritableSpace(target);
         validateFileIsReadableDirectory(source);
         
         if (log.isDebugEnabled()) log.debug("---- Data Dictionary:\n" + dataDictionaryBuilder.toString());
         
+        deferredAnalyses.clear();
+        
+        // The implementation registers the scan and commit stages (if it has them) when the import starts
+        importStatus.clearPipelineStages();
+        pipelineStages.start();
+        
+        quarantine = quarantineEnabled ? new Quarantine(quarantineDirectory, quarantineAbortThreshold, importStatus) : null;
+        
+        // Prefixes can't be resolved until the dictionary has been loaded, so this is done on every import
+        disabledBehaviourQNames = resolveDisabledBehaviours();
+        
+        if (postProcessor != null)
+        {
+            postProcessor.discard();  // Left over from a previous import that failed
+        }
+        
+        postProcessor = postProcessingActions.isEmpty() ? null : new PostProcessor(serviceRegistry, importStatus, postProcessingActions, postProcessingBatchSize, postProcessingPause, AuthenticationUtil.getFullyAuthenticatedUser());
+        
+        batchWeightOverride = -1;
+        
+        if (adaptiveBatchWeightEnabled)
+        {
+            batchWeightController = new BatchWeightController(importStatus, batchWeight, minimumBatchWeight, Math.max(minimumBatchWeight, maximumBatchWeight), targetBatchLatency);
+        }
+        else
+        {
+            batchWeightController = null;
+        }
+        
+        if (directoryAnalyser instanceof ScanManifestDirectoryAnalyser)
+        {
+            ((ScanManifestDirectoryAnalyser)directoryAnalyser).open(source);
+        }
+        
         bulkImportImpl(target, source, replaceExisting, isInContentStore(source));
     }
     
@@ -187,6 +625,55 @@ public abstract class AbstractBulkFilesystemImporter
     }
     
     
+    /**
+     * Limits the number of import transactions that may be open at once, for the import that's about to start.  Used by
+     * implementations whose worker threads are cheap (e.g. virtual threads), so that the number of worker threads
+     * blocked on I/O doesn't determine the number of database connections in use.  The limit covers every transaction
+     * the import opens, including the read-only ones that load child indexes and look for unchanged items.  Content
+     * staging doesn't take a permit, since it doesn't use the database (and a large copy would hold up repository work).
+     * 
+     * @param maximumConcurrentTransactions The maximum number of concurrent import transactions <i>(&lt;= 0 means unlimited)</i>.
+     */
+    protected final void limitConcurrentTransactions(final int maximumConcurrentTransactions)
+    {
+        transactionPermits = maximumConcurrentTransactions > 0 ? new Semaphore(maximumConcurrentTransactions) : null;
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.TunableBulkFilesystemImporter#resizeThreadPool(int)
+     */
+    @Override
+    public boolean resizeThreadPool(final int numberOfThreads)
+    {
+        return(false);
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.TunableBulkFilesystemImporter#changeBatchWeight(int)
+     */
+    @Override
+    public final boolean changeBatchWeight(final int batchWeight)
+    {
+        final BatchWeightController controller = batchWeightController;
+        boolean                     result     = false;
+        
+        if (batchWeight > 0 && importStatus.inProgress())
+        {
+            final int newBatchWeight = controller == null ? batchWeight : controller.setBatchWeight(batchWeight);
+            
+            batchWeightOverride = newBatchWeight;
+            importStatus.setBatchWeight(newBatchWeight);
+            result = true;
+            
+            if (log.isInfoEnabled()) log.info("Batch weight changed to " + newBatchWeight + " for the remainder of the import.");
+        }
+        
+        return(result);
+    }
+    
+    
     /**
      * Determines whether the given file is located in the given file content store.
      * @param fileContentStore The file content store to check <i>(must not be null)</i>.
@@ -272,57 +759,128 @@ public abstract class AbstractBulkFilesystemImporter
 
     
     /**
-     * @see org.alfresco.extension.bulkfilesystemimport.BulkFilesystemImporter#getStatus()
+     * Starts the sizing scan of the given source directory (if the sizing scan is enabled).  Subclasses should call this
+     * immediately after calling importStatus.startImport(), and call {@link #stopSizingScan()} when the import completes.
+     * 
+     * @param source The source directory of the import <i>(must not be null)</i>.
      */
-    public final BulkImportStatus getStatus()
+    protected final void startSizingScan(final File source)
     {
-        return(importStatus);
+        if (sizingEnabled)
+        {
+            sizingScanner = new SizingScanner(importStatus, sizingParallelism);
+            sizingScanner.start(source);
+        }
+        else
+        {
+            sizingScanner = null;
+        }
     }
     
     
     /**
-     * Method to be called by subclasses on a per-directory basis.  This method will import the given source directory only
+     * Stops the sizing scan, if it's still running.
+     */
+    protected final void stopSizingScan()
+    {
+        final SizingScanner scanner = sizingScanner;
+        
+        if (scanner != null)
+        {
+            if (log.isDebugEnabled()) log.debug("Stopping sizing scan.");
+            scanner.stop();
+        }
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.BulkFilesystemImporter#getStatus()
+     */
+    public final BulkImportStatus getStatus()
+    {
+        return(importStatus);
+    }
+    
+    
+    /**
+     * Method to be called by subclasses on a per-directory basis.  This method will import the given source directory only
      * (i.e. non-recursively), returning the list of its sub-directories.
      * 
      * @param target          The target space to ingest the content into <i>(must not be null and must be a valid, writable space in the repository)</i>.
+     * @param targetIsNew     A flag indicating whether the target space was created by this import (in which case it has no children yet, and existence checks are skipped).
      * @param sourceRoot      The original directory from which this import was initiated <i>(must not be null)</i>.
      * @param source          The source directory on the local filesystem to read content from <i>(must not be null and must be a valid, readable directory on the local filesystem)</i>.
      * @param replaceExisting A flag indicating whether to replace (true) or skip (false) files that are already in the repository.
      * @param inPlaceImport   A flag indicating whether this is an "in place" import (i.e. the source directory is already located inside the configured content store).
-     * @return A list of sub-directories that have yet to be loaded, along with their associated NodeRefs in the repository <i>(will not be null, but may be empty)</i>.
+     * @return A list of sub-directories that have yet to be loaded, along with their associated NodeRefs in the repository and
+     *         whether those were created by this import <i>(will not be null, but may be empty)</i>.
      */
-    protected final List<Pair<NodeRef, File>> importDirectory(final NodeRef target,
-                                                              final String  sourceRoot,
-                                                              final File    source,
-                                                              final boolean replaceExisting,
-                                                              final boolean inPlaceImport)
+    protected final List<Triple<NodeRef, File, Boolean>> importDirectory(final NodeRef target,
+                                                                         final boolean targetIsNew,
+                                                                         final String  sourceRoot,
+                                                                         final File    source,
+                                                                         final boolean replaceExisting,
+                                                                         final boolean inPlaceImport)
         throws InterruptedException
     {
-        List<Pair<NodeRef, File>> result = new ArrayList<Pair<NodeRef, File>>();
+        List<Triple<NodeRef, File, Boolean>> result = new ArrayList<Triple<NodeRef, File, Boolean>>();
+        
+        // If configured to do so, hold off importing until we know how big the source is
+        final SizingScanner scanner = sizingScanner;
+        
+        if (sizingWaitForCompletion && scanner != null)
+        {
+            scanner.awaitCompletion();
+        }
         
         importStatus.setCurrentFileBeingProcessed(getFileName(source));
         
+        if (streamingAnalysis)
+        {
+            return(importDirectoryStreaming(target, targetIsNew, sourceRoot, source, replaceExisting, inPlaceImport));
+        }
+        
         // PHASE 1: analyse the source directory
-        final AnalysedDirectory          analysedDirectory       = directoryAnalyser.analyseDirectory(source);
+        final AnalysedDirectory          analysedDirectory       = takeAnalysis(source);
         if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
         
         // PHASE 2: filter ImportableItems from the source directory
         final List<ImportableItem>       filteredImportableItems = filterImportableItems(analysedDirectory.importableItems);
         if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
         
-        // PHASE 3: batch ImportableItems
-        final List<List<ImportableItem>> batchedImportableItems  = batchImportableItems(filteredImportableItems);
-
         if (log.isDebugEnabled()) log.debug("---- Bulk Filesystem Importer - Directory Analysis for: " + getFileName(source) +
                                             "\n\t" + analysedDirectory.originalListing.size() + " file"                     + (analysedDirectory.originalListing.size() == 1 ? "" : "s")  + 
                                             "\n\t" + analysedDirectory.importableItems.size() + " importable item"          + (analysedDirectory.importableItems.size() == 1 ? "" : "s")  +
-                                            "\n\t" + filteredImportableItems.size()           + " filtered importable item" + (filteredImportableItems.size()           == 1 ? "" : "s")  +
-                                            "\n\t" + batchedImportableItems.size()            + " batch"                    + (batchedImportableItems.size()            == 1 ? "" : "es"));
+                                            "\n\t" + filteredImportableItems.size()           + " filtered importable item" + (filteredImportableItems.size()           == 1 ? "" : "s"));
         
         if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
         
-        // PHASE 4: load the batches
-        result.addAll(importImportableItemBatches(target, sourceRoot, batchedImportableItems, replaceExisting, inPlaceImport));
+        // If this directory is small, try to import some of its (small) descendants in the same transaction
+        if (coalescingEnabled && supportsCoalescing() && !(deltaEnabled && replaceExisting))
+        {
+            final Map<File, AnalysedDirectory>    coalescedAnalyses    = new HashMap<File, AnalysedDirectory>();
+            final Map<File, List<ImportableItem>> coalescedDirectories = coalesceDescendants(source, filteredImportableItems, coalescedAnalyses);
+            
+            if (coalescedDirectories.size() > 1)
+            {
+                try
+                {
+                    result.addAll(importCoalescedDirectories(target, targetIsNew, sourceRoot, source, coalescedDirectories, replaceExisting, inPlaceImport));
+                    return(result);
+                }
+                catch (final RuntimeException re)
+                {
+                    if (quarantine == null || importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw re;
+                    
+                    // Fall back to importing each of the directories on its own, so that the failure can be isolated
+                    if (log.isDebugEnabled()) log.debug("Coalesced import of '" + getFileName(source) + "' failed - importing its directories separately.", re);
+                    deferredAnalyses.putAll(coalescedAnalyses);
+                }
+            }
+        }
+        
+        // PHASE 3: batch and load ImportableItems (batches are cut as they're loaded, so that each reflects the current batch weight)
+        result.addAll(importImportableItemBatches(target, sourceRoot, filteredImportableItems, replaceExisting, inPlaceImport, loadChildIndex(target, targetIsNew, filteredImportableItems.size())));
         if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
         
         return(result);
@@ -347,16 +905,7 @@ public abstract class AbstractBulkFilesystemImporter
                 {
                     if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
                     
-                    boolean filterImportableItem = false;
-                    
-                    for (final ImportFilter filter : importFilters)
-                    {
-                        if (filter.shouldFilter(importableItem))
-                        {
-                            filterImportableItem = true;
-                            break;
-                        }
-                    }
+                    boolean filterImportableItem = shouldFilter(importableItem);
                     
                     if (!filterImportableItem)
                     {
@@ -370,107 +919,892 @@ public abstract class AbstractBulkFilesystemImporter
     }
     
     
-    private final List<List<ImportableItem>> batchImportableItems(final List<ImportableItem> importableItems)
+    /**
+     * Analyses the given source directory.  Subclasses may override this to obtain the analysis some other way (e.g. from a
+     * read-ahead crawler), but must return the same result the configured directory analyser would.
+     * 
+     * @param source The source directory to analyse <i>(must not be null)</i>.
+     * @return The analysed directory <i>(will not be null)</i>.
+     */
+    protected AnalysedDirectory analyseDirectory(final File source)
+        throws InterruptedException
+    {
+        return(directoryAnalyser.analyseDirectory(source));
+    }
+    
+    
+    /**
+     * Method to be called by subclasses that only want to import some of the items in a directory (e.g. those that have
+     * been added or modified since the directory was last imported).  The directory is re-analysed (so that content,
+     * metadata and version files are grouped as usual), but only items containing at least one of the given files are
+     * filtered, batched and imported.
+     * 
+     * @param target          The target space that corresponds to the source directory <i>(must not be null)</i>.
+     * @param sourceRoot      The original directory from which this import was initiated <i>(must not be null)</i>.
+     * @param source          The source directory containing the changed files <i>(must not be null)</i>.
+     * @param fileNames       The leaf names of the changed files <i>(must not be null)</i>.
+     * @param replaceExisting A flag indicating whether to replace (true) or skip (false) files that are already in the repository.
+     * @param inPlaceImport   A flag indicating whether this is an "in place" import.
+     * @return A list of sub-directories that were imported, along with their associated NodeRefs in the repository <i>(will not be null, but may be empty)</i>.
+     */
+    protected final List<Triple<NodeRef, File, Boolean>> importChangedItems(final NodeRef     target,
+                                                                            final String      sourceRoot,
+                                                                            final File        source,
+                                                                            final Set<String> fileNames,
+                                                                            final boolean     replaceExisting,
+                                                                            final boolean     inPlaceImport)
         throws InterruptedException
     {
-        List<List<ImportableItem>> result             = new ArrayList<List<ImportableItem>>();
-        int                        currentBatch       = 0;
-        int                        currentBatchWeight = 0;
+        // Note: the scan manifest is bypassed, since it can't see files that were modified in place
+        final DirectoryAnalyser    analyser          = directoryAnalyser instanceof ScanManifestDirectoryAnalyser ?
+                                                       ((ScanManifestDirectoryAnalyser)directoryAnalyser).getDelegate() : directoryAnalyser;
+        final AnalysedDirectory    analysedDirectory = analyser.analyseDirectory(source);
+        final List<ImportableItem> changedItems      = new ArrayList<ImportableItem>();
         
-        result.add(new ArrayList<ImportableItem>());
+        importStatus.setCurrentFileBeingProcessed(getFileName(source));
+        
+        for (final ImportableItem importableItem : analysedDirectory.importableItems)
+        {
+            if (containsAnyOf(importableItem.getHeadRevision(), fileNames))
+            {
+                changedItems.add(importableItem);
+            }
+            else if (importableItem.hasVersionEntries())
+            {
+                for (final ImportableItem.VersionedContentAndMetadata versionEntry : importableItem.getVersionEntries())
+                {
+                    if (containsAnyOf(versionEntry, fileNames))
+                    {
+                        changedItems.add(importableItem);
+                        break;
+                    }
+                }
+            }
+        }
+        
+        if (log.isDebugEnabled()) log.debug(changedItems.size() + " of " + analysedDirectory.importableItems.size() + " importable items in '" + getFileName(source) + "' have changed.");
+        
+        final List<ImportableItem> filteredItems = filterImportableItems(changedItems);
+        
+        return(importImportableItemBatches(target, sourceRoot, filteredItems, replaceExisting, inPlaceImport, loadChildIndex(target, false, filteredItems.size())));
+    }
+    
+    
+    private final boolean containsAnyOf(final ImportableItem.ContentAndMetadata contentAndMetadata, final Set<String> fileNames)
+    {
+        return((contentAndMetadata.getContentFileName() != null && fileNames.contains(contentAndMetadata.getContentFileName())) ||
+               (contentAndMetadata.metadataFileExists()         && fileNames.contains(contentAndMetadata.getMetadataFile().getName())));
+    }
+    
+    
+    /**
+     * Imports the given source directory (non-recursively) as it's being analysed, rather than after the entire directory
+     * has been analysed.  This bounds the memory required to import very large directories, since at most one batch of
+     * ImportableItems (plus the directory analyser's own bounded working set) is held in memory at any one time.
+     * 
+     * @see #importDirectory(NodeRef, boolean, String, File, boolean, boolean)
+     */
+    private final List<Triple<NodeRef, File, Boolean>> importDirectoryStreaming(final NodeRef target,
+                                                                                final boolean targetIsNew,
+                                                                                final String  sourceRoot,
+                                                                                final File    source,
+                                                                                final boolean replaceExisting,
+                                                                                final boolean inPlaceImport)
+        throws InterruptedException
+    {
+        final StreamingBatchImporter batchImporter = new StreamingBatchImporter(this, target, targetIsNew, sourceRoot, replaceExisting, inPlaceImport);
+        
+        directoryAnalyser.analyseDirectory(source, batchImporter);
+        if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
+        
+        batchImporter.flush();
+        if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
+        
+        if (log.isDebugEnabled()) log.debug("---- Bulk Filesystem Importer - Streaming Directory Analysis for: " + getFileName(source) +
+                                            "\n\t" + batchImporter.getNumberOfImportableItems()         + " importable item"          + (batchImporter.getNumberOfImportableItems()         == 1 ? "" : "s")  +
+                                            "\n\t" + batchImporter.getNumberOfFilteredImportableItems() + " filtered importable item" + (batchImporter.getNumberOfFilteredImportableItems() == 1 ? "" : "s")  +
+                                            "\n\t" + batchImporter.getNumberOfBatches()                 + " batch"                    + (batchImporter.getNumberOfBatches()                 == 1 ? "" : "es"));
+        
+        return(batchImporter.getSubDirectories());
+    }
+    
+    
+    /**
+     * @param importableItem The ImportableItem to check <i>(must not be null)</i>.
+     * @return True if any of the configured import filters elect to filter out the given ImportableItem.
+     */
+    final boolean shouldFilter(final ImportableItem importableItem)
+    {
+        boolean result = false;
+        
+        if (importFilters != null)
+        {
+            for (final ImportFilter filter : importFilters)
+            {
+                if (filter.shouldFilter(importableItem))
+                {
+                    result = true;
+                    break;
+                }
+            }
+        }
+        
+        return(result);
+    }
+    
+    
+    /*
+     * Returns the analysis of the given directory - either one that was done (and deferred) while coalescing, or a new one.
+     */
+    private final AnalysedDirectory takeAnalysis(final File source)
+        throws InterruptedException
+    {
+        AnalysedDirectory result = deferredAnalyses.remove(source);
+        
+        if (result == null)
+        {
+            result = analyseDirectory(source);
+        }
+        
+        return(result);
+    }
+    
+    
+    /*
+     * Gathers the given directory's items, and the items of as many of its descendant directories (breadth first) as
+     * fit into a single batch along with them.  Descendants are only ever coalesced in their entirety.  The first
+     * descendant that doesn't fit ends the search, and its analysis is kept for when it's imported in the usual way.
+     * 
+     * Returns the items to import, keyed (in import order) by their source directory.  The given directory is always
+     * first, unless its own items don't fit into a single batch, in which case the result is empty.  The analyses of the
+     * coalesced descendants are added to coalescedAnalyses, in case the coalesced import fails and has to be redone.
+     */
+    private final Map<File, List<ImportableItem>> coalesceDescendants(final File                         source,
+                                                                      final List<ImportableItem>         importableItems,
+                                                                      final Map<File, AnalysedDirectory> coalescedAnalyses)
+        throws InterruptedException
+    {
+        Map<File, List<ImportableItem>> result      = new LinkedHashMap<File, List<ImportableItem>>();
+        List<ImportableItem>            accepted    = new ArrayList<ImportableItem>();
+        Deque<File>                     candidates  = new ArrayDeque<File>();
+        int                             batchWeight = getEffectiveBatchWeight();
+        
+        if (fitsInOneBatch(accepted, importableItems, batchWeight))
+        {
+            result.put(source, importableItems);
+            accepted.addAll(importableItems);
+            candidates.addAll(subDirectoriesOf(importableItems));
+            
+            while (!candidates.isEmpty())
+            {
+                if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
+                
+                final File                 candidate         = candidates.removeFirst();
+                final AnalysedDirectory    analysedCandidate = takeAnalysis(candidate);
+                final List<ImportableItem> candidateItems    = filterImportableItems(analysedCandidate.importableItems);
+                
+                if (!fitsInOneBatch(accepted, candidateItems, batchWeight))
+                {
+                    deferredAnalyses.put(candidate, analysedCandidate);
+                    break;
+                }
+                
+                result.put(candidate, candidateItems);
+                coalescedAnalyses.put(candidate, analysedCandidate);
+                accepted.addAll(candidateItems);
+                candidates.addAll(subDirectoriesOf(candidateItems));
+            }
+            
+            if (log.isDebugEnabled() && result.size() > 1) log.debug("Coalesced " + (result.size() - 1) + " descendant director" + (result.size() == 2 ? "y" : "ies") + " of '" + getFileName(source) + "' into a single batch of " + accepted.size() + " items.");
+        }
+        
+        return(result);
+    }
+    
+    
+    private final boolean fitsInOneBatch(final List<ImportableItem> accepted, final List<ImportableItem> candidates, final int batchWeight)
+    {
+        boolean            result = true;
+        BatchWeigher.Scale scale  = batchWeigher.newBatch(batchWeight);
+        
+        for (final ImportableItem importableItem : accepted)
+        {
+            scale.add(importableItem);
+        }
+        
+        for (final ImportableItem importableItem : candidates)
+        {
+            // As per nextBatch, the first item always fits
+            if ((!accepted.isEmpty() || importableItem != candidates.get(0)) && !scale.fits(importableItem))
+            {
+                result = false;
+                break;
+            }
+            
+            scale.add(importableItem);
+        }
+        
+        return(result);
+    }
+    
+    
+    private final List<File> subDirectoriesOf(final List<ImportableItem> importableItems)
+    {
+        List<File> result = new ArrayList<File>();
         
         for (final ImportableItem importableItem : importableItems)
         {
-            if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
+            if (importableItem.getHeadRevision().contentFileExists() &&
+                ImportableItem.FileType.DIRECTORY.equals(importableItem.getFileType()))
+            {
+                result.add(importableItem.getHeadRevision().getContentFile());
+            }
+        }
+        
+        return(result);
+    }
+    
+    
+    /*
+     * Imports a set of coalesced directories in a single transaction.  Each descendant is imported into the space that
+     * was created (or found) for it earlier in the same transaction.  Returns the sub-directories that weren't coalesced.
+     */
+    private final List<Triple<NodeRef, File, Boolean>> importCoalescedDirectories(final NodeRef                         target,
+                                                                                  final boolean                         targetIsNew,
+                                                                                  final String                          sourceRoot,
+                                                                                  final File                            source,
+                                                                                  final Map<File, List<ImportableItem>> coalescedDirectories,
+                                                                                  final boolean                         replaceExisting,
+                                                                                  final boolean                         inPlaceImport)
+        throws InterruptedException
+    {
+        final List<ImportableItem> allItems = new ArrayList<ImportableItem>();
+        
+        for (final List<ImportableItem> importableItems : coalescedDirectories.values())
+        {
+            allItems.addAll(importableItems);
+        }
+        
+        final ChildIndex                                                      childIndex       = loadChildIndex(target, targetIsNew, coalescedDirectories.get(source).size());
+        final Map<ImportableItem, String>                                     signatures       = deltaEnabled ? computeSourceSignatures(allItems) : null;
+        final Map<ImportableItem.ContentAndMetadata, MetadataLoader.Metadata> preparedMetadata = pipelineStages.prepareMetadata(allItems, false);
+        final Map<ImportableItem.ContentAndMetadata, ContentData>             stagedContent    = stageContent(allItems, replaceExisting, inPlaceImport, preparedMetadata, null);
+        final AtomicInteger                                                   attempts         = new AtomicInteger();
+        final long                                                            startNs          = System.nanoTime();
+        List<Triple<NodeRef, File, Boolean>>                                  result           = null;
+        
+        try
+        {
+            result = doInImportTransaction(new RetryingTransactionCallback<List<Triple<NodeRef, File, Boolean>>>()
+                {
+                    @Override
+                    public List<Triple<NodeRef, File, Boolean>> execute()
+                        throws Exception
+                    {
+                        List<Triple<NodeRef, File, Boolean>>      remainingSubDirectories = new ArrayList<Triple<NodeRef, File, Boolean>>();
+                        Map<File, Triple<NodeRef, File, Boolean>> coalescedSpaces         = new HashMap<File, Triple<NodeRef, File, Boolean>>();
+                        
+                        attempts.incrementAndGet();
+                        
+                        for (final Map.Entry<File, List<ImportableItem>> coalescedDirectory : coalescedDirectories.entrySet())
+                        {
+                            NodeRef    directoryTarget     = target;
+                            ChildIndex directoryChildIndex = childIndex;
+                            
+                            if (!source.equals(coalescedDirectory.getKey()))
+                            {
+                                final Triple<NodeRef, File, Boolean> space = coalescedSpaces.remove(coalescedDirectory.getKey());
+                                
+                                // The space wasn't imported (e.g. it's in the way of a file), so neither are its contents - as per the non-coalesced case
+                                if (space == null) continue;
+                                
+                                directoryTarget     = space.getFirst();
+                                directoryChildIndex = null;  // Only the target of the coalesced import has been indexed
+                            }
+                            
+                            for (final Triple<NodeRef, File, Boolean> subDirectory : importBatch(directoryTarget, sourceRoot, coalescedDirectory.getValue(), replaceExisting, inPlaceImport, signatures, stagedContent, preparedMetadata, directoryChildIndex))
+                            {
+                                if (coalescedDirectories.containsKey(subDirectory.getSecond()))
+                                {
+                                    coalescedSpaces.put(subDirectory.getSecond(), subDirectory);
+                                }
+                                else
+                                {
+                                    remainingSubDirectories.add(subDirectory);
+                                }
+                            }
+                        }
+                        
+                        return(remainingSubDirectories);
+                    }
+                });
+        }
+        finally
+        {
+            pipelineStages.releaseStagedContent(stagedContent);
+        }
+        
+        recordBatchOutcome(allItems, System.nanoTime() - startNs, attempts.get() - 1);
+        importStatus.incrementNumberOfBatchesCompleted();
+        
+        return(result);
+    }
+    
+    
+    /*
+     * Returns a new, empty scale for weighing a batch, using the batch weigher and the current batch weight.
+     */
+    final BatchWeigher.Scale newBatchScale()
+    {
+        return(batchWeigher.newBatch(getEffectiveBatchWeight()));
+    }
+    
+    
+    /*
+     * Cuts the next batch from the given list of ImportableItems, using the batch weigher and the current batch weight.
+     */
+    final List<ImportableItem> nextBatch(final List<ImportableItem> importableItems, final int fromIndex)
+    {
+        List<ImportableItem> result = new ArrayList<ImportableItem>();
+        BatchWeigher.Scale   scale  = newBatchScale();
+        
+        for (int i = fromIndex; i < importableItems.size(); i++)
+        {
+            final ImportableItem importableItem = importableItems.get(i);
             
-            result.get(currentBatch).add(importableItem);
-            currentBatchWeight += importableItem.weight();
+            // The first item always goes in, even if it's too heavy on its own
+            if (!result.isEmpty() && !scale.fits(importableItem))
+            {
+                break;
+            }
             
-            if (currentBatchWeight >= batchWeight)
+            result.add(importableItem);
+            scale.add(importableItem);
+        }
+        
+        return(result);
+    }
+    
+        
+    private final List<Triple<NodeRef, File, Boolean>> importImportableItemBatches(final NodeRef              target,
+                                                                                   final String               sourceRoot,
+                                                                                   final List<ImportableItem> importableItems,
+                                                                                   final boolean              replaceExisting,
+                                                                                   final boolean              inPlaceImport,
+                                                                                   final ChildIndex           childIndex)
+        throws InterruptedException
+    {
+        List<Triple<NodeRef, File, Boolean>> result = new ArrayList<Triple<NodeRef, File, Boolean>>();
+        
+        if (importableItems != null && batchConcurrency > 1 && !hasCollidingNames(importableItems))
+        {
+            result.addAll(new ConcurrentBatchImporter(this, target, sourceRoot, importableItems, replaceExisting, inPlaceImport, childIndex, batchConcurrency).importBatches());
+        }
+        else if (importableItems != null)
+        {
+            int nextItem = 0;
+            
+            while (nextItem < importableItems.size())
+            {
+                if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
+                
+                final List<ImportableItem> batch = nextBatch(importableItems, nextItem);
+                
+                result.addAll(importAndDispatchBatch(target, sourceRoot, batch, replaceExisting, inPlaceImport, childIndex));
+                nextItem += batch.size();
+            }
+        }
+        
+        return(result);
+    }
+
+    
+    /*
+     * Determines whether any of the given items would be given the same name in the repository (cm:name uniqueness is case
+     * insensitive).  Batches containing such items can't be imported concurrently, since neither transaction would see
+     * the other's node, and the later one to commit would fail with a DuplicateChildNodeNameException - imported one
+     * after the other, the second item finds the first's node and skips or replaces it as usual.  Names overridden by
+     * metadata (cm:name) aren't known until the metadata is loaded, so aren't checked.
+     */
+    private final boolean hasCollidingNames(final List<ImportableItem> importableItems)
+    {
+        final Set<String> names  = new HashSet<String>(importableItems.size() * 2);
+        boolean           result = false;
+        
+        for (final ImportableItem importableItem : importableItems)
+        {
+            if (!names.add(ChildIndex.normaliseName(importableItem.getParentFilename())))
+            {
+                if (log.isDebugEnabled()) log.debug("'" + importableItem.getParentFilename() + "' differs from another item in the same directory only by case - importing that directory's batches one at a time.");
+                result = true;
+                break;
+            }
+        }
+        
+        return(result);
+    }
+    
+    
+    /*
+     * Imports the given batch, then dispatches its sub-directories (see dispatchSubDirectories), returning those that
+     * weren't dispatched.
+     */
+    final List<Triple<NodeRef, File, Boolean>> importAndDispatchBatch(final NodeRef              target,
+                                                                      final String               sourceRoot,
+                                                                      final List<ImportableItem> batch,
+                                                                      final boolean              replaceExisting,
+                                                                      final boolean              inPlaceImport,
+                                                                      final ChildIndex           childIndex)
+        throws InterruptedException
+    {
+        List<Triple<NodeRef, File, Boolean>> result = importBatchInTxn(target, sourceRoot, batch, replaceExisting, inPlaceImport, childIndex);
+        
+        if (!result.isEmpty() && dispatchSubDirectories(sourceRoot, result, replaceExisting, inPlaceImport))
+        {
+            result = Collections.emptyList();
+        }
+        
+        return(result);
+    }
+    
+    
+    private final List<Triple<NodeRef, File, Boolean>> importBatchInTxn(final NodeRef              target,
+                                                                        final String               sourceRoot,
+                                                                        final List<ImportableItem> batch,
+                                                                        final boolean              replaceExisting,
+                                                                        final boolean              inPlaceImport,
+                                                                        final ChildIndex           childIndex)
+        throws InterruptedException
+    {
+        List<Triple<NodeRef, File, Boolean>>                                  result           = new ArrayList<Triple<NodeRef, File, Boolean>>();
+        final boolean                                                         skipUnchanged    = deltaEnabled && replaceExisting;
+        final Map<ImportableItem, String>                                     signatures       = deltaEnabled ? computeSourceSignatures(batch) : null;
+        final Map<ImportableItem.ContentAndMetadata, MetadataLoader.Metadata> preparedMetadata = pipelineStages.prepareMetadata(batch, skipUnchanged);
+        final List<ImportableItem>                                            changedItems     = skipUnchanged ? skipUnchangedItems(target, batch, signatures, preparedMetadata, childIndex, result) : batch;
+        final Map<ImportableItem.ContentAndMetadata, ContentData>             stagedContent    = stageContent(changedItems, replaceExisting, inPlaceImport, preparedMetadata, childIndex);
+
+        try
+        {
+            // If everything in the batch was unchanged, there's nothing to write (and no need for a read-write transaction)
+            if (!changedItems.isEmpty())
+            {
+                result.addAll(importItemsInTxn(target, sourceRoot, changedItems, replaceExisting, inPlaceImport, signatures, stagedContent, preparedMetadata, childIndex));
+            }
+        }
+        finally
+        {
+            pipelineStages.releaseStagedContent(stagedContent);
+        }
+        
+        importStatus.incrementNumberOfBatchesCompleted();
+                            
+        return(result);
+    }
+    
+    
+    /*
+     * Imports the given items in a single transaction.  If that transaction fails (after any retries) and quarantining is
+     * enabled, the item(s) causing the failure are isolated and quarantined (see isolateFailure), and the rest of the
+     * items are imported as usual.
+     */
+    private final List<Triple<NodeRef, File, Boolean>> importItemsInTxn(final NodeRef                                                         target,
+                                                                        final String                                                          sourceRoot,
+                                                                        final List<ImportableItem>                                            items,
+                                                                        final boolean                                                         replaceExisting,
+                                                                        final boolean                                                         inPlaceImport,
+                                                                        final Map<ImportableItem, String>                                     signatures,
+                                                                        final Map<ImportableItem.ContentAndMetadata, ContentData>             stagedContent,
+                                                                        final Map<ImportableItem.ContentAndMetadata, MetadataLoader.Metadata> preparedMetadata,
+                                                                        final ChildIndex                                                      childIndex)
+        throws InterruptedException
+    {
+        final List<Triple<NodeRef, File, Boolean>> result     = new ArrayList<Triple<NodeRef, File, Boolean>>();
+        final Quarantine                           quarantine = this.quarantine;  // So that an import reset part way through a batch can't switch quarantines
+        final RuntimeException                     failure    = tryImportItemsInTxn(target, sourceRoot, items, replaceExisting, inPlaceImport, signatures, stagedContent, preparedMetadata, childIndex, quarantine, result);
+        
+        if (failure != null)
+        {
+            isolateFailure(target, sourceRoot, items, replaceExisting, inPlaceImport, signatures, stagedContent, preparedMetadata, childIndex, quarantine, failure, result);
+        }
+        
+        return(result);
+    }
+    
+    
+    /*
+     * Attempts to import the given items in a single transaction, adding the sub-directories to import to result.  If the
+     * transaction fails, quarantining is enabled and the failure wasn't caused by the infrastructure (e.g. the database
+     * connection), the failure is returned rather than thrown.
+     */
+    private final RuntimeException tryImportItemsInTxn(final NodeRef                                                         target,
+                                                       final String                                                          sourceRoot,
+                                                       final List<ImportableItem>                                            items,
+                                                       final boolean                                                         replaceExisting,
+                                                       final boolean                                                         inPlaceImport,
+                                                       final Map<ImportableItem, String>                                     signatures,
+                                                       final Map<ImportableItem.ContentAndMetadata, ContentData>             stagedContent,
+                                                       final Map<ImportableItem.ContentAndMetadata, MetadataLoader.Metadata> preparedMetadata,
+                                                       final ChildIndex                                                      childIndex,
+                                                       final Quarantine                                                      quarantine,
+                                                       final List<Triple<NodeRef, File, Boolean>>                            result)
+        throws InterruptedException
+    {
+        RuntimeException    failure  = null;
+        final AtomicInteger attempts = new AtomicInteger();
+        final long          startNs  = System.nanoTime();
+        
+        try
+        {
+            result.addAll(doInImportTransaction(new RetryingTransactionCallback<List<Triple<NodeRef, File, Boolean>>>()
+                {
+                    @Override
+                    public List<Triple<NodeRef, File, Boolean>> execute()
+                        throws Exception
+                    {
+                        attempts.incrementAndGet();
+                        return(importBatch(target, sourceRoot, items, replaceExisting, inPlaceImport, signatures, stagedContent, preparedMetadata, childIndex));
+                    }
+                }));
+            
+            recordBatchOutcome(items, System.nanoTime() - startNs, attempts.get() - 1);
+            if (quarantine != null) quarantine.imported(items.size());
+        }
+        catch (final RuntimeException re)
+        {
+            if (quarantine == null || importStatus.isStopping() || Thread.currentThread().isInterrupted() || Quarantine.isInfrastructureFailure(re)) throw re;
+            failure = re;
+        }
+        
+        return(failure);
+    }
+    
+    
+    /*
+     * Isolates and quarantines the item(s) that caused the given transaction failure, by splitting the items in two and
+     * importing each half in a transaction of its own, recursively, down to single items.  Distinct items can fail in the
+     * same way (e.g. the same integrity violation), so failures are not compared with one another - a failure that's
+     * systemic rather than caused by the items either comes from the infrastructure (and is thrown by tryImportItemsInTxn),
+     * or causes enough items to be quarantined that the quarantine's abort threshold ends the import.
+     */
+    private final void isolateFailure(final NodeRef                                                         target,
+                                      final String                                                          sourceRoot,
+                                      final List<ImportableItem>                                            items,
+                                      final boolean                                                         replaceExisting,
+                                      final boolean                                                         inPlaceImport,
+                                      final Map<ImportableItem, String>                                     signatures,
+                                      final Map<ImportableItem.ContentAndMetadata, ContentData>             stagedContent,
+                                      final Map<ImportableItem.ContentAndMetadata, MetadataLoader.Metadata> preparedMetadata,
+                                      final ChildIndex                                                      childIndex,
+                                      final Quarantine                                                      quarantine,
+                                      final RuntimeException                                                failure,
+                                      final List<Triple<NodeRef, File, Boolean>>                            result)
+        throws InterruptedException
+    {
+        if (items.size() == 1)
+        {
+            quarantine.add(items.get(0), failure);
+        }
+        else
+        {
+            final List<ImportableItem> firstHalf  = items.subList(0, items.size() / 2);
+            final List<ImportableItem> secondHalf = items.subList(items.size() / 2, items.size());
+            
+            if (log.isDebugEnabled()) log.debug("Transaction of " + items.size() + " items failed - splitting it in two to isolate the failure.", failure);
+            
+            final RuntimeException firstFailure = tryImportItemsInTxn(target, sourceRoot, firstHalf, replaceExisting, inPlaceImport, signatures, stagedContent, preparedMetadata, childIndex, quarantine, result);
+            if (firstFailure != null) isolateFailure(target, sourceRoot, firstHalf, replaceExisting, inPlaceImport, signatures, stagedContent, preparedMetadata, childIndex, quarantine, firstFailure, result);
+            
+            final RuntimeException secondFailure = tryImportItemsInTxn(target, sourceRoot, secondHalf, replaceExisting, inPlaceImport, signatures, stagedContent, preparedMetadata, childIndex, quarantine, result);
+            if (secondFailure != null) isolateFailure(target, sourceRoot, secondHalf, replaceExisting, inPlaceImport, signatures, stagedContent, preparedMetadata, childIndex, quarantine, secondFailure, result);
+        }
+    }
+    
+    
+    /*
+     * Runs the given callback in a new read-write transaction, with the configured behaviours (and, if configured, rules)
+     * disabled.  Rules are disabled per thread rather than per transaction, so they're re-enabled afterwards.  If the
+     * number of concurrent import transactions is limited, waits for a permit first.
+     */
+    private final <R> R doInImportTransaction(final RetryingTransactionCallback<R> callback)
+        throws InterruptedException
+    {
+        final Semaphore permits = acquireTransactionPermit();
+        R               result  = null;
+        
+        if (rulesDisabled) ruleService.disableRules();
+        
+        try
+        {
+            result = serviceRegistry.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<R>()
+                {
+                    @Override
+                    public R execute()
+                        throws Throwable
+                    {
+                        disableBehaviours();
+                        return(callback.execute());
+                    }
+                },
+                false,    // read only flag
+                false);   // requires new txn flag
+        }
+        finally
+        {
+            if (rulesDisabled) ruleService.enableRules();
+            releaseTransactionPermit(permits);
+        }
+        
+        return(result);
+    }
+    
+    
+    /*
+     * Runs the given callback in a new read-only transaction.  If the number of concurrent import transactions is
+     * limited, waits for a permit first - read-only transactions hold a database connection too.
+     */
+    private final <R> R doInReadOnlyTransaction(final RetryingTransactionCallback<R> callback)
+        throws InterruptedException
+    {
+        final Semaphore permits = acquireTransactionPermit();
+        R               result  = null;
+        
+        try
+        {
+            result = serviceRegistry.getRetryingTransactionHelper().doInTransaction(callback,
+                                                                                    true,     // read only flag
+                                                                                    false);   // requires new txn flag
+        }
+        finally
+        {
+            releaseTransactionPermit(permits);
+        }
+        
+        return(result);
+    }
+    
+    
+    /*
+     * Waits for a transaction permit, if the number of concurrent import transactions is limited.  Returns the semaphore
+     * the permit was acquired from (null if there's no limit), which must be passed to releaseTransactionPermit.
+     * Permits are never nested, so a thread that holds one must not ask for another.
+     */
+    private final Semaphore acquireTransactionPermit()
+        throws InterruptedException
+    {
+        final Semaphore result = transactionPermits;
+        
+        if (result != null) result.acquire();
+        
+        return(result);
+    }
+    
+    
+    private final void releaseTransactionPermit(final Semaphore permits)
+    {
+        if (permits != null) permits.release();
+    }
+    
+    
+    /*
+     * Disables the configured behaviours for the current transaction.
+     */
+    private final void disableBehaviours()
+    {
+        final List<QName> behaviours = disabledBehaviourQNames;
+        
+        if (behaviours == null)
+        {
+            behaviourFilter.disableBehaviour();
+        }
+        else
+        {
+            for (final QName behaviour : behaviours)
+            {
+                behaviourFilter.disableBehaviour(behaviour);
+            }
+        }
+    }
+    
+    
+    /*
+     * Returns the classes whose behaviours are to be disabled, or null if all behaviours are to be disabled.
+     */
+    private final List<QName> resolveDisabledBehaviours()
+    {
+        List<QName> result = new ArrayList<QName>(disabledBehaviours.size());
+        
+        for (final String disabledBehaviour : disabledBehaviours)
+        {
+            if (ALL_BEHAVIOURS.equals(disabledBehaviour))
+            {
+                result = null;
+                break;
+            }
+            
+            result.add(QName.createQName(disabledBehaviour, serviceRegistry.getNamespaceService()));
+        }
+        
+        if (log.isDebugEnabled()) log.debug("Behaviours disabled during import: " + (result == null ? "all" : String.valueOf(result)) + (rulesDisabled ? ", as are rules." : "."));
+        
+        return(result);
+    }
+    
+    
+    private final static List<String> splitList(final String list)
+    {
+        List<String> result = new ArrayList<String>();
+        
+        if (list != null)
+        {
+            for (final String entry : list.split(","))
             {
-                result.add(new ArrayList<ImportableItem>());
-                currentBatch++;
-                currentBatchWeight = 0;
+                if (entry.trim().length() > 0)
+                {
+                    result.add(entry.trim());
+                }
             }
         }
         
         return(result);
     }
     
+    
+    /*
+     * Computes the source signature of every item in the batch.  Items whose signature can't be computed are left out of
+     * the result, which means they'll always be (re)imported.
+     */
+    private final Map<ImportableItem, String> computeSourceSignatures(final List<ImportableItem> batch)
+    {
+        Map<ImportableItem, String> result          = new HashMap<ImportableItem, String>(batch.size() * 2);
+        SourceSignature             sourceSignature = new SourceSignature(deltaCompareContentHash);
+        
+        for (final ImportableItem importableItem : batch)
+        {
+            try
+            {
+                result.put(importableItem, sourceSignature.compute(importableItem));
+            }
+            catch (final IOException ioe)
+            {
+                if (log.isWarnEnabled()) log.warn("Unable to compute signature of '" + importableItem.getHeadRevision().getContentFilePath() + "' - it will be reimported.", ioe);
+            }
+        }
         
-    private final List<Pair<NodeRef, File>> importImportableItemBatches(final NodeRef                    target,
-                                                                        final String                     sourceRoot,
-                                                                        final List<List<ImportableItem>> batches,
-                                                                        final boolean                    replaceExisting,
-                                                                        final boolean                    inPlaceImport)
+        return(result);
+    }
+    
+    
+    /*
+     * Looks up the existing node (if any) for each item in the batch, in a single read-only transaction, and compares the
+     * signature recorded on it by the last import with the current one.  Unchanged items are reported as skipped (and, if
+     * they're directories, added to subDirectories so that recursion still happens).  Returns the items that need importing.
+     *
+     * Head revision metadata that hasn't been prepared is loaded into preparedMetadata, so that the import of the changed
+     * items doesn't have to load it again.
+     */
+    private final List<ImportableItem> skipUnchangedItems(final NodeRef                                                         target,
+                                                          final List<ImportableItem>                                            batch,
+                                                          final Map<ImportableItem, String>                                     signatures,
+                                                          final Map<ImportableItem.ContentAndMetadata, MetadataLoader.Metadata> preparedMetadata,
+                                                          final ChildIndex                                                      childIndex,
+                                                          final List<Triple<NodeRef, File, Boolean>>                            subDirectories)
         throws InterruptedException
     {
-        List<Pair<NodeRef, File>> result = new ArrayList<Pair<NodeRef, File>>();
+        final List<ImportableItem>         result    = new ArrayList<ImportableItem>(batch.size());
+        final Map<ImportableItem, NodeRef> unchanged = new HashMap<ImportableItem, NodeRef>();
+        
+        doInReadOnlyTransaction(new RetryingTransactionCallback<Object>()
+            {
+                @Override
+                public Object execute()
+                    throws Exception
+                {
+                    result.clear();
+                    unchanged.clear();
+                    
+                    for (final ImportableItem importableItem : batch)
+                    {
+                        final String signature = signatures.get(importableItem);
+                        NodeRef      nodeRef   = null;
+                        
+                        if (signature != null)
+                        {
+                            MetadataLoader.Metadata metadata = preparedMetadata.get(importableItem.getHeadRevision());
+                            
+                            if (metadata == null)
+                            {
+                                metadata = loadMetadata(importableItem.getFileType(), importableItem.getHeadRevision());
+                                preparedMetadata.put(importableItem.getHeadRevision(), metadata);
+                            }
+                            
+                            nodeRef = findChildByName(target, childIndex, metadata.getParentAssoc(), getImportableItemName(importableItem, metadata));
+                            
+                            if (nodeRef != null && !signature.equals(nodeService.getProperty(nodeRef, BulkImportModel.PROP_SOURCE_SIGNATURE)))
+                            {
+                                nodeRef = null;
+                            }
+                        }
+                        
+                        if (nodeRef == null)
+                        {
+                            result.add(importableItem);
+                        }
+                        else
+                        {
+                            unchanged.put(importableItem, nodeRef);
+                        }
+                    }
+                    
+                    return(null);
+                }
+            });
         
-        if (batches != null)
+        // Note: status is only updated once the transaction has completed, so that retries don't double count
+        for (final Map.Entry<ImportableItem, NodeRef> entry : unchanged.entrySet())
         {
-            for (final List<ImportableItem> batch : batches)
+            final ImportableItem importableItem = entry.getKey();
+            
+            if (log.isDebugEnabled()) log.debug("Skipping '" + importableItem.getHeadRevision().getContentFilePath() + "' as it hasn't changed since it was last imported.");
+            
+            if (importableItem.getHeadRevision().contentFileExists() &&
+                ImportableItem.FileType.DIRECTORY.equals(importableItem.getFileType()))
             {
-                if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
-                
-                result.addAll(importBatchInTxn(target, sourceRoot, batch, replaceExisting, inPlaceImport));
+                subDirectories.add(new Triple<NodeRef, File, Boolean>(entry.getValue(), importableItem.getHeadRevision().getContentFile(), false));
             }
+            
+            importStatus.incrementUnchangedNodesSkipped();
+            importStatus.incrementEntriesProcessed(importableItem);
         }
         
         return(result);
     }
-
-    
-    private final List<Pair<NodeRef, File>> importBatchInTxn(final NodeRef              target,
-                                                             final String               sourceRoot,
-                                                             final List<ImportableItem> batch,
-                                                             final boolean              replaceExisting,
-                                                             final boolean              inPlaceImport)
-    {
-        List<Pair<NodeRef, File>> result    = new ArrayList<Pair<NodeRef, File>>();
-        RetryingTransactionHelper txnHelper = serviceRegistry.getRetryingTransactionHelper();
-
-        result.addAll(txnHelper.doInTransaction(new RetryingTransactionCallback<List<Pair<NodeRef, File>>>()
-            {
-                @Override
-                public List<Pair<NodeRef, File>> execute()
-                    throws Exception
-                {
-                    // Disable the auditable aspect's behaviours for this transaction, to allow creation & modification dates to be set 
-                    behaviourFilter.disableBehaviour(ContentModel.ASPECT_AUDITABLE);
-                    return(importBatch(target, sourceRoot, batch, replaceExisting, inPlaceImport));
-                }
-            },
-            false,    // read only flag
-            false));  // requires new txn flag
-        
-        importStatus.incrementNumberOfBatchesCompleted();
-                            
-        return(result);
-    }
     
     
-    private final List<Pair<NodeRef, File>> importBatch(final NodeRef              target,
-                                                        final String               sourcePath,
-                                                        final List<ImportableItem> batch,
-                                                        final boolean              replaceExisting,
-                                                        final boolean              inPlaceImport)
+    private final List<Triple<NodeRef, File, Boolean>> importBatch(final NodeRef                                                         target,
+                                                                   final String                                                          sourcePath,
+                                                                   final List<ImportableItem>                                            batch,
+                                                                   final boolean                                                         replaceExisting,
+                                                                   final boolean                                                         inPlaceImport,
+                                                                   final Map<ImportableItem, String>                                     signatures,
+                                                                   final Map<ImportableItem.ContentAndMetadata, ContentData>             stagedContent,
+                                                                   final Map<ImportableItem.ContentAndMetadata, MetadataLoader.Metadata> preparedMetadata,
+                                                                   final ChildIndex                                                      childIndex)
         throws InterruptedException
     {
-        List<Pair<NodeRef, File>> result = new ArrayList<Pair<NodeRef, File>>();
+        List<Triple<NodeRef, File, Boolean>> result = new ArrayList<Triple<NodeRef, File, Boolean>>();
         
         for (final ImportableItem importableItem : batch)
         {
             if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
             
-            NodeRef nodeRef = importImportableItem(target, sourcePath, importableItem, replaceExisting, inPlaceImport);
+            Triple<NodeRef, Boolean, NodeState> node = importImportableItem(target, sourcePath, importableItem, replaceExisting, inPlaceImport, signatures == null ? null : signatures.get(importableItem), stagedContent, preparedMetadata, childIndex);
             
-            // If it's a directory, add it to the list of sub-directories to be processed
-            if (nodeRef != null &&
+            // If it's a directory, add it to the list of sub-directories to be processed (noting whether we just created it)
+            if (node.getFirst() != null &&
                 importableItem.getHeadRevision().contentFileExists() &&
                 ImportableItem.FileType.DIRECTORY.equals(importableItem.getFileType()))
             {
-                result.add(new Pair<NodeRef, File>(nodeRef, importableItem.getHeadRevision().getContentFile()));
+                result.add(new Triple<NodeRef, File, Boolean>(node.getFirst(), importableItem.getHeadRevision().getContentFile(), NodeState.CREATED.equals(node.getThird())));
             }
         }
         
@@ -478,55 +1812,105 @@ public abstract class AbstractBulkFilesystemImporter
     }
     
     
-    private final NodeRef importImportableItem(final NodeRef          target,
-                                               final String           sourceRoot,
-                                               final ImportableItem   importableItem,
-                                               final boolean          replaceExisting,
-                                               final boolean          inPlaceImport)
+    private final Triple<NodeRef, Boolean, NodeState> importImportableItem(final NodeRef                                                         target,
+                                                                           final String                                                          sourceRoot,
+                                                                           final ImportableItem                                                  importableItem,
+                                                                           final boolean                                                         replaceExisting,
+                                                                           final boolean                                                         inPlaceImport,
+                                                                           final String                                                          sourceSignature,
+                                                                           final Map<ImportableItem.ContentAndMetadata, ContentData>             stagedContent,
+                                                                           final Map<ImportableItem.ContentAndMetadata, MetadataLoader.Metadata> preparedMetadata,
+                                                                           final ChildIndex                                                      childIndex)
         throws InterruptedException
     {
         if (log.isDebugEnabled()) log.debug("Importing " + String.valueOf(importableItem));
 
-        NodeRef                             result      = null;
-        MetadataLoader.Metadata             metadata    = loadMetadata(importableItem.getFileType(), importableItem.getHeadRevision());
-        Triple<NodeRef, Boolean, NodeState> node        = createOrFindNode(target, importableItem, replaceExisting, metadata);
-        boolean                             isDirectory = node.getSecond() == null ? false : node.getSecond();  // Watch out for NPEs during unboxing!
-        NodeState                           nodeState   = node.getThird();
-        
-        result = node.getFirst();
+        final boolean                             createInOneCall = singleCallCreateEnabled && !importableItem.hasVersionEntries();  // Versions have to be written one after the other
+        final MetadataLoader.Metadata             metadata        = loadMetadata(importableItem.getFileType(), importableItem.getHeadRevision(), preparedMetadata);
+        final Triple<NodeRef, Boolean, NodeState> node            = createOrFindNode(target, importableItem, replaceExisting, inPlaceImport, createInOneCall, metadata, sourceSignature, stagedContent, childIndex);
+        final NodeRef                             result          = node.getFirst();
+        final boolean                             isDirectory     = node.getSecond() == null ? false : node.getSecond();  // Watch out for NPEs during unboxing!
+        final NodeState                           nodeState       = node.getThird();
             
         if (result != null && nodeState != NodeState.SKIPPED)
         {
             int numVersionProperties = 0;
             
-            importStatus.incrementImportableItemsRead(importableItem, isDirectory);
-            
-            // Load the item
-            if (isDirectory)
+
+            if (createInOneCall && NodeState.CREATED.equals(nodeState))
             {
-                importImportableItemDirectory(result, importableItem, metadata);
+                // The item's content, metadata and signature were all written when the node was created
+                if (log.isDebugEnabled()) log.debug("Node '" + String.valueOf(result) + "' was created in one call - nothing further to write.");
             }
             else
             {
-                numVersionProperties = importImportableItemFile(result, importableItem, inPlaceImport, metadata);
+                // Load the item
+                if (isDirectory)
+                {
+                    importImportableItemDirectory(result, importableItem, metadata);
+                }
+                else
+                {
+                    numVersionProperties = importImportableItemFile(result, importableItem, inPlaceImport, metadata, stagedContent, preparedMetadata);
+                }
+                
+                // Record what we imported, so that the next delta import can skip this item if it hasn't changed
+                if (sourceSignature != null)
+                {
+                    Map<QName, Serializable> signatureProperties = new HashMap<QName, Serializable>(1);
+                    signatureProperties.put(BulkImportModel.PROP_SOURCE_SIGNATURE, sourceSignature);
+                    nodeService.addAspect(result, BulkImportModel.ASPECT_IMPORTED, signatureProperties);
+                }
             }
             
-            importStatus.incrementNodesWritten(importableItem, isDirectory, nodeState, metadata.getProperties().size() + 4, numVersionProperties);
+            final int numProperties        = metadata.getProperties().size() + 4;
+            final int numVersionPropertiesWritten = numVersionProperties;
+            
+            // Status is only updated once the transaction has committed, so that retries and rolled back transactions (e.g. while isolating a failure) aren't counted
+            updateStatusOnCommit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    importStatus.incrementImportableItemsRead(importableItem, isDirectory);
+                    importStatus.incrementNodesWritten(importableItem, isDirectory, nodeState, numProperties, numVersionPropertiesWritten);
+                    importStatus.incrementEntriesProcessed(importableItem);
+                }
+            });
+            
+            // Remember the node, so that the work that was deferred by disabling behaviours can be done once the import is complete
+            final PostProcessor processor = postProcessor;
+            if (processor != null && !isDirectory) processor.recordOnCommit(result);
         }
         else
         {
-            if (log.isInfoEnabled()) log.info("Skipping '" + getFileName(importableItem.getHeadRevision().getContentFile()) + "' as it already exists in the repository and 'replace existing' is false.");
-            importStatus.incrementImportableItemsSkipped(importableItem, isDirectory);
+            if (log.isInfoEnabled()) log.info("Skipping '" + importableItem.getHeadRevision().getContentFilePath() + "' as it already exists in the repository and 'replace existing' is false.");
+            
+            updateStatusOnCommit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    importStatus.incrementImportableItemsSkipped(importableItem, isDirectory);
+                    importStatus.incrementEntriesProcessed(importableItem);
+                }
+            });
         }
         
-        return(result);
+        return(node);
     }
     
     
-    private final Triple<NodeRef, Boolean, NodeState> createOrFindNode(final NodeRef                 target,
-                                                                       final ImportableItem          importableItem,
-                                                                       final boolean                 replaceExisting,
-                                                                       final MetadataLoader.Metadata metadata)
+    private final Triple<NodeRef, Boolean, NodeState> createOrFindNode(final NodeRef                                             target,
+                                                                       final ImportableItem                                      importableItem,
+                                                                       final boolean                                             replaceExisting,
+                                                                       final boolean                                             inPlaceImport,
+                                                                       final boolean                                             createInOneCall,
+                                                                       final MetadataLoader.Metadata                             metadata,
+                                                                       final String                                              sourceSignature,
+                                                                       final Map<ImportableItem.ContentAndMetadata, ContentData> stagedContent,
+                                                                       final ChildIndex                                          childIndex)
+        throws InterruptedException
     {
         Triple<NodeRef, Boolean, NodeState> result           = null;
         boolean                             isDirectory      = false;
@@ -537,7 +1921,7 @@ public abstract class AbstractBulkFilesystemImporter
         QName                               parentAssocQName = metadata.getParentAssoc();
         
         if (log.isDebugEnabled()) log.debug("Searching for node with name '" + nodeName + "' within node '" + String.valueOf(target) + "' with parent association '" + String.valueOf(parentAssocQName) + "'.");
-        nodeRef = nodeService.getChildByName(target, parentAssocQName, nodeName);
+        nodeRef = findChildByName(target, childIndex, parentAssocQName, nodeName);
         
         // If we didn't find an existing item, create a new node in the repo. 
         if (nodeRef == null)
@@ -545,7 +1929,16 @@ public abstract class AbstractBulkFilesystemImporter
             isDirectory = ImportableItem.FileType.DIRECTORY.equals(importableItem.getFileType());
             
             if (log.isDebugEnabled()) log.debug("Creating new node of type '" + String.valueOf(metadata.getType()) + "' with qname '" + String.valueOf(childQName) + "' within node '" + String.valueOf(target) + "' with parent association '" + String.valueOf(parentAssocQName) + "'.");
-            nodeRef   = nodeService.createNode(target, parentAssocQName, childQName, metadata.getType()).getChildRef();
+            
+            if (createInOneCall)
+            {
+                nodeRef = createNodeInOneCall(target, parentAssocQName, childQName, importableItem, isDirectory, inPlaceImport, metadata, sourceSignature, stagedContent);
+            }
+            else
+            {
+                nodeRef = nodeService.createNode(target, parentAssocQName, childQName, metadata.getType()).getChildRef();
+            }
+            
             nodeState = NodeState.CREATED;
         }
         // We found the node in the repository.  Make sure we return the NodeRef, so that recursive loading works (we need the NodeRef of all sub-spaces, even if we didn't create them).
@@ -563,7 +1956,7 @@ public abstract class AbstractBulkFilesystemImporter
                     if (isDirectory != targetNodeIsSpace)
                     {
                         if (log.isWarnEnabled()) log.warn("Skipping replacement of " + (isDirectory ? "Directory " : "File ") +
-                                                          "'" + getFileName(importableItem.getHeadRevision().getContentFile()) + "'. " +
+                                                          "'" + importableItem.getHeadRevision().getContentFilePath() + "'. " +
                                                           "The target node in the repository is a " + (targetNodeIsSpace ? "space node" : "content node") + ".");
                         nodeState = NodeState.SKIPPED;
                     }
@@ -598,10 +1991,289 @@ public abstract class AbstractBulkFilesystemImporter
     }
     
 
-    private final int importImportableItemFile(final NodeRef                 nodeRef,
-                                               final ImportableItem          importableItem,
-                                               final boolean                 inPlaceImport, 
-                                               final MetadataLoader.Metadata metadata)
+    /*
+     * Stages the content of the given items (see PipelineStages.stageContent), other than those that will be skipped
+     * because they already exist (as far as the child index can tell, under the name the item will be imported as).
+     * Returns null if nothing was staged.  The result must be passed to PipelineStages.releaseStagedContent once the
+     * items' transaction(s) are done.
+     */
+    private final Map<ImportableItem.ContentAndMetadata, ContentData> stageContent(final List<ImportableItem>                                            batch,
+                                                                                   final boolean                                                         replaceExisting,
+                                                                                   final boolean                                                         inPlaceImport,
+                                                                                   final Map<ImportableItem.ContentAndMetadata, MetadataLoader.Metadata> preparedMetadata,
+                                                                                   final ChildIndex                                                      childIndex)
+        throws InterruptedException
+    {
+        List<ImportableItem> itemsToStage = batch;
+        
+        if (pipelineStages.isStagingContent(inPlaceImport) && !replaceExisting && childIndex != null)
+        {
+            itemsToStage = new ArrayList<ImportableItem>();
+            
+            for (final ImportableItem importableItem : batch)
+            {
+                // Resolve the name (and parent association) the same way createOrFindNode does
+                final MetadataLoader.Metadata metadata = loadMetadata(importableItem.getFileType(), importableItem.getHeadRevision(), preparedMetadata);
+                
+                if (!ContentModel.ASSOC_CONTAINS.equals(metadata.getParentAssoc()) ||
+                    childIndex.lookup(getImportableItemName(importableItem, metadata)) == null)
+                {
+                    itemsToStage.add(importableItem);
+                }
+            }
+        }
+        
+        return(pipelineStages.stageContent(itemsToStage, inPlaceImport));
+    }
+    
+    
+    /*
+     * Applies the given status update once the current transaction commits, or straight away if there's no transaction.
+     * Updates made in transactions that roll back (and are then retried, or bisected to isolate a failure) are dropped.
+     */
+    private final void updateStatusOnCommit(final Runnable statusUpdate)
+    {
+        if (AlfrescoTransactionSupport.getTransactionReadState() == TxnReadState.TXN_NONE)
+        {
+            statusUpdate.run();
+        }
+        else
+        {
+            @SuppressWarnings("unchecked")
+            List<Runnable> statusUpdates = (List<Runnable>)AlfrescoTransactionSupport.getResource(STATUS_UPDATES_TXN_RESOURCE_KEY);
+            
+            if (statusUpdates == null)
+            {
+                statusUpdates = new ArrayList<Runnable>();
+                AlfrescoTransactionSupport.bindResource(STATUS_UPDATES_TXN_RESOURCE_KEY, statusUpdates);
+                AlfrescoTransactionSupport.bindListener(statusUpdater);
+            }
+            
+            statusUpdates.add(statusUpdate);
+        }
+    }
+    
+    
+    /*
+     * Feeds the outcome of a batch transaction to the adaptive batch weight controller (if any), and the import status.
+     */
+    private final void recordBatchOutcome(final List<ImportableItem> batch, final long durationNs, final int retries)
+    {
+        final BatchWeightController controller = batchWeightController;
+        
+        if (retries > 0)
+        {
+            if (log.isDebugEnabled()) log.debug("Batch of " + batch.size() + " items required " + retries + " transaction retr" + (retries == 1 ? "y" : "ies") + ".");
+            importStatus.addTransactionRetries(retries);
+        }
+        
+        if (controller != null)
+        {
+            final BatchWeigher.Scale scale = batchWeigher.newBatch(controller.getBatchWeight());
+            
+            for (final ImportableItem importableItem : batch)
+            {
+                scale.add(importableItem);
+            }
+            
+            controller.recordBatch(scale.getWeight(), durationNs, retries);
+        }
+    }
+    
+    
+    /*
+     * Creates a new node with its type, properties (including the content property and the delta import signature, if
+     * any) and aspects in a single NodeService call, rather than creating a bare node then adding aspects, properties
+     * and content to it one at a time (each of which fires policies and issues its own database writes).  In place and
+     * staged content is included in the properties.  Streamed content is written once the node exists, through a writer
+     * bound to it, so that a rolled back (and retried) transaction doesn't leave orphaned content in the content store.
+     * Aspects that neither the type nor any of the supplied properties imply are the only ones still added separately.
+     */
+    private final NodeRef createNodeInOneCall(final NodeRef                                             target,
+                                              final QName                                               parentAssocQName,
+                                              final QName                                               childQName,
+                                              final ImportableItem                                      importableItem,
+                                              final boolean                                             isDirectory,
+                                              final boolean                                             inPlaceImport,
+                                              final MetadataLoader.Metadata                             metadata,
+                                              final String                                              sourceSignature,
+                                              final Map<ImportableItem.ContentAndMetadata, ContentData> stagedContent)
+        throws InterruptedException
+    {
+        NodeRef                           result       = null;
+        ImportableItem.ContentAndMetadata headRevision = importableItem.getHeadRevision();
+        Map<QName, Serializable>          properties    = null;
+        Set<QName>                        aspects       = null;
+        boolean                           streamContent = false;
+        
+        if (!isDirectory && headRevision.contentFileExists())
+        {
+            importStatus.setCurrentFileBeingProcessed(headRevision.getContentFilePath());
+            
+            if (inPlaceImport)
+            {
+                if (log.isDebugEnabled()) log.debug("Linking ContentStore file '" + headRevision.getContentFilePath() + "' into new node.");
+                metadata.addProperty(ContentModel.PROP_CONTENT, buildContentProperty(headRevision));
+            }
+            else if (stagedContent != null && stagedContent.containsKey(headRevision))
+            {
+                if (log.isDebugEnabled()) log.debug("Attaching staged content of file '" + headRevision.getContentFilePath() + "' to new node.");
+                metadata.addProperty(ContentModel.PROP_CONTENT, pipelineStages.claimStagedContent(stagedContent.get(headRevision)));
+            }
+            else
+            {
+                streamContent = true;
+            }
+        }
+        
+        importStatus.setCurrentFileBeingProcessed(headRevision.getContentFilePath() + " (metadata)");
+        
+        properties = new HashMap<QName, Serializable>(metadata.getProperties());
+        
+        if (sourceSignature != null)
+        {
+            properties.put(BulkImportModel.PROP_SOURCE_SIGNATURE, sourceSignature);
+        }
+        
+        if (log.isDebugEnabled()) log.debug("Creating node with properties:\n" + mapToString(properties));
+        
+        try
+        {
+            result = nodeService.createNode(target, parentAssocQName, childQName, metadata.getType(), properties).getChildRef();
+        }
+        catch (final InvalidNodeRefException inre)
+        {
+            throw translateInvalidNodeRefException(target, headRevision.getContentFilePath(), inre);
+        }
+        
+        // Aspects are applied implicitly when any of their properties are set, so only add the ones that are still missing
+        aspects = getImpliedAspects(metadata.getType(), properties.keySet());
+        
+        if (metadata.getAspects() != null)
+        {
+            for (final QName aspect : metadata.getAspects())
+            {
+                if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
+                
+                if (!aspects.contains(aspect))
+                {
+                    if (log.isDebugEnabled()) log.debug("Attaching aspect '" + String.valueOf(aspect) + "' to node '" + String.valueOf(result) + "'.");
+                    nodeService.addAspect(result, aspect, null);
+                }
+            }
+        }
+        
+        if (sourceSignature != null && !aspects.contains(BulkImportModel.ASPECT_IMPORTED))
+        {
+            nodeService.addAspect(result, BulkImportModel.ASPECT_IMPORTED, null);
+        }
+        
+        if (streamContent)
+        {
+            if (log.isDebugEnabled()) log.debug("Streaming contents of file '" + headRevision.getContentFilePath() + "' into node '" + String.valueOf(result) + "'.");
+            writeContent(contentService.getWriter(result, ContentModel.PROP_CONTENT, true), headRevision);
+        }
+        
+        if (!isDirectory && metadata.getAspects() != null && metadata.getAspects().contains(ContentModel.ASPECT_VERSIONABLE))
+        {
+            // Stamp the head version, for the same reason as importImportableItemFile does
+            Map<String, Serializable> versionProperties = new HashMap<String, Serializable>();
+            versionProperties.put(VersionModel.PROP_VERSION_TYPE, VersionType.MAJOR);
+            versionService.createVersion(result, versionProperties);
+        }
+        
+        return(result);
+    }
+    
+    
+    /*
+     * Works out which aspects a node created with the given type and properties has, from the dictionary rather than by
+     * reading them back from the node: the type's mandatory aspects, and the aspects that define any of the properties.
+     * The result may miss some (e.g. the mandatory aspects of those aspects), which at worst means an aspect is added
+     * again - adding an aspect a node already has is harmless.
+     */
+    private final Set<QName> getImpliedAspects(final QName type, final Set<QName> propertyQNames)
+    {
+        final Set<QName>     result         = new HashSet<QName>();
+        final TypeDefinition typeDefinition = type == null ? null : dictionaryService.getType(type);
+        
+        if (typeDefinition != null)
+        {
+            result.addAll(typeDefinition.getDefaultAspectNames());
+        }
+        
+        for (final QName propertyQName : propertyQNames)
+        {
+            final PropertyDefinition propertyDefinition = dictionaryService.getProperty(propertyQName);
+            
+            if (propertyDefinition != null && propertyDefinition.getContainerClass().isAspect())
+            {
+                result.add(propertyDefinition.getContainerClass().getName());
+            }
+        }
+        
+        return(result);
+    }
+    
+    
+    /*
+     * Loads the child index for the given target space, in a read-only transaction (see doInReadOnlyTransaction).  Returns null if the child index is
+     * disabled, or there's nothing to import into the space (in which case the listing would be wasted).  Spaces created
+     * by this import aren't indexed either - they had no children when they were created, so the index would be empty.
+     */
+    final ChildIndex loadChildIndex(final NodeRef target, final boolean targetIsNew, final int numberOfImportableItems)
+        throws InterruptedException
+    {
+        ChildIndex result = null;
+        
+        if (!targetIsNew && childIndexEnabled && numberOfImportableItems > 0)
+        {
+            result = doInReadOnlyTransaction(new RetryingTransactionCallback<ChildIndex>()
+                {
+                    @Override
+                    public ChildIndex execute()
+                        throws Exception
+                    {
+                        return(ChildIndex.load(fileFolderService, target, childIndexPageSize));
+                    }
+                });
+            
+            if (log.isDebugEnabled()) log.debug("Indexed " + result.size() + " existing children of node '" + String.valueOf(target) + "'.");
+        }
+        
+        return(result);
+    }
+    
+    
+    /*
+     * Finds the child with the given name, using the child index where possible.  Index misses always fall back to a
+     * query, since the index only covers content and folder children that existed before the import started (other items
+     * in this import may have created a child with the same name, e.g. one differing only by case, or a cm:name override).
+     */
+    private final NodeRef findChildByName(final NodeRef target, final ChildIndex childIndex, final QName parentAssocQName, final String nodeName)
+    {
+        NodeRef result = null;
+        
+        if (childIndex != null && ContentModel.ASSOC_CONTAINS.equals(parentAssocQName))
+        {
+            result = childIndex.lookup(nodeName);
+        }
+        
+        if (result == null)
+        {
+            result = nodeService.getChildByName(target, parentAssocQName, nodeName);
+        }
+        
+        return(result);
+    }
+    
+
+    private final int importImportableItemFile(final NodeRef                                                         nodeRef,
+                                               final ImportableItem                                                  importableItem,
+                                               final boolean                                                         inPlaceImport,
+                                               final MetadataLoader.Metadata                                         metadata,
+                                               final Map<ImportableItem.ContentAndMetadata, ContentData>             stagedContent,
+                                               final Map<ImportableItem.ContentAndMetadata, MetadataLoader.Metadata> preparedMetadata)
         throws InterruptedException
     {
         int result = 0;
@@ -612,11 +2284,11 @@ public abstract class AbstractBulkFilesystemImporter
             // If cm:versionable isn't listed as one of the aspects for this node, add it - cm:versionable is required for nodes that have versions
             if (!metadata.getAspects().contains(ContentModel.ASPECT_VERSIONABLE))
             {
-                if (log.isInfoEnabled()) log.info("Metadata for file '" + getFileName(importableItem.getHeadRevision().getContentFile()) + "' was missing the cm:versionable aspect, yet it has " + importableItem.getVersionEntries().size() + " versions.  Adding cm:versionable aspect.");
+                if (log.isInfoEnabled()) log.info("Metadata for file '" + importableItem.getHeadRevision().getContentFilePath() + "' was missing the cm:versionable aspect, yet it has " + importableItem.getVersionEntries().size() + " versions.  Adding cm:versionable aspect.");
                 metadata.addAspect(ContentModel.ASPECT_VERSIONABLE);
             }
                     
-            result = importContentVersions(nodeRef, importableItem, inPlaceImport);
+            result = importContentVersions(nodeRef, importableItem, inPlaceImport, stagedContent, preparedMetadata);
         }
         
         ImportableItem.ContentAndMetadata headRevision = importableItem.getHeadRevision();
@@ -625,7 +2297,7 @@ public abstract class AbstractBulkFilesystemImporter
         {
             if (log.isDebugEnabled()) log.debug("Creating head revision of node '" + String.valueOf(nodeRef) + "'.");
             
-            importContentAndMetadata(nodeRef, headRevision, inPlaceImport, metadata);
+            importContentAndMetadata(nodeRef, headRevision, inPlaceImport, metadata, stagedContent);
             
             if (metadata.getAspects().contains(ContentModel.ASPECT_VERSIONABLE))
             {
@@ -645,9 +2317,11 @@ public abstract class AbstractBulkFilesystemImporter
     }
     
     
-    private final int importContentVersions(final NodeRef        nodeRef,
-                                            final ImportableItem importableItem,
-                                            final boolean        inPlaceImport)
+    private final int importContentVersions(final NodeRef                                                         nodeRef,
+                                            final ImportableItem                                                  importableItem,
+                                            final boolean                                                         inPlaceImport,
+                                            final Map<ImportableItem.ContentAndMetadata, ContentData>             stagedContent,
+                                            final Map<ImportableItem.ContentAndMetadata, MetadataLoader.Metadata> preparedMetadata)
         throws InterruptedException
     {
         int result               = 0;
@@ -658,9 +2332,9 @@ public abstract class AbstractBulkFilesystemImporter
             if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
             
             Map<String, Serializable> versionProperties = new HashMap<String, Serializable>();
-            MetadataLoader.Metadata   metadata          = loadMetadata(importableItem.getFileType(), versionEntry);
+            MetadataLoader.Metadata   metadata          = loadMetadata(importableItem.getFileType(), versionEntry, preparedMetadata);
             
-            importContentAndMetadata(nodeRef, versionEntry, inPlaceImport, metadata);
+            importContentAndMetadata(nodeRef, versionEntry, inPlaceImport, metadata, stagedContent);
 
             if (log.isDebugEnabled()) log.debug("Creating v" + String.valueOf(versionEntry.getVersionLabel()) + " of node '" + String.valueOf(nodeRef) + "' (note: version label in Alfresco will not be the same - it is not currently possible to explicitly force a particular version label - see https://code.google.com/p/alfresco-bulk-filesystem-import/issues/detail?id=85).");
   
@@ -688,10 +2362,11 @@ public abstract class AbstractBulkFilesystemImporter
     }
     
     
-    private final void importContentAndMetadata(final NodeRef                           nodeRef,
-                                                final ImportableItem.ContentAndMetadata contentAndMetadata,
-                                                final boolean                           inPlaceImport,
-                                                final MetadataLoader.Metadata           metadata)
+    private final void importContentAndMetadata(final NodeRef                                             nodeRef,
+                                                final ImportableItem.ContentAndMetadata                   contentAndMetadata,
+                                                final boolean                                             inPlaceImport,
+                                                final MetadataLoader.Metadata                             metadata,
+                                                final Map<ImportableItem.ContentAndMetadata, ContentData> stagedContent)
         throws InterruptedException
     {
         // Write the content of the file
@@ -700,24 +2375,28 @@ public abstract class AbstractBulkFilesystemImporter
         {
             if (contentAndMetadata.contentFileExists())
             {
-                importStatus.setCurrentFileBeingProcessed(getFileName(contentAndMetadata.getContentFile()));
+                importStatus.setCurrentFileBeingProcessed(contentAndMetadata.getContentFilePath());
                 
                 if (inPlaceImport)
                 {
                     // It's already in a content store, so simply "link" it into the repository
-                    if (log.isDebugEnabled()) log.debug("Linking ContentStore file '" + getFileName(contentAndMetadata.getContentFile()) + "' into node '" + String.valueOf(nodeRef) + "'.");
+                    if (log.isDebugEnabled()) log.debug("Linking ContentStore file '" + contentAndMetadata.getContentFilePath() + "' into node '" + String.valueOf(nodeRef) + "'.");
                     
                     metadata.addProperty(ContentModel.PROP_CONTENT, buildContentProperty(contentAndMetadata));
                 }
+                else if (stagedContent != null && stagedContent.containsKey(contentAndMetadata))
+                {
+                    // It was copied into the content store before the transaction started, so simply attach it
+                    if (log.isDebugEnabled()) log.debug("Attaching staged content of file '" + contentAndMetadata.getContentFilePath() + "' to node '" + String.valueOf(nodeRef) + "'.");
+                    
+                    metadata.addProperty(ContentModel.PROP_CONTENT, pipelineStages.claimStagedContent(stagedContent.get(contentAndMetadata)));
+                }
                 else
                 {
                     // File is outside a content store, so stream it into the repository
-                    if (log.isDebugEnabled()) log.debug("Streaming contents of file '" + getFileName(contentAndMetadata.getContentFile()) + "' into node '" + String.valueOf(nodeRef) + "'.");
+                    if (log.isDebugEnabled()) log.debug("Streaming contents of file '" + contentAndMetadata.getContentFilePath() + "' into node '" + String.valueOf(nodeRef) + "'.");
   
-                    ContentWriter writer = contentService.getWriter(nodeRef, ContentModel.PROP_CONTENT, true);
-                    writer.guessMimetype(contentAndMetadata.getParentFileName());  // Note: we base the MIME type on the name of the parent file, since the tool doesn't (yet) support a version history of content files with heterogeneous MIME types (since that would break the filename naming convention used to associate versions to parent files).
-                    writer.guessEncoding();
-                    writer.putContent(contentAndMetadata.getContentFile());
+                    writeContent(contentService.getWriter(nodeRef, ContentModel.PROP_CONTENT, true), contentAndMetadata);
                 }
             }
             else
@@ -726,7 +2405,7 @@ public abstract class AbstractBulkFilesystemImporter
             }
             
             // Attach aspects and set all properties
-            importImportableItemMetadata(nodeRef, contentAndMetadata.getContentFile(), metadata);
+            importImportableItemMetadata(nodeRef, contentAndMetadata.getContentFilePath(), metadata);
         }
         else
         {
@@ -735,6 +2414,14 @@ public abstract class AbstractBulkFilesystemImporter
     }
     
     
+    private final void writeContent(final ContentWriter writer, final ImportableItem.ContentAndMetadata contentAndMetadata)
+    {
+        writer.guessMimetype(contentAndMetadata.getParentFileName());  // Note: we base the MIME type on the name of the parent file, since the tool doesn't (yet) support a version history of content files with heterogeneous MIME types (since that would break the filename naming convention used to associate versions to parent files).
+        writer.guessEncoding();
+        writer.putContent(contentAndMetadata.getContentFile());
+    }
+    
+    
     private final void importImportableItemDirectory(final NodeRef                 nodeRef,
                                                      final ImportableItem          importableItem,
                                                      final MetadataLoader.Metadata metadata)
@@ -742,11 +2429,11 @@ public abstract class AbstractBulkFilesystemImporter
     {
         if (importableItem.hasVersionEntries())
         {
-            log.warn("Skipping versions for directory '" + getFileName(importableItem.getHeadRevision().getContentFile()) + "' - Alfresco does not support versioned spaces.");
+            log.warn("Skipping versions for directory '" + importableItem.getHeadRevision().getContentFilePath() + "' - Alfresco does not support versioned spaces.");
         }
         
         // Attach aspects and set all properties
-        importImportableItemMetadata(nodeRef, importableItem.getHeadRevision().getContentFile(), metadata);
+        importImportableItemMetadata(nodeRef, importableItem.getHeadRevision().getContentFilePath(), metadata);
     }
     
     // Workaround for https://issues.alfresco.com/jira/browse/MNT-11702
@@ -801,7 +2488,7 @@ public abstract class AbstractBulkFilesystemImporter
         
         if (contentUrl.length() > MAX_CONTENT_URL_LENGTH)
         {
-            throw new RuntimeException("The content URL '" + contentUrl + "' for file '" + getFileName(contentAndMetadata.getContentFile()) + "' is " + contentUrl.length() + " characters long, but the maximum allowed for an in-place import is " + MAX_CONTENT_URL_LENGTH + " characters.");
+            throw new RuntimeException("The content URL '" + contentUrl + "' for file '" + contentAndMetadata.getContentFilePath() + "' is " + contentUrl.length() + " characters long, but the maximum allowed for an in-place import is " + MAX_CONTENT_URL_LENGTH + " characters.");
         }
                 
         if (mimeTypeService.isText(mimeType))
@@ -816,11 +2503,11 @@ public abstract class AbstractBulkFilesystemImporter
     
     
     private final void importImportableItemMetadata(final NodeRef                 nodeRef,
-                                                    final File                    parentFile,
+                                                    final String                  parentFilePath,
                                                     final MetadataLoader.Metadata metadata)
         throws InterruptedException
     {
-        importStatus.setCurrentFileBeingProcessed(getFileName(parentFile) + " (metadata)");
+        importStatus.setCurrentFileBeingProcessed(parentFilePath + " (metadata)");
 
         // Attach aspects
         if (metadata.getAspects() != null)
@@ -846,22 +2533,35 @@ public abstract class AbstractBulkFilesystemImporter
             }
             catch (final InvalidNodeRefException inre)
             {
-                if (!nodeRef.equals(inre.getNodeRef()))
-                {
-                    // Caused by an invalid NodeRef in the metadata (e.g. in an association)
-                    throw new IllegalStateException("Invalid nodeRef found in metadata for '" + getFileName(parentFile) + "'.  " +
-                                                    "Probable cause: an association is being populated via metadata, but the " +
-                                                    "NodeRef for the target of that association ('" + inre.getNodeRef() + "') is invalid.  " +
-                                                    "Please double check your metadata file and try again.", inre);
-                }
-                else
-                {
-                    // Logic bug in the BFSIT.  :-(
-                    throw inre;
-                }
+                throw translateInvalidNodeRefException(nodeRef, parentFilePath, inre);
             }
         }
     }
+    
+    
+    /*
+     * Distinguishes invalid NodeRefs in the metadata from invalid NodeRefs in the import itself (the given nodeRef).
+     */
+    private final RuntimeException translateInvalidNodeRefException(final NodeRef nodeRef, final String parentFilePath, final InvalidNodeRefException inre)
+    {
+        RuntimeException result = null;
+        
+        if (!nodeRef.equals(inre.getNodeRef()))
+        {
+            // Caused by an invalid NodeRef in the metadata (e.g. in an association)
+            result = new IllegalStateException("Invalid nodeRef found in metadata for '" + parentFilePath + "'.  " +
+                                               "Probable cause: an association is being populated via metadata, but the " +
+                                               "NodeRef for the target of that association ('" + inre.getNodeRef() + "') is invalid.  " +
+                                               "Please double check your metadata file and try again.", inre);
+        }
+        else
+        {
+            // Logic bug in the BFSIT.  :-(
+            result = inre;
+        }
+        
+        return(result);
+    }
         
         
     private final void validateNodeRefIsWritableSpace(final NodeRef target)
@@ -978,6 +2678,43 @@ public abstract class AbstractBulkFilesystemImporter
     }
     
     
+    /*
+     * Returns a copy of the prepared metadata for the given revision, if it was prepared, otherwise loads it.  The copy
+     * allows the caller to modify the metadata without affecting any retries of the transaction.
+     */
+    private final MetadataLoader.Metadata loadMetadata(final ImportableItem.FileType                                         fileType,
+                                                       final ImportableItem.ContentAndMetadata                               contentAndMetadata,
+                                                       final Map<ImportableItem.ContentAndMetadata, MetadataLoader.Metadata> preparedMetadata)
+    {
+        MetadataLoader.Metadata result   = null;
+        MetadataLoader.Metadata prepared = preparedMetadata == null ? null : preparedMetadata.get(contentAndMetadata);
+        
+        if (prepared != null)
+        {
+            result = new MetadataLoader.Metadata();
+            result.setType(prepared.getType());
+            result.setNamespace(prepared.getNamespace());
+            result.setParentAssoc(prepared.getParentAssoc());
+            
+            for (final QName aspect : prepared.getAspects())
+            {
+                result.addAspect(aspect);
+            }
+            
+            for (final Map.Entry<QName, Serializable> property : prepared.getProperties().entrySet())
+            {
+                result.addProperty(property.getKey(), property.getValue());
+            }
+        }
+        else
+        {
+            result = loadMetadata(fileType, contentAndMetadata);
+        }
+        
+        return(result);
+    }
+    
+    
     private final MetadataLoader.Metadata loadMetadata(final ImportableItem.FileType           fileType,
                                                        final ImportableItem.ContentAndMetadata contentAndMetadata)
     {
@@ -989,9 +2726,9 @@ public abstract class AbstractBulkFilesystemImporter
         // Load "standard" metadata from the filesystem, if a content file exists
         if (contentAndMetadata != null && contentAndMetadata.contentFileExists())
         {
-            final String filename = contentAndMetadata.getContentFile().getName().trim().replaceFirst(DirectoryAnalyser.VERSION_SUFFIX_REGEX, "");  // Strip off the version suffix (if any)
-            final Date   modified = new Date(contentAndMetadata.getContentFile().lastModified());
-            final Date   created  = modified;    // TODO: determine proper file creation time (awaiting JDK 1.7 NIO2 library)
+            final String filename = FilenameClassifier.stripVersionSuffix(contentAndMetadata.getContentFileName().trim());  // Strip off the version suffix (if any)
+            final Date   modified = contentAndMetadata.getContentFileModifiedDate();
+            final Date   created  = contentAndMetadata.getContentFileCreatedDate();
             
             result.addProperty(ContentModel.PROP_NAME,     filename);
             result.addProperty(ContentModel.PROP_TITLE,    filename);
@@ -1060,6 +2797,19 @@ public abstract class AbstractBulkFilesystemImporter
     }
     
     
+    /**
+     * @return The batch weight to use for the next batch - the configured batch weight, unless adaptive batch weighting is
+     *         enabled or the batch weight has been changed during the import.
+     */
+    protected final int getEffectiveBatchWeight()
+    {
+        final BatchWeightController controller = batchWeightController;
+        final int                   override   = batchWeightOverride;
+        
+        return(controller != null ? controller.getBatchWeight() : (override > 0 ? override : batchWeight));
+    }
+    
+    
     /**
      * Returns the name of the given importable item.  This is the final name of the item, as it would appear in the repository,
      * after metadata renames are taken into account.
@@ -1184,6 +2934,5 @@ public abstract class AbstractBulkFilesystemImporter
         
         return(result);
     }
-
     
 }
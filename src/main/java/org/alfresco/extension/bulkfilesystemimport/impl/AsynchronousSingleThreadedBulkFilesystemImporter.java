@@ -117,11 +117,18 @@ public class AsynchronousSingleThreadedBulkFilesystemImporter
                                 importStatus.startImport(getFileName(source),
                                                          getRepositoryPath(target),
                                                          inPlaceImport ? BulkImportStatus.ImportType.IN_PLACE : BulkImportStatus.ImportType.STREAMING,
-                                                         getBatchWeight());
-                                bulkImportRecursively(target, getFileName(source), source, replaceExisting, inPlaceImport);
+                                                         getEffectiveBatchWeight());
+                                startSizingScan(source);
+                                importSource(target, source, replaceExisting, inPlaceImport);
+                                
+                                if (!importStatus.isStopping())
+                                {
+                                    postProcess();
+                                }
                                 
                                 if (importStatus.getProcessingState().equals(ProcessingState.STOPPING))
                                 {
+                                    discardPostProcessing();
                                     importStatus.importStopped();
                                     log.info("Bulk import from '" + getFileName(source) + "' stopped.");
                                 }
@@ -137,6 +144,7 @@ public class AsynchronousSingleThreadedBulkFilesystemImporter
                             {
                                 log.error("Bulk import from '" + getFileName(source) + "' failed.", t);
                                 
+                                discardPostProcessing();
                                 importStatus.importFailed(t);
                                 
                                 // Ugh Java's checked exceptions are the pits!
@@ -149,6 +157,11 @@ public class AsynchronousSingleThreadedBulkFilesystemImporter
                                     throw new Exception(t);
                                 }
                             }
+                            finally
+                            {
+                                stopSizingScan();
+                            }
+                            
                             return(null);
                         }
                     }, currentUser);
@@ -169,4 +182,23 @@ public class AsynchronousSingleThreadedBulkFilesystemImporter
         backgroundThread.start();
     }
     
+    
+    /**
+     * Performs the import on the background thread.  Subclasses may override this to import the source some other way,
+     * but must return (or throw) promptly once the import is stopped.
+     * 
+     * @param target          The target space to ingest the content into <i>(must not be null and must be a valid, writable space in the repository)</i>.
+     * @param source          The source directory on the local filesystem to read content from <i>(must not be null and must be a valid, readable directory on the local filesystem)</i>.
+     * @param replaceExisting A flag indicating whether to replace (true) or skip (false) files that are already in the repository.
+     * @param inPlaceImport   A flag indicating whether this is an "in place" import (i.e. the source directory is already located inside the configured content store).
+     */
+    protected void importSource(final NodeRef target,
+                                final File    source,
+                                final boolean replaceExisting,
+                                final boolean inPlaceImport)
+        throws Throwable
+    {
+        bulkImportRecursively(target, false, getFileName(source), source, replaceExisting, inPlaceImport);
+    }
+    
 }
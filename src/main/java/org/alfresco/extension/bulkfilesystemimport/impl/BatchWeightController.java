@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * This class adapts the batch weight during an import, based on how long batch transactions take to commit, how often
+ * they have to be retried, and the resulting throughput.  It uses an "additive increase, multiplicative decrease"
+ * policy, evaluated once per window of batches:
+ * <ul>
+ *   <li>If any batch in the window was retried, or the average batch took longer than the target latency, the weight is cut (lock contention / long lock hold times).</li>
+ *   <li>If the previous increase made throughput worse, it's undone.</li>
+ *   <li>If the average batch took well under the target latency, the weight is increased by a fixed step (commit overhead dominates).</li>
+ * </ul>
+ * The weight always stays within the configured bounds.  Every change is reported to the import status.
+ *
+ * Instances are thread safe, and are shared by all of the threads of an import.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public final class BatchWeightController
+{
+    private final static Log log = LogFactory.getLog(BatchWeightController.class);
+
+    private final static int    BATCHES_PER_WINDOW              = 8;
+    private final static double RETRY_DECREASE_FACTOR           = 0.5;
+    private final static double LATENCY_DECREASE_FACTOR         = 0.75;
+    private final static double INCREASE_LATENCY_THRESHOLD      = 0.5;   // Only grow if batches take less than half the target latency
+    private final static double THROUGHPUT_REGRESSION_TOLERANCE = 0.9;   // An increase that loses more than 10% throughput is undone
+    private final static int    ADDITIVE_INCREASE_DIVISOR       = 10;    // Grow by 1/10th of the initial weight each time
+
+    private final BulkImportStatusImpl importStatus;
+    private final int                  minimumWeight;
+    private final int                  maximumWeight;
+    private final int                  increaseStep;
+    private final long                 targetLatencyNs;
+
+    private volatile int batchWeight;
+
+    // All guarded by "this"
+    private int     windowBatches         = 0;
+    private long    windowWeight          = 0;
+    private long    windowDurationNs      = 0;
+    private long    windowRetries         = 0;
+    private double  previousThroughput    = -1;
+    private int     previousWeight        = -1;
+    private boolean lastChangeWasIncrease = false;
+
+
+    /**
+     * @param importStatus      The import status to report changes to <i>(must not be null)</i>.
+     * @param initialWeight     The weight to start with (typically the configured batch weight) <i>(must be &gt; 0)</i>.
+     * @param minimumWeight     The smallest weight to use <i>(must be &gt; 0)</i>.
+     * @param maximumWeight     The largest weight to use <i>(must be &gt;= minimumWeight)</i>.
+     * @param targetLatencyInMs The desired duration of each batch transaction, including commit <i>(must be &gt; 0)</i>.
+     */
+    public BatchWeightController(final BulkImportStatusImpl importStatus,
+                                 final int                  initialWeight,
+                                 final int                  minimumWeight,
+                                 final int                  maximumWeight,
+                                 final long                 targetLatencyInMs)
+    {
+        // PRECONDITIONS
+        assert importStatus      != null          : "importStatus must not be null.";
+        assert initialWeight     > 0              : "initialWeight must be > 0.";
+        assert minimumWeight     > 0              : "minimumWeight must be > 0.";
+        assert maximumWeight     >= minimumWeight : "maximumWeight must be >= minimumWeight.";
+        assert targetLatencyInMs > 0              : "targetLatencyInMs must be > 0.";
+
+        // Body
+        this.importStatus    = importStatus;
+        this.minimumWeight   = minimumWeight;
+        this.maximumWeight   = maximumWeight;
+        this.increaseStep    = Math.max(1, initialWeight / ADDITIVE_INCREASE_DIVISOR);
+        this.targetLatencyNs = TimeUnit.MILLISECONDS.toNanos(targetLatencyInMs);
+        this.batchWeight     = clamp(initialWeight);
+    }
+
+
+    /**
+     * @return The batch weight to use for the next batch.
+     */
+    public int getBatchWeight()
+    {
+        return(batchWeight);
+    }
+
+
+    /**
+     * Overrides the current batch weight (e.g. at the request of an administrator), and starts a new window of batches.
+     *
+     * @param weight The new batch weight (clamped to the configured bounds) <i>(must be &gt; 0)</i>.
+     * @return The batch weight that will actually be used.
+     */
+    public synchronized int setBatchWeight(final int weight)
+    {
+        // PRECONDITIONS
+        assert weight > 0 : "weight must be > 0.";
+
+        // Body
+        batchWeight           = clamp(weight);
+        windowBatches         = 0;
+        windowWeight          = 0;
+        windowDurationNs      = 0;
+        windowRetries         = 0;
+        previousThroughput    = -1;
+        previousWeight        = -1;
+        lastChangeWasIncrease = false;
+
+        return(batchWeight);
+    }
+
+
+    /**
+     * Records the outcome of a batch, and adjusts the batch weight once enough batches have been seen.
+     *
+     * @param weight     The total weight of the items in the batch.
+     * @param durationNs How long the batch's transaction(s) took, including commit and any retries.
+     * @param retries    The number of times the batch's transaction was retried.
+     */
+    public synchronized void recordBatch(final long weight, final long durationNs, final int retries)
+    {
+        windowBatches++;
+        windowWeight     += weight;
+        windowDurationNs += durationNs;
+        windowRetries    += retries;
+
+        if (windowBatches >= BATCHES_PER_WINDOW)
+        {
+            adjust();
+
+            windowBatches    = 0;
+            windowWeight     = 0;
+            windowDurationNs = 0;
+            windowRetries    = 0;
+        }
+    }
+
+
+    /*
+     * Note: must be called while holding the lock on "this".
+     */
+    private void adjust()
+    {
+        final long   averageLatencyNs = windowDurationNs / windowBatches;
+        final double throughput       = windowDurationNs > 0 ? (double)windowWeight / windowDurationNs : 0.0;
+        final int    currentWeight    = batchWeight;
+        int          newWeight        = currentWeight;
+        String       reason           = null;
+
+        if (windowRetries > 0)
+        {
+            newWeight = clamp((int)(currentWeight * RETRY_DECREASE_FACTOR));
+            reason    = windowRetries + " transaction retr" + (windowRetries == 1 ? "y" : "ies");
+        }
+        else if (averageLatencyNs > targetLatencyNs)
+        {
+            newWeight = clamp((int)(currentWeight * LATENCY_DECREASE_FACTOR));
+            reason    = "average batch latency of " + TimeUnit.NANOSECONDS.toMillis(averageLatencyNs) + "ms";
+        }
+        else if (lastChangeWasIncrease && throughput < previousThroughput * THROUGHPUT_REGRESSION_TOLERANCE)
+        {
+            newWeight = previousWeight;
+            reason    = "throughput dropped after the last increase";
+        }
+        else if (averageLatencyNs < targetLatencyNs * INCREASE_LATENCY_THRESHOLD)
+        {
+            newWeight = clamp(currentWeight + increaseStep);
+            reason    = "average batch latency of " + TimeUnit.NANOSECONDS.toMillis(averageLatencyNs) + "ms";
+        }
+
+        lastChangeWasIncrease = newWeight > currentWeight;
+        previousThroughput    = throughput;
+        previousWeight        = currentWeight;
+
+        if (newWeight != currentWeight)
+        {
+            if (log.isDebugEnabled()) log.debug("Adjusting batch weight from " + currentWeight + " to " + newWeight + " (" + reason + ").");
+
+            batchWeight = newWeight;
+            importStatus.setBatchWeight(newWeight);
+        }
+    }
+
+
+    private int clamp(final int weight)
+    {
+        return(Math.max(minimumWeight, Math.min(maximumWeight, weight)));
+    }
+
+}
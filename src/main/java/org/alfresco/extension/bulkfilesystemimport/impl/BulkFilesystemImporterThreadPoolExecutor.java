@@ -21,6 +21,7 @@
 package org.alfresco.extension.bulkfilesystemimport.impl;
 
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -59,13 +60,23 @@ public class BulkFilesystemImporterThreadPoolExecutor
                                                     final long     keepAliveTime,
                                                     final TimeUnit keepAliveTimeUnit,
                                                     final int      blockingQueueSize)
+    {
+        this(corePoolSize, maximumPoolSize, keepAliveTime, keepAliveTimeUnit, blockingQueueSize, null);
+    }
+    
+    public BulkFilesystemImporterThreadPoolExecutor(final int           corePoolSize,
+                                                    final int           maximumPoolSize,
+                                                    final long          keepAliveTime,
+                                                    final TimeUnit      keepAliveTimeUnit,
+                                                    final int           blockingQueueSize,
+                                                    final ThreadFactory threadFactory)
     {
         super(corePoolSize      <= 0    ? DEFAULT_CORE_POOL_SIZE         : corePoolSize,
               maximumPoolSize   <= 0    ? DEFAULT_MAXIMUM_CORE_POOL_SIZE : maximumPoolSize,
               keepAliveTime     <= 0    ? DEFAULT_KEEP_ALIVE_TIME        : keepAliveTime,
               keepAliveTimeUnit == null ? DEFAULT_KEEP_ALIVE_TIME_UNIT   : keepAliveTimeUnit,
               new LinkedBlockingQueue<Runnable>(blockingQueueSize <= 0 ? DEFAULT_BLOCKING_QUEUE_SIZE : blockingQueueSize),
-              new BulkFilesystemImporterThreadFactory());
+              threadFactory == null ? new BulkFilesystemImporterThreadFactory() : threadFactory);
 
         // This won't work, since it allows for out-of-order execution
         // It also doesn't allow the thread pool to be cleanly shutdown - see http://docs.oracle.com/javase/7/docs/api/java/util/concurrent/ThreadPoolExecutor.html
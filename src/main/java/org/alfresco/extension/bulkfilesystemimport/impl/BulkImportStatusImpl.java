@@ -21,7 +21,15 @@ package org.alfresco.extension.bulkfilesystemimport.impl;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
@@ -40,25 +48,51 @@ public class BulkImportStatusImpl
     implements BulkImportStatus
 {
     // General information
-    private AtomicBoolean      inProgress                = new AtomicBoolean(false);
-    private ProcessingState    processingState           = ProcessingState.NEVER_RUN;
-    private String             sourceDirectory           = null;
-    private String             targetSpace               = null;
-    private ImportType         importType                = null;
-    private Date               startDate                 = null;
-    private Date               endDate                   = null;
-    private Long               startNs                   = null;
-    private Long               endNs                     = null;
-    private Throwable          lastException             = null;
-    private String             currentFileBeingProcessed = null;
-    private AtomicLong         batchWeight               = new AtomicLong();
-    private ThreadPoolExecutor threadPool                = null;
-    private AtomicLong         numberOfBatchesCompleted  = new AtomicLong();
+    private AtomicBoolean      inProgress                 = new AtomicBoolean(false);
+    private ProcessingState    processingState            = ProcessingState.NEVER_RUN;
+    private String             sourceDirectory            = null;
+    private String             targetSpace                = null;
+    private ImportType         importType                 = null;
+    private Date               startDate                  = null;
+    private Date               endDate                    = null;
+    private Long               startNs                    = null;
+    private Long               endNs                      = null;
+    private Throwable          lastException              = null;
+    private String             currentFileBeingProcessed  = null;
+    private AtomicLong         batchWeight                = new AtomicLong();
+    private List<Long>         batchWeightHistory         = new LinkedList<Long>();  // Guarded by "this"
+    private AtomicLong         numberOfTransactionRetries = new AtomicLong();
+    private AtomicLong         numberOfItemsQuarantined   = new AtomicLong();
+    private String             quarantineFile             = null;
+    private ExecutorService    threadPool                 = null;
+    private AtomicLong         numberOfBatchesCompleted   = new AtomicLong();
+    
+    private final Map<PipelineStage, ExecutorService> pipelineStages = new EnumMap<PipelineStage, ExecutorService>(PipelineStage.class);  // Guarded by itself
+    
+    private final static int MAX_BATCH_WEIGHT_HISTORY = 100;
+    
+    // Progress information
+    private final static double THROUGHPUT_TIME_CONSTANT_IN_S     = 60.0;  // Older throughput samples decay by a factor of e every minute
+    private final static double MIN_THROUGHPUT_SAMPLE_PERIOD_IN_S = 1.0;
+    
+    private AtomicBoolean sizingInProgress          = new AtomicBoolean(false);
+    private AtomicBoolean sizingComplete            = new AtomicBoolean(false);
+    private AtomicLong    estimatedNumberOfFolders  = new AtomicLong();
+    private AtomicLong    estimatedNumberOfFiles    = new AtomicLong();
+    private AtomicLong    estimatedNumberOfBytes    = new AtomicLong();
+    private AtomicLong    numberOfEntriesProcessed  = new AtomicLong();
+    private long          lastThroughputSampleNs    = 0;   // Guarded by "this"
+    private long          lastThroughputSampleCount = 0;   // Guarded by "this"
+    private double        smoothedThroughput        = -1;  // Guarded by "this"
     
     // Read-side information
     private AtomicLong numberOfFoldersScanned                  = new AtomicLong();
     private AtomicLong numberOfFilesScanned                    = new AtomicLong();
     private AtomicLong numberOfUnreadableEntries               = new AtomicLong(); 
+    private AtomicLong numberOfStatCallsSaved                  = new AtomicLong();
+    private AtomicLong numberOfFoldersReadFromManifest         = new AtomicLong();
+    private AtomicLong numberOfFoldersReadAhead                = new AtomicLong();
+    private AtomicLong readAheadDepth                          = new AtomicLong();
     
     private AtomicLong numberOfContentFilesRead                = new AtomicLong();
     private AtomicLong numberOfContentBytesRead                = new AtomicLong();
@@ -81,12 +115,18 @@ public class BulkImportStatusImpl
     private AtomicLong numberOfContentNodesCreated             = new AtomicLong();
     private AtomicLong numberOfContentNodesReplaced            = new AtomicLong();
     private AtomicLong numberOfContentNodesSkipped             = new AtomicLong();
+    private AtomicLong numberOfUnchangedNodesSkipped           = new AtomicLong();
     private AtomicLong numberOfContentBytesWritten             = new AtomicLong();
     private AtomicLong numberOfContentPropertiesWritten        = new AtomicLong();
     
     private AtomicLong numberOfContentVersionsCreated          = new AtomicLong();
     private AtomicLong numberOfContentVersionBytesWritten      = new AtomicLong();
     private AtomicLong numberOfContentVersionPropertiesWritten = new AtomicLong();
+    
+    private AtomicLong numberOfContentFilesStaged              = new AtomicLong();
+    private AtomicLong numberOfContentBytesStaged              = new AtomicLong();
+    private AtomicLong numberOfContentVersionFilesStaged       = new AtomicLong();
+    private AtomicLong numberOfContentVersionBytesStaged       = new AtomicLong();
 
 
     // General information
@@ -142,8 +182,84 @@ public class BulkImportStatusImpl
     }
     
     @Override public long    getBatchWeight()           { return(batchWeight.get()); }
-    @Override public int     getNumberOfActiveThreads() { return(threadPool == null ? 1 : threadPool.getActiveCount()); }
-    @Override public int     getTotalNumberOfThreads()  { return(threadPool == null ? 1 : threadPool.getPoolSize()); }
+    
+    public void setBatchWeight(final long batchWeight)
+    {
+        this.batchWeight.set(batchWeight);
+        
+        synchronized(this)
+        {
+            batchWeightHistory.add(batchWeight);
+            
+            if (batchWeightHistory.size() > MAX_BATCH_WEIGHT_HISTORY)
+            {
+                batchWeightHistory.remove(0);
+            }
+        }
+    }
+    
+    @Override
+    public synchronized List<Long> getBatchWeightHistory()
+    {
+        return(Collections.unmodifiableList(new ArrayList<Long>(batchWeightHistory)));
+    }
+    
+    @Override public long getNumberOfTransactionRetries()                   { return(numberOfTransactionRetries.get()); }
+    public void           addTransactionRetries(final long numberOfRetries) { numberOfTransactionRetries.addAndGet(numberOfRetries); }
+    
+    @Override public long getNumberOfItemsQuarantined()       { return(numberOfItemsQuarantined.get()); }
+    public void           incrementNumberOfItemsQuarantined() { numberOfItemsQuarantined.incrementAndGet(); }
+    
+    @Override public String getQuarantineFile()                            { return(quarantineFile); }
+    public void             setQuarantineFile(final String quarantineFile) { this.quarantineFile = quarantineFile; }
+    
+    @Override public int     getNumberOfActiveThreads() { return(activeThreadsIn(threadPool)); }
+    @Override public int     getTotalNumberOfThreads()  { return(threadsIn(threadPool)); }
+    
+    @Override
+    public List<PipelineStageStatus> getPipelineStages()
+    {
+        final List<PipelineStageStatus> result = new ArrayList<PipelineStageStatus>();
+        
+        synchronized(pipelineStages)
+        {
+            for (final Map.Entry<PipelineStage, ExecutorService> entry : pipelineStages.entrySet())
+            {
+                final ExecutorService executor = entry.getValue();
+                
+                result.add(new PipelineStageSnapshot(entry.getKey(), activeThreadsIn(executor), threadsIn(executor), queueDepthOf(executor)));
+            }
+        }
+        
+        return(result);
+    }
+    
+    /**
+     * @param stage    The pipeline stage <i>(must not be null)</i>.
+     * @param executor The executor that runs that stage <i>(may be null, meaning the stage isn't in use)</i>.
+     */
+    public void setPipelineStage(final PipelineStage stage, final ExecutorService executor)
+    {
+        synchronized(pipelineStages)
+        {
+            if (executor == null)
+            {
+                pipelineStages.remove(stage);
+            }
+            else
+            {
+                pipelineStages.put(stage, executor);
+            }
+        }
+    }
+    
+    public void clearPipelineStages()
+    {
+        synchronized(pipelineStages)
+        {
+            pipelineStages.clear();
+        }
+    }
 
     
     @Override public String  getCurrentFileBeingProcessed()                                       { return(currentFileBeingProcessed); }
@@ -157,7 +273,7 @@ public class BulkImportStatusImpl
         startImport(sourceDirectory, targetSpace, importType, batchWeight, null);
     }
     
-    public void startImport(final String sourceDirectory, final String targetSpace, final ImportType importType, final long batchWeight, final ThreadPoolExecutor threadPool)
+    public void startImport(final String sourceDirectory, final String targetSpace, final ImportType importType, final long batchWeight, final ExecutorService threadPool)
     {
         if (!inProgress.compareAndSet(false, true))
         {
@@ -175,12 +291,41 @@ public class BulkImportStatusImpl
         this.currentFileBeingProcessed = null;
         this.batchWeight.set(batchWeight);
         this.threadPool                = threadPool;
+        setPipelineStage(PipelineStage.COMMIT, threadPool);
         this.numberOfBatchesCompleted.set(0);
+        this.numberOfTransactionRetries.set(0);
+        this.numberOfItemsQuarantined.set(0);
+        this.quarantineFile            = null;
+        
+        synchronized(this)
+        {
+            this.batchWeightHistory.clear();
+            this.batchWeightHistory.add(batchWeight);
+        }
+        
+        // Progress information
+        this.sizingInProgress.set(false);
+        this.sizingComplete.set(false);
+        this.estimatedNumberOfFolders.set(0);
+        this.estimatedNumberOfFiles.set(0);
+        this.estimatedNumberOfBytes.set(0);
+        this.numberOfEntriesProcessed.set(0);
+        
+        synchronized(this)
+        {
+            this.lastThroughputSampleNs    = 0;
+            this.lastThroughputSampleCount = 0;
+            this.smoothedThroughput        = -1;
+        }
         
         // Read-side information
         this.numberOfFoldersScanned.set(1);   // We set this to one to count the initial starting directory (which doesn't otherwise get counted)
         this.numberOfFilesScanned.set(0);
         this.numberOfUnreadableEntries.set(0);
+        this.numberOfStatCallsSaved.set(0);
+        this.numberOfFoldersReadFromManifest.set(0);
+        this.numberOfFoldersReadAhead.set(0);
+        this.readAheadDepth.set(0);
         
         this.numberOfContentFilesRead.set(0);
         this.numberOfContentBytesRead.set(0);
@@ -203,6 +348,7 @@ public class BulkImportStatusImpl
         this.numberOfContentNodesCreated.set(0);
         this.numberOfContentNodesReplaced.set(0);
         this.numberOfContentNodesSkipped.set(0);
+        this.numberOfUnchangedNodesSkipped.set(0);
         this.numberOfContentBytesWritten.set(0);
         this.numberOfContentPropertiesWritten.set(0);
         
@@ -210,6 +356,11 @@ public class BulkImportStatusImpl
         this.numberOfContentVersionBytesWritten.set(0);
         this.numberOfContentVersionPropertiesWritten.set(0);
         
+        this.numberOfContentFilesStaged.set(0);
+        this.numberOfContentBytesStaged.set(0);
+        this.numberOfContentVersionFilesStaged.set(0);
+        this.numberOfContentVersionBytesStaged.set(0);
+        
         this.startNs = System.nanoTime();
         this.endNs   = null;
     }
@@ -252,10 +403,155 @@ public class BulkImportStatusImpl
     
     
     
+    // Progress information
+    @Override public boolean isSizingInProgress()           { return(sizingInProgress.get()); }
+    @Override public boolean isSizingComplete()             { return(sizingComplete.get()); }
+    @Override public long    getEstimatedNumberOfFolders()  { return(estimatedNumberOfFolders.longValue()); }
+    @Override public long    getEstimatedNumberOfFiles()    { return(estimatedNumberOfFiles.longValue()); }
+    @Override public long    getEstimatedNumberOfBytes()    { return(estimatedNumberOfBytes.longValue()); }
+    @Override public long    getNumberOfEntriesProcessed()  { return(numberOfEntriesProcessed.longValue()); }
+    
+    @Override
+    public Float getPercentComplete()
+    {
+        Float result = null;
+        
+        if (sizingComplete.get())
+        {
+            final long total = estimatedNumberOfFiles.get() + estimatedNumberOfFolders.get();
+            
+            if (total <= 0 || ProcessingState.SUCCESSFUL.equals(processingState))
+            {
+                result = Float.valueOf(100.0f);
+            }
+            else
+            {
+                result = Float.valueOf(Math.min(100.0f, (float)(100.0 * entriesDone() / total)));
+            }
+        }
+        
+        return(result);
+    }
+    
+    @Override
+    public synchronized Float getThroughputInEntriesPerSecond()
+    {
+        Float result = null;
+        
+        if (startNs != null)
+        {
+            final long   nowNs          = endNs == null ? System.nanoTime() : endNs;
+            final long   entries        = numberOfEntriesProcessed.get();
+            final double sinceLastSampleS;
+            
+            if (lastThroughputSampleNs == 0)
+            {
+                lastThroughputSampleNs = startNs;
+            }
+            
+            sinceLastSampleS = (nowNs - lastThroughputSampleNs) / (1000.0 * 1000.0 * 1000.0);
+            
+            // Exponentially weighted moving average, weighted by time (so that it doesn't matter how often we're polled)
+            if (sinceLastSampleS >= MIN_THROUGHPUT_SAMPLE_PERIOD_IN_S)
+            {
+                final double sample = (entries - lastThroughputSampleCount) / sinceLastSampleS;
+                
+                if (smoothedThroughput < 0)
+                {
+                    smoothedThroughput = sample;
+                }
+                else
+                {
+                    smoothedThroughput += (1.0 - Math.exp(-sinceLastSampleS / THROUGHPUT_TIME_CONSTANT_IN_S)) * (sample - smoothedThroughput);
+                }
+                
+                lastThroughputSampleNs    = nowNs;
+                lastThroughputSampleCount = entries;
+            }
+            
+            if (smoothedThroughput >= 0)
+            {
+                result = Float.valueOf((float)smoothedThroughput);
+            }
+        }
+        
+        return(result);
+    }
+    
+    @Override
+    public Date getEstimatedCompletionDate()
+    {
+        Date        result     = null;
+        final Float throughput = getThroughputInEntriesPerSecond();
+        
+        if (inProgress() && sizingComplete.get() && throughput != null && throughput.floatValue() > 0)
+        {
+            final long remaining = Math.max(0, estimatedNumberOfFiles.get() + estimatedNumberOfFolders.get() - entriesDone());
+            
+            result = new Date(System.currentTimeMillis() + (long)(remaining * 1000.0 / throughput.floatValue()));
+        }
+        
+        return(result);
+    }
+    
+    // Unreadable entries are counted by the sizing scan, but never get processed
+    private long entriesDone()
+    {
+        return(numberOfEntriesProcessed.get() + numberOfUnreadableEntries.get());
+    }
+    
+    public void sizingStarted()
+    {
+        sizingInProgress.set(true);
+        sizingComplete.set(false);
+    }
+    
+    public void addSizingTotals(final long numberOfFolders, final long numberOfFiles, final long numberOfBytes)
+    {
+        estimatedNumberOfFolders.addAndGet(numberOfFolders);
+        estimatedNumberOfFiles.addAndGet(numberOfFiles);
+        estimatedNumberOfBytes.addAndGet(numberOfBytes);
+    }
+    
+    public void sizingCompleted()
+    {
+        sizingComplete.set(true);
+        sizingInProgress.set(false);
+    }
+    
+    public void sizingStopped()
+    {
+        sizingInProgress.set(false);
+    }
+    
+    /**
+     * @param importableItem The importable item that has been processed (imported or skipped) <i>(must not be null)</i>.
+     */
+    public void incrementEntriesProcessed(final ImportableItem importableItem)
+    {
+        long entries = importableItem.getHeadRevision().weight();
+        
+        if (importableItem.hasVersionEntries())
+        {
+            for (final ImportableItem.ContentAndMetadata versionEntry : importableItem.getVersionEntries())
+            {
+                entries += versionEntry.weight();
+            }
+        }
+        
+        numberOfEntriesProcessed.addAndGet(entries);
+    }
+    
+    
+    
     // Read-side information
     @Override public long getNumberOfFoldersScanned()              { return(numberOfFoldersScanned.longValue()); }
     @Override public long getNumberOfFilesScanned()                { return(numberOfFilesScanned.longValue()); }
     @Override public long getNumberOfUnreadableEntries()           { return(numberOfUnreadableEntries.longValue()); }
+    @Override public long getEstimatedNumberOfStatCallsSaved()     { return(numberOfStatCallsSaved.longValue()); }
+    @Override public long getNumberOfFoldersReadFromManifest()     { return(numberOfFoldersReadFromManifest.longValue()); }
+    @Override public long getNumberOfFoldersReadAhead()            { return(numberOfFoldersReadAhead.longValue()); }
+    @Override public long getReadAheadDepth()                      { return(readAheadDepth.longValue()); }
     
     @Override public long getNumberOfContentFilesRead()            { return(numberOfContentFilesRead.longValue()); }
     @Override public long getNumberOfContentBytesRead()            { return(numberOfContentBytesRead.longValue()); }
@@ -320,6 +616,30 @@ public class BulkImportStatusImpl
         numberOfUnreadableEntries.incrementAndGet();
     }
     
+    public void incrementNumberOfFoldersReadFromManifest()
+    {
+        numberOfFoldersReadFromManifest.incrementAndGet();
+    }
+    
+    public void setReadAheadStatistics(final long numberOfFoldersReadAhead, final long readAheadDepth)
+    {
+        this.numberOfFoldersReadAhead.set(numberOfFoldersReadAhead);
+        this.readAheadDepth.set(readAheadDepth);
+    }
+    
+    public void incrementNumberOfStatCallsSaved(final long statCallsSaved)
+    {
+        if (statCallsSaved > 0)
+        {
+            numberOfStatCallsSaved.addAndGet(statCallsSaved);
+        }
+    }
+    
+    public void incrementUnchangedNodesSkipped()
+    {
+        numberOfUnchangedNodesSkipped.incrementAndGet();
+    }
+    
     public void incrementImportableItemsSkipped(final ImportableItem importableItem, final boolean isDirectory)
     {
         if (importableItem.getHeadRevision().contentFileExists())
@@ -341,6 +661,7 @@ public class BulkImportStatusImpl
     @Override public long getNumberOfContentNodesCreated()             { return(numberOfContentNodesCreated.longValue()); }
     @Override public long getNumberOfContentNodesReplaced()            { return(numberOfContentNodesReplaced.longValue()); }
     @Override public long getNumberOfContentNodesSkipped()             { return(numberOfContentNodesSkipped.longValue()); }
+    @Override public long getNumberOfUnchangedNodesSkipped()           { return(numberOfUnchangedNodesSkipped.longValue()); }
     @Override public long getNumberOfContentBytesWritten()             { return(numberOfContentBytesWritten.longValue()); }
     @Override public long getNumberOfContentPropertiesWritten()        { return(numberOfContentPropertiesWritten.longValue()); }
     
@@ -348,6 +669,29 @@ public class BulkImportStatusImpl
     @Override public long getNumberOfContentVersionBytesWritten()      { return(numberOfContentVersionBytesWritten.longValue()); }
     @Override public long getNumberOfContentVersionPropertiesWritten() { return(numberOfContentVersionPropertiesWritten.longValue()); }
     
+    @Override public long getNumberOfContentFilesStaged()              { return(numberOfContentFilesStaged.longValue()); }
+    @Override public long getNumberOfContentBytesStaged()              { return(numberOfContentBytesStaged.longValue()); }
+    @Override public long getNumberOfContentVersionFilesStaged()       { return(numberOfContentVersionFilesStaged.longValue()); }
+    @Override public long getNumberOfContentVersionBytesStaged()       { return(numberOfContentVersionBytesStaged.longValue()); }
+    
+    /**
+     * @param isVersion True if the staged file is a version, false if it's a head revision.
+     * @param bytes     The size of the staged file.
+     */
+    public void incrementContentFilesStaged(final boolean isVersion, final long bytes)
+    {
+        if (isVersion)
+        {
+            numberOfContentVersionFilesStaged.incrementAndGet();
+            numberOfContentVersionBytesStaged.addAndGet(bytes);
+        }
+        else
+        {
+            numberOfContentFilesStaged.incrementAndGet();
+            numberOfContentBytesStaged.addAndGet(bytes);
+        }
+    }
+    
     public void incrementNodesWritten(final ImportableItem importableItem,
                                       final boolean        isSpace,
                                       final NodeState      nodeState,
@@ -431,6 +775,80 @@ public class BulkImportStatusImpl
     }
     
     
+    private final static int activeThreadsIn(final ExecutorService threadPool)
+    {
+        int result = 1;
+        
+        if (threadPool instanceof ThreadPoolExecutor)
+        {
+            result = ((ThreadPoolExecutor)threadPool).getActiveCount();
+        }
+        else if (threadPool instanceof ForkJoinPool)
+        {
+            result = ((ForkJoinPool)threadPool).getActiveThreadCount();
+        }
+        
+        return(result);
+    }
+    
+    
+    private final static int threadsIn(final ExecutorService threadPool)
+    {
+        int result = 1;
+        
+        if (threadPool instanceof ThreadPoolExecutor)
+        {
+            result = ((ThreadPoolExecutor)threadPool).getPoolSize();
+        }
+        else if (threadPool instanceof ForkJoinPool)
+        {
+            result = ((ForkJoinPool)threadPool).getPoolSize();
+        }
+        
+        return(result);
+    }
+    
+    
+    private final static int queueDepthOf(final ExecutorService executor)
+    {
+        int result = 0;
+        
+        if (executor instanceof ThreadPoolExecutor)
+        {
+            result = ((ThreadPoolExecutor)executor).getQueue().size();
+        }
+        else if (executor instanceof ForkJoinPool)
+        {
+            result = (int)Math.min(Integer.MAX_VALUE, ((ForkJoinPool)executor).getQueuedTaskCount() + ((ForkJoinPool)executor).getQueuedSubmissionCount());
+        }
+        
+        return(result);
+    }
+    
+    
+    private final static class PipelineStageSnapshot
+        implements PipelineStageStatus
+    {
+        private final PipelineStage stage;
+        private final int           activeThreads;
+        private final int           totalThreads;
+        private final int           queueDepth;
+        
+        private PipelineStageSnapshot(final PipelineStage stage, final int activeThreads, final int totalThreads, final int queueDepth)
+        {
+            this.stage         = stage;
+            this.activeThreads = activeThreads;
+            this.totalThreads  = totalThreads;
+            this.queueDepth    = queueDepth;
+        }
+        
+        @Override public PipelineStage getStage()         { return(stage); }
+        @Override public int           getActiveThreads() { return(activeThreads); }
+        @Override public int           getTotalThreads()  { return(totalThreads); }
+        @Override public int           getQueueDepth()    { return(queueDepth); }
+    }
+    
+    
     public enum NodeState { SKIPPED, CREATED, REPLACED };
     
     
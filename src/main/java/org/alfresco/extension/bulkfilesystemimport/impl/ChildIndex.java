@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.alfresco.query.PagingRequest;
+import org.alfresco.query.PagingResults;
+import org.alfresco.service.cmr.model.FileFolderService;
+import org.alfresco.service.cmr.model.FileInfo;
+import org.alfresco.service.cmr.repository.NodeRef;
+
+
+/**
+ * This class is an in-memory index of the names of the existing (<code>cm:contains</code>) children of a single target
+ * space, loaded with one paged query before a directory is imported.  It allows the importer to find existing nodes
+ * without a <code>NodeService.getChildByName</code> call per item.
+ *
+ * The index only contains the children <code>FileFolderService.list</code> returns (i.e. <code>cm:content</code> and
+ * <code>cm:folder</code> subtypes) at the time it was loaded - it doesn't see children created by the import itself -
+ * so a miss is never proof that the child doesn't exist (see {@link #lookup(String)}).
+ *
+ * Instances are immutable once loaded (and therefore thread safe), and are only used for the duration of a single
+ * directory's import.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public final class ChildIndex
+{
+    private final NodeRef              parent;
+    private final Map<String, NodeRef> children;
+
+
+    private ChildIndex(final NodeRef parent, final Map<String, NodeRef> children)
+    {
+        this.parent   = parent;
+        this.children = children;
+    }
+
+
+    /**
+     * Loads the index for the given space.  Must be called within a transaction.
+     *
+     * @param fileFolderService The file folder service to use <i>(must not be null)</i>.
+     * @param parent            The space to index the children of <i>(must not be null)</i>.
+     * @param pageSize          The number of children to retrieve per query <i>(must be &gt; 0)</i>.
+     * @return The index <i>(will not be null)</i>.
+     */
+    public static ChildIndex load(final FileFolderService fileFolderService, final NodeRef parent, final int pageSize)
+    {
+        // PRECONDITIONS
+        assert fileFolderService != null : "fileFolderService must not be null.";
+        assert parent            != null : "parent must not be null.";
+        assert pageSize          > 0     : "pageSize must be > 0.";
+
+        // Body
+        final Map<String, NodeRef> children         = new HashMap<String, NodeRef>();
+        String                     queryExecutionId = null;
+        int                        skipCount        = 0;
+        boolean                    moreItems        = true;
+
+        while (moreItems)
+        {
+            final PagingResults<FileInfo> page = fileFolderService.list(parent, true, true, null, null, new PagingRequest(skipCount, pageSize, queryExecutionId));
+
+            for (final FileInfo child : page.getPage())
+            {
+                children.put(normaliseName(child.getName()), child.getNodeRef());
+            }
+
+            queryExecutionId = page.getQueryExecutionId();
+            skipCount       += page.getPage().size();
+            moreItems        = page.hasMoreItems() && page.getPage().size() > 0;
+        }
+
+        return(new ChildIndex(parent, children));
+    }
+
+
+    /**
+     * @return The space this is an index of <i>(will not be null)</i>.
+     */
+    public NodeRef getParent()
+    {
+        return(parent);
+    }
+
+
+    /**
+     * @param name The name of the child to look up <i>(must not be null)</i>.
+     * @return The child with that name, or null if it isn't in the index (in which case it may still exist, if it isn't
+     *         a content or folder node, or was created after the index was loaded) <i>(may be null)</i>.
+     */
+    public NodeRef lookup(final String name)
+    {
+        return(children.get(normaliseName(name)));
+    }
+
+
+    /**
+     * @return The number of children in the index.
+     */
+    public int size()
+    {
+        return(children.size());
+    }
+
+
+    /*
+     * cm:name uniqueness is case insensitive, as is NodeService.getChildByName.
+     */
+    static String normaliseName(final String name)
+    {
+        return(name.toLowerCase(Locale.ENGLISH));
+    }
+
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.extension.bulkfilesystemimport.ImportableItem;
+
+
+/**
+ * This class imports the batches of a single directory concurrently.  The calling thread imports batches itself, and
+ * also dispatches up to <code>batchConcurrency - 1</code> helpers (via
+ * {@link AbstractBulkFilesystemImporter#dispatchBatchTask(Runnable)}) that import batches alongside it, each in a
+ * transaction of its own.  As in the sequential case, each batch is cut just before it's imported, so that it reflects
+ * the current batch weight.
+ *
+ * Helpers that don't get to run until every batch has been cut simply do nothing (and helpers that never get to run
+ * at all are harmless), so the calling thread only ever waits for batches that are actually being imported - a
+ * directory can't deadlock a fully busy thread pool.
+ *
+ * The batches share the directory's child index.  That's safe, since the index is never updated and misses always
+ * fall back to a query, but items in different batches that differ only by case would each create a node (neither
+ * transaction can see the other's), so the importer doesn't use this class for directories containing such items.
+ *
+ * Each instance imports a single directory.  Instances are thread safe.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+final class ConcurrentBatchImporter
+{
+    private final AbstractBulkFilesystemImporter importer;
+    private final NodeRef                        target;
+    private final String                         sourceRoot;
+    private final List<ImportableItem>           importableItems;
+    private final boolean                        replaceExisting;
+    private final boolean                        inPlaceImport;
+    private final ChildIndex                     childIndex;
+    private final int                            batchConcurrency;
+    private final String                         currentUser;
+
+    // All guarded by "this"
+    private final SortedMap<Integer, List<Triple<NodeRef, File, Boolean>>> subDirectories = new TreeMap<Integer, List<Triple<NodeRef, File, Boolean>>>();  // Keyed by the index of each batch's first item, to preserve order
+    private int                                                            nextItem        = 0;
+    private int                                                            batchesInFlight = 0;
+    private int                                                            helpers         = 0;
+    private boolean                                                        dispatchRefused = false;
+    private Throwable                                                      failure         = null;
+
+
+    /**
+     * @param importer         The importer to import the batches with <i>(must not be null)</i>.
+     * @param target           The space to import the items into <i>(must not be null)</i>.
+     * @param sourceRoot       The original directory from which this import was initiated <i>(must not be null)</i>.
+     * @param importableItems  The (filtered) items of the directory <i>(must not be null)</i>.
+     * @param replaceExisting  A flag indicating whether to replace (true) or skip (false) files that are already in the repository.
+     * @param inPlaceImport    A flag indicating whether this is an "in place" import.
+     * @param childIndex       The directory's child index <i>(may be null)</i>.
+     * @param batchConcurrency The maximum number of batches to import at once <i>(must be &gt; 1)</i>.
+     */
+    ConcurrentBatchImporter(final AbstractBulkFilesystemImporter importer,
+                            final NodeRef                        target,
+                            final String                         sourceRoot,
+                            final List<ImportableItem>           importableItems,
+                            final boolean                        replaceExisting,
+                            final boolean                        inPlaceImport,
+                            final ChildIndex                     childIndex,
+                            final int                            batchConcurrency)
+    {
+        // PRECONDITIONS
+        assert importer         != null : "importer must not be null.";
+        assert target           != null : "target must not be null.";
+        assert sourceRoot       != null : "sourceRoot must not be null.";
+        assert importableItems  != null : "importableItems must not be null.";
+        assert batchConcurrency > 1     : "batchConcurrency must be > 1.";
+
+        // Body
+        this.importer         = importer;
+        this.target           = target;
+        this.sourceRoot       = sourceRoot;
+        this.importableItems  = importableItems;
+        this.replaceExisting  = replaceExisting;
+        this.inPlaceImport    = inPlaceImport;
+        this.childIndex       = childIndex;
+        this.batchConcurrency = batchConcurrency;
+        this.currentUser      = AuthenticationUtil.getFullyAuthenticatedUser();
+    }
+
+
+    /**
+     * Imports every batch of the directory, returning once they've all been imported (or one has failed).
+     *
+     * @return The sub-directories that were imported and not dispatched, in the order of the items <i>(will not be null)</i>.
+     * @throws InterruptedException If the import is stopped, or the calling thread is interrupted.
+     */
+    List<Triple<NodeRef, File, Boolean>> importBatches()
+        throws InterruptedException
+    {
+        List<Triple<NodeRef, File, Boolean>> result = new ArrayList<Triple<NodeRef, File, Boolean>>();
+
+        try
+        {
+            importBatchesOnThisThread();
+        }
+        catch (final InterruptedException ie)
+        {
+            failed(ie);
+        }
+        catch (final RuntimeException re)
+        {
+            failed(re);
+        }
+        catch (final Error e)
+        {
+            failed(e);
+        }
+
+        synchronized(this)
+        {
+            while (batchesInFlight > 0)
+            {
+                wait();
+            }
+
+            if (failure instanceof InterruptedException) throw (InterruptedException)failure;
+            if (failure instanceof RuntimeException)     throw (RuntimeException)failure;
+            if (failure instanceof Error)                throw (Error)failure;
+            if (failure != null)                         throw new RuntimeException(failure);
+
+            for (final List<Triple<NodeRef, File, Boolean>> batchSubDirectories : subDirectories.values())
+            {
+                result.addAll(batchSubDirectories);
+            }
+        }
+
+        return(result);
+    }
+
+
+    private void importBatchesOnThisThread()
+        throws InterruptedException
+    {
+        while (true)
+        {
+            final int                  fromIndex;
+            final List<ImportableItem> batch;
+            boolean                    dispatchHelper = false;
+
+            synchronized(this)
+            {
+                if (failure != null || nextItem >= importableItems.size())
+                {
+                    break;
+                }
+
+                fromIndex = nextItem;
+                batch     = importer.nextBatch(importableItems, fromIndex);
+                nextItem += batch.size();
+                batchesInFlight++;
+
+                // Only bring in another helper if there'll be something left for it to do
+                if (nextItem < importableItems.size() && !dispatchRefused && helpers < batchConcurrency - 1)
+                {
+                    helpers++;
+                    dispatchHelper = true;
+                }
+            }
+
+            try
+            {
+                if (dispatchHelper)
+                {
+                    dispatchHelper();
+                }
+
+                if (importer.importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
+
+                // Sub-directories are dispatched as soon as their batch has committed, rather than once every batch has
+                final List<Triple<NodeRef, File, Boolean>> batchSubDirectories = importer.importAndDispatchBatch(target, sourceRoot, batch, replaceExisting, inPlaceImport, childIndex);
+
+                synchronized(this)
+                {
+                    subDirectories.put(fromIndex, batchSubDirectories);
+                }
+            }
+            finally
+            {
+                synchronized(this)
+                {
+                    batchesInFlight--;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+
+    private void dispatchHelper()
+    {
+        final boolean dispatched = importer.dispatchBatchTask(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    AuthenticationUtil.runAs(new RunAsWork<Object>()
+                    {
+                        @Override
+                        public Object doWork()
+                            throws Exception
+                        {
+                            importBatchesOnThisThread();
+                            return(null);
+                        }
+                    }, currentUser);
+                }
+                catch (final Throwable t)
+                {
+                    failed(t);
+                }
+            }
+        });
+
+        if (!dispatched)
+        {
+            synchronized(this)
+            {
+                helpers--;
+                dispatchRefused = true;  // The worker threads are saturated (or shutting down), so don't keep trying
+            }
+        }
+    }
+
+
+    private synchronized void failed(final Throwable t)
+    {
+        if (failure == null)
+        {
+            failure = t;
+        }
+    }
+
+}
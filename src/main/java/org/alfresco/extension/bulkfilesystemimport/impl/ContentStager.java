@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.ContentService;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListener;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.extension.bulkfilesystemimport.ImportableItem;
+
+
+/**
+ * This class copies the content files of a batch into the content store <i>before</i> the batch's transaction is
+ * opened, so that the transaction (and its database connection) isn't held open while the bytes are copied, and so
+ * that transaction retries don't copy them again.  The transaction then only has to attach the resulting
+ * <code>ContentData</code> to each node.
+ *
+ * Content is written via writers that aren't bound to any node, outside of any transaction, so Alfresco doesn't know
+ * about it until a node that references it is committed - in particular, the orphaned content cleaner never sees staged
+ * content that doesn't end up on a node.  Callers must therefore {@link #claimOnCommit(ContentData) claim} the content
+ * they attach to nodes, and {@link #release(Map) release} each batch's staged content once the batch is done; released
+ * content that wasn't claimed by a committed transaction (because the batch failed, was quarantined or stopped, or the
+ * item was skipped) is deleted from the content store straight away.
+ *
+ * Every revision (including every version in an item's version history) is staged independently, largest first, so
+ * that items with long version histories don't serialise the batch, and the batch's largest files don't end up being
+ * copied at the very end.  When the queue of files waiting to be copied is full, the calling thread copies files itself,
+ * which throttles the callers to the rate at which this stage can keep up.
+ *
+ * Instances are thread safe.  The staging threads are daemons, and go away when they've been idle for a while.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public final class ContentStager
+{
+    private final static Log log = LogFactory.getLog(ContentStager.class);
+
+    private final static String THREAD_NAME_PREFIX       = "BulkFilesystemImportContentStager";
+    private final static long   IDLE_THREAD_TIMEOUT_IN_S = 60;
+    private final static String TXN_RESOURCE_KEY         = ContentStager.class.getName() + ".claimedContentUrls";
+
+    private final static AtomicLong currentThreadNumber = new AtomicLong();
+
+    private final ContentService       contentService;
+    private final ContentStore         contentStore;
+    private final BulkImportStatusImpl importStatus;
+    private final ThreadPoolExecutor   executor;
+    private final Set<String>          unclaimedContentUrls = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final TransactionListener listener = new TransactionListenerAdapter()
+    {
+        @Override
+        public void afterCommit()
+        {
+            @SuppressWarnings("unchecked")
+            final Set<String> contentUrls = (Set<String>)AlfrescoTransactionSupport.getResource(TXN_RESOURCE_KEY);
+
+            // The content is now referenced by committed nodes, so it's Alfresco's to look after
+            if (contentUrls != null)
+            {
+                unclaimedContentUrls.removeAll(contentUrls);
+            }
+        }
+    };
+
+
+    /**
+     * @param contentService The content service to obtain writers from <i>(must not be null)</i>.
+     * @param contentStore   The content store the content service writes to, to delete unused staged content from <i>(must not be null)</i>.
+     * @param importStatus   The import status object to report staged content to <i>(must not be null)</i>.
+     * @param parallelism    The maximum number of files to copy at once <i>(must be &gt; 0)</i>.
+     * @param queueSize      The maximum number of files waiting to be copied <i>(must be &gt; 0)</i>.
+     */
+    public ContentStager(final ContentService       contentService,
+                         final ContentStore         contentStore,
+                         final BulkImportStatusImpl importStatus,
+                         final int                  parallelism,
+                         final int                  queueSize)
+    {
+        // PRECONDITIONS
+        assert contentService != null : "contentService must not be null.";
+        assert contentStore   != null : "contentStore must not be null.";
+        assert importStatus   != null : "importStatus must not be null.";
+        assert parallelism    > 0     : "parallelism must be > 0.";
+        assert queueSize      > 0     : "queueSize must be > 0.";
+
+        // Body
+        this.contentService = contentService;
+        this.contentStore   = contentStore;
+        this.importStatus   = importStatus;
+        this.executor       = new ThreadPoolExecutor(parallelism,
+                                                     parallelism,
+                                                     IDLE_THREAD_TIMEOUT_IN_S,
+                                                     TimeUnit.SECONDS,
+                                                     new LinkedBlockingQueue<Runnable>(queueSize),
+                                                     new ThreadFactory()
+                                                     {
+                                                         @Override
+                                                         public Thread newThread(final Runnable runnable)
+                                                         {
+                                                             final Thread result = Executors.defaultThreadFactory().newThread(runnable);
+
+                                                             result.setName(THREAD_NAME_PREFIX + currentThreadNumber.incrementAndGet());
+                                                             result.setDaemon(true);
+
+                                                             return(result);
+                                                         }
+                                                     },
+                                                     new ThreadPoolExecutor.CallerRunsPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+
+    /**
+     * @return The executor that copies the content, for status reporting <i>(will not be null)</i>.
+     */
+    ThreadPoolExecutor getExecutor()
+    {
+        return(executor);
+    }
+
+
+    /**
+     * Copies the content files (head revision and versions) of the given importable items into the content store, in
+     * parallel.  Must <u>not</u> be called within a transaction.  Failures are logged and otherwise ignored - the
+     * affected files simply aren't staged, and will be streamed in the usual way (where the failure will be reported).
+     *
+     * @param batch The importable items to stage the content of <i>(must not be null)</i>.
+     * @return The staged content, keyed by the revision it belongs to <i>(will not be null, but may be empty)</i>.
+     * @throws InterruptedException If the calling thread is interrupted while waiting for staging to complete.
+     */
+    public Map<ImportableItem.ContentAndMetadata, ContentData> stage(final List<ImportableItem> batch)
+        throws InterruptedException
+    {
+        // PRECONDITIONS
+        assert batch != null : "batch must not be null.";
+
+        // Body
+        final Map<ImportableItem.ContentAndMetadata, ContentData> result    = new IdentityHashMap<ImportableItem.ContentAndMetadata, ContentData>();
+        final List<ImportableItem.ContentAndMetadata>             revisions = new ArrayList<ImportableItem.ContentAndMetadata>();
+        final List<Future<ContentData>>                           futures   = new ArrayList<Future<ContentData>>();
+        final String                                              user      = AuthenticationUtil.getFullyAuthenticatedUser();
+
+        for (final ImportableItem importableItem : batch)
+        {
+            if (!ImportableItem.FileType.DIRECTORY.equals(importableItem.getFileType()))
+            {
+                if (importableItem.hasVersionEntries())
+                {
+                    for (final ImportableItem.VersionedContentAndMetadata versionEntry : importableItem.getVersionEntries())
+                    {
+                        if (versionEntry.contentFileExists()) revisions.add(versionEntry);
+                    }
+                }
+
+                if (importableItem.getHeadRevision().contentFileExists()) revisions.add(importableItem.getHeadRevision());
+            }
+        }
+
+        // Largest first, so that the copies finish as close together as possible
+        Collections.sort(revisions, LARGEST_FIRST);
+
+        try
+        {
+            for (final ImportableItem.ContentAndMetadata revision : revisions)
+            {
+                futures.add(executor.submit(new Callable<ContentData>()
+                {
+                    @Override
+                    public ContentData call()
+                        throws Exception
+                    {
+                        return(AuthenticationUtil.runAs(new RunAsWork<ContentData>()
+                        {
+                            @Override
+                            public ContentData doWork()
+                                throws Exception
+                            {
+                                return(stage(revision));
+                            }
+                        }, user));
+                    }
+                }));
+            }
+
+            for (int i = 0; i < revisions.size(); i++)
+            {
+                try
+                {
+                    result.put(revisions.get(i), futures.get(i).get());
+                }
+                catch (final ExecutionException ee)
+                {
+                    if (log.isDebugEnabled()) log.debug("Unable to stage '" + revisions.get(i).getContentFilePath() + "' - it will be streamed within the transaction instead.", ee.getCause());
+                }
+            }
+        }
+        finally
+        {
+            for (int i = 0; i < futures.size(); i++)
+            {
+                final Future<ContentData> future = futures.get(i);
+
+                // If we're bailing out early, don't leave the staging threads copying content no one will use...
+                future.cancel(true);
+
+                // ...and delete whatever they've already copied, since the caller will never see it
+                if (!result.containsKey(revisions.get(i)) && future.isDone() && !future.isCancelled())
+                {
+                    try
+                    {
+                        discard(future.get());
+                    }
+                    catch (final ExecutionException ee)
+                    {
+                        // Nothing was staged
+                    }
+                }
+            }
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Records that the given staged content has been attached to a node in the current transaction, so that it isn't
+     * deleted when it's released (provided the transaction commits).  Must be called within a transaction.
+     *
+     * @param contentData The staged content that was attached to a node <i>(must not be null)</i>.
+     */
+    public void claimOnCommit(final ContentData contentData)
+    {
+        // PRECONDITIONS
+        assert contentData != null : "contentData must not be null.";
+
+        // Body
+        @SuppressWarnings("unchecked")
+        Set<String> contentUrls = (Set<String>)AlfrescoTransactionSupport.getResource(TXN_RESOURCE_KEY);
+
+        if (contentUrls == null)
+        {
+            contentUrls = new HashSet<String>();
+            AlfrescoTransactionSupport.bindResource(TXN_RESOURCE_KEY, contentUrls);
+            AlfrescoTransactionSupport.bindListener(listener);
+        }
+
+        contentUrls.add(contentData.getContentUrl());
+    }
+
+
+    /**
+     * Deletes any of the given staged content that hasn't been claimed by a committed transaction.  Must be called once
+     * the staged content will no longer be attached to anything (i.e. once the batch it was staged for is done,
+     * successfully or otherwise), and <u>not</u> within a transaction.  Failures are logged and otherwise ignored.
+     *
+     * @param stagedContent The staged content to release, as returned by {@link #stage(List)} <i>(may be null)</i>.
+     */
+    public void release(final Map<ImportableItem.ContentAndMetadata, ContentData> stagedContent)
+    {
+        if (stagedContent != null)
+        {
+            for (final ContentData contentData : stagedContent.values())
+            {
+                discard(contentData);
+            }
+        }
+    }
+
+
+    private ContentData stage(final ImportableItem.ContentAndMetadata revision)
+        throws InterruptedException
+    {
+        final ContentWriter writer = contentService.getWriter(null, ContentModel.PROP_CONTENT, true);
+
+        if (log.isTraceEnabled()) log.trace("Staging '" + revision.getContentFilePath() + "' into the content store.");
+
+        writer.guessMimetype(revision.getParentFileName());  // As per the non-staged case, the MIME type is based on the name of the parent file
+        writer.guessEncoding();
+        writer.putContent(revision.getContentFile());
+
+        final ContentData result = writer.getContentData();
+
+        unclaimedContentUrls.add(result.getContentUrl());
+
+        // If we were cancelled while copying, no one will ever see this content
+        if (Thread.currentThread().isInterrupted())
+        {
+            discard(result);
+            throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
+        }
+
+        importStatus.incrementContentFilesStaged(revision instanceof ImportableItem.VersionedContentAndMetadata, revision.getContentFileSize());
+
+        return(result);
+    }
+
+
+    private void discard(final ContentData contentData)
+    {
+        final String contentUrl = contentData.getContentUrl();
+
+        if (unclaimedContentUrls.remove(contentUrl))
+        {
+            try
+            {
+                if (log.isTraceEnabled()) log.trace("Deleting unused staged content '" + contentUrl + "'.");
+                contentStore.delete(contentUrl);
+            }
+            catch (final RuntimeException re)
+            {
+                if (log.isWarnEnabled()) log.warn("Unable to delete unused staged content '" + contentUrl + "'.  It will need to be removed manually.", re);
+            }
+        }
+    }
+
+
+    private final static Comparator<ImportableItem.ContentAndMetadata> LARGEST_FIRST = new Comparator<ImportableItem.ContentAndMetadata>()
+    {
+        @Override
+        public int compare(final ImportableItem.ContentAndMetadata left, final ImportableItem.ContentAndMetadata right)
+        {
+            final long leftSize  = left.getContentFileSize();
+            final long rightSize = right.getContentFileSize();
+
+            return(leftSize > rightSize ? -1 : (leftSize == rightSize ? 0 : 1));
+        }
+    };
+
+}
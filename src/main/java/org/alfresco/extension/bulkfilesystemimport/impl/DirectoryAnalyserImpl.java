@@ -21,22 +21,35 @@
 package org.alfresco.extension.bulkfilesystemimport.impl;
 
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.PriorityQueue;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.alfresco.extension.bulkfilesystemimport.AnalysedDirectory;
 import org.alfresco.extension.bulkfilesystemimport.DirectoryAnalyser;
+import org.alfresco.extension.bulkfilesystemimport.FileAttributes;
 import org.alfresco.extension.bulkfilesystemimport.ImportableItem;
 import org.alfresco.extension.bulkfilesystemimport.ImportableItem.FileType;
 import org.alfresco.extension.bulkfilesystemimport.MetadataLoader;
+import org.alfresco.extension.bulkfilesystemimport.SourcePath;
 
 
 /**
@@ -50,18 +63,35 @@ public final class DirectoryAnalyserImpl
 {
     private final static Log log = LogFactory.getLog(DirectoryAnalyserImpl.class);
     
-    private final static Pattern VERSION_SUFFIX_PATTERN = Pattern.compile(".+" + VERSION_SUFFIX_REGEX);
+    private final static int    DEFAULT_MAX_ENTRIES_IN_MEMORY = 100000;
+    private final static String SPILL_FILE_PREFIX             = "bfsit-listing-";
+    private final static String SPILL_FILE_SUFFIX             = ".tmp";
 
-    private final MetadataLoader       metadataLoader;
     private final BulkImportStatusImpl importStatus;
+    private final FilenameClassifier   classifier;
+    
+    private int maxEntriesInMemory = DEFAULT_MAX_ENTRIES_IN_MEMORY;
     
     
     
     public DirectoryAnalyserImpl(final MetadataLoader       metadataLoader,
                                  final BulkImportStatusImpl importStatus)
     {
-        this.metadataLoader = metadataLoader;
         this.importStatus   = importStatus;
+        this.classifier     = new FilenameClassifier(metadataLoader == null ? null : MetadataLoader.METADATA_SUFFIX + metadataLoader.getMetadataFileExtension());
+    }
+    
+    
+    /**
+     * @param maxEntriesInMemory The maximum number of directory entries (not bytes) a streaming analysis will hold in memory before spilling them to disk.
+     *                           Each entry takes roughly 110 bytes, plus 4 bytes per character of its filename.
+     */
+    public void setMaxEntriesInMemory(final int maxEntriesInMemory)
+    {
+        if (maxEntriesInMemory > 0)
+        {
+            this.maxEntriesInMemory = maxEntriesInMemory;
+        }
     }
     
 
@@ -71,16 +101,25 @@ public final class DirectoryAnalyserImpl
     public AnalysedDirectory analyseDirectory(final File directory)
         throws InterruptedException
     {
-        final AnalysedDirectory        result          = new AnalysedDirectory();
-        final Map<File,ImportableItem> importableItems = new HashMap<File,ImportableItem>();
-        long                           start;
-        long                           end;
+        final AnalysedDirectory          result          = new AnalysedDirectory();
+        final Map<String,ImportableItem> importableItems = new HashMap<String,ImportableItem>();
+        final SourcePath                 directoryPath   = SourcePath.forDirectory(directory);
+        long                             start;
+        long                             end;
         
-        if (log.isDebugEnabled()) log.debug("Analysing directory " + AbstractBulkFilesystemImporter.getFileName(directory) + "...");
+        if (log.isDebugEnabled()) log.debug("Analysing directory " + directoryPath.getCanonicalPath() + "...");
 
         start = System.nanoTime();
-        result.originalListing = Arrays.asList(directory.listFiles());
+        final File[] listing = directory.listFiles();
         end = System.nanoTime();
+        
+        // Note: null means the directory couldn't be read - it mustn't be mistaken for an empty directory, or its contents would be silently skipped
+        if (listing == null)
+        {
+            throw new RuntimeException("Unable to list directory '" + directoryPath.getCanonicalPath() + "' - it may be unreadable, or may no longer exist.");
+        }
+        
+        result.originalListing = Arrays.asList(listing);
         if (log.isTraceEnabled()) log.trace("List directory took: " + (float)(end - start) / (1000 * 1000 * 1000 )+ "s");
 
         // Build up the list of ImportableItems from the directory listing
@@ -89,38 +128,7 @@ public final class DirectoryAnalyserImpl
         {
             if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
             
-            if (file.canRead())
-            {
-                if (isVersionFile(file))
-                {
-                    addVersionFile(importableItems, file);
-                    importStatus.incrementNumberOfFilesScanned();
-                }
-                else if (isMetadataFile(file))
-                {
-                    addMetadataFile(importableItems, file);
-                    importStatus.incrementNumberOfFilesScanned();
-                }
-                else
-                {
-                    boolean isDirectory = addParentFile(importableItems, file);
-                    
-                    if (isDirectory)
-                    {
-                        importStatus.incrementNumberOfFoldersScanned();
-                    }
-                    else
-                    {
-                        importStatus.incrementNumberOfFilesScanned();
-                    }
-                }
-            }
-            else
-            {
-                if (log.isWarnEnabled()) log.warn("Skipping unreadable file/directory '" + AbstractBulkFilesystemImporter.getFileName(file) + "'.");
-                
-                importStatus.incrementNumberOfUnreadableEntries();
-            }
+            analyseFile(importableItems, directoryPath, file);
         }
         end = System.nanoTime();
         if (log.isTraceEnabled()) log.trace("Build list of importable items took: " + (float)(end - start) / (1000 * 1000 * 1000 )+ "s");
@@ -144,181 +152,448 @@ public final class DirectoryAnalyserImpl
         end = System.nanoTime();
         if (log.isTraceEnabled()) log.trace("Filter invalid importable items took: " + (float)(end - start) / (1000 * 1000 * 1000 )+ "s");
 
-        if (log.isDebugEnabled()) log.debug("Finished analysing directory " + AbstractBulkFilesystemImporter.getFileName(directory) + ".");
+        if (log.isDebugEnabled()) log.debug("Finished analysing directory " + directoryPath.getCanonicalPath() + ".");
 
         return(result);
     }
 
 
-    private boolean isVersionFile(final File file)
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.DirectoryAnalyser#analyseDirectory(java.io.File, org.alfresco.extension.bulkfilesystemimport.DirectoryAnalyser.ImportableItemHandler)
+     */
+    public void analyseDirectory(final File directory, final ImportableItemHandler handler)
+        throws InterruptedException
     {
-        Matcher matcher = VERSION_SUFFIX_PATTERN.matcher(file.getName());
-
-        return(matcher.matches());
+        final List<ListingEntry> buffer = new ArrayList<ListingEntry>();
+        final List<File>         spills = new ArrayList<File>();
+        long                     start;
+        long                     end;
+        
+        if (log.isDebugEnabled()) log.debug("Analysing directory " + AbstractBulkFilesystemImporter.getFileName(directory) + " (streaming)...");
+        
+        try
+        {
+            // Phase 1: stream the directory listing, spilling sorted runs of entries to disk whenever the entry limit is reached
+            start = System.nanoTime();
+            DirectoryStream<Path> listing = Files.newDirectoryStream(directory.toPath());
+            
+            try
+            {
+                for (final Path path : listing)
+                {
+                    if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
+                    
+                    final String filename = path.getFileName().toString();
+                    
+                    buffer.add(new ListingEntry(classifier.classify(filename).getParentFilename(), filename));
+                    
+                    if (buffer.size() >= maxEntriesInMemory)
+                    {
+                        spills.add(spill(buffer));
+                        buffer.clear();
+                    }
+                }
+            }
+            finally
+            {
+                listing.close();
+            }
+            
+            end = System.nanoTime();
+            if (log.isTraceEnabled()) log.trace("Streaming list directory took: " + (float)(end - start) / (1000 * 1000 * 1000 )+ "s (" + spills.size() + " spill file" + (spills.size() == 1 ? "" : "s") + ")");
+            
+            // Phase 2: merge the in-memory entries and the spilled runs, grouping entries by parent filename
+            start = System.nanoTime();
+            mergeAndEmit(SourcePath.forDirectory(directory), buffer, spills, handler);
+            end = System.nanoTime();
+            if (log.isTraceEnabled()) log.trace("Merge and emit importable items took: " + (float)(end - start) / (1000 * 1000 * 1000 )+ "s");
+        }
+        catch (final IOException ioe)
+        {
+            throw new RuntimeException("Unable to analyse directory '" + AbstractBulkFilesystemImporter.getFileName(directory) + "'.", ioe);
+        }
+        finally
+        {
+            for (final File spill : spills)
+            {
+                if (!spill.delete())
+                {
+                    if (log.isWarnEnabled()) log.warn("Unable to delete temporary directory analysis file '" + spill.getAbsolutePath() + "'.");
+                }
+            }
+        }
+        
+        if (log.isDebugEnabled()) log.debug("Finished analysing directory " + AbstractBulkFilesystemImporter.getFileName(directory) + " (streaming).");
     }
-
-
-    private boolean isMetadataFile(final File file)
+    
+    
+    /**
+     * Sorts the given entries and writes them out to a temporary file.
+     */
+    private File spill(final List<ListingEntry> entries)
+        throws IOException
     {
-        boolean result = false;
+        final File       result = File.createTempFile(SPILL_FILE_PREFIX, SPILL_FILE_SUFFIX);
+        DataOutputStream out    = null;
         
-        if (metadataLoader != null)
+        Collections.sort(entries);
+        
+        try
+        {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(result)));
+            
+            for (final ListingEntry entry : entries)
+            {
+                out.writeBoolean(true);
+                out.writeUTF(entry.parentFilename);
+                out.writeUTF(entry.filename);
+            }
+            
+            out.writeBoolean(false);
+        }
+        finally
         {
-            result = file.getName().endsWith(MetadataLoader.METADATA_SUFFIX + metadataLoader.getMetadataFileExtension());
+            if (out != null)
+            {
+                out.close();
+            }
         }
         
+        if (log.isTraceEnabled()) log.trace("Spilled " + entries.size() + " directory entries to '" + result.getAbsolutePath() + "'.");
+        
         return(result);
     }
-
-
-    private void addVersionFile(final Map<File,ImportableItem> importableItems, final File versionFile)
+    
+    
+    /**
+     * Performs a k-way merge of the in-memory entries and all spilled runs.  Since every run is sorted by parent filename,
+     * all of the files that make up a single ImportableItem arrive consecutively, no matter how far apart they were in the
+     * original directory listing.  Each ImportableItem is therefore complete (and can be handed off) as soon as the parent
+     * filename changes.
+     */
+    private void mergeAndEmit(final SourcePath            directoryPath,
+                              final List<ListingEntry>    buffer,
+                              final List<File>            spills,
+                              final ImportableItemHandler handler)
+        throws IOException, InterruptedException
     {
-        File    parentContentFile = getParentOfVersionFile(versionFile);
-        boolean isContentVersion  = false;
-
-        if (isMetadataFile(parentContentFile))
+        final PriorityQueue<ListingRun>  runs            = new PriorityQueue<ListingRun>();
+        final List<ListingRun>           allRuns         = new ArrayList<ListingRun>();
+        final Map<String,ImportableItem> importableItems = new HashMap<String,ImportableItem>();
+        String                           currentParent   = null;
+        
+        try
+        {
+            Collections.sort(buffer);
+            allRuns.add(new InMemoryListingRun(buffer));
+            
+            for (final File spill : spills)
+            {
+                allRuns.add(new SpilledListingRun(spill));
+            }
+            
+            for (final ListingRun run : allRuns)
+            {
+                if (run.advance())
+                {
+                    runs.add(run);
+                }
+            }
+            
+            while (!runs.isEmpty())
+            {
+                if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
+                
+                final ListingRun   run   = runs.poll();
+                final ListingEntry entry = run.current();
+                
+                if (currentParent != null && !currentParent.equals(entry.parentFilename))
+                {
+                    emit(importableItems, directoryPath, handler);
+                }
+                
+                currentParent = entry.parentFilename;
+                analyseFile(importableItems, directoryPath, directoryPath.childFile(entry.filename));
+                
+                if (run.advance())
+                {
+                    runs.add(run);
+                }
+            }
+            
+            emit(importableItems, directoryPath, handler);
+        }
+        finally
         {
-            parentContentFile = getParentOfMetadatafile(parentContentFile);
-            isContentVersion  = false;
+            for (final ListingRun run : allRuns)
+            {
+                run.close();
+            }
+        }
+    }
+    
+    
+    private void emit(final Map<String,ImportableItem> importableItems, final SourcePath directoryPath, final ImportableItemHandler handler)
+        throws InterruptedException
+    {
+        for (final ImportableItem importableItem : importableItems.values())
+        {
+            if (importableItem.isValid())
+            {
+                handler.importableItemFound(importableItem);
+            }
+        }
+        
+        importableItems.clear();
+    }
+    
+    
+    /**
+     * Adds the given file to the appropriate ImportableItem in the given map, updating the import status as we go.
+     */
+    private void analyseFile(final Map<String,ImportableItem> importableItems, final SourcePath directoryPath, final File file)
+    {
+        // Stat the file exactly once - everything downstream reads from this snapshot
+        final FileAttributes attributes = FileAttributes.read(file);
+        
+        importStatus.incrementNumberOfStatCallsSaved(FileAttributes.EQUIVALENT_FILE_CALLS - attributes.getFilesystemCalls());
+        
+        if (attributes.isReadable())
+        {
+            final FilenameClassifier.Classification classification = classifier.classify(file.getName());
+            
+            if (classification.isVersion())
+            {
+                addVersionFile(importableItems, directoryPath, file, classification, attributes);
+                importStatus.incrementNumberOfFilesScanned();
+            }
+            else if (classification.isMetadata())
+            {
+                addMetadataFile(importableItems, directoryPath, file, classification, attributes);
+                importStatus.incrementNumberOfFilesScanned();
+            }
+            else
+            {
+                boolean isDirectory = addParentFile(importableItems, directoryPath, file, attributes);
+                
+                if (isDirectory)
+                {
+                    importStatus.incrementNumberOfFoldersScanned();
+                }
+                else
+                {
+                    importStatus.incrementNumberOfFilesScanned();
+                }
+            }
         }
         else
         {
-            isContentVersion = true;
+            if (log.isWarnEnabled()) log.warn("Skipping unreadable file/directory '" + directoryPath.getCanonicalPath(file.getName()) + "'.");
+            
+            importStatus.incrementNumberOfUnreadableEntries();
         }
+    }
 
-        ImportableItem                             importableItem = findOrCreateImportableItem(importableItems, parentContentFile);
-        String                                     versionLabel   = getVersionLabel(versionFile);
-        ImportableItem.VersionedContentAndMetadata versionEntry   = findOrCreateVersionEntry(importableItem, versionLabel);
 
-        if (isContentVersion)
+    private void addVersionFile(final Map<String,ImportableItem>        importableItems,
+                                final SourcePath                        directoryPath,
+                                final File                              versionFile,
+                                final FilenameClassifier.Classification classification,
+                                final FileAttributes                    attributes)
+    {
+        ImportableItem                             importableItem = findOrCreateImportableItem(importableItems, directoryPath, classification.getParentFilename());
+        ImportableItem.VersionedContentAndMetadata versionEntry   = findOrCreateVersionEntry(importableItem, classification.getMajorVersion(), classification.getMinorVersion());
+
+        if (classification.isMetadata())
         {
-            versionEntry.setContentFile(versionFile);
+            versionEntry.setMetadataFile(versionFile, attributes);
         }
         else
         {
-            versionEntry.setMetadataFile(versionFile);
+            versionEntry.setContentFile(versionFile, attributes);
         }
     }
 
 
-    private void addMetadataFile(final Map<File,ImportableItem> importableItems, final File metadataFile)
+    private void addMetadataFile(final Map<String,ImportableItem>        importableItems,
+                                 final SourcePath                        directoryPath,
+                                 final File                              metadataFile,
+                                 final FilenameClassifier.Classification classification,
+                                 final FileAttributes                    attributes)
     {
-        final File parentContentfile = getParentOfMetadatafile(metadataFile);
+        ImportableItem importableItem = findOrCreateImportableItem(importableItems, directoryPath, classification.getParentFilename());
 
-        ImportableItem importableItem = findOrCreateImportableItem(importableItems, parentContentfile);
-
-        importableItem.getHeadRevision().setMetadataFile(metadataFile);
+        importableItem.getHeadRevision().setMetadataFile(metadataFile, attributes);
     }
 
 
-    private boolean addParentFile(final Map<File,ImportableItem> importableItems, final File contentFile)
+    private boolean addParentFile(final Map<String,ImportableItem> importableItems, final SourcePath directoryPath, final File contentFile, final FileAttributes attributes)
     {
-        ImportableItem importableItem = findOrCreateImportableItem(importableItems, contentFile);
+        ImportableItem importableItem = findOrCreateImportableItem(importableItems, directoryPath, contentFile.getName());
 
-        importableItem.getHeadRevision().setContentFile(contentFile);
+        importableItem.getHeadRevision().setContentFile(contentFile, attributes);
         
         return(importableItem.getHeadRevision().getContentFileType() == FileType.DIRECTORY);
     }
 
 
-    private ImportableItem findOrCreateImportableItem(final Map<File,ImportableItem> importableItems,
-                                                      final File                     contentFile)
+    private ImportableItem findOrCreateImportableItem(final Map<String,ImportableItem> importableItems,
+                                                      final SourcePath                 directoryPath,
+                                                      final String                     parentFilename)
     {
-        ImportableItem result = importableItems.get(contentFile);
+        ImportableItem result = importableItems.get(parentFilename);
 
         // We didn't find it, so create it
         if (result == null)
         {
-            result = new ImportableItem(contentFile.getName());
-            result.getHeadRevision().setContentFile(contentFile);
-            importableItems.put(contentFile, result);
+            result = new ImportableItem(directoryPath, parentFilename);
+            
+            // Note: we don't stat the content file here - if it exists it's in the directory listing too, and its attributes
+            // will be recorded when we get to it
+            result.getHeadRevision().setContentFile(directoryPath.childFile(parentFilename), null);
+            importableItems.put(parentFilename, result);
         }
 
         return(result);
     }
 
 
-    private ImportableItem.VersionedContentAndMetadata findOrCreateVersionEntry(final ImportableItem importableItem, final String versionLabel)
+    private ImportableItem.VersionedContentAndMetadata findOrCreateVersionEntry(final ImportableItem importableItem, final int majorVersion, final int minorVersion)
     {
-        ImportableItem.VersionedContentAndMetadata result = importableItem.getVersionEntry(versionLabel);
+        ImportableItem.VersionedContentAndMetadata result = importableItem.getVersionEntry(majorVersion, minorVersion);
 
         if (result == null)
         {
-            result = importableItem.new VersionedContentAndMetadata(versionLabel);
+            result = importableItem.new VersionedContentAndMetadata(majorVersion, minorVersion);
             
             importableItem.addVersionEntry(result);
         }
 
         return (result);
     }
-
-
-    private String getVersionLabel(final File versionFile)
+    
+    
+    /**
+     * A single entry in a directory listing, sortable by the filename of the content file it belongs to.
+     */
+    private final static class ListingEntry
+        implements Comparable<ListingEntry>
     {
-        String result = null;
-
-        if (!isVersionFile(versionFile))
+        private final String parentFilename;
+        private final String filename;
+        
+        private ListingEntry(final String parentFilename, final String filename)
         {
-            throw new IllegalStateException(AbstractBulkFilesystemImporter.getFileName(versionFile) + " is not a version file.");
+            this.parentFilename = parentFilename;
+            this.filename       = filename;
         }
-
-        Matcher matcher = VERSION_SUFFIX_PATTERN.matcher(versionFile.getName());
-
-        if (matcher.matches())
+        
+        @Override
+        public int compareTo(final ListingEntry other)
         {
-            String majorVersionStr = matcher.group(2);
-            String minorVersionStr = matcher.group(4);
-            
-            int majorVersion = Integer.parseInt(majorVersionStr);
-            int minorVersion = 0;
+            int result = parentFilename.compareTo(other.parentFilename);
             
-            if (minorVersionStr != null)
+            if (result == 0)
             {
-                minorVersion = Integer.parseInt(minorVersionStr);
+                result = filename.compareTo(other.filename);
             }
-
-            result = majorVersion + "." + minorVersion;
+            
+            return(result);
         }
-        else
+    }
+    
+    
+    /**
+     * A sorted run of listing entries, ordered (within a PriorityQueue) by its current entry.
+     */
+    private static abstract class ListingRun
+        implements Comparable<ListingRun>
+    {
+        private ListingEntry current = null;
+        
+        protected abstract ListingEntry next() throws IOException;
+        
+        protected void close()
         {
-            throw new IllegalStateException(AbstractBulkFilesystemImporter.getFileName(versionFile) + " has a malformed version label."); 
         }
-
-        return(result);
+        
+        public final ListingEntry current()
+        {
+            return(current);
+        }
+        
+        public final boolean advance()
+            throws IOException
+        {
+            current = next();
+            return(current != null);
+        }
+        
+        @Override
+        public final int compareTo(final ListingRun other)
+        {
+            return(current.compareTo(other.current));
+        }
     }
-
-
-    private File getParentOfVersionFile(final File versionFile)
+    
+    
+    private final static class InMemoryListingRun
+        extends ListingRun
     {
-        File result = null;
-
-        if (!isVersionFile(versionFile))
+        private final Iterator<ListingEntry> entries;
+        
+        private InMemoryListingRun(final List<ListingEntry> entries)
         {
-            throw new IllegalStateException(AbstractBulkFilesystemImporter.getFileName(versionFile) + " is not a version file.");
+            this.entries = entries.iterator();
         }
-
-        String parentFilename = versionFile.getName().replaceFirst(VERSION_SUFFIX_REGEX, "");
-
-        result = new File(versionFile.getParent(), parentFilename);
         
-        return(result);
+        @Override
+        protected ListingEntry next()
+        {
+            return(entries.hasNext() ? entries.next() : null);
+        }
     }
-
-
-    private File getParentOfMetadatafile(final File metadataFile)
+    
+    
+    private final static class SpilledListingRun
+        extends ListingRun
     {
-        File result = null;
-
-        if (!isMetadataFile(metadataFile))
+        private final DataInputStream in;
+        
+        private SpilledListingRun(final File spill)
+            throws IOException
         {
-            throw new IllegalStateException(AbstractBulkFilesystemImporter.getFileName(metadataFile) + " is not a metadata file.");
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(spill)));
+        }
+        
+        @Override
+        protected ListingEntry next()
+            throws IOException
+        {
+            ListingEntry result = null;
+            
+            if (in.readBoolean())
+            {
+                final String parentFilename = in.readUTF();
+                final String filename       = in.readUTF();
+                
+                result = new ListingEntry(parentFilename, filename);
+            }
+            
+            return(result);
+        }
+        
+        @Override
+        protected void close()
+        {
+            try
+            {
+                in.close();
+            }
+            catch (final IOException ioe)
+            {
+                // Swallow and move on
+            }
         }
-
-        String name = metadataFile.getName();
-        String contentName = name.substring(0, name.length() - (MetadataLoader.METADATA_SUFFIX + metadataLoader.getMetadataFileExtension()).length());
-
-        result = new File(metadataFile.getParent(), contentName);
-
-        return(result);
     }
 }
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+
+/**
+ * This class classifies filenames as content, metadata, content version or metadata version files, in a single pass
+ * over the name.  It is equivalent to matching {@link org.alfresco.extension.bulkfilesystemimport.DirectoryAnalyser#VERSION_SUFFIX_REGEX}
+ * and then testing for the metadata suffix, but doesn't use regexes (which dominated analysis time for directories
+ * with lots of versions).
+ *
+ * Instances are immutable and thread safe.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public final class FilenameClassifier
+{
+    private final static String VERSION_PREFIX = ".v";
+
+    private final String metadataSuffix;
+
+
+    /**
+     * @param metadataSuffix The suffix that identifies metadata files (e.g. ".metadata.properties.xml") <i>(may be null, in which case there are no metadata files)</i>.
+     */
+    public FilenameClassifier(final String metadataSuffix)
+    {
+        this.metadataSuffix = metadataSuffix == null || metadataSuffix.length() == 0 ? null : metadataSuffix;
+    }
+
+
+    /**
+     * @param filename The filename to classify <i>(must not be null)</i>.
+     * @return The classification of that filename <i>(will not be null)</i>.
+     */
+    public Classification classify(final String filename)
+    {
+        // PRECONDITIONS
+        assert filename != null : "filename must not be null.";
+
+        // Body
+        final long    version       = parseVersionSuffix(filename);
+        final boolean isVersion     = version >= 0;
+        final int     versionStart  = isVersion ? (int)(version >>> 48) : filename.length();
+        final boolean isMetadata    = metadataSuffix != null && filename.startsWith(metadataSuffix, versionStart - metadataSuffix.length());  // Note: startsWith returns false for negative offsets
+        final int     parentEnd     = isMetadata ? versionStart - metadataSuffix.length() : versionStart;
+        final String  parentName    = parentEnd == filename.length() ? filename : filename.substring(0, parentEnd);
+        Kind          kind          = null;
+
+        if (isVersion)
+        {
+            kind = isMetadata ? Kind.METADATA_VERSION : Kind.CONTENT_VERSION;
+        }
+        else
+        {
+            kind = isMetadata ? Kind.METADATA : Kind.CONTENT;
+        }
+
+        return(new Classification(kind,
+                                  parentName,
+                                  isVersion ? (int)((version >>> 24) & 0xFFFFFF) : -1,
+                                  isVersion ? (int)(version & 0xFFFFFF)          : -1));
+    }
+
+
+    /**
+     * @param filename The filename to strip the version suffix from <i>(must not be null)</i>.
+     * @return The filename with any version suffix (e.g. ".v1.2") removed <i>(will not be null)</i>.
+     */
+    public static String stripVersionSuffix(final String filename)
+    {
+        final long version = parseVersionSuffix(filename);
+
+        return(version < 0 ? filename : filename.substring(0, (int)(version >>> 48)));
+    }
+
+
+    /*
+     * Scans backwards from the end of the filename for a version suffix of the form ".v<major>[.<minor>]", which must be
+     * preceded by at least one character.  Returns -1 if there isn't one, otherwise the offset of the suffix (bits 48-63),
+     * the major version (bits 24-47) and the minor version (bits 0-23).  Version numbers too large for that are treated
+     * as malformed (i.e. the file isn't a version file).
+     */
+    private static long parseVersionSuffix(final String filename)
+    {
+        final int length    = filename.length();
+        final int lastStart = skipDigitsBackwards(filename, length);
+        long      result    = -1;
+
+        if (lastStart < length)
+        {
+            // "<name>.v<major>.<minor>"
+            if (lastStart > 0 && filename.charAt(lastStart - 1) == '.')
+            {
+                final int firstStart = skipDigitsBackwards(filename, lastStart - 1);
+
+                if (firstStart < lastStart - 1 && isVersionPrefixAt(filename, firstStart))
+                {
+                    result = pack(firstStart - VERSION_PREFIX.length(),
+                                  parseNumber(filename, firstStart, lastStart - 1),
+                                  parseNumber(filename, lastStart, length));
+                }
+            }
+
+            // "<name>.v<major>"
+            if (result < 0 && isVersionPrefixAt(filename, lastStart))
+            {
+                result = pack(lastStart - VERSION_PREFIX.length(), parseNumber(filename, lastStart, length), 0);
+            }
+        }
+
+        return(result);
+    }
+
+
+    private static int skipDigitsBackwards(final String filename, final int end)
+    {
+        int result = end;
+
+        while (result > 0 && isDigit(filename.charAt(result - 1)))
+        {
+            result--;
+        }
+
+        return(result);
+    }
+
+
+    private static boolean isVersionPrefixAt(final String filename, final int digitsStart)
+    {
+        // Note: the regex requires at least one character before the version suffix
+        return(digitsStart > VERSION_PREFIX.length() &&
+               filename.startsWith(VERSION_PREFIX, digitsStart - VERSION_PREFIX.length()));
+    }
+
+
+    private static boolean isDigit(final char c)
+    {
+        return(c >= '0' && c <= '9');  // Equivalent to \d (which is ASCII-only by default)
+    }
+
+
+    private static int parseNumber(final String filename, final int start, final int end)
+    {
+        int result = 0;
+
+        for (int i = start; i < end && result >= 0; i++)
+        {
+            result = result * 10 + (filename.charAt(i) - '0');
+
+            if (result > 0xFFFFFF)
+            {
+                result = -1;
+            }
+        }
+
+        return(result);
+    }
+
+
+    private static long pack(final int suffixStart, final int majorVersion, final int minorVersion)
+    {
+        long result = -1;
+
+        if (majorVersion >= 0 && minorVersion >= 0)
+        {
+            result = ((long)suffixStart << 48) | ((long)majorVersion << 24) | minorVersion;
+        }
+
+        return(result);
+    }
+
+
+    public enum Kind
+    {
+        CONTENT,
+        METADATA,
+        CONTENT_VERSION,
+        METADATA_VERSION
+    }
+
+
+    /**
+     * The result of classifying a single filename.
+     */
+    public final static class Classification
+    {
+        private final Kind   kind;
+        private final String parentFilename;
+        private final int    majorVersion;
+        private final int    minorVersion;
+
+        private Classification(final Kind kind, final String parentFilename, final int majorVersion, final int minorVersion)
+        {
+            this.kind           = kind;
+            this.parentFilename = parentFilename;
+            this.majorVersion   = majorVersion;
+            this.minorVersion   = minorVersion;
+        }
+
+        public Kind getKind()
+        {
+            return(kind);
+        }
+
+        /**
+         * @return The filename of the content file this file belongs to (which is the filename itself, for content files) <i>(will not be null)</i>.
+         */
+        public String getParentFilename()
+        {
+            return(parentFilename);
+        }
+
+        public boolean isVersion()
+        {
+            return(kind == Kind.CONTENT_VERSION || kind == Kind.METADATA_VERSION);
+        }
+
+        public boolean isMetadata()
+        {
+            return(kind == Kind.METADATA || kind == Kind.METADATA_VERSION);
+        }
+
+        /**
+         * @return The major version number <i>(will be -1 if this isn't a version file)</i>.
+         */
+        public int getMajorVersion()
+        {
+            return(majorVersion);
+        }
+
+        /**
+         * @return The minor version number <i>(will be -1 if this isn't a version file, 0 if the version file didn't specify one)</i>.
+         */
+        public int getMinorVersion()
+        {
+            return(minorVersion);
+        }
+    }
+
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.io.File;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.alfresco.extension.bulkfilesystemimport.BulkImportStatus;
+import org.alfresco.extension.bulkfilesystemimport.BulkImportStatus.ProcessingState;
+import org.alfresco.extension.bulkfilesystemimport.util.DataDictionaryBuilder;
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.repo.policy.BehaviourFilter;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.NodeRef;
+
+
+/**
+ * Bulk Filesystem Importer that loads the source on a <code>ForkJoinPool</code> (ie. the caller immediately returns,
+ * and can then poll the status via the getImportStatus method).
+ *
+ * Unlike the multi-threaded importer, which feeds every worker thread from a single shared queue (and therefore
+ * imports breadth-first), each worker thread here pushes the sub-directories it discovers onto its own deque and
+ * imports them depth-first, only stealing work from other threads when it runs out.  Stolen work comes from the other
+ * end of the victim's deque, so thieves tend to take whole subtrees near the top of the tree.
+ *
+ * ForkJoinImporterBenchmark compares the two importers against a simulated repository.  Throughput is the same - it's
+ * bound by the repository, not by scheduling.  On deep trees each thread stays within its own subtree (almost every
+ * directory is imported by the thread that created its node, versus roughly 1 in 8 with 8 threads for the
+ * multi-threaded importer), and far fewer directories are pending at once (tens rather than half the tree).  On wide
+ * trees there's no difference: all of a directory's sub-directories are pending as soon as it's been imported,
+ * whichever importer is used.  Whether the better locality translates into better filesystem cache or database
+ * performance hasn't been measured against a real repository.
+ *
+ * @author Peter Monks (peter.monks@alfresco.com)
+ */
+public class ForkJoinBulkFilesystemImporter
+    extends AbstractBulkFilesystemImporter
+{
+    private final static Log log = LogFactory.getLog(ForkJoinBulkFilesystemImporter.class);
+
+    private final static String THREAD_NAME_PREFIX  = "BulkFilesystemImportForkJoinWorkerThread";
+    private final static int    DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors() * 2;   // We naively assume 50+% of time is spent blocked on I/O
+
+    private final static AtomicLong currentThreadNumber = new AtomicLong();
+
+    private final AtomicLong outstandingTasks;  // Forked but not yet finished
+
+    private String                  sourceRoot;
+    private volatile ForkJoinPool   pool;
+    private volatile CountDownLatch importComplete;
+    private Thread                  importCompletionThread;
+
+    private int parallelism = DEFAULT_PARALLELISM;
+
+
+    public ForkJoinBulkFilesystemImporter(final ServiceRegistry       serviceRegistry,
+                                          final BehaviourFilter       behaviourFilter,
+                                          final ContentStore          configuredContentStore,
+                                          final BulkImportStatusImpl  importStatus,
+                                          final DataDictionaryBuilder dataDictionaryBuilder)
+    {
+        super(serviceRegistry, behaviourFilter, configuredContentStore, importStatus, dataDictionaryBuilder);
+
+        this.outstandingTasks = new AtomicLong();
+    }
+
+
+    public final void setParallelism(final int parallelism)
+    {
+        this.parallelism = parallelism <= 0 ? DEFAULT_PARALLELISM : parallelism;
+    }
+
+
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.BulkFilesystemImporter#stopImport()
+     */
+    @Override
+    public void stopImport()
+    {
+        if (!importStatus.inProgress() || importStatus.getProcessingState().equals(ProcessingState.STOPPING))
+        {
+            throw new IllegalStateException("Import not in progress.");
+        }
+
+        importStatus.stopping();
+        stopSizingScan();
+        abort();
+    }
+
+
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.impl.AbstractBulkFilesystemImporter#bulkImportImpl(org.alfresco.service.cmr.repository.NodeRef, java.io.File, boolean, boolean)
+     */
+    @Override
+    protected void bulkImportImpl(final NodeRef target,
+                                  final File    source,
+                                  final boolean replaceExisting,
+                                  final boolean inPlaceImport)
+        throws Throwable
+    {
+        sourceRoot     = getFileName(source);
+        pool           = createPool();
+        importComplete = new CountDownLatch(1);
+        outstandingTasks.set(0);
+
+        log.info("Bulk import started from '" + sourceRoot + "'...");
+
+        importStatus.startImport(getFileName(source),
+                                 getRepositoryPath(target),
+                                 inPlaceImport ? BulkImportStatus.ImportType.IN_PLACE : BulkImportStatus.ImportType.STREAMING,
+                                 getEffectiveBatchWeight(),
+                                 pool);
+
+        startSizingScan(source);
+
+        outstandingTasks.incrementAndGet();
+        pool.execute(new DirectoryImportTask(target, false, sourceRoot, source, replaceExisting, inPlaceImport, AuthenticationUtil.getFullyAuthenticatedUser()));
+
+        startCompletionMonitoringThread();
+    }
+
+
+    private ForkJoinPool createPool()
+    {
+        if (log.isDebugEnabled()) log.debug("Creating new bulk import fork/join pool with parallelism " + parallelism + ".");
+
+        return(new ForkJoinPool(parallelism,
+                                new ForkJoinPool.ForkJoinWorkerThreadFactory()
+                                {
+                                    @Override
+                                    public ForkJoinWorkerThread newThread(final ForkJoinPool forkJoinPool)
+                                    {
+                                        final ForkJoinWorkerThread result = new ForkJoinWorkerThread(forkJoinPool) {};
+
+                                        result.setName(THREAD_NAME_PREFIX + currentThreadNumber.incrementAndGet());
+                                        result.setDaemon(true);
+
+                                        return(result);
+                                    }
+                                },
+                                null,
+                                false));   // LIFO local deques, so that each thread works depth-first
+    }
+
+
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.impl.AbstractBulkFilesystemImporter#dispatchBatchTask(java.lang.Runnable)
+     */
+    @Override
+    protected boolean dispatchBatchTask(final Runnable task)
+    {
+        boolean result = false;
+
+        // Batch tasks aren't counted as outstanding - the task that dispatched them waits for any that start
+        try
+        {
+            pool.execute(task);
+            result = true;
+        }
+        catch (final RejectedExecutionException ree)
+        {
+            if (log.isDebugEnabled()) log.debug("Worker fork/join pool refused batch task - importing batches on the calling thread.", ree);
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.impl.AbstractBulkFilesystemImporter#dispatchSubDirectories(java.lang.String, java.util.List, boolean, boolean)
+     */
+    @Override
+    protected boolean dispatchSubDirectories(final String                               sourceRoot,
+                                             final List<Triple<NodeRef, File, Boolean>> subDirectories,
+                                             final boolean                              replaceExisting,
+                                             final boolean                              inPlaceImport)
+        throws InterruptedException
+    {
+        // The task importing the parent directory is still outstanding, so the import can't complete meanwhile
+        forkSubDirectories(sourceRoot, subDirectories, replaceExisting, inPlaceImport, AuthenticationUtil.getFullyAuthenticatedUser());
+        return(true);
+    }
+
+
+    /**
+     * Forks a task for each of the given sub-directories - in reverse, so that this thread picks them up in their
+     * natural order.
+     */
+    private void forkSubDirectories(final String                               sourceRoot,
+                                    final List<Triple<NodeRef, File, Boolean>> subDirectories,
+                                    final boolean                              replaceExisting,
+                                    final boolean                              inPlaceImport,
+                                    final String                               currentUser)
+        throws InterruptedException
+    {
+        for (int i = subDirectories.size() - 1; i >= 0; i--)
+        {
+            final Triple<NodeRef, File, Boolean> subDirectory = subDirectories.get(i);
+
+            if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
+
+            if (subDirectory != null)
+            {
+                outstandingTasks.incrementAndGet();
+                new DirectoryImportTask(subDirectory.getFirst(), subDirectory.getThird(), sourceRoot, subDirectory.getSecond(), replaceExisting, inPlaceImport, currentUser).fork();
+            }
+        }
+    }
+
+
+    /**
+     * Kills the pool, and wakes up the completion monitoring thread so that it can wait for the pool to terminate.
+     * Forked tasks that never got to run aren't returned by <code>ForkJoinPool.shutdownNow()</code>, so they can't be
+     * accounted for individually - instead the outstanding task count is abandoned.
+     */
+    private void abort()
+    {
+        if (log.isDebugEnabled()) log.debug("Shutting down worker fork/join pool.");
+        pool.shutdownNow();
+        importComplete.countDown();
+    }
+
+
+    private void taskFinished()
+    {
+        if (outstandingTasks.decrementAndGet() <= 0)
+        {
+            importComplete.countDown();
+        }
+    }
+
+
+    /**
+     * This method starts another background thread that waits for the import to complete (i.e. for there to be no
+     * outstanding tasks, or for the import to be stopped or to fail), then shuts down the pool and sets the final
+     * status of the import.
+     */
+    private void startCompletionMonitoringThread()
+    {
+        final ForkJoinPool   forkJoinPool          = pool;
+        final CountDownLatch importCompleteLatch   = importComplete;
+        Runnable             importCompletionLogic = null;
+
+        importCompletionLogic = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (log.isDebugEnabled()) log.debug(Thread.currentThread().getName() + " started.");
+
+                try
+                {
+                    importCompleteLatch.await();
+
+                    if (!forkJoinPool.isShutdown())
+                    {
+                        if (log.isDebugEnabled()) log.debug("Shutting down worker fork/join pool.");
+                        forkJoinPool.shutdown();
+                    }
+
+                    stopSizingScan();
+
+                    // Wait for the worker threads to exit, 5 minutes at a time
+                    while (!forkJoinPool.awaitTermination(5, TimeUnit.MINUTES))
+                    {
+                        if (log.isDebugEnabled()) log.debug("Still waiting for the worker fork/join pool to terminate.");
+                    }
+
+                    // Pool is fully shutdown - set the final status of the import
+                    if (!importStatus.getProcessingState().equals(ProcessingState.FAILED))
+                    {
+                        if (!importStatus.isStopping())
+                        {
+                            postProcess();
+                        }
+
+                        if (importStatus.isStopping())
+                        {
+                            discardPostProcessing();
+                            importStatus.importStopped();
+                            if (log.isInfoEnabled()) log.info("Bulk import from '" + sourceRoot + "' stopped.");
+                        }
+                        else
+                        {
+                            importStatus.importSucceeded();
+                            if (log.isInfoEnabled()) log.info("Bulk import from '" + sourceRoot + "' succeeded.");
+                        }
+
+                        logStatus(importStatus);
+                    }
+                }
+                catch (final InterruptedException ie)
+                {
+                    if (log.isDebugEnabled()) log.debug(Thread.currentThread().getName() + " was interrupted.", ie);
+                }
+            }
+        };
+
+        importCompletionThread = new Thread(importCompletionLogic, "BulkFilesystemImport-ForkJoinCompletionMonitorThread");
+        importCompletionThread.setDaemon(true);
+        importCompletionThread.start();
+    }
+
+
+    /**
+     * This class imports a single directory, then forks a task for each of its sub-directories.  The forked tasks are
+     * never joined - completion of the import as a whole is tracked via the outstanding task count, which means worker
+     * threads never block waiting for subtrees, and the stack depth doesn't grow with the depth of the source tree.
+     */
+    private final class DirectoryImportTask
+        extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final NodeRef target;
+        private final boolean targetIsNew;  // True if the target space was created by this import (so has no children yet)
+        private final String  sourceRoot;
+        private final File    source;
+        private final boolean replaceExisting;
+        private final boolean inPlaceImport;
+        private final String  currentUser;
+
+        private DirectoryImportTask(final NodeRef target,
+                                    final boolean targetIsNew,
+                                    final String  sourceRoot,
+                                    final File    source,
+                                    final boolean replaceExisting,
+                                    final boolean inPlaceImport,
+                                    final String  currentUser)
+        {
+            this.target          = target;
+            this.targetIsNew     = targetIsNew;
+            this.sourceRoot      = sourceRoot;
+            this.source          = source;
+            this.replaceExisting = replaceExisting;
+            this.inPlaceImport   = inPlaceImport;
+            this.currentUser     = currentUser;
+        }
+
+        /**
+         * Imports the directory.
+         */
+        @Override
+        protected void compute()
+        {
+            try
+            {
+                AuthenticationUtil.runAs(new RunAsWork<Object>()
+                {
+                    @Override
+                    public Object doWork()
+                        throws Exception
+                    {
+                        if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
+
+                        // Most sub-directories are forked as soon as their batch commits (see dispatchSubDirectories) - fork any that weren't
+                        final List<Triple<NodeRef, File, Boolean>> subDirectories = importDirectory(target, targetIsNew, sourceRoot, source, replaceExisting, inPlaceImport);
+
+                        forkSubDirectories(sourceRoot, subDirectories, replaceExisting, inPlaceImport, currentUser);
+
+                        return(null);
+                    }
+                }, currentUser);
+            }
+            catch (final Throwable t)
+            {
+                Throwable rootCause = t;
+
+                while (rootCause.getCause() != null)
+                {
+                    rootCause = rootCause.getCause();
+                }
+
+                String rootCauseClassName = rootCause.getClass().getName();
+
+                if (importStatus.getProcessingState().equals(ProcessingState.STOPPING) &&
+                    (rootCause instanceof InterruptedException ||
+                     rootCause instanceof ClosedByInterruptException ||
+                     "com.hazelcast.core.RuntimeInterruptedException".equals(rootCauseClassName)))  // For compatibility across 4.x *sigh*
+                {
+                    // A stop import was requested
+                    if (log.isDebugEnabled()) log.debug(Thread.currentThread().getName() + " was interrupted.", t);
+                }
+                else
+                {
+                    // An unexpected exception - log it and kill the import
+                    log.error("Bulk import from '" + getFileName(source) + "' failed.", t);
+
+                    stopSizingScan();
+                    discardPostProcessing();
+                    importStatus.importFailed(t);
+                    abort();
+                }
+            }
+            finally
+            {
+                taskFinished();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.extension.bulkfilesystemimport.ImportableItem;
+import org.alfresco.extension.bulkfilesystemimport.MetadataLoader;
+
+
+/**
+ * This class loads (parses) the metadata files of a batch <i>before</i> the batch's transaction is opened, in parallel,
+ * so that the transaction (and its database connection) isn't held open while metadata files are read and parsed, and
+ * so that transaction retries don't parse them again.
+ *
+ * Each revision (including every version in an item's version history) is loaded independently.  When the queue of
+ * revisions waiting to be loaded is full, the calling thread loads revisions itself, which throttles the callers to
+ * the rate at which this stage can keep up.
+ *
+ * Instances are thread safe.  The loading threads are daemons, and go away when they've been idle for a while.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public final class MetadataPreparer
+{
+    private final static Log log = LogFactory.getLog(MetadataPreparer.class);
+
+    private final static String THREAD_NAME_PREFIX       = "BulkFilesystemImportMetadataPreparer";
+    private final static long   IDLE_THREAD_TIMEOUT_IN_S = 60;
+
+    private final static AtomicLong currentThreadNumber = new AtomicLong();
+
+    private final MetadataSource     metadataSource;
+    private final ThreadPoolExecutor executor;
+
+
+    /**
+     * The source of the metadata for each revision.
+     */
+    public interface MetadataSource
+    {
+        /**
+         * @param fileType           The type of the item the revision belongs to <i>(will not be null)</i>.
+         * @param contentAndMetadata The revision to load the metadata of <i>(will not be null)</i>.
+         * @return The metadata of the given revision <i>(must not be null)</i>.
+         */
+        MetadataLoader.Metadata loadMetadata(ImportableItem.FileType fileType, ImportableItem.ContentAndMetadata contentAndMetadata);
+    }
+
+
+    /**
+     * @param metadataSource The source of the metadata of each revision <i>(must not be null)</i>.
+     * @param parallelism    The maximum number of revisions to load at once <i>(must be &gt; 0)</i>.
+     * @param queueSize      The maximum number of revisions waiting to be loaded <i>(must be &gt; 0)</i>.
+     */
+    public MetadataPreparer(final MetadataSource metadataSource, final int parallelism, final int queueSize)
+    {
+        // PRECONDITIONS
+        assert metadataSource != null : "metadataSource must not be null.";
+        assert parallelism    > 0     : "parallelism must be > 0.";
+        assert queueSize      > 0     : "queueSize must be > 0.";
+
+        // Body
+        this.metadataSource = metadataSource;
+        this.executor       = new ThreadPoolExecutor(parallelism,
+                                                     parallelism,
+                                                     IDLE_THREAD_TIMEOUT_IN_S,
+                                                     TimeUnit.SECONDS,
+                                                     new LinkedBlockingQueue<Runnable>(queueSize),
+                                                     new ThreadFactory()
+                                                     {
+                                                         @Override
+                                                         public Thread newThread(final Runnable runnable)
+                                                         {
+                                                             final Thread result = Executors.defaultThreadFactory().newThread(runnable);
+
+                                                             result.setName(THREAD_NAME_PREFIX + currentThreadNumber.incrementAndGet());
+                                                             result.setDaemon(true);
+
+                                                             return(result);
+                                                         }
+                                                     },
+                                                     new ThreadPoolExecutor.CallerRunsPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+
+    /**
+     * @return The executor that loads the metadata, for status reporting <i>(will not be null)</i>.
+     */
+    ThreadPoolExecutor getExecutor()
+    {
+        return(executor);
+    }
+
+
+    /**
+     * Loads the metadata of the head revision and versions of the given importable items, in parallel.  Must
+     * <u>not</u> be called within a transaction.  Failures are logged and otherwise ignored - the affected revisions
+     * simply aren't prepared, and their metadata will be loaded within the transaction as usual (where the failure
+     * will be reported).
+     *
+     * @param batch The importable items to load the metadata of <i>(must not be null)</i>.
+     * @return The loaded metadata, keyed by the revision it belongs to <i>(will not be null, but may be empty)</i>.
+     * @throws InterruptedException If the calling thread is interrupted while waiting for loading to complete.
+     */
+    public Map<ImportableItem.ContentAndMetadata, MetadataLoader.Metadata> prepare(final List<ImportableItem> batch)
+        throws InterruptedException
+    {
+        // PRECONDITIONS
+        assert batch != null : "batch must not be null.";
+
+        // Body
+        final Map<ImportableItem.ContentAndMetadata, MetadataLoader.Metadata> result    = new IdentityHashMap<ImportableItem.ContentAndMetadata, MetadataLoader.Metadata>();
+        final List<ImportableItem.ContentAndMetadata>                         revisions = new ArrayList<ImportableItem.ContentAndMetadata>();
+        final List<Future<MetadataLoader.Metadata>>                           futures   = new ArrayList<Future<MetadataLoader.Metadata>>();
+        final String                                                          user      = AuthenticationUtil.getFullyAuthenticatedUser();
+
+        try
+        {
+            for (final ImportableItem importableItem : batch)
+            {
+                if (importableItem.hasVersionEntries())
+                {
+                    for (final ImportableItem.VersionedContentAndMetadata versionEntry : importableItem.getVersionEntries())
+                    {
+                        revisions.add(versionEntry);
+                        futures.add(submit(importableItem.getFileType(), versionEntry, user));
+                    }
+                }
+
+                revisions.add(importableItem.getHeadRevision());
+                futures.add(submit(importableItem.getFileType(), importableItem.getHeadRevision(), user));
+            }
+
+            for (int i = 0; i < revisions.size(); i++)
+            {
+                try
+                {
+                    result.put(revisions.get(i), futures.get(i).get());
+                }
+                catch (final ExecutionException ee)
+                {
+                    if (log.isDebugEnabled()) log.debug("Unable to prepare the metadata of '" + revisions.get(i).getParentFileName() + "' - it will be loaded within the transaction instead.", ee.getCause());
+                }
+            }
+        }
+        finally
+        {
+            // If we're bailing out early, don't leave the loading threads parsing metadata no one will use
+            for (final Future<MetadataLoader.Metadata> future : futures)
+            {
+                future.cancel(true);
+            }
+        }
+
+        return(result);
+    }
+
+
+    private Future<MetadataLoader.Metadata> submit(final ImportableItem.FileType           fileType,
+                                                   final ImportableItem.ContentAndMetadata contentAndMetadata,
+                                                   final String                            user)
+    {
+        return(executor.submit(new Callable<MetadataLoader.Metadata>()
+        {
+            @Override
+            public MetadataLoader.Metadata call()
+                throws Exception
+            {
+                return(AuthenticationUtil.runAs(new RunAsWork<MetadataLoader.Metadata>()
+                {
+                    @Override
+                    public MetadataLoader.Metadata doWork()
+                        throws Exception
+                    {
+                        return(metadataSource.loadMetadata(fileType, contentAndMetadata));
+                    }
+                }, user));
+            }
+        }));
+    }
+
+}
@@ -22,14 +22,20 @@ package org.alfresco.extension.bulkfilesystemimport.impl;
 import java.io.File;
 import java.nio.channels.ClosedByInterruptException;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.alfresco.extension.bulkfilesystemimport.AnalysedDirectory;
 import org.alfresco.extension.bulkfilesystemimport.BulkImportStatus;
 import org.alfresco.extension.bulkfilesystemimport.BulkImportStatus.ProcessingState;
+import org.alfresco.extension.bulkfilesystemimport.ExecutorFactory;
+import org.alfresco.extension.bulkfilesystemimport.executorfactories.PlatformThreadExecutorFactory;
 import org.alfresco.extension.bulkfilesystemimport.util.DataDictionaryBuilder;
 import org.alfresco.repo.content.ContentStore;
 import org.alfresco.repo.policy.BehaviourFilter;
@@ -37,7 +43,6 @@ import org.alfresco.repo.security.authentication.AuthenticationUtil;
 import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
 import org.alfresco.service.ServiceRegistry;
 import org.alfresco.service.cmr.repository.NodeRef;
-import org.alfresco.util.Pair;
 
 
 /**
@@ -46,20 +51,37 @@ import org.alfresco.util.Pair;
  *
  * @author Peter Monks (peter.monks@alfresco.com)
  */
-public abstract class MultiThreadedBulkFilesystemImporter   // Note: class is abstract because it uses Spring's "lookup-method" mechanism
+public class MultiThreadedBulkFilesystemImporter
     extends AbstractBulkFilesystemImporter
 {
     private final static Log log = LogFactory.getLog(MultiThreadedBulkFilesystemImporter.class);
     
     // Interview
-    private final static long DEFAULT_COMPLETION_CHECK_INTERVAL_MS = 250;
+    private final static int  DEFAULT_READ_AHEAD_DEPTH         = 2;
+    private final static int  DEFAULT_READ_AHEAD_CAPACITY      = 1000;
+    private final static int  DEFAULT_AUTO_TUNE_STEP           = 1;
+    private final static long DEFAULT_AUTO_TUNE_INTERVAL_IN_MS = 30000L;
     
-    private final long       completionCheckIntervalMs;
-    private final AtomicLong numberOfActiveUnitsOfWork;
+    private ExecutorFactory executorFactory = new PlatformThreadExecutorFactory();
     
-    private String             sourceRoot;
-    private ThreadPoolExecutor threadPool;
-    private Thread             importCompletionThread;
+    private String                      sourceRoot;
+    private volatile ThreadPoolExecutor threadPool;
+    private Thread                      importCompletionThread;
+    private volatile UnitOfWorkCounter  unitsOfWork;
+    private volatile Queue<Runnable>    queuedBatchTasks;
+    private volatile Semaphore          unitsOfWorkInFlight;  // Limits the number of directories being listed, analysed or imported at once (null means unlimited)
+    private volatile ReadAheadCrawler   readAheadCrawler;
+    
+    private boolean readAheadEnabled     = false;
+    private int     readAheadParallelism = -1;
+    private int     readAheadDepth       = DEFAULT_READ_AHEAD_DEPTH;
+    private int     readAheadCapacity    = DEFAULT_READ_AHEAD_CAPACITY;
+    
+    private boolean                  autoTuneEnabled        = false;
+    private int                      autoTuneMaximumThreads = -1;
+    private int                      autoTuneStep           = DEFAULT_AUTO_TUNE_STEP;
+    private long                     autoTuneInterval       = DEFAULT_AUTO_TUNE_INTERVAL_IN_MS;
+    private volatile ThreadPoolTuner threadPoolTuner        = null;
     
     
     
@@ -69,21 +91,65 @@ public abstract class MultiThreadedBulkFilesystemImporter   // Note: class is ab
                                                final BulkImportStatusImpl  importStatus,
                                                final DataDictionaryBuilder dataDictionaryBuilder)
     {
-        this(serviceRegistry, behaviourFilter, configuredContentStore, importStatus, dataDictionaryBuilder, DEFAULT_COMPLETION_CHECK_INTERVAL_MS);
+        super(serviceRegistry, behaviourFilter, configuredContentStore, importStatus, dataDictionaryBuilder);
     }
-
-
-    public MultiThreadedBulkFilesystemImporter(final ServiceRegistry       serviceRegistry,
-                                               final BehaviourFilter       behaviourFilter,
-                                               final ContentStore          configuredContentStore,
-                                               final BulkImportStatusImpl  importStatus,
-                                               final DataDictionaryBuilder dataDictionaryBuilder,
-                                               final long                  completionCheckIntervalMs)
+    
+    
+    public final void setExecutorFactory(final ExecutorFactory executorFactory)
     {
-        super(serviceRegistry, behaviourFilter, configuredContentStore, importStatus, dataDictionaryBuilder);
-        
-        this.completionCheckIntervalMs = completionCheckIntervalMs;
-        this.numberOfActiveUnitsOfWork = new AtomicLong();
+        this.executorFactory = executorFactory;
+    }
+    
+    public final void setReadAheadEnabled(final boolean readAheadEnabled)
+    {
+        this.readAheadEnabled = readAheadEnabled;
+    }
+    
+    public final void setReadAheadParallelism(final int readAheadParallelism)
+    {
+        this.readAheadParallelism = readAheadParallelism;
+    }
+    
+    public final void setReadAheadDepth(final int readAheadDepth)
+    {
+        if (readAheadDepth > 0)
+        {
+            this.readAheadDepth = readAheadDepth;
+        }
+    }
+    
+    public final void setReadAheadCapacity(final int readAheadCapacity)
+    {
+        if (readAheadCapacity > 0)
+        {
+            this.readAheadCapacity = readAheadCapacity;
+        }
+    }
+    
+    public final void setAutoTuneEnabled(final boolean autoTuneEnabled)
+    {
+        this.autoTuneEnabled = autoTuneEnabled;
+    }
+    
+    public final void setAutoTuneMaximumThreads(final int autoTuneMaximumThreads)
+    {
+        this.autoTuneMaximumThreads = autoTuneMaximumThreads;
+    }
+    
+    public final void setAutoTuneStep(final int autoTuneStep)
+    {
+        if (autoTuneStep > 0)
+        {
+            this.autoTuneStep = autoTuneStep;
+        }
+    }
+    
+    public final void setAutoTuneInterval(final long autoTuneInterval)
+    {
+        if (autoTuneInterval > 0)
+        {
+            this.autoTuneInterval = autoTuneInterval;
+        }
     }
     
     
@@ -100,25 +166,60 @@ public abstract class MultiThreadedBulkFilesystemImporter   // Note: class is ab
         
         importStatus.stopping();
         
+        stopThreadPoolTuner();
+        stopReadAheadCrawler();
+        stopSizingScan();
+        
         // Kill the thread pool - the monitoring thread performs the final status update once everything is down
         if (log.isDebugEnabled()) log.debug("Shutting down worker thread pool.");
-        List<Runnable> remainingUnitsOfWork = threadPool.shutdownNow();
-        if (log.isInfoEnabled()) log.info("Thread pool shutdown requested, " + remainingUnitsOfWork == null ? 0 : remainingUnitsOfWork.size() + " units of work discarded.");
+        int discarded = discardRemainingUnitsOfWork();
+        if (log.isInfoEnabled()) log.info("Thread pool shutdown requested, " + discarded + " units of work discarded.");
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.impl.AbstractBulkFilesystemImporter#resizeThreadPool(int)
+     */
+    @Override
+    public boolean resizeThreadPool(final int numberOfThreads)
+    {
+        final ThreadPoolExecutor pool   = threadPool;
+        boolean                  result = false;
+        
+        if (numberOfThreads > 0 && importStatus.inProgress() && pool != null && !pool.isShutdown() && ThreadPoolTuner.isResizable(pool))
+        {
+            // An explicit size takes precedence over the auto-tuner, for the remainder of the import
+            if (threadPoolTuner != null)
+            {
+                if (log.isInfoEnabled()) log.info("Worker thread pool resized manually - disabling auto-tuning for the remainder of the import.");
+                stopThreadPoolTuner();
+            }
+            
+            ThreadPoolTuner.resize(pool, numberOfThreads);
+            result = true;
+            
+            if (log.isInfoEnabled()) log.info("Worker thread pool resized to " + numberOfThreads + " threads for the remainder of the import.");
+        }
+        
+        return(result);
     }
     
     
     /**
-     * Spring "lookup method" that will return a new ThreadPoolExecutor each time it's called.
-     * We have to go to these extremes because:
+     * Returns a new ThreadPoolExecutor each time it's called, from the configured executor factory.  A new pool is
+     * needed for each import because:
      * 1. We need to be able to stop an entire import (including all of the worker threads)
      * 2. Java's ExecutorService framework only offers one way to do this: shutting down the entire ExecutorService
      * 3. Once shutdown, a Java ExecutorService can't be restarted / reused
      * 
-     * Ergo this stuff...  *sigh*
+     * Note: may also be overridden via Spring's "lookup method" mechanism (as was required in earlier versions).
      * 
-     * @return A new ThreadPoolExecutor instance <i>(will not be null, assuming Spring is configured correctly)</i>.
+     * @return A new ThreadPoolExecutor instance <i>(will not be null)</i>.
      */
-    protected abstract ThreadPoolExecutor createThreadPool();
+    protected ThreadPoolExecutor createThreadPool()
+    {
+        return(executorFactory.newThreadPool());
+    }
     
 
     /**
@@ -132,35 +233,287 @@ public abstract class MultiThreadedBulkFilesystemImporter   // Note: class is ab
         throws Throwable
     {
         sourceRoot = getFileName(source);
-        threadPool = createThreadPool();    // Get a new ThreadPool from a Spring prototype bean
-        numberOfActiveUnitsOfWork.set(0);
+        threadPool = createThreadPool();
+        limitConcurrentTransactions(executorFactory.getMaximumConcurrentTransactions());
+        unitsOfWorkInFlight = executorFactory.getMaximumUnitsOfWorkInFlight() > 0 ? new Semaphore(executorFactory.getMaximumUnitsOfWorkInFlight()) : null;
+        unitsOfWork = new UnitOfWorkCounter();
+        queuedBatchTasks = new ConcurrentLinkedQueue<Runnable>();
         
         log.info("Bulk import started from '" + sourceRoot + "'...");
 
         importStatus.startImport(getFileName(source),
                                  getRepositoryPath(target),
                                  inPlaceImport ? BulkImportStatus.ImportType.IN_PLACE : BulkImportStatus.ImportType.STREAMING,
-                                 getBatchWeight(),
+                                 getEffectiveBatchWeight(),
                                  threadPool);
-        threadPool.submit(new UnitOfWork(target, getFileName(source), source, replaceExisting, inPlaceImport, AuthenticationUtil.getFullyAuthenticatedUser()));
+        
+        startSizingScan(source);
+        
+        if (autoTuneEnabled && !ThreadPoolTuner.isResizable(threadPool))
+        {
+            if (log.isInfoEnabled()) log.info("Worker thread pool starts a thread per unit of work - auto-tuning disabled for this import.");
+            threadPoolTuner = null;
+        }
+        else if (autoTuneEnabled)
+        {
+            threadPoolTuner = new ThreadPoolTuner(threadPool,
+                                                  importStatus,
+                                                  autoTuneMaximumThreads > 0 ? autoTuneMaximumThreads : Runtime.getRuntime().availableProcessors() * 4,
+                                                  autoTuneStep,
+                                                  autoTuneInterval);
+            threadPoolTuner.start();
+        }
+        else
+        {
+            threadPoolTuner = null;
+        }
+        
+        // Read-ahead is pointless with streaming analysis, since directories are never analysed up front
+        if (readAheadEnabled && !isStreamingAnalysis())
+        {
+            readAheadCrawler = new ReadAheadCrawler(getDirectoryAnalyser(), getImportFilters(), importStatus, readAheadParallelism, readAheadDepth, readAheadCapacity);
+            readAheadCrawler.start(source);
+        }
+        else
+        {
+            readAheadCrawler = null;
+        }
+        
+        submit(new UnitOfWork(target, false, getFileName(source), source, replaceExisting, inPlaceImport, AuthenticationUtil.getFullyAuthenticatedUser()));
         
         startCompletionMonitoringThread();
     }
+    
+    
+    /**
+     * Submits the given unit of work to the thread pool.  The unit of work is counted as outstanding <i>before</i> it's
+     * submitted, so that the count can't drop to zero while the submitting unit of work is still running.
+     * 
+     * Batch tasks share the thread pool's (bounded) queue with units of work, but units of work take precedence: if the
+     * queue is full, queued batch tasks are evicted to make room, so batch tasks can never cause the import to fail.
+     * 
+     * @param unitOfWork The unit of work to submit <i>(must not be null)</i>.
+     */
+    private void submit(final UnitOfWork unitOfWork)
+    {
+        boolean submitted = false;
+        
+        while (!submitted)
+        {
+            try
+            {
+                unitsOfWork.submit(threadPool, unitOfWork);
+                submitted = true;
+            }
+            catch (final RejectedExecutionException ree)
+            {
+                if (threadPool.isShutdown() || !evictQueuedBatchTask())
+                {
+                    throw ree;
+                }
+            }
+        }
+    }
+    
+    
+    /**
+     * Removes one batch task from the thread pool's queue, if there are any that haven't started yet.  An evicted batch
+     * task never runs, which is harmless - the directory's batches are simply imported by the threads already
+     * importing them.
+     * 
+     * @return True if a batch task was evicted, false if there were none queued.
+     */
+    private boolean evictQueuedBatchTask()
+    {
+        final Queue<Runnable> batchTasks = queuedBatchTasks;
+        boolean               result     = false;
+        Runnable              batchTask  = null;
+        
+        while (!result && (batchTask = batchTasks.poll()) != null)
+        {
+            result = threadPool.remove(batchTask);  // False if the batch task has already been taken off the queue
+        }
+        
+        if (result && log.isDebugEnabled()) log.debug("Evicted a queued batch task to make room for a unit of work.");
+        
+        return(result);
+    }
+    
+    
+    /**
+     * Submits a unit of work for each of the given sub-directories.
+     */
+    private void submitSubDirectories(final String                               sourceRoot,
+                                      final List<Triple<NodeRef, File, Boolean>> subDirectories,
+                                      final boolean                              replaceExisting,
+                                      final boolean                              inPlaceImport,
+                                      final String                               currentUser)
+        throws InterruptedException
+    {
+        for (final Triple<NodeRef, File, Boolean> subDirectory : subDirectories)
+        {
+            if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
+            
+            if (subDirectory != null)
+            {
+                submit(new UnitOfWork(subDirectory.getFirst(), subDirectory.getThird(), sourceRoot, subDirectory.getSecond(), replaceExisting, inPlaceImport, currentUser));
+            }
+        }
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.impl.AbstractBulkFilesystemImporter#dispatchSubDirectories(java.lang.String, java.util.List, boolean, boolean)
+     */
+    @Override
+    protected boolean dispatchSubDirectories(final String                               sourceRoot,
+                                             final List<Triple<NodeRef, File, Boolean>> subDirectories,
+                                             final boolean                              replaceExisting,
+                                             final boolean                              inPlaceImport)
+        throws InterruptedException
+    {
+        // The unit of work importing the parent directory is still outstanding, so the import can't complete meanwhile
+        submitSubDirectories(sourceRoot, subDirectories, replaceExisting, inPlaceImport, AuthenticationUtil.getFullyAuthenticatedUser());
+        return(true);
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.impl.AbstractBulkFilesystemImporter#dispatchBatchTask(java.lang.Runnable)
+     */
+    @Override
+    protected boolean dispatchBatchTask(final Runnable task)
+    {
+        final Queue<Runnable> batchTasks = queuedBatchTasks;
+        final Runnable        batchTask  = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                batchTasks.remove(this);
+                task.run();
+            }
+        };
+        boolean result = false;
+        
+        // Batch tasks aren't units of work - the unit of work that dispatched them waits for any that start
+        try
+        {
+            batchTasks.add(batchTask);
+            threadPool.execute(batchTask);
+            result = true;
+        }
+        catch (final RejectedExecutionException ree)
+        {
+            batchTasks.remove(batchTask);
+            if (log.isDebugEnabled()) log.debug("Worker thread pool refused batch task - importing batches on the calling thread.", ree);
+        }
+        
+        return(result);
+    }
+    
+    
+    /**
+     * Notes that the given number of units of work have finished (or will never run), and signals completion of the
+     * import once there are none outstanding.
+     * 
+     * @param numberOfUnitsOfWork The number of units of work that finished.
+     */
+    private void unitsOfWorkFinished(final long numberOfUnitsOfWork)
+    {
+        unitsOfWork.finished(numberOfUnitsOfWork);
+    }
+    
+    
+    /**
+     * Shuts down the thread pool immediately, and accounts for the queued units of work that will now never run (any
+     * queued batch tasks are discarded too, but those were never counted).
+     * 
+     * @return The number of units of work that were discarded.
+     */
+    private int discardRemainingUnitsOfWork()
+    {
+        final List<Runnable> remainingTasks = threadPool.shutdownNow();
+        int                  result         = 0;
+        
+        if (remainingTasks != null)
+        {
+            for (final Runnable task : remainingTasks)
+            {
+                if (task instanceof UnitOfWork)
+                {
+                    result++;
+                }
+            }
+        }
+        
+        unitsOfWorkFinished(result);
+        
+        return(result);
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.impl.AbstractBulkFilesystemImporter#analyseDirectory(java.io.File)
+     */
+    @Override
+    protected AnalysedDirectory analyseDirectory(final File source)
+        throws InterruptedException
+    {
+        final ReadAheadCrawler crawler = readAheadCrawler;
+        AnalysedDirectory      result  = null;
+        
+        if (crawler != null)
+        {
+            result = crawler.analyseDirectory(source);
+        }
+        else
+        {
+            result = super.analyseDirectory(source);
+        }
+        
+        return(result);
+    }
+    
+    
+    private void stopThreadPoolTuner()
+    {
+        final ThreadPoolTuner tuner = threadPoolTuner;
+        
+        if (tuner != null)
+        {
+            if (log.isDebugEnabled()) log.debug("Stopping worker thread pool tuner.");
+            tuner.stop();
+            threadPoolTuner = null;
+        }
+    }
+    
+    
+    private void stopReadAheadCrawler()
+    {
+        if (readAheadCrawler != null)
+        {
+            if (log.isDebugEnabled()) log.debug("Stopping read-ahead crawler.");
+            readAheadCrawler.stop();
+        }
+    }
 
 
     /**
-     * This method starts another background thread that monitors whether the import has finished or not.
-     * This is a cheap and cheerful way of working around the problem that we don't actually know when the
-     * import has completed until it's no longer importing anything (i.e. there are no active tasks and the
-     * task queue is empty).
+     * This method starts another background thread that waits for the import to complete (i.e. for there to be no
+     * outstanding units of work), then shuts down the thread pool and sets the final status of the import.
      * 
-     * Note that we rely on our own count of the number of active units of work (threads), because Java's
-     * ExecutorService doesn't accurately keep a count (note the use of the word "approximate" in this JavaDoc:
-     * http://download.oracle.com/javase/6/docs/api/java/util/concurrent/ThreadPoolExecutor.html#getActiveCount())
+     * Note that we rely on our own count of the number of outstanding units of work, because Java's ExecutorService
+     * doesn't accurately keep a count (note the use of the word "approximate" in this JavaDoc:
+     * http://download.oracle.com/javase/6/docs/api/java/util/concurrent/ThreadPoolExecutor.html#getActiveCount()).
+     * Each unit of work is counted before it's submitted and uncounted once it's finished (or discarded), and a unit
+     * of work submits its sub-directories before it finishes, so the count only reaches zero once the entire import
+     * is done - there's no need to poll (see UnitOfWorkCounter).
      */
     private void startCompletionMonitoringThread()
     {
-        Runnable importCompletionLogic = null;
+        final UnitOfWorkCounter importUnitsOfWork     = unitsOfWork;
+        Runnable                importCompletionLogic = null;
         
         importCompletionLogic = new Runnable()
         {
@@ -171,50 +524,46 @@ public abstract class MultiThreadedBulkFilesystemImporter   // Note: class is ab
                 
                 try
                 {
-                    // Dodgy hack to avoid race condition before the import has started
-                    //###TODO: revisit this via thread notification or wotnot
-                    Thread.sleep(completionCheckIntervalMs);
+                    importUnitsOfWork.awaitCompletion();
+                    
+                    if (!threadPool.isShutdown())
+                    {
+                        // Gracefully shutdown the thread pool (there's no work left, so this is immediate)
+                        if (log.isDebugEnabled()) log.debug("Shutting down worker thread pool.");
+                        threadPool.shutdown();
+                    }
+                    
+                    stopThreadPoolTuner();
+                    stopReadAheadCrawler();
+                    stopSizingScan();
                     
-                    // Keep looping (with a delay each time), checking if the import completed
-                    while (importStatus.inProgress())
+                    // Wait for the worker threads to exit, 5 minutes at a time
+                    while (!threadPool.awaitTermination(5, TimeUnit.MINUTES))
                     {
-                        if (numberOfActiveUnitsOfWork.get() == 0 && threadPool.getQueue().isEmpty())
+                        if (log.isDebugEnabled()) log.debug("Still waiting for the worker thread pool to terminate.");
+                    }
+                    
+                    // Thread pool is fully shutdown - set the final status of the import
+                    if (!importStatus.getProcessingState().equals(ProcessingState.FAILED))
+                    {
+                        if (!importStatus.isStopping())
                         {
-                            if (!threadPool.isShutdown() && !threadPool.isTerminating())
-                            {
-                                // Gracefully shutdown the thread pool (i.e. finish all in-progress work)
-                                if (log.isDebugEnabled()) log.debug("Shutting down worker thread pool.");
-                                threadPool.shutdown();
-                            }
-                            
-                            // Wait 5 minutes for the thread pool to shutdown
-                            // If we timeout, go around the while loop and await termination again
-                            if (threadPool.awaitTermination(5, TimeUnit.MINUTES))
-                            {
-                                // Thread pool is fully shutdown - set the final status of the import
-                                if (!importStatus.getProcessingState().equals(ProcessingState.FAILED))
-                                {
-                                    if (importStatus.isStopping())
-                                    {
-                                        importStatus.importStopped();
-                                        if (log.isInfoEnabled()) log.info("Bulk import from '" + sourceRoot + "' stopped.");
-                                    }
-                                    else
-                                    {
-                                        importStatus.importSucceeded();
-                                        if (log.isInfoEnabled()) log.info("Bulk import from '" + sourceRoot + "' succeeded.");
-                                    }
-
-                                    logStatus(importStatus);
-                                    break; // Drop out of the while loop, thereby terminating the completion monitoring thread
-                                }
-                            }
+                            postProcess();
+                        }
+                        
+                        if (importStatus.isStopping())
+                        {
+                            discardPostProcessing();
+                            importStatus.importStopped();
+                            if (log.isInfoEnabled()) log.info("Bulk import from '" + sourceRoot + "' stopped.");
                         }
                         else
                         {
-                            // Still working, so sleep for a bit before checking again
-                            Thread.sleep(completionCheckIntervalMs);
+                            importStatus.importSucceeded();
+                            if (log.isInfoEnabled()) log.info("Bulk import from '" + sourceRoot + "' succeeded.");
                         }
+
+                        logStatus(importStatus);
                     }
                 }
                 catch (final InterruptedException ie)
@@ -238,6 +587,7 @@ public abstract class MultiThreadedBulkFilesystemImporter   // Note: class is ab
         implements Runnable
     {
         private final NodeRef target;
+        private final boolean targetIsNew;  // True if the target space was created by this import (so has no children yet)
         private final String  sourceRoot;
         private final File    source;
         private final boolean replaceExisting;
@@ -245,6 +595,7 @@ public abstract class MultiThreadedBulkFilesystemImporter   // Note: class is ab
         private final String  currentUser;
         
         private UnitOfWork(final NodeRef target,
+                           final boolean targetIsNew,
                            final String  sourceRoot,
                            final File    source,
                            final boolean replaceExisting,
@@ -252,6 +603,7 @@ public abstract class MultiThreadedBulkFilesystemImporter   // Note: class is ab
                            final String  currentUser)
         {
             this.target          = target;
+            this.targetIsNew     = targetIsNew;
             this.sourceRoot      = sourceRoot;
             this.source          = source;
             this.replaceExisting = replaceExisting;
@@ -267,8 +619,6 @@ public abstract class MultiThreadedBulkFilesystemImporter   // Note: class is ab
         {
             try
             {
-                numberOfActiveUnitsOfWork.incrementAndGet();
-                
                 AuthenticationUtil.runAs(new RunAsWork<Object>()
                 {
                     @Override
@@ -277,17 +627,21 @@ public abstract class MultiThreadedBulkFilesystemImporter   // Note: class is ab
                     {
                         if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
                         
-                        List<Pair<NodeRef, File>> subDirectories = importDirectory(target, sourceRoot, source, replaceExisting, inPlaceImport);
+                        // Wait until this directory may be listed, if the number of units of work in flight is limited
+                        final Semaphore permits = unitsOfWorkInFlight;
                         
-                        // Submit each sub-directory to the thread pool for independent importation
-                        for (final Pair<NodeRef, File> subDirectory : subDirectories)
+                        if (permits != null) permits.acquire();
+                        
+                        try
                         {
-                            if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
+                            // Most sub-directories are submitted as soon as their batch commits (see dispatchSubDirectories) - submit any that weren't
+                            final List<Triple<NodeRef, File, Boolean>> subDirectories = importDirectory(target, targetIsNew, sourceRoot, source, replaceExisting, inPlaceImport);
                             
-                            if (subDirectory != null)
-                            {
-                                threadPool.submit(new UnitOfWork(subDirectory.getFirst(), sourceRoot, subDirectory.getSecond(), replaceExisting, inPlaceImport, currentUser));
-                            }
+                            submitSubDirectories(sourceRoot, subDirectories, replaceExisting, inPlaceImport, currentUser);
+                        }
+                        finally
+                        {
+                            if (permits != null) permits.release();
                         }
                         
                         return(null);
@@ -319,13 +673,16 @@ public abstract class MultiThreadedBulkFilesystemImporter   // Note: class is ab
                     log.error("Bulk import from '" + getFileName(source) + "' failed.", t);
                     
                     if (log.isDebugEnabled()) log.debug("Shutting down worker thread pool.");
-                    threadPool.shutdownNow();
+                    discardRemainingUnitsOfWork();
+                    stopReadAheadCrawler();
+                    stopSizingScan();
+                    discardPostProcessing();
                     importStatus.importFailed(t);
                 }
             }
             finally
             {
-                numberOfActiveUnitsOfWork.decrementAndGet();
+                unitsOfWorkFinished(1);
             }
         }
     }
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.ContentService;
+import org.alfresco.extension.bulkfilesystemimport.BulkImportStatus.PipelineStage;
+import org.alfresco.extension.bulkfilesystemimport.ImportableItem;
+import org.alfresco.extension.bulkfilesystemimport.MetadataLoader;
+
+
+/**
+ * This class manages the stages of the import pipeline that run before a batch's transaction is opened: metadata
+ * preparation (see {@link MetadataPreparer}) and content staging (see {@link ContentStager}).  Each stage is created
+ * the first time an import starts with it enabled, and is reused by every import after that.
+ *
+ * Only these two stages live here.  Source directories are still scanned by the {@link ReadAheadCrawler} (if
+ * enabled), and batches are still committed by the importer's own threads; both simply report their thread pools to
+ * the import status alongside these stages.
+ *
+ * Instances are thread safe once configured.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+final class PipelineStages
+{
+    private final static Log log = LogFactory.getLog(PipelineStages.class);
+
+    private final static int DEFAULT_CONTENT_STAGING_PARALLELISM      = 4;
+    private final static int DEFAULT_METADATA_PREPARATION_PARALLELISM = 4;
+    private final static int DEFAULT_QUEUE_SIZE                       = 1000;
+
+    private final ContentService                  contentService;
+    private final ContentStore                    configuredContentStore;
+    private final BulkImportStatusImpl            importStatus;
+    private final MetadataPreparer.MetadataSource metadataSource;
+
+    private boolean                contentStagingEnabled     = true;
+    private int                    contentStagingParallelism = DEFAULT_CONTENT_STAGING_PARALLELISM;
+    private int                    contentStagingQueueSize   = DEFAULT_QUEUE_SIZE;
+    private volatile ContentStager contentStager             = null;
+
+    private boolean                   metadataPreparationEnabled     = true;
+    private int                       metadataPreparationParallelism = DEFAULT_METADATA_PREPARATION_PARALLELISM;
+    private int                       metadataPreparationQueueSize   = DEFAULT_QUEUE_SIZE;
+    private volatile MetadataPreparer metadataPreparer               = null;
+
+
+    /**
+     * @param contentService         The content service to stage content with <i>(must not be null)</i>.
+     * @param configuredContentStore The content store to stage content into <i>(must not be null)</i>.
+     * @param importStatus           The import status to register the stages with <i>(must not be null)</i>.
+     * @param metadataSource         The source of the metadata of each revision <i>(must not be null)</i>.
+     */
+    PipelineStages(final ContentService                  contentService,
+                   final ContentStore                    configuredContentStore,
+                   final BulkImportStatusImpl            importStatus,
+                   final MetadataPreparer.MetadataSource metadataSource)
+    {
+        // PRECONDITIONS
+        assert importStatus   != null : "importStatus must not be null.";
+        assert metadataSource != null : "metadataSource must not be null.";
+
+        // Body
+        this.contentService         = contentService;
+        this.configuredContentStore = configuredContentStore;
+        this.importStatus           = importStatus;
+        this.metadataSource         = metadataSource;
+    }
+
+
+    void setContentStagingEnabled(final boolean contentStagingEnabled)
+    {
+        this.contentStagingEnabled = contentStagingEnabled;
+    }
+
+    void setContentStagingParallelism(final int contentStagingParallelism)
+    {
+        if (contentStagingParallelism > 0)
+        {
+            this.contentStagingParallelism = contentStagingParallelism;
+        }
+    }
+
+    void setContentStagingQueueSize(final int contentStagingQueueSize)
+    {
+        if (contentStagingQueueSize > 0)
+        {
+            this.contentStagingQueueSize = contentStagingQueueSize;
+        }
+    }
+
+    void setMetadataPreparationEnabled(final boolean metadataPreparationEnabled)
+    {
+        this.metadataPreparationEnabled = metadataPreparationEnabled;
+    }
+
+    void setMetadataPreparationParallelism(final int metadataPreparationParallelism)
+    {
+        if (metadataPreparationParallelism > 0)
+        {
+            this.metadataPreparationParallelism = metadataPreparationParallelism;
+        }
+    }
+
+    void setMetadataPreparationQueueSize(final int metadataPreparationQueueSize)
+    {
+        if (metadataPreparationQueueSize > 0)
+        {
+            this.metadataPreparationQueueSize = metadataPreparationQueueSize;
+        }
+    }
+
+
+    /**
+     * Creates the enabled stages (if they don't already exist), and registers them with the import status.  Called as
+     * each import starts.
+     */
+    void start()
+    {
+        if (contentStagingEnabled && contentStager == null)
+        {
+            contentStager = new ContentStager(contentService, configuredContentStore, importStatus, contentStagingParallelism, contentStagingQueueSize);
+        }
+
+        if (metadataPreparationEnabled && metadataPreparer == null)
+        {
+            metadataPreparer = new MetadataPreparer(metadataSource, metadataPreparationParallelism, metadataPreparationQueueSize);
+        }
+
+        importStatus.setPipelineStage(PipelineStage.PREPARE, metadataPreparationEnabled && metadataPreparer != null ? metadataPreparer.getExecutor() : null);
+        importStatus.setPipelineStage(PipelineStage.STREAM,  contentStagingEnabled      && contentStager    != null ? contentStager.getExecutor()    : null);
+    }
+
+
+    /**
+     * Loads the metadata of the given items before their transaction starts, if metadata preparation is enabled.
+     *
+     * @param batch         The items to prepare the metadata of <i>(must not be null)</i>.
+     * @param mustReturnMap If true, an empty (mutable) map is returned rather than null if nothing was prepared.
+     * @return The prepared metadata of each revision <i>(may be null, unless mustReturnMap is true)</i>.
+     * @throws InterruptedException If the calling thread is interrupted while waiting for the metadata to load.
+     */
+    Map<ImportableItem.ContentAndMetadata, MetadataLoader.Metadata> prepareMetadata(final List<ImportableItem> batch, final boolean mustReturnMap)
+        throws InterruptedException
+    {
+        Map<ImportableItem.ContentAndMetadata, MetadataLoader.Metadata> result   = null;
+        final MetadataPreparer                                          preparer = metadataPreparer;
+
+        if (metadataPreparationEnabled && preparer != null && !batch.isEmpty())
+        {
+            result = preparer.prepare(batch);
+
+            if (log.isDebugEnabled()) log.debug("Prepared the metadata of " + result.size() + " revision(s) for a batch of " + batch.size() + " items.");
+        }
+
+        if (result == null && mustReturnMap)
+        {
+            result = new IdentityHashMap<ImportableItem.ContentAndMetadata, MetadataLoader.Metadata>();
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * @param inPlaceImport A flag indicating whether this is an "in place" import.
+     * @return True if content will be staged (in-place imports have nothing to stage).
+     */
+    boolean isStagingContent(final boolean inPlaceImport)
+    {
+        return(contentStagingEnabled && contentStager != null && !inPlaceImport);
+    }
+
+
+    /**
+     * Copies the content of the given items into the content store before their transaction starts, if content staging
+     * is enabled and this is a streaming import.  The result must be passed to
+     * {@link #releaseStagedContent(Map)} once the items' transaction(s) are done.
+     *
+     * @param itemsToStage  The items to stage the content of <i>(must not be null)</i>.
+     * @param inPlaceImport A flag indicating whether this is an "in place" import.
+     * @return The staged content of each revision <i>(null if nothing was staged)</i>.
+     * @throws InterruptedException If the calling thread is interrupted while waiting for the content to be copied.
+     */
+    Map<ImportableItem.ContentAndMetadata, ContentData> stageContent(final List<ImportableItem> itemsToStage, final boolean inPlaceImport)
+        throws InterruptedException
+    {
+        Map<ImportableItem.ContentAndMetadata, ContentData> result = null;
+        final ContentStager                                 stager = contentStager;
+
+        if (contentStagingEnabled && stager != null && !inPlaceImport && !itemsToStage.isEmpty())
+        {
+            result = stager.stage(itemsToStage);
+
+            if (log.isDebugEnabled()) log.debug("Staged " + result.size() + " content file(s) for " + itemsToStage.size() + " items.");
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Records that the given staged content was attached to a node in the current transaction.
+     *
+     * @param stagedContent The staged content <i>(must not be null)</i>.
+     * @return The given staged content.
+     */
+    ContentData claimStagedContent(final ContentData stagedContent)
+    {
+        final ContentStager stager = contentStager;
+
+        if (stager != null)
+        {
+            stager.claimOnCommit(stagedContent);
+        }
+
+        return(stagedContent);
+    }
+
+
+    /**
+     * Deletes any of the given staged content that didn't end up on a committed node.
+     *
+     * @param stagedContent The result of {@link #stageContent(List, boolean)} <i>(may be null)</i>.
+     */
+    void releaseStagedContent(final Map<ImportableItem.ContentAndMetadata, ContentData> stagedContent)
+    {
+        final ContentStager stager = contentStager;
+
+        if (stager != null && stagedContent != null)
+        {
+            stager.release(stagedContent);
+        }
+    }
+
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.repo.transaction.TransactionListener;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.action.ActionService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+
+
+/**
+ * This class does the work that was deferred by suppressing behaviours (and rules) during an import.  The content nodes
+ * written by each transaction are recorded once that transaction commits, and later replayed by running the configured
+ * actions (e.g. <code>extract-metadata</code>) against them, a small batch at a time, with an optional pause between
+ * batches so that post-processing doesn't swamp the repository.
+ *
+ * Recorded nodes are spooled to a temporary file rather than held in memory, since an import may write many millions
+ * of them.  The spool file is deleted once it has been replayed, or when the import fails or is stopped.
+ *
+ * Instances are thread safe, and are only used for a single import.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public final class PostProcessor
+{
+    private final static Log log = LogFactory.getLog(PostProcessor.class);
+
+    private final static String TXN_RESOURCE_KEY    = PostProcessor.class.getName() + ".nodeRefs";
+    private final static String SPOOL_FILE_PREFIX   = "bulk-import-post-processing-";
+    private final static String SPOOL_FILE_SUFFIX   = ".txt";
+    private final static String SPOOL_FILE_ENCODING = "UTF-8";
+
+    private final ServiceRegistry      serviceRegistry;
+    private final NodeService          nodeService;
+    private final ActionService        actionService;
+    private final BulkImportStatusImpl importStatus;
+    private final List<String>         actionNames;
+    private final int                  batchSize;
+    private final long                 pauseBetweenBatches;
+    private final String               user;
+
+    private final AtomicLong numberOfNodesRecorded = new AtomicLong();
+    private File             spoolFile             = null;  // Guarded by "this"
+    private Writer           spool                 = null;  // Guarded by "this"
+
+    private final TransactionListener listener = new TransactionListenerAdapter()
+    {
+        @Override
+        public void afterCommit()
+        {
+            @SuppressWarnings("unchecked")
+            final Set<NodeRef> nodeRefs = (Set<NodeRef>)AlfrescoTransactionSupport.getResource(TXN_RESOURCE_KEY);
+
+            if (nodeRefs != null)
+            {
+                append(nodeRefs);
+            }
+        }
+    };
+
+
+    /**
+     * @param serviceRegistry     The Alfresco service registry <i>(must not be null)</i>.
+     * @param importStatus        The import status object to report progress to <i>(must not be null)</i>.
+     * @param actionNames         The names of the actions to run against each recorded node <i>(must not be null or empty)</i>.
+     * @param batchSize           The number of nodes to post-process per transaction <i>(must be &gt; 0)</i>.
+     * @param pauseBetweenBatches How long (in ms) to pause between transactions <i>(0 means don't pause)</i>.
+     * @param user                The user to run the actions as <i>(must not be null)</i>.
+     */
+    public PostProcessor(final ServiceRegistry      serviceRegistry,
+                         final BulkImportStatusImpl importStatus,
+                         final List<String>         actionNames,
+                         final int                  batchSize,
+                         final long                 pauseBetweenBatches,
+                         final String               user)
+    {
+        // PRECONDITIONS
+        assert serviceRegistry     != null : "serviceRegistry must not be null.";
+        assert importStatus        != null : "importStatus must not be null.";
+        assert actionNames         != null : "actionNames must not be null.";
+        assert actionNames.size()  > 0     : "actionNames must not be empty.";
+        assert batchSize           > 0     : "batchSize must be > 0.";
+        assert pauseBetweenBatches >= 0    : "pauseBetweenBatches must be >= 0.";
+        assert user                != null : "user must not be null.";
+
+        // Body
+        this.serviceRegistry     = serviceRegistry;
+        this.nodeService         = serviceRegistry.getNodeService();
+        this.actionService       = serviceRegistry.getActionService();
+        this.importStatus        = importStatus;
+        this.actionNames         = new ArrayList<String>(actionNames);
+        this.batchSize           = batchSize;
+        this.pauseBetweenBatches = pauseBetweenBatches;
+        this.user                = user;
+    }
+
+
+    /**
+     * Records the given node for post-processing, once the current transaction commits.  Must be called within a
+     * transaction.
+     *
+     * @param nodeRef The node to post-process <i>(must not be null)</i>.
+     */
+    public void recordOnCommit(final NodeRef nodeRef)
+    {
+        // PRECONDITIONS
+        assert nodeRef != null : "nodeRef must not be null.";
+
+        // Body
+        @SuppressWarnings("unchecked")
+        Set<NodeRef> nodeRefs = (Set<NodeRef>)AlfrescoTransactionSupport.getResource(TXN_RESOURCE_KEY);
+
+        if (nodeRefs == null)
+        {
+            nodeRefs = new HashSet<NodeRef>();
+            AlfrescoTransactionSupport.bindResource(TXN_RESOURCE_KEY, nodeRefs);
+            AlfrescoTransactionSupport.bindListener(listener);
+        }
+
+        nodeRefs.add(nodeRef);
+    }
+
+
+    /**
+     * Post-processes all of the nodes recorded so far.  Nodes recorded while this method is running are left for the
+     * next call.  Failures are logged, and don't stop the remaining nodes from being post-processed.  If the import is
+     * stopped, the remaining nodes are not post-processed.
+     */
+    public void replay()
+    {
+        final File toReplay;
+        final long numberOfNodes;
+
+        synchronized(this)
+        {
+            closeSpool();
+            toReplay      = spoolFile;
+            numberOfNodes = numberOfNodesRecorded.getAndSet(0);
+            spoolFile     = null;
+        }
+
+        if (toReplay != null)
+        {
+            if (log.isInfoEnabled()) log.info("Post-processing " + numberOfNodes + " node(s) with action(s) " + actionNames + ".");
+
+            try
+            {
+                replay(toReplay, numberOfNodes);
+            }
+            catch (final InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+                if (log.isWarnEnabled()) log.warn("Post-processing was interrupted - some nodes have not been post-processed.");
+            }
+            catch (final IOException ioe)
+            {
+                log.error("Unable to read post-processing spool file '" + toReplay.getAbsolutePath() + "' - some nodes have not been post-processed.", ioe);
+            }
+            finally
+            {
+                if (!toReplay.delete())
+                {
+                    if (log.isWarnEnabled()) log.warn("Unable to delete post-processing spool file '" + toReplay.getAbsolutePath() + "'.");
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Throws away any recorded nodes that haven't been post-processed yet (e.g. because the import failed).
+     */
+    public synchronized void discard()
+    {
+        final long numberOfNodes = numberOfNodesRecorded.getAndSet(0);
+
+        closeSpool();
+
+        if (spoolFile != null)
+        {
+            if (log.isWarnEnabled()) log.warn(numberOfNodes + " node(s) were not post-processed.");
+
+            spoolFile.delete();
+            spoolFile = null;
+        }
+    }
+
+
+    private final void replay(final File toReplay, final long numberOfNodes)
+        throws IOException, InterruptedException
+    {
+        BufferedReader reader                = null;
+        long           numberOfNodesReplayed = 0;
+
+        try
+        {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(toReplay), SPOOL_FILE_ENCODING));
+
+            List<NodeRef> batch = readBatch(reader);
+
+            while (!batch.isEmpty())
+            {
+                if (importStatus.isStopping())
+                {
+                    if (log.isWarnEnabled()) log.warn("Import stopped - " + (numberOfNodes - numberOfNodesReplayed) + " node(s) were not post-processed.");
+                    break;
+                }
+
+                numberOfNodesReplayed += batch.size();
+                importStatus.setCurrentFileBeingProcessed("Post-processing (" + numberOfNodesReplayed + " of " + numberOfNodes + " nodes)");
+                processBatch(batch);
+
+                batch = readBatch(reader);
+
+                if (pauseBetweenBatches > 0 && !batch.isEmpty())
+                {
+                    Thread.sleep(pauseBetweenBatches);
+                }
+            }
+        }
+        finally
+        {
+            if (reader != null)
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch (final IOException ioe)
+                {
+                    if (log.isWarnEnabled()) log.warn("Unable to close post-processing spool file '" + toReplay.getAbsolutePath() + "'.", ioe);
+                }
+            }
+        }
+    }
+
+
+    private final List<NodeRef> readBatch(final BufferedReader reader)
+        throws IOException
+    {
+        List<NodeRef> result = new ArrayList<NodeRef>(batchSize);
+        String        line   = null;
+
+        while (result.size() < batchSize && (line = reader.readLine()) != null)
+        {
+            if (line.trim().length() > 0)
+            {
+                result.add(new NodeRef(line.trim()));
+            }
+        }
+
+        return(result);
+    }
+
+
+    /*
+     * Post-processes the given batch of nodes in a single transaction.  If that fails, each node is retried in a
+     * transaction of its own, so that one node whose actions fail doesn't lose the post-processing of the rest.
+     */
+    private final void processBatch(final List<NodeRef> batch)
+    {
+        try
+        {
+            processInTxn(batch);
+        }
+        catch (final RuntimeException re)
+        {
+            if (batch.size() == 1)
+            {
+                // Post-processing is best effort - the nodes themselves have already been imported
+                if (log.isWarnEnabled()) log.warn("Unable to post-process node '" + String.valueOf(batch.get(0)) + "'.", re);
+            }
+            else
+            {
+                if (log.isDebugEnabled()) log.debug("Unable to post-process " + batch.size() + " node(s) in one transaction - retrying each of them in a transaction of its own.", re);
+
+                for (final NodeRef nodeRef : batch)
+                {
+                    if (importStatus.isStopping())
+                    {
+                        break;
+                    }
+
+                    processBatch(Collections.singletonList(nodeRef));
+                }
+            }
+        }
+    }
+
+
+    private final void processInTxn(final List<NodeRef> nodeRefs)
+    {
+        AuthenticationUtil.runAs(new RunAsWork<Object>()
+        {
+            @Override
+            public Object doWork()
+                throws Exception
+            {
+                serviceRegistry.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Object>()
+                    {
+                        @Override
+                        public Object execute()
+                            throws Exception
+                        {
+                            for (final NodeRef nodeRef : nodeRefs)
+                            {
+                                // The node may have been deleted since it was imported
+                                if (nodeService.exists(nodeRef))
+                                {
+                                    for (final String actionName : actionNames)
+                                    {
+                                        actionService.executeAction(actionService.createAction(actionName), nodeRef);
+                                    }
+                                }
+                            }
+
+                            return(null);
+                        }
+                    },
+                    false,    // read only flag
+                    false);   // requires new txn flag
+
+                return(null);
+            }
+        }, user);
+    }
+
+
+    private synchronized void append(final Set<NodeRef> nodeRefs)
+    {
+        try
+        {
+            if (spool == null)
+            {
+                if (spoolFile == null)
+                {
+                    // Note: no deleteOnExit - the server runs indefinitely, so the file is deleted by replay() or discard() instead
+                    spoolFile = File.createTempFile(SPOOL_FILE_PREFIX, SPOOL_FILE_SUFFIX);
+                }
+
+                spool = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spoolFile, true), SPOOL_FILE_ENCODING));
+            }
+
+            for (final NodeRef nodeRef : nodeRefs)
+            {
+                spool.write(nodeRef.toString());
+                spool.write('\n');
+            }
+
+            spool.flush();
+            numberOfNodesRecorded.addAndGet(nodeRefs.size());
+        }
+        catch (final IOException ioe)
+        {
+            log.error("Unable to record " + nodeRefs.size() + " node(s) for post-processing - they will not be post-processed.", ioe);
+        }
+    }
+
+
+    private synchronized void closeSpool()
+    {
+        if (spool != null)
+        {
+            try
+            {
+                spool.close();
+            }
+            catch (final IOException ioe)
+            {
+                if (log.isWarnEnabled()) log.warn("Unable to close post-processing spool file.", ioe);
+            }
+            finally
+            {
+                spool = null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.alfresco.extension.bulkfilesystemimport.ImportableItem;
+
+
+/**
+ * This class records the importable items that couldn't be imported, so that an import can carry on past them.  Each
+ * quarantined item is written to the quarantine file (one line per item: the source path, a tab, then the root cause of
+ * the failure), which is created in the quarantine directory when the first item is quarantined.
+ *
+ * Optionally, the import can be aborted once too many items have been quarantined - see the <code>abortThreshold</code>
+ * constructor parameter.
+ *
+ * Instances are thread safe, and are only used for a single import.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public final class Quarantine
+{
+    private final static Log log = LogFactory.getLog(Quarantine.class);
+
+    private final static String QUARANTINE_FILE_PREFIX     = "quarantine-";
+    private final static String QUARANTINE_FILE_SUFFIX     = ".txt";
+    private final static String QUARANTINE_FILE_ENCODING   = "UTF-8";
+    private final static long   MINIMUM_ITEMS_BEFORE_ABORT = 100;   // So that a failure in the first few items doesn't abort the import
+
+    private final File                 quarantineDirectory;
+    private final float                abortThreshold;
+    private final BulkImportStatusImpl importStatus;
+
+    private final AtomicLong itemsImported    = new AtomicLong();
+    private final AtomicLong itemsQuarantined = new AtomicLong();
+    private File             quarantineFile   = null;  // Guarded by "this"
+
+
+    /**
+     * @param quarantineDirectory The directory to write the quarantine file to <i>(may be null, in which case the JVM's temporary directory is used)</i>.
+     * @param abortThreshold      The percentage of items that may be quarantined before the import is aborted <i>(&lt;= 0 means never abort)</i>.
+     * @param importStatus        The import status object to report quarantined items to <i>(must not be null)</i>.
+     */
+    public Quarantine(final File quarantineDirectory, final float abortThreshold, final BulkImportStatusImpl importStatus)
+    {
+        // PRECONDITIONS
+        assert importStatus != null : "importStatus must not be null.";
+
+        // Body
+        this.quarantineDirectory = quarantineDirectory == null ? new File(System.getProperty("java.io.tmpdir")) : quarantineDirectory;
+        this.abortThreshold      = abortThreshold;
+        this.importStatus        = importStatus;
+    }
+
+
+    /**
+     * Notes that the given number of items were imported successfully.  Used to calculate the error rate.
+     *
+     * @param numberOfItems The number of items that were imported.
+     */
+    public void imported(final int numberOfItems)
+    {
+        itemsImported.addAndGet(numberOfItems);
+    }
+
+
+    /**
+     * Quarantines the given importable item.
+     *
+     * @param importableItem The importable item that couldn't be imported <i>(must not be null)</i>.
+     * @param cause          The reason it couldn't be imported <i>(must not be null)</i>.
+     * @throws IllegalStateException If the error rate now exceeds the abort threshold.
+     */
+    public void add(final ImportableItem importableItem, final Throwable cause)
+    {
+        // PRECONDITIONS
+        assert importableItem != null : "importableItem must not be null.";
+        assert cause          != null : "cause must not be null.";
+
+        // Body
+        final String    sourcePath = sourcePathOf(importableItem);
+        final Throwable rootCause  = rootCauseOf(cause);
+        final long      quarantined;
+        final long      total;
+
+        if (log.isWarnEnabled()) log.warn("Quarantining '" + sourcePath + "', as it couldn't be imported.", cause);
+
+        write(sourcePath + "\t" + rootCause.getClass().getName() + ": " + String.valueOf(rootCause.getMessage()).replaceAll("\\s+", " "));
+        importStatus.incrementNumberOfItemsQuarantined();
+
+        quarantined = itemsQuarantined.incrementAndGet();
+        total       = quarantined + itemsImported.get();
+
+        if (abortThreshold > 0 && total >= MINIMUM_ITEMS_BEFORE_ABORT && (quarantined * 100.0f / total) > abortThreshold)
+        {
+            throw new IllegalStateException(quarantined + " of " + total + " items have been quarantined, which exceeds the abort threshold of " + abortThreshold + "%.  Aborting import.", cause);
+        }
+    }
+
+
+    private synchronized void write(final String line)
+    {
+        Writer writer = null;
+
+        try
+        {
+            if (quarantineFile == null)
+            {
+                if (!quarantineDirectory.exists() && !quarantineDirectory.mkdirs())
+                {
+                    throw new IOException("Unable to create quarantine directory '" + quarantineDirectory.getAbsolutePath() + "'.");
+                }
+
+                quarantineFile = new File(quarantineDirectory, QUARANTINE_FILE_PREFIX + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date()) + QUARANTINE_FILE_SUFFIX);
+                importStatus.setQuarantineFile(quarantineFile.getAbsolutePath());
+
+                if (log.isInfoEnabled()) log.info("Quarantined items will be recorded in '" + quarantineFile.getAbsolutePath() + "'.");
+            }
+
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(quarantineFile, true), QUARANTINE_FILE_ENCODING));
+            writer.write(line);
+            writer.write(System.getProperty("line.separator"));
+        }
+        catch (final IOException ioe)
+        {
+            // The item has already been logged, so it's not lost entirely
+            log.error("Unable to write to quarantine file - entry was: " + line, ioe);
+        }
+        finally
+        {
+            if (writer != null)
+            {
+                try
+                {
+                    writer.close();
+                }
+                catch (final IOException ioe)
+                {
+                    if (log.isWarnEnabled()) log.warn("Unable to close quarantine file.", ioe);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @param failure The failure <i>(must not be null)</i>.
+     * @return True if the failure was caused by the infrastructure (i.e. the database connection) rather than by the item(s)
+     *         being imported, in which case quarantining them would be pointless.
+     */
+    static boolean isInfrastructureFailure(final Throwable failure)
+    {
+        // PRECONDITIONS
+        assert failure != null : "failure must not be null.";
+
+        // Body
+        boolean   result = false;
+        Throwable cause  = failure;
+
+        while (cause != null && !result)
+        {
+            result = cause instanceof SQLTransientConnectionException    ||
+                     cause instanceof SQLNonTransientConnectionException ||
+                     cause instanceof SQLRecoverableException            ||
+                     cause instanceof ConnectException;
+            cause  = cause.getCause() == cause ? null : cause.getCause();
+        }
+
+        return(result);
+    }
+
+
+    /*
+     * Items that are metadata only (e.g. a metadata file for a directory that's already in the repository) have no content
+     * file, so the path recorded is the metadata file's, or failing that the item's name within its directory.
+     */
+    private final static String sourcePathOf(final ImportableItem importableItem)
+    {
+        final ImportableItem.ContentAndMetadata headRevision = importableItem.getHeadRevision();
+        String                                  result       = null;
+
+        if (headRevision.contentFileExists())
+        {
+            result = headRevision.getContentFilePath();
+        }
+        else if (headRevision.metadataFileExists())
+        {
+            result = headRevision.getMetadataFilePath();
+        }
+        else if (importableItem.getDirectory() != null)
+        {
+            result = importableItem.getDirectory().getCanonicalPath(importableItem.getParentFilename());
+        }
+        else
+        {
+            result = importableItem.getParentFilename();
+        }
+
+        return(result);
+    }
+
+
+    private final static Throwable rootCauseOf(final Throwable t)
+    {
+        Throwable result = t;
+
+        while (result.getCause() != null && result.getCause() != result)
+        {
+            result = result.getCause();
+        }
+
+        return(result);
+    }
+
+}
@@ -0,0 +1,529 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.alfresco.extension.bulkfilesystemimport.AnalysedDirectory;
+import org.alfresco.extension.bulkfilesystemimport.BulkImportStatus.PipelineStage;
+import org.alfresco.extension.bulkfilesystemimport.DirectoryAnalyser;
+import org.alfresco.extension.bulkfilesystemimport.ImportFilter;
+import org.alfresco.extension.bulkfilesystemimport.ImportableItem;
+
+
+/**
+ * This class crawls the source tree ahead of the importer's writer threads, pre-analysing directories so that
+ * (ideally) a writer never has to wait for a slow directory listing.
+ *
+ * Directories waiting to be crawled are held on a frontier queue (shallowest first), and are only handed to one of the
+ * crawler's threads once they fall within the read-ahead window, which is bounded in two ways:
+ * <ol>
+ *   <li>it won't analyse a directory more than <code>lookaheadDepth</code> levels deeper than the deepest directory
+ *       a writer has asked for so far</li>
+ *   <li>it won't hold more than <code>capacity</code> pre-analysed directories that haven't yet been consumed by a writer</li>
+ * </ol>
+ * Crawler threads never wait for the window to move - the frontier is re-examined whenever a writer consumes a
+ * directory, and whenever a crawler thread finishes one.  The frontier itself holds at most <code>capacity</code>
+ * directories.  Sub-directories found once it's full aren't crawled, but aren't lost either: a directory's
+ * sub-directories are added to the frontier when a writer consumes it, if the crawler hasn't already done so.
+ *
+ * Writers ask for directories via {@link #analyseDirectory(File)}.  If the crawler has already analysed that directory
+ * the result is returned immediately, if the crawler is part way through analysing it the writer waits for it to finish,
+ * and otherwise the writer analyses the directory itself (in which case the crawler won't).  Either way each directory
+ * is only ever analysed once.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public final class ReadAheadCrawler
+{
+    private final static Log log = LogFactory.getLog(ReadAheadCrawler.class);
+
+    private final static String THREAD_NAME_PREFIX       = "BulkFilesystemImportReadAheadThread";
+    private final static long   IDLE_THREAD_TIMEOUT_IN_S = 60;
+
+    private final static AtomicLong currentThreadNumber = new AtomicLong();
+
+    private final DirectoryAnalyser    directoryAnalyser;
+    private final List<ImportFilter>   importFilters;
+    private final BulkImportStatusImpl importStatus;
+    private final int                  parallelism;
+    private final int                  lookaheadDepth;
+    private final int                  capacity;
+    private final ThreadPoolExecutor   pool;
+
+    private final ConcurrentMap<File, PrefetchedDirectory> directories     = new ConcurrentHashMap<File, PrefetchedDirectory>();
+    private final AtomicInteger                            bufferedCount   = new AtomicInteger();
+    private final AtomicInteger                            writerMaxDepth  = new AtomicInteger();
+    private final AtomicInteger                            crawlerMaxDepth = new AtomicInteger();
+    private final AtomicLong                               nextSequence    = new AtomicLong();
+
+    // Both guarded by frontierMonitor
+    private final Object                              frontierMonitor = new Object();
+    private final PriorityQueue<PrefetchedDirectory> frontier;
+    private int                                       crawling        = 0;
+
+    private File             sourceRoot = null;
+    private volatile boolean stopped    = false;
+
+
+    /**
+     * @param directoryAnalyser The directory analyser to use <i>(must not be null)</i>.
+     * @param importFilters     The import filters in use, so that filtered directories aren't crawled <i>(may be null)</i>.
+     * @param importStatus      The import status object to report read-ahead statistics to <i>(must not be null)</i>.
+     * @param parallelism       The number of crawler threads (&lt;= 0 means one per processor).
+     * @param lookaheadDepth    How many levels deeper than the writers the crawler may go (must be &gt;= 1).
+     * @param capacity          The maximum number of pre-analysed, unconsumed directories held in memory, and of directories waiting to be crawled (must be &gt;= 1).
+     */
+    public ReadAheadCrawler(final DirectoryAnalyser    directoryAnalyser,
+                            final List<ImportFilter>   importFilters,
+                            final BulkImportStatusImpl importStatus,
+                            final int                  parallelism,
+                            final int                  lookaheadDepth,
+                            final int                  capacity)
+    {
+        // PRECONDITIONS
+        assert directoryAnalyser != null : "directoryAnalyser must not be null.";
+        assert importStatus      != null : "importStatus must not be null.";
+
+        // Body
+        this.directoryAnalyser = directoryAnalyser;
+        this.importFilters     = importFilters;
+        this.importStatus      = importStatus;
+        this.parallelism       = parallelism <= 0 ? Runtime.getRuntime().availableProcessors() : parallelism;
+        this.lookaheadDepth    = Math.max(1, lookaheadDepth);
+        this.capacity          = Math.max(1, capacity);
+        this.frontier          = new PriorityQueue<PrefetchedDirectory>(this.capacity, new Comparator<PrefetchedDirectory>()
+        {
+            @Override
+            public int compare(final PrefetchedDirectory left, final PrefetchedDirectory right)
+            {
+                // Shallowest first, then in the order they were found
+                return(left.depth != right.depth ? (left.depth < right.depth ? -1 : 1) : (left.sequence < right.sequence ? -1 : left.sequence == right.sequence ? 0 : 1));
+            }
+        });
+        this.pool              = new ThreadPoolExecutor(this.parallelism,
+                                                        this.parallelism,
+                                                        IDLE_THREAD_TIMEOUT_IN_S,
+                                                        TimeUnit.SECONDS,
+                                                        new LinkedBlockingQueue<Runnable>(),  // Never holds more than parallelism tasks - see dispatch()
+                                                        new ThreadFactory()
+                                                        {
+                                                            @Override
+                                                            public Thread newThread(final Runnable runnable)
+                                                            {
+                                                                final Thread result = Executors.defaultThreadFactory().newThread(runnable);
+
+                                                                result.setName(THREAD_NAME_PREFIX + currentThreadNumber.incrementAndGet());
+                                                                result.setDaemon(true);
+
+                                                                return(result);
+                                                            }
+                                                        });
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+
+    /**
+     * Starts crawling from the given source directory, in the background.
+     *
+     * @param source The source directory to start crawling from <i>(must not be null)</i>.
+     */
+    public void start(final File source)
+    {
+        this.sourceRoot = source;
+
+        if (log.isDebugEnabled()) log.debug("Starting read-ahead crawl of '" + AbstractBulkFilesystemImporter.getFileName(source) + "' (lookahead depth = " + lookaheadDepth + ", capacity = " + capacity + ").");
+
+        importStatus.setPipelineStage(PipelineStage.SCAN, pool);
+        enqueue(source, 0);
+    }
+
+
+    /**
+     * Stops crawling.  Directories that have already been analysed remain available to writers.
+     */
+    public void stop()
+    {
+        stopped = true;
+        pool.shutdownNow();
+
+        synchronized(frontierMonitor)
+        {
+            frontier.clear();
+        }
+    }
+
+
+    /**
+     * Called by writers to obtain the analysis of a directory.
+     *
+     * @param directory The directory to analyse <i>(must not be null)</i>.
+     * @return The analysed directory <i>(will not be null)</i>.
+     * @throws InterruptedException If the import is stopped.
+     */
+    public AnalysedDirectory analyseDirectory(final File directory)
+        throws InterruptedException
+    {
+        final PrefetchedDirectory prefetched = findOrCreate(directory, depthOf(directory));
+        AnalysedDirectory         result     = null;
+
+        raiseTo(writerMaxDepth, prefetched.depth);
+
+        try
+        {
+            result = prefetched.consume();
+        }
+        finally
+        {
+            // The window has moved - crawl whatever has come into it
+            dispatch();
+        }
+
+        return(result);
+    }
+
+
+    private PrefetchedDirectory findOrCreate(final File directory, final int depth)
+    {
+        PrefetchedDirectory result = directories.get(directory);
+
+        if (result == null)
+        {
+            final PrefetchedDirectory newPrefetched = new PrefetchedDirectory(directory, depth, false);
+
+            result = directories.putIfAbsent(directory, newPrefetched);
+
+            if (result == null)
+            {
+                result = newPrefetched;
+            }
+        }
+
+        return(result);
+    }
+
+
+    /*
+     * Adds the given directory to the frontier, unless the crawler or a writer already knows about it, or the frontier
+     * is full (in which case the directory is left for a writer to find).
+     */
+    private void enqueue(final File directory, final int depth)
+    {
+        synchronized(frontierMonitor)
+        {
+            if (!stopped && frontier.size() < capacity)
+            {
+                final PrefetchedDirectory prefetched = new PrefetchedDirectory(directory, depth, true);
+
+                if (directories.putIfAbsent(directory, prefetched) == null)
+                {
+                    frontier.add(prefetched);
+                }
+            }
+        }
+
+        dispatch();
+    }
+
+
+    /*
+     * Hands directories from the frontier to the crawler's threads, for as long as there are idle threads and the
+     * shallowest directory on the frontier is within the read-ahead window.
+     */
+    private void dispatch()
+    {
+        PrefetchedDirectory rejected = null;
+
+        synchronized(frontierMonitor)
+        {
+            while (!stopped && crawling < parallelism && !frontier.isEmpty() && isInWindow(frontier.peek().depth))
+            {
+                final PrefetchedDirectory next = frontier.poll();
+
+                try
+                {
+                    pool.execute(new CrawlDirectory(next));
+                    crawling++;
+                }
+                catch (final RejectedExecutionException ree)
+                {
+                    // The crawler has been stopped
+                    rejected = next;
+                    break;
+                }
+            }
+        }
+
+        // Outside frontierMonitor, as directories are always locked before the frontier, never after
+        if (rejected != null)
+        {
+            rejected.abandon();
+        }
+
+        updateStatus();
+    }
+
+
+    private int depthOf(final File directory)
+    {
+        int result = 0;
+
+        if (sourceRoot != null)
+        {
+            result = sourceRoot.toPath().relativize(directory.toPath()).getNameCount();
+        }
+
+        return(result);
+    }
+
+
+    private boolean isFiltered(final ImportableItem importableItem)
+    {
+        boolean result = false;
+
+        if (importFilters != null)
+        {
+            for (final ImportFilter filter : importFilters)
+            {
+                if (filter.shouldFilter(importableItem))
+                {
+                    result = true;
+                    break;
+                }
+            }
+        }
+
+        return(result);
+    }
+
+
+    /*
+     * Must be called with frontierMonitor held.  Directories being crawled count towards the capacity, since they'll
+     * shortly be buffered.
+     */
+    private boolean isInWindow(final int depth)
+    {
+        return(depth <= writerMaxDepth.get() + lookaheadDepth && bufferedCount.get() + crawling < capacity);
+    }
+
+
+    private void updateStatus()
+    {
+        importStatus.setReadAheadStatistics(bufferedCount.get(), Math.max(0, crawlerMaxDepth.get() - writerMaxDepth.get()));
+    }
+
+
+    private static void raiseTo(final AtomicInteger value, final int newValue)
+    {
+        int current = value.get();
+
+        while (newValue > current && !value.compareAndSet(current, newValue))
+        {
+            current = value.get();
+        }
+    }
+
+
+    /**
+     * Holds the (eventual) analysis of a single directory.  Entries are removed from the crawler once a writer has
+     * consumed them, and they're no longer on the frontier.
+     */
+    private final class PrefetchedDirectory
+    {
+        private final File directory;
+        private final int  depth;
+        private final long sequence;
+
+        private AnalysedDirectory analysedDirectory    = null;
+        private List<File>        subDirectories       = null;
+        private boolean           pending;                       // On the frontier, or being crawled
+        private boolean           subDirectoriesQueued = false;
+        private boolean           consumed             = false;
+
+        private PrefetchedDirectory(final File directory, final int depth, final boolean pending)
+        {
+            this.directory = directory;
+            this.depth     = depth;
+            this.sequence  = nextSequence.incrementAndGet();
+            this.pending   = pending;
+        }
+
+        /**
+         * Analyses the directory, if it hasn't been analysed already.  Note that this method is synchronized, so a
+         * writer asking for a directory the crawler is part way through analysing will wait for it to finish.
+         */
+        private synchronized void analyse(final boolean byCrawler)
+            throws InterruptedException
+        {
+            if (subDirectories == null)
+            {
+                analysedDirectory = directoryAnalyser.analyseDirectory(directory);
+                subDirectories    = new ArrayList<File>();
+
+                for (final ImportableItem importableItem : analysedDirectory.importableItems)
+                {
+                    if (ImportableItem.FileType.DIRECTORY.equals(importableItem.getHeadRevision().getContentFileType()) &&
+                        !isFiltered(importableItem))
+                    {
+                        subDirectories.add(importableItem.getHeadRevision().getContentFile());
+                    }
+                }
+
+                if (byCrawler && !consumed)
+                {
+                    bufferedCount.incrementAndGet();
+                }
+            }
+        }
+
+        private synchronized AnalysedDirectory consume()
+            throws InterruptedException
+        {
+            final boolean wasBuffered = subDirectories != null && !consumed;
+
+            analyse(false);
+
+            final AnalysedDirectory result = analysedDirectory;
+
+            if (wasBuffered && analysedDirectory != null)
+            {
+                bufferedCount.decrementAndGet();
+            }
+
+            analysedDirectory = null;   // The writer owns it now
+            consumed          = true;
+
+            // The writer will ask for these next, so they must be known before it can (and the crawler may not have got to them)
+            enqueueSubDirectories();
+            removeIfDone();
+
+            return(result);
+        }
+
+        private synchronized void crawl()
+            throws InterruptedException
+        {
+            try
+            {
+                analyse(true);
+                enqueueSubDirectories();
+            }
+            finally
+            {
+                pending = false;
+                removeIfDone();
+            }
+        }
+
+        private synchronized void abandon()
+        {
+            pending = false;
+            removeIfDone();
+        }
+
+        private void enqueueSubDirectories()
+        {
+            if (!subDirectoriesQueued)
+            {
+                subDirectoriesQueued = true;
+
+                for (final File subDirectory : subDirectories)
+                {
+                    enqueue(subDirectory, depth + 1);
+                }
+            }
+        }
+
+        private void removeIfDone()
+        {
+            if (consumed && !pending)
+            {
+                directories.remove(directory, this);
+            }
+        }
+    }
+
+
+    /**
+     * Task that pre-analyses a single directory taken from the frontier, then adds its sub-directories to the frontier.
+     */
+    private final class CrawlDirectory
+        implements Runnable
+    {
+        private final PrefetchedDirectory prefetched;
+
+        private CrawlDirectory(final PrefetchedDirectory prefetched)
+        {
+            this.prefetched = prefetched;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                if (stopped || importStatus.isStopping())
+                {
+                    prefetched.abandon();
+                }
+                else
+                {
+                    prefetched.crawl();
+                    raiseTo(crawlerMaxDepth, prefetched.depth);
+                }
+            }
+            catch (final InterruptedException ie)
+            {
+                if (log.isDebugEnabled()) log.debug("Read-ahead crawl of '" + AbstractBulkFilesystemImporter.getFileName(prefetched.directory) + "' was interrupted.");
+            }
+            catch (final RuntimeException re)
+            {
+                // Not fatal - the writer will analyse this directory itself, and report the failure if it recurs
+                if (log.isWarnEnabled()) log.warn("Read-ahead crawl of '" + AbstractBulkFilesystemImporter.getFileName(prefetched.directory) + "' failed.  Directory will be analysed by a writer instead.", re);
+            }
+            finally
+            {
+                synchronized(frontierMonitor)
+                {
+                    crawling--;
+                }
+
+                dispatch();
+            }
+        }
+    }
+
+}
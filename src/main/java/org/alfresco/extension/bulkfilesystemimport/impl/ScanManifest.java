@@ -0,0 +1,571 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.alfresco.extension.bulkfilesystemimport.AnalysedDirectory;
+import org.alfresco.extension.bulkfilesystemimport.FileAttributes;
+import org.alfresco.extension.bulkfilesystemimport.ImportableItem;
+import org.alfresco.extension.bulkfilesystemimport.SourcePath;
+
+
+/**
+ * This class is a compact, append-only, on-disk record of the analysis of each directory in a source tree.  It allows
+ * subsequent imports of the same source tree (e.g. a retry after a failure) to skip re-listing and re-stat-ing
+ * directories that haven't changed.
+ *
+ * The file consists of a header followed by a sequence of length-prefixed records, one per analysed directory, keyed
+ * by the directory's path relative to the source root.  If a directory is analysed more than once (because it had
+ * changed) the later record wins.  On open the existing records are indexed (but not decoded), and then memory mapped
+ * so that lookups are cheap.  If more than half of the records in the file have been superseded by later ones, the file
+ * is first rewritten with only the latest record for each directory, so that repeated imports of a changing source tree
+ * don't grow the file (and the time taken to open it) without limit.
+ *
+ * Staleness is detected using the directory's last modified time, which changes whenever entries are added, removed or
+ * renamed.  Note that this does <u>not</u> detect in-place modifications to existing files.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public final class ScanManifest
+{
+    private final static Log log = LogFactory.getLog(ScanManifest.class);
+
+    private final static int     MAGIC            = 0x4246534D;  // "BFSM"
+    private final static int     FORMAT_VERSION   = 1;
+    private final static int     HEADER_SIZE      = 8;
+    private final static long    MAX_SEGMENT_SIZE = 256L * 1024 * 1024;
+    private final static String  COMPACTED_SUFFIX = ".compacted";
+    private final static Charset UTF8             = Charset.forName("UTF-8");
+
+    private final File                  manifestFile;
+    private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+    private final Map<String, Long>     index    = new ConcurrentHashMap<String, Long>();
+
+    private RandomAccessFile appendFile;
+
+
+    /**
+     * Opens (creating if necessary) the given manifest file.
+     *
+     * @param manifestFile The manifest file <i>(must not be null)</i>.
+     * @throws IOException If the manifest can't be opened.
+     */
+    public ScanManifest(final File manifestFile)
+        throws IOException
+    {
+        // PRECONDITIONS
+        assert manifestFile != null : "manifestFile must not be null.";
+
+        // Body
+        this.manifestFile = manifestFile;
+
+        final long validLength = indexAndMap();
+
+        appendFile = new RandomAccessFile(manifestFile, "rw");
+
+        if (validLength < HEADER_SIZE)
+        {
+            appendFile.setLength(0);
+            appendFile.writeInt(MAGIC);
+            appendFile.writeInt(FORMAT_VERSION);
+        }
+        else if (appendFile.length() > validLength)
+        {
+            // Discard any partially written record left behind by an earlier crash
+            if (log.isWarnEnabled()) log.warn("Truncating incomplete trailing record in scan manifest '" + manifestFile.getAbsolutePath() + "'.");
+            appendFile.setLength(validLength);
+        }
+
+        appendFile.seek(appendFile.length());
+
+        if (log.isDebugEnabled()) log.debug("Opened scan manifest '" + manifestFile.getAbsolutePath() + "' containing " + index.size() + " director" + (index.size() == 1 ? "y" : "ies") + ".");
+    }
+
+
+    /**
+     * Closes the manifest.  It may not be used after it has been closed.
+     */
+    public synchronized void close()
+    {
+        try
+        {
+            if (appendFile != null)
+            {
+                appendFile.close();
+            }
+        }
+        catch (final IOException ioe)
+        {
+            if (log.isWarnEnabled()) log.warn("Unable to close scan manifest '" + manifestFile.getAbsolutePath() + "'.", ioe);
+        }
+        finally
+        {
+            appendFile = null;
+            segments.clear();
+            index.clear();
+        }
+    }
+
+
+    /**
+     * Looks up the analysis of the given directory.
+     *
+     * @param relativePath      The path of the directory, relative to the source root <i>(must not be null)</i>.
+     * @param directory         The directory itself <i>(must not be null)</i>.
+     * @param directoryModified The current last modified time of the directory.
+     * @return The analysis of the directory, or null if the manifest doesn't contain it or it's stale.
+     */
+    public AnalysedDirectory lookup(final String relativePath, final File directory, final long directoryModified)
+    {
+        AnalysedDirectory result = null;
+        final Long        entry  = index.get(relativePath);
+
+        if (entry != null)
+        {
+            final ByteBuffer buffer = segments.get((int)(entry.longValue() >>> 32)).duplicate();
+
+            buffer.position((int)(entry.longValue() & 0xFFFFFFFFL) + 4);  // Skip the length prefix
+            readString(buffer);                                              // Skip the relative path
+
+            if (buffer.getLong() == directoryModified)
+            {
+                result = readAnalysedDirectory(buffer, directory);
+            }
+            else if (log.isDebugEnabled())
+            {
+                log.debug("Scan manifest entry for '" + relativePath + "' is stale.");
+            }
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Appends the analysis of the given directory to the manifest.
+     *
+     * @param relativePath      The path of the directory, relative to the source root <i>(must not be null)</i>.
+     * @param directoryModified The last modified time of the directory, as of when it was analysed.
+     * @param analysedDirectory The analysis of the directory <i>(must not be null)</i>.
+     */
+    public void append(final String relativePath, final long directoryModified, final AnalysedDirectory analysedDirectory)
+    {
+        try
+        {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream      out   = new DataOutputStream(bytes);
+
+            out.writeInt(0);  // Placeholder for the length prefix
+            writeString(out, relativePath);
+            out.writeLong(directoryModified);
+            out.writeInt(analysedDirectory.originalListing == null ? 0 : analysedDirectory.originalListing.size());
+            out.writeInt(analysedDirectory.importableItems.size());
+
+            for (final ImportableItem importableItem : analysedDirectory.importableItems)
+            {
+                writeImportableItem(out, importableItem);
+            }
+
+            out.flush();
+
+            final ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+            record.putInt(0, record.capacity() - 4);
+
+            synchronized(this)
+            {
+                if (appendFile != null)
+                {
+                    appendFile.getChannel().write(record);
+                }
+            }
+        }
+        catch (final IOException ioe)
+        {
+            // Not fatal - the directory will simply be re-analysed next time
+            if (log.isWarnEnabled()) log.warn("Unable to append '" + relativePath + "' to scan manifest '" + manifestFile.getAbsolutePath() + "'.", ioe);
+        }
+    }
+
+
+    /**
+     * Builds the index of existing records, and memory maps them in segments that never split a record.
+     *
+     * @return The length of the valid part of the manifest file (0 if it doesn't exist or isn't a manifest).
+     */
+    private long indexAndMap()
+        throws IOException
+    {
+        long result = 0;
+
+        if (manifestFile.exists() && manifestFile.length() >= HEADER_SIZE)
+        {
+            final List<long[]>    segmentBounds = new ArrayList<long[]>();
+            final DataInputStream in            = new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile)));
+            final long            fileLength    = manifestFile.length();
+
+            try
+            {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+                {
+                    if (log.isWarnEnabled()) log.warn("'" + manifestFile.getAbsolutePath() + "' is not a compatible scan manifest - it will be overwritten.");
+                    return(0);
+                }
+
+                long position     = HEADER_SIZE;
+                long segmentStart = position;
+                int  records      = 0;
+
+                while (position + 4 <= fileLength)
+                {
+                    final int recordLength = in.readInt();
+
+                    // Stop at a partially written record (e.g. left behind by a crash)
+                    if (recordLength <= 0 || position + 4 + recordLength > fileLength)
+                    {
+                        break;
+                    }
+
+                    if (position > segmentStart && (position + 4 + recordLength) - segmentStart > MAX_SEGMENT_SIZE)
+                    {
+                        segmentBounds.add(new long[] { segmentStart, position });
+                        segmentStart = position;
+                    }
+
+                    final byte[] record = new byte[recordLength];
+                    in.readFully(record);
+
+                    final String relativePath = readString(ByteBuffer.wrap(record));
+                    index.put(relativePath, Long.valueOf(((long)segmentBounds.size() << 32) | (position - segmentStart)));
+
+                    position += 4 + recordLength;
+                    records++;
+                }
+
+                if (position > segmentStart)
+                {
+                    segmentBounds.add(new long[] { segmentStart, position });
+                }
+
+                result = position;
+
+                // Only rewrite the file once superseded records make up most of it, so that the cost is amortised
+                if (records - index.size() > index.size())
+                {
+                    in.close();
+
+                    if (compact(segmentBounds, records))
+                    {
+                        index.clear();
+                        return(indexAndMap());
+                    }
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+
+            final RandomAccessFile mapFile = new RandomAccessFile(manifestFile, "r");
+
+            try
+            {
+                for (final long[] bounds : segmentBounds)
+                {
+                    segments.add(mapFile.getChannel().map(FileChannel.MapMode.READ_ONLY, bounds[0], bounds[1] - bounds[0]));
+                }
+            }
+            finally
+            {
+                mapFile.close();  // Note: mappings remain valid after the channel is closed
+            }
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Rewrites the manifest file with only the latest record for each directory (i.e. the ones in the index), along with
+     * dropping any partially written trailing record.  Must be called before the file is memory mapped.
+     *
+     * @return True if the file was compacted, false if it couldn't be (in which case it's left as is).
+     */
+    private boolean compact(final List<long[]> segmentBounds, final int records)
+    {
+        boolean    result        = false;
+        final File compactedFile = new File(manifestFile.getPath() + COMPACTED_SUFFIX);
+
+        try
+        {
+            final DataInputStream  in  = new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile)));
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compactedFile)));
+
+            try
+            {
+                in.readInt();  // Magic
+                in.readInt();  // Format version
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+
+                long position = HEADER_SIZE;
+
+                for (int i = 0; i < records; i++)
+                {
+                    final int    recordLength = in.readInt();
+                    final byte[] record       = new byte[recordLength];
+
+                    in.readFully(record);
+
+                    final Long entry = index.get(readString(ByteBuffer.wrap(record)));
+
+                    if (entry != null && segmentBounds.get((int)(entry.longValue() >>> 32))[0] + (entry.longValue() & 0xFFFFFFFFL) == position)
+                    {
+                        out.writeInt(recordLength);
+                        out.write(record);
+                    }
+
+                    position += 4 + recordLength;
+                }
+            }
+            finally
+            {
+                in.close();
+                out.close();
+            }
+
+            Files.move(compactedFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            result = true;
+
+            if (log.isInfoEnabled()) log.info("Compacted scan manifest '" + manifestFile.getAbsolutePath() + "' from " + records + " to " + index.size() + " records.");
+        }
+        catch (final IOException ioe)
+        {
+            // Not fatal - the manifest is just larger than it needs to be
+            if (log.isWarnEnabled()) log.warn("Unable to compact scan manifest '" + manifestFile.getAbsolutePath() + "' - it will be used as is.", ioe);
+            compactedFile.delete();
+        }
+
+        return(result);
+    }
+
+
+    private AnalysedDirectory readAnalysedDirectory(final ByteBuffer buffer, final File directory)
+    {
+        final SourcePath        directoryPath   = SourcePath.forDirectory(directory);
+        final AnalysedDirectory result          = new AnalysedDirectory();
+        final int               listingSize     = buffer.getInt();
+        final int               numberOfItems   = buffer.getInt();
+
+        result.originalListing = new ArrayList<File>(listingSize);
+        result.importableItems = new ArrayList<ImportableItem>(numberOfItems);
+
+        for (int i = 0; i < numberOfItems; i++)
+        {
+            final ImportableItem importableItem = readImportableItem(buffer, directoryPath);
+
+            result.importableItems.add(importableItem);
+            addToListing(result.originalListing, importableItem.getHeadRevision());
+
+            if (importableItem.hasVersionEntries())
+            {
+                for (final ImportableItem.VersionedContentAndMetadata versionEntry : importableItem.getVersionEntries())
+                {
+                    addToListing(result.originalListing, versionEntry);
+                }
+            }
+        }
+
+        return(result);
+    }
+
+
+    private static void addToListing(final List<File> listing, final ImportableItem.ContentAndMetadata contentAndMetadata)
+    {
+        if (contentAndMetadata.contentFileExists())
+        {
+            listing.add(contentAndMetadata.getContentFile());
+        }
+
+        if (contentAndMetadata.metadataFileExists())
+        {
+            listing.add(contentAndMetadata.getMetadataFile());
+        }
+    }
+
+
+    private static void writeImportableItem(final DataOutputStream out, final ImportableItem importableItem)
+        throws IOException
+    {
+        writeString(out, importableItem.getParentFilename());
+        writeContentAndMetadata(out, importableItem.getHeadRevision());
+
+        if (importableItem.hasVersionEntries())
+        {
+            out.writeInt(importableItem.getVersionEntries().size());
+
+            for (final ImportableItem.VersionedContentAndMetadata versionEntry : importableItem.getVersionEntries())
+            {
+                writeString(out, versionEntry.getVersionLabel());
+                writeContentAndMetadata(out, versionEntry);
+            }
+        }
+        else
+        {
+            out.writeInt(0);
+        }
+    }
+
+
+    private static ImportableItem readImportableItem(final ByteBuffer buffer, final SourcePath directoryPath)
+    {
+        final ImportableItem result = new ImportableItem(directoryPath, readString(buffer));
+
+        readContentAndMetadata(buffer, directoryPath, result.getHeadRevision());
+
+        final int numberOfVersions = buffer.getInt();
+
+        for (int i = 0; i < numberOfVersions; i++)
+        {
+            final ImportableItem.VersionedContentAndMetadata versionEntry = result.new VersionedContentAndMetadata(readString(buffer));
+
+            readContentAndMetadata(buffer, directoryPath, versionEntry);
+            result.addVersionEntry(versionEntry);
+        }
+
+        return(result);
+    }
+
+
+    private static void writeContentAndMetadata(final DataOutputStream out, final ImportableItem.ContentAndMetadata contentAndMetadata)
+        throws IOException
+    {
+        writeFile(out, contentAndMetadata.getContentFile(),  contentAndMetadata.getContentFileAttributes());
+        writeFile(out, contentAndMetadata.getMetadataFile(), contentAndMetadata.getMetadataFileAttributes());
+    }
+
+
+    private static void readContentAndMetadata(final ByteBuffer buffer, final SourcePath directoryPath, final ImportableItem.ContentAndMetadata contentAndMetadata)
+    {
+        if (buffer.get() != 0)
+        {
+            final File           contentFile = directoryPath.childFile(readString(buffer));
+            final FileAttributes attributes  = buffer.get() != 0 ? readAttributes(buffer) : null;
+
+            contentAndMetadata.setContentFile(contentFile, attributes);
+        }
+
+        if (buffer.get() != 0)
+        {
+            final File           metadataFile = directoryPath.childFile(readString(buffer));
+            final FileAttributes attributes   = buffer.get() != 0 ? readAttributes(buffer) : null;
+
+            contentAndMetadata.setMetadataFile(metadataFile, attributes);
+        }
+    }
+
+
+    private static void writeFile(final DataOutputStream out, final File file, final FileAttributes attributes)
+        throws IOException
+    {
+        out.writeBoolean(file != null);
+
+        if (file != null)
+        {
+            writeString(out, file.getName());
+            out.writeBoolean(attributes != null);
+
+            if (attributes != null)
+            {
+                out.writeBoolean(attributes.exists());
+                out.writeBoolean(attributes.isReadable());
+                out.writeBoolean(attributes.isHidden());
+                out.writeByte(attributes.getFileType().ordinal());
+                out.writeLong(attributes.getSize());
+                out.writeLong(attributes.getCreated()  == null ? Long.MIN_VALUE : attributes.getCreated().getTime());
+                out.writeLong(attributes.getModified() == null ? Long.MIN_VALUE : attributes.getModified().getTime());
+            }
+        }
+    }
+
+
+    private static FileAttributes readAttributes(final ByteBuffer buffer)
+    {
+        final boolean                 exists   = buffer.get() != 0;
+        final boolean                 readable = buffer.get() != 0;
+        final boolean                 hidden   = buffer.get() != 0;
+        final ImportableItem.FileType fileType = ImportableItem.FileType.values()[buffer.get()];
+        final long                    size     = buffer.getLong();
+        final long                    created  = buffer.getLong();
+        final long                    modified = buffer.getLong();
+
+        return(new FileAttributes(exists,
+                                  readable,
+                                  hidden,
+                                  fileType,
+                                  size,
+                                  created  == Long.MIN_VALUE ? null : new Date(created),
+                                  modified == Long.MIN_VALUE ? null : new Date(modified)));
+    }
+
+
+    // Note: we don't use DataOutputStream.writeUTF as it's limited to 64KB and uses "modified" UTF-8
+    private static void writeString(final DataOutputStream out, final String value)
+        throws IOException
+    {
+        final byte[] bytes = value.getBytes(UTF8);
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    private static String readString(final ByteBuffer buffer)
+    {
+        final byte[] bytes = new byte[buffer.getInt()];
+
+        buffer.get(bytes);
+
+        return(new String(bytes, UTF8));
+    }
+
+}
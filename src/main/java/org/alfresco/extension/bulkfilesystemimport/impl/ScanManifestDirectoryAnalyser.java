@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.alfresco.extension.bulkfilesystemimport.AnalysedDirectory;
+import org.alfresco.extension.bulkfilesystemimport.DirectoryAnalyser;
+import org.alfresco.extension.bulkfilesystemimport.FileAttributes;
+import org.alfresco.extension.bulkfilesystemimport.ImportableItem;
+
+
+/**
+ * This class is a <code>DirectoryAnalyser</code> that records each directory analysis in a {@link ScanManifest}, and
+ * reuses those analyses (for directories that haven't changed) on subsequent imports of the same source root.  The actual
+ * analysis is delegated to another <code>DirectoryAnalyser</code>.
+ *
+ * Each source root gets its own manifest file, in the configured manifest directory.  Streaming analyses (see
+ * {@link DirectoryAnalyser#analyseDirectory(File, DirectoryAnalyser.ImportableItemHandler)}) bypass the manifest.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public final class ScanManifestDirectoryAnalyser
+    implements DirectoryAnalyser
+{
+    private final static Log log = LogFactory.getLog(ScanManifestDirectoryAnalyser.class);
+
+    private final static String MANIFEST_FILE_SUFFIX = ".manifest";
+
+    private final DirectoryAnalyser    delegate;
+    private final BulkImportStatusImpl importStatus;
+
+    private boolean               enabled           = false;
+    private File                  manifestDirectory = null;
+    private volatile File         sourceRoot        = null;
+    private volatile ScanManifest manifest          = null;
+
+
+    public ScanManifestDirectoryAnalyser(final DirectoryAnalyser delegate, final BulkImportStatusImpl importStatus)
+    {
+        // PRECONDITIONS
+        assert delegate     != null : "delegate must not be null.";
+        assert importStatus != null : "importStatus must not be null.";
+
+        // Body
+        this.delegate     = delegate;
+        this.importStatus = importStatus;
+    }
+
+
+    public void setEnabled(final boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return The directory analyser this analyser delegates to when there's no usable manifest entry <i>(will not be null)</i>.
+     */
+    public DirectoryAnalyser getDelegate()
+    {
+        return(delegate);
+    }
+
+    public void setManifestDirectory(final String manifestDirectory)
+    {
+        if (manifestDirectory != null && manifestDirectory.trim().length() > 0)
+        {
+            this.manifestDirectory = new File(manifestDirectory.trim());
+        }
+    }
+
+
+    /**
+     * Opens the manifest for the given source root, closing the manifest for any previous source root.  Called by the
+     * importer at the start of each import.
+     *
+     * @param source The source root of the import that's about to start <i>(must not be null)</i>.
+     */
+    public synchronized void open(final File source)
+    {
+        close();
+
+        if (enabled && manifestDirectory != null)
+        {
+            try
+            {
+                if (!manifestDirectory.exists() && !manifestDirectory.mkdirs())
+                {
+                    throw new IOException("Unable to create scan manifest directory '" + manifestDirectory.getAbsolutePath() + "'.");
+                }
+
+                final String sourceRootName = AbstractBulkFilesystemImporter.getFileName(source);
+                final File   manifestFile   = new File(manifestDirectory, hash(sourceRootName) + MANIFEST_FILE_SUFFIX);
+
+                if (log.isInfoEnabled()) log.info("Using scan manifest '" + manifestFile.getAbsolutePath() + "' for source '" + sourceRootName + "'.");
+
+                sourceRoot = source;
+                manifest   = new ScanManifest(manifestFile);
+            }
+            catch (final IOException ioe)
+            {
+                // Not fatal - we'll just do a full scan
+                log.warn("Unable to open scan manifest - continuing without it.", ioe);
+                sourceRoot = null;
+                manifest   = null;
+            }
+        }
+    }
+
+
+    /**
+     * Closes the currently open manifest (if any).
+     */
+    public synchronized void close()
+    {
+        if (manifest != null)
+        {
+            manifest.close();
+            manifest   = null;
+            sourceRoot = null;
+        }
+    }
+
+
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.DirectoryAnalyser#analyseDirectory(java.io.File)
+     */
+    @Override
+    public AnalysedDirectory analyseDirectory(final File directory)
+        throws InterruptedException
+    {
+        final ScanManifest currentManifest = manifest;
+        final File         currentRoot     = sourceRoot;
+        AnalysedDirectory  result          = null;
+
+        if (currentManifest == null || currentRoot == null)
+        {
+            result = delegate.analyseDirectory(directory);
+        }
+        else
+        {
+            final String relativePath      = currentRoot.toPath().relativize(directory.toPath()).toString();
+            final long   directoryModified = directory.lastModified();
+
+            result = currentManifest.lookup(relativePath, directory, directoryModified);
+
+            if (result != null)
+            {
+                if (log.isTraceEnabled()) log.trace("Analysis of '" + AbstractBulkFilesystemImporter.getFileName(directory) + "' read from scan manifest.");
+                recordStatistics(result);
+            }
+            else
+            {
+                result = delegate.analyseDirectory(directory);
+                currentManifest.append(relativePath, directoryModified, result);
+            }
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.DirectoryAnalyser#analyseDirectory(java.io.File, org.alfresco.extension.bulkfilesystemimport.DirectoryAnalyser.ImportableItemHandler)
+     */
+    @Override
+    public void analyseDirectory(final File directory, final ImportableItemHandler handler)
+        throws InterruptedException
+    {
+        delegate.analyseDirectory(directory, handler);
+    }
+
+
+    /*
+     * Keeps the scan statistics consistent with a "real" scan, since the delegate won't have seen this directory.
+     */
+    private void recordStatistics(final AnalysedDirectory analysedDirectory)
+    {
+        importStatus.incrementNumberOfFoldersReadFromManifest();
+        importStatus.incrementNumberOfStatCallsSaved((long)analysedDirectory.originalListing.size() * FileAttributes.EQUIVALENT_FILE_CALLS - 1);  // We still stat the directory itself
+
+        long numberOfFolders = 0;
+
+        for (final ImportableItem importableItem : analysedDirectory.importableItems)
+        {
+            if (ImportableItem.FileType.DIRECTORY.equals(importableItem.getHeadRevision().getContentFileType()))
+            {
+                importStatus.incrementNumberOfFoldersScanned();
+                numberOfFolders++;
+            }
+        }
+
+        for (long i = numberOfFolders; i < analysedDirectory.originalListing.size(); i++)
+        {
+            importStatus.incrementNumberOfFilesScanned();
+        }
+    }
+
+
+    private static String hash(final String value)
+    {
+        final StringBuilder result = new StringBuilder();
+
+        try
+        {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes("UTF-8"));
+
+            for (final byte b : digest)
+            {
+                result.append(String.format("%02x", b & 0xFF));
+            }
+        }
+        catch (final NoSuchAlgorithmException nsae)
+        {
+            throw new RuntimeException(nsae);
+        }
+        catch (final UnsupportedEncodingException uee)
+        {
+            throw new RuntimeException(uee);
+        }
+
+        return(result.toString());
+    }
+
+}
@@ -30,7 +30,6 @@ import org.alfresco.repo.content.ContentStore;
 import org.alfresco.repo.policy.BehaviourFilter;
 import org.alfresco.service.ServiceRegistry;
 import org.alfresco.service.cmr.repository.NodeRef;
-import org.alfresco.util.Pair;
 
 
 /**
@@ -69,8 +68,10 @@ public class SingleThreadedBulkFilesystemImporter
             importStatus.startImport(getFileName(source),
                                      getRepositoryPath(target),
                                      inPlaceImport ? BulkImportStatus.ImportType.IN_PLACE : BulkImportStatus.ImportType.STREAMING,
-                                     getBatchWeight());
-            bulkImportRecursively(target, getFileName(source), source, replaceExisting, inPlaceImport);
+                                     getEffectiveBatchWeight());
+            startSizingScan(source);
+            bulkImportRecursively(target, false, getFileName(source), source, replaceExisting, inPlaceImport);
+            postProcess();
             importStatus.importSucceeded();
 
             log.info("Bulk import from '" + getFileName(source) + "' succeeded.");
@@ -80,9 +81,14 @@ public class SingleThreadedBulkFilesystemImporter
         {
             log.error("Bulk import from '" + getFileName(source) + "' failed.", e);
             
+            discardPostProcessing();
             importStatus.importFailed(e);
             throw e;
         }
+        finally
+        {
+            stopSizingScan();
+        }
     }
     
     
@@ -91,28 +97,30 @@ public class SingleThreadedBulkFilesystemImporter
      * cleanly override bulkImportImpl without messing up the mechanics of the recursion.
      * 
      * @param target          The target space to ingest the content into <i>(must not be null and must be a valid, writable space in the repository)</i>.
+     * @param targetIsNew     A flag indicating whether the target space was created by this import.
      * @param sourceRoot      The original directory from which this import was initiated <i>(must not be null)</i>.
      * @param source          The source directory on the local filesystem to read content from <i>(must not be null and must be a valid, readable directory on the local filesystem)</i>.
      * @param replaceExisting A flag indicating whether to replace (true) or skip (false) files that are already in the repository.
      * @param inPlaceImport   A flag indicating whether this is an "in place" import (i.e. the source directory is already located inside the configured content store).
      */
     protected final void bulkImportRecursively(final NodeRef target,
+                                               final boolean targetIsNew,
                                                final String  sourceRoot,
                                                final File    source,
                                                final boolean replaceExisting,
                                                final boolean inPlaceImport)
         throws InterruptedException
     {
-        List<Pair<NodeRef, File>> subDirectories = importDirectory(target, sourceRoot, source, replaceExisting, inPlaceImport);
+        List<Triple<NodeRef, File, Boolean>> subDirectories = importDirectory(target, targetIsNew, sourceRoot, source, replaceExisting, inPlaceImport);
         
         // Recursively import sub directories
-        for (final Pair<NodeRef, File> subDirectory : subDirectories)
+        for (final Triple<NodeRef, File, Boolean> subDirectory : subDirectories)
         {
             if (Thread.interrupted()) break;  // Exit ASAP if the thread has been interrupted
             
             if (subDirectory != null)
             {
-                bulkImportRecursively(subDirectory.getFirst(), sourceRoot, subDirectory.getSecond(), replaceExisting, inPlaceImport);
+                bulkImportRecursively(subDirectory.getFirst(), subDirectory.getThird(), sourceRoot, subDirectory.getSecond(), replaceExisting, inPlaceImport);
             }
         }
     }
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * This class performs a fast "sizing" scan of the source tree, counting the files, folders and bytes it contains, so
+ * that the import status can report percent complete and an estimated completion time.
+ *
+ * The scan runs in its own fork-join pool (one task per directory), and only lists directories and reads basic
+ * attributes - it doesn't classify, filter or otherwise analyse anything.  On platforms where the directory listing
+ * returns file attributes along with the names (e.g. Windows), those cached attributes are used rather than
+ * stat-ing each file again.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public final class SizingScanner
+{
+    private final static Log log = LogFactory.getLog(SizingScanner.class);
+
+    private final BulkImportStatusImpl importStatus;
+    private final ForkJoinPool         pool;
+    private final CountDownLatch       finished = new CountDownLatch(1);
+
+    private volatile boolean stopped = false;
+
+
+    /**
+     * @param importStatus The import status object to report the size of the source tree to <i>(must not be null)</i>.
+     * @param parallelism  The number of scanner threads (&lt;= 0 means one per processor).
+     */
+    public SizingScanner(final BulkImportStatusImpl importStatus, final int parallelism)
+    {
+        // PRECONDITIONS
+        assert importStatus != null : "importStatus must not be null.";
+
+        // Body
+        this.importStatus = importStatus;
+        this.pool         = new ForkJoinPool(parallelism <= 0 ? Runtime.getRuntime().availableProcessors() : parallelism,
+                                             ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                                             null,
+                                             true);
+    }
+
+
+    /**
+     * Starts scanning the given source directory, in the background.
+     *
+     * @param source The source directory to scan <i>(must not be null)</i>.
+     */
+    public void start(final File source)
+    {
+        if (log.isDebugEnabled()) log.debug("Starting sizing scan of '" + AbstractBulkFilesystemImporter.getFileName(source) + "'.");
+
+        importStatus.sizingStarted();
+
+        pool.execute(new RecursiveAction()
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute()
+            {
+                try
+                {
+                    new SizeDirectory(source.toPath()).invoke();
+
+                    if (stopped || importStatus.isStopping())
+                    {
+                        importStatus.sizingStopped();
+                    }
+                    else
+                    {
+                        importStatus.sizingCompleted();
+                        if (log.isDebugEnabled()) log.debug("Sizing scan of '" + AbstractBulkFilesystemImporter.getFileName(source) + "' complete: " +
+                                                            importStatus.getEstimatedNumberOfFiles() + " files, " +
+                                                            importStatus.getEstimatedNumberOfFolders() + " folders, " +
+                                                            importStatus.getEstimatedNumberOfBytes() + " bytes.");
+                    }
+                }
+                catch (final RuntimeException re)
+                {
+                    // Not fatal - we just won't be able to estimate progress
+                    if (log.isWarnEnabled()) log.warn("Sizing scan of '" + AbstractBulkFilesystemImporter.getFileName(source) + "' failed.  Progress will not be estimated.", re);
+                    importStatus.sizingStopped();
+                }
+                finally
+                {
+                    finished.countDown();
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Blocks until the scan has finished (successfully or otherwise).
+     *
+     * @throws InterruptedException If the import is stopped while waiting.
+     */
+    public void awaitCompletion()
+        throws InterruptedException
+    {
+        finished.await();
+    }
+
+
+    /**
+     * Stops scanning.  The totals reported so far are left in the import status, but are marked as incomplete.
+     */
+    public void stop()
+    {
+        stopped = true;
+        pool.shutdownNow();
+
+        if (finished.getCount() > 0)
+        {
+            importStatus.sizingStopped();
+            finished.countDown();
+        }
+    }
+
+
+    /**
+     * Fork-join task that sizes a single directory, then forks tasks for each of its sub-directories.
+     */
+    private final class SizeDirectory
+        extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+
+        private SizeDirectory(final Path directory)
+        {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (stopped || importStatus.isStopping() || Thread.currentThread().isInterrupted()) return;
+
+            final List<SizeDirectory> subTasks      = new ArrayList<SizeDirectory>();
+            long                      numberOfFiles = 0;
+            long                      numberOfBytes = 0;
+
+            try
+            {
+                final DirectoryStream<Path> listing = Files.newDirectoryStream(directory);
+
+                try
+                {
+                    for (final Path path : listing)
+                    {
+                        try
+                        {
+                            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+                            if (attributes.isDirectory())
+                            {
+                                subTasks.add(new SizeDirectory(path));
+                            }
+                            else
+                            {
+                                numberOfFiles++;
+                                numberOfBytes += attributes.size();
+                            }
+                        }
+                        catch (final IOException ioe)
+                        {
+                            // The importer will report this one as unreadable, but it's still an entry that needs processing
+                            numberOfFiles++;
+                        }
+                    }
+                }
+                finally
+                {
+                    listing.close();
+                }
+            }
+            catch (final IOException ioe)
+            {
+                if (log.isDebugEnabled()) log.debug("Unable to list '" + directory + "' during sizing scan - skipping it.", ioe);
+            }
+
+            importStatus.addSizingTotals(subTasks.size(), numberOfFiles, numberOfBytes);
+
+            invokeAll(subTasks);
+        }
+    }
+
+}
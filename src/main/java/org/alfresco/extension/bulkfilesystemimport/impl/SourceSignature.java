@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.alfresco.extension.bulkfilesystemimport.FileAttributes;
+import org.alfresco.extension.bulkfilesystemimport.ImportableItem;
+
+
+/**
+ * This class computes the "signature" of an importable item - a digest of the names, sizes and last modified dates
+ * (or, optionally, content hashes) of all of the files that make it up (head revision, metadata and versions).  Delta
+ * imports record the signature on each node they write, and skip items whose signature hasn't changed since.
+ *
+ * Directories only contribute their name - their own modification date changes whenever a child is added or removed,
+ * and those changes are picked up when the children themselves are imported.
+ *
+ * Each file's size and last modified date are read from the disk when the signature is computed, rather than taken
+ * from the item's (possibly cached) attributes.  The scan manifest reuses the analysis of any directory whose own
+ * modification date hasn't changed, so a file modified in place would otherwise keep its old signature and be skipped.
+ * This costs one extra stat per file in each batch of a delta import.
+ *
+ * Instances are immutable and thread safe.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public final class SourceSignature
+{
+    private final static String  DIGEST_ALGORITHM = "SHA-256";
+    private final static Charset UTF8             = Charset.forName("UTF-8");
+    private final static int     BUFFER_SIZE      = 65536;
+    private final static char[]  HEX_DIGITS       = "0123456789abcdef".toCharArray();
+
+    private final boolean compareContentHash;
+
+
+    /**
+     * @param compareContentHash Whether to hash the content of each file (true), or use its last modified date (false).
+     */
+    public SourceSignature(final boolean compareContentHash)
+    {
+        this.compareContentHash = compareContentHash;
+    }
+
+
+    /**
+     * @param importableItem The importable item to compute the signature of <i>(must not be null)</i>.
+     * @return The signature of the item, as a hex string <i>(will not be null)</i>.
+     * @throws IOException If one of the files in the item can't be read (only possible if content hashes are being compared).
+     */
+    public String compute(final ImportableItem importableItem)
+        throws IOException
+    {
+        // PRECONDITIONS
+        assert importableItem != null : "importableItem must not be null.";
+
+        // Body
+        final MessageDigest digest = newDigest();
+
+        append(digest, importableItem.getHeadRevision());
+
+        if (importableItem.hasVersionEntries())
+        {
+            for (final ImportableItem.VersionedContentAndMetadata versionEntry : importableItem.getVersionEntries())
+            {
+                update(digest, "v" + versionEntry.getVersionLabel());
+                append(digest, versionEntry);
+            }
+        }
+
+        return(toHex(digest.digest()));
+    }
+
+
+    private void append(final MessageDigest digest, final ImportableItem.ContentAndMetadata contentAndMetadata)
+        throws IOException
+    {
+        if (contentAndMetadata.contentFileExists())
+        {
+            if (ImportableItem.FileType.DIRECTORY.equals(contentAndMetadata.getContentFileType()))
+            {
+                update(digest, "d|" + contentAndMetadata.getContentFileName());
+            }
+            else
+            {
+                append(digest, "c|", contentAndMetadata.getContentFileName(), contentAndMetadata.getContentFile());
+            }
+        }
+
+        if (contentAndMetadata.metadataFileExists())
+        {
+            final File metadataFile = contentAndMetadata.getMetadataFile();
+
+            append(digest, "m|", metadataFile.getName(), metadataFile);
+        }
+    }
+
+
+    private void append(final MessageDigest digest,
+                        final String        kind,
+                        final String        name,
+                        final File          file)
+        throws IOException
+    {
+        // Note: deliberately not the item's cached attributes - see class comment
+        final FileAttributes attributes = FileAttributes.read(file);
+
+        if (compareContentHash)
+        {
+            update(digest, kind + name + "|" + attributes.getSize() + "|" + hashContent(file));
+        }
+        else
+        {
+            update(digest, kind + name + "|" + attributes.getSize() + "|" + (attributes.getModified() == null ? 0 : attributes.getModified().getTime()));
+        }
+    }
+
+
+    private String hashContent(final File file)
+        throws IOException
+    {
+        final MessageDigest digest = newDigest();
+        final byte[]        buffer = new byte[BUFFER_SIZE];
+        final InputStream   in     = new FileInputStream(file);
+
+        try
+        {
+            int read;
+
+            while ((read = in.read(buffer)) != -1)
+            {
+                digest.update(buffer, 0, read);
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        return(toHex(digest.digest()));
+    }
+
+
+    private static void update(final MessageDigest digest, final String value)
+    {
+        digest.update(value.getBytes(UTF8));
+        digest.update((byte)'\n');
+    }
+
+
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return(MessageDigest.getInstance(DIGEST_ALGORITHM));
+        }
+        catch (final NoSuchAlgorithmException nsae)
+        {
+            // Every JVM is required to support SHA-256
+            throw new RuntimeException(nsae);
+        }
+    }
+
+
+    private static String toHex(final byte[] bytes)
+    {
+        final char[] result = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++)
+        {
+            result[i * 2]     = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            result[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+
+        return(new String(result));
+    }
+
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.alfresco.extension.bulkfilesystemimport.FileAttributes;
+
+
+/**
+ * This class watches a set of source directories for new and modified files (via <code>java.nio.file.WatchService</code>),
+ * and "debounces" them - a file is only reported once it has been quiet (no further events, and no change in size or
+ * last modified date) for the configured quiet period.  This prevents partially written files from being imported.
+ *
+ * Deletions are ignored, as are modifications to directories that are already being watched (those are just a side
+ * effect of their contents changing).
+ *
+ * Instances are not thread safe - they're intended to be used by a single (watching) thread.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public final class SourceWatcher
+{
+    private final static Log log = LogFactory.getLog(SourceWatcher.class);
+
+    private final WatchService             watchService;
+    private final long                     quietPeriodNs;
+    private final Map<WatchKey, File>      watchKeys          = new HashMap<WatchKey, File>();
+    private final Set<File>                watchedDirectories = new HashSet<File>();
+    private final Map<File, PendingChange> pendingChanges     = new LinkedHashMap<File, PendingChange>();
+
+
+    /**
+     * @param quietPeriodInMs How long a file must be quiet for before it's considered completely written.
+     * @throws IOException If the platform's watch service can't be created.
+     */
+    public SourceWatcher(final long quietPeriodInMs)
+        throws IOException
+    {
+        this.watchService  = FileSystems.getDefault().newWatchService();
+        this.quietPeriodNs = TimeUnit.MILLISECONDS.toNanos(Math.max(0, quietPeriodInMs));
+    }
+
+
+    /**
+     * Starts watching the given directory (non-recursively) for new and modified files.
+     *
+     * @param directory The directory to watch <i>(must not be null)</i>.
+     * @return True if the directory is now being watched, false if it couldn't be (e.g. the platform's watch limit has been reached).
+     */
+    public boolean register(final File directory)
+    {
+        // PRECONDITIONS
+        assert directory != null : "directory must not be null.";
+
+        // Body
+        boolean result = watchedDirectories.contains(directory);
+
+        if (!result)
+        {
+            try
+            {
+                final WatchKey key = directory.toPath().register(watchService,
+                                                                 StandardWatchEventKinds.ENTRY_CREATE,
+                                                                 StandardWatchEventKinds.ENTRY_MODIFY);
+
+                watchKeys.put(key, directory);
+                watchedDirectories.add(directory);
+                result = true;
+            }
+            catch (final IOException ioe)
+            {
+                if (log.isWarnEnabled()) log.warn("Unable to watch '" + AbstractBulkFilesystemImporter.getFileName(directory) + "' - changes to it will not be imported.", ioe);
+            }
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * @param directory The directory to check <i>(may be null)</i>.
+     * @return True if the given directory is being watched.
+     */
+    public boolean isWatched(final File directory)
+    {
+        return(watchedDirectories.contains(directory));
+    }
+
+
+    /**
+     * Waits up to the given amount of time for filesystem events, and records any that arrive.  Returns as soon as at
+     * least one event has been received.
+     *
+     * @param timeoutInMs The maximum amount of time to wait.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    public void awaitChanges(final long timeoutInMs)
+        throws InterruptedException
+    {
+        WatchKey key = watchService.poll(Math.max(0, timeoutInMs), TimeUnit.MILLISECONDS);
+
+        // Drain everything else that's already queued, without blocking
+        while (key != null)
+        {
+            final File directory = watchKeys.get(key);
+
+            if (directory != null)
+            {
+                for (final WatchEvent<?> event : key.pollEvents())
+                {
+                    recordEvent(directory, event);
+                }
+            }
+
+            if (!key.reset())
+            {
+                // The directory is no longer accessible (e.g. it was deleted)
+                watchKeys.remove(key);
+                watchedDirectories.remove(directory);
+            }
+
+            key = watchService.poll();
+        }
+    }
+
+
+    /**
+     * Removes and returns all pending changes that have been quiet for at least the quiet period.
+     *
+     * @return The settled changes, as the leaf names of the changed files grouped by their (watched) directory <i>(will not be null, but may be empty)</i>.
+     */
+    public Map<File, Set<String>> takeSettledChanges()
+    {
+        final Map<File, Set<String>>                   result   = new LinkedHashMap<File, Set<String>>();
+        final long                                     now      = System.nanoTime();
+        final Iterator<Map.Entry<File, PendingChange>> iterator = pendingChanges.entrySet().iterator();
+
+        while (iterator.hasNext())
+        {
+            final Map.Entry<File, PendingChange> entry         = iterator.next();
+            final File                           file          = entry.getKey();
+            final PendingChange                  pendingChange = entry.getValue();
+
+            if (now - pendingChange.lastEventNs >= quietPeriodNs)
+            {
+                final FileAttributes attributes = FileAttributes.read(file);
+
+                if (!attributes.exists())
+                {
+                    // It's gone again (e.g. a temporary file) - nothing to import
+                    iterator.remove();
+                }
+                else if (pendingChange.isStillChanging(attributes))
+                {
+                    // Something's still writing to it, even though we haven't received an event - keep waiting
+                    pendingChange.update(attributes, now);
+                }
+                else
+                {
+                    final File  directory = file.getParentFile();
+                    Set<String> fileNames = result.get(directory);
+
+                    if (fileNames == null)
+                    {
+                        fileNames = new HashSet<String>();
+                        result.put(directory, fileNames);
+                    }
+
+                    fileNames.add(file.getName());
+                    iterator.remove();
+                }
+            }
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * @return The number of changes that have been seen, but haven't yet settled.
+     */
+    public int getNumberOfPendingChanges()
+    {
+        return(pendingChanges.size());
+    }
+
+
+    /**
+     * Stops watching all directories, and releases the underlying watch service.
+     */
+    public void close()
+    {
+        try
+        {
+            watchService.close();
+        }
+        catch (final IOException ioe)
+        {
+            if (log.isDebugEnabled()) log.debug("Unable to close watch service.", ioe);
+        }
+
+        watchKeys.clear();
+        watchedDirectories.clear();
+        pendingChanges.clear();
+    }
+
+
+    private void recordEvent(final File directory, final WatchEvent<?> event)
+    {
+        final long now = System.nanoTime();
+
+        if (StandardWatchEventKinds.OVERFLOW.equals(event.kind()))
+        {
+            // We've lost events for this directory, so treat everything in it as changed (delta imports make this cheap)
+            if (log.isWarnEnabled()) log.warn("Filesystem events were lost for '" + AbstractBulkFilesystemImporter.getFileName(directory) + "' - rechecking all of its contents.");
+
+            final File[] children = directory.listFiles();
+
+            if (children != null)
+            {
+                for (final File child : children)
+                {
+                    recordChange(child, now);
+                }
+            }
+        }
+        else
+        {
+            recordChange(new File(directory, ((Path)event.context()).toString()), now);
+        }
+    }
+
+
+    private void recordChange(final File file, final long now)
+    {
+        // Changes to the contents of a watched directory show up as modifications of the directory itself - ignore them
+        if (!watchedDirectories.contains(file))
+        {
+            final PendingChange pendingChange = pendingChanges.get(file);
+
+            if (pendingChange == null)
+            {
+                pendingChanges.put(file, new PendingChange(FileAttributes.read(file), now));
+            }
+            else
+            {
+                pendingChange.lastEventNs = now;
+            }
+        }
+    }
+
+
+    /**
+     * A file that has changed, but may still be being written.
+     */
+    private final static class PendingChange
+    {
+        private long size;
+        private long modified;
+        private long lastEventNs;
+
+        private PendingChange(final FileAttributes attributes, final long now)
+        {
+            update(attributes, now);
+        }
+
+        private boolean isStillChanging(final FileAttributes attributes)
+        {
+            return(attributes.getSize() != size || modifiedTime(attributes) != modified);
+        }
+
+        private void update(final FileAttributes attributes, final long now)
+        {
+            this.size        = attributes.getSize();
+            this.modified    = modifiedTime(attributes);
+            this.lastEventNs = now;
+        }
+
+        private static long modifiedTime(final FileAttributes attributes)
+        {
+            return(attributes.getModified() == null ? -1 : attributes.getModified().getTime());
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.extension.bulkfilesystemimport.BatchWeigher;
+import org.alfresco.extension.bulkfilesystemimport.DirectoryAnalyser;
+import org.alfresco.extension.bulkfilesystemimport.ImportableItem;
+
+
+/**
+ * This class receives ImportableItems from a streaming directory analysis, filtering them and then importing them in
+ * batches as soon as each batch reaches the current batch weight.
+ *
+ * Each instance imports a single directory, on the thread that's analysing it, so instances are not thread safe.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+final class StreamingBatchImporter
+    implements DirectoryAnalyser.ImportableItemHandler
+{
+    private final AbstractBulkFilesystemImporter       importer;
+    private final NodeRef                              target;
+    private final boolean                              targetIsNew;
+    private final String                               sourceRoot;
+    private final boolean                              replaceExisting;
+    private final boolean                              inPlaceImport;
+    private final List<Triple<NodeRef, File, Boolean>> subDirectories = new ArrayList<Triple<NodeRef, File, Boolean>>();
+
+    private List<ImportableItem> currentBatch = new ArrayList<ImportableItem>();
+    private BatchWeigher.Scale   scale;
+    private ChildIndex           childIndex   = null;  // Loaded when the first batch is imported
+
+    private long numberOfImportableItems         = 0;
+    private long numberOfFilteredImportableItems = 0;
+    private long numberOfBatches                 = 0;
+
+
+    /**
+     * @param importer        The importer to import the batches with <i>(must not be null)</i>.
+     * @param target          The space to import the directory into <i>(must not be null)</i>.
+     * @param targetIsNew     True if the target space was created by this import (so has no children yet).
+     * @param sourceRoot      The original directory from which this import was initiated <i>(must not be null)</i>.
+     * @param replaceExisting A flag indicating whether to replace (true) or skip (false) files that are already in the repository.
+     * @param inPlaceImport   A flag indicating whether this is an "in place" import.
+     */
+    StreamingBatchImporter(final AbstractBulkFilesystemImporter importer,
+                           final NodeRef                        target,
+                           final boolean                        targetIsNew,
+                           final String                         sourceRoot,
+                           final boolean                        replaceExisting,
+                           final boolean                        inPlaceImport)
+    {
+        // PRECONDITIONS
+        assert importer   != null : "importer must not be null.";
+        assert target     != null : "target must not be null.";
+        assert sourceRoot != null : "sourceRoot must not be null.";
+
+        // Body
+        this.importer        = importer;
+        this.target          = target;
+        this.targetIsNew     = targetIsNew;
+        this.sourceRoot      = sourceRoot;
+        this.replaceExisting = replaceExisting;
+        this.inPlaceImport   = inPlaceImport;
+        this.scale           = importer.newBatchScale();
+    }
+
+
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.DirectoryAnalyser.ImportableItemHandler#importableItemFound(org.alfresco.extension.bulkfilesystemimport.ImportableItem)
+     */
+    @Override
+    public void importableItemFound(final ImportableItem importableItem)
+        throws InterruptedException
+    {
+        numberOfImportableItems++;
+
+        if (!importer.shouldFilter(importableItem))
+        {
+            numberOfFilteredImportableItems++;
+
+            // The first item always goes in, even if it's too heavy on its own
+            if (!currentBatch.isEmpty() && !scale.fits(importableItem))
+            {
+                flush();
+            }
+
+            currentBatch.add(importableItem);
+            scale.add(importableItem);
+        }
+    }
+
+
+    /**
+     * Imports the current (partial) batch, if there is one.  Must be called once the analysis is complete.
+     *
+     * @throws InterruptedException If the import is stopped, or the calling thread is interrupted.
+     */
+    void flush()
+        throws InterruptedException
+    {
+        if (currentBatch.size() > 0)
+        {
+            if (importer.importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
+
+            if (numberOfBatches == 0)
+            {
+                childIndex = importer.loadChildIndex(target, targetIsNew, currentBatch.size());
+            }
+
+            subDirectories.addAll(importer.importAndDispatchBatch(target, sourceRoot, currentBatch, replaceExisting, inPlaceImport, childIndex));
+            numberOfBatches++;
+
+            currentBatch = new ArrayList<ImportableItem>();
+            scale        = importer.newBatchScale();
+        }
+    }
+
+
+    /**
+     * @return The sub-directories that were imported and not dispatched, in the order they were found <i>(will not be null)</i>.
+     */
+    List<Triple<NodeRef, File, Boolean>> getSubDirectories()
+    {
+        return(subDirectories);
+    }
+
+    long getNumberOfImportableItems()
+    {
+        return(numberOfImportableItems);
+    }
+
+    long getNumberOfFilteredImportableItems()
+    {
+        return(numberOfFilteredImportableItems);
+    }
+
+    long getNumberOfBatches()
+    {
+        return(numberOfBatches);
+    }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * This class tunes the number of worker threads during an import, by hill climbing on the measured throughput (nodes
+ * written per second).  Once per interval it:
+ * <ul>
+ *   <li>Removes threads if errors (transaction retries or quarantined items) rose since the previous interval, and stops growing (the repository is saturated).</li>
+ *   <li>Undoes the previous increase, and stops growing, if that increase didn't improve throughput by a meaningful amount (throughput has plateaued).</li>
+ *   <li>Otherwise adds threads, up to the configured maximum.</li>
+ * </ul>
+ * The first interval is only used to establish a baseline.  Each change is logged and applied to both the core and
+ * maximum size of the pool.
+ *
+ * Instances run on their own daemon thread, and are only used for a single import.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public final class ThreadPoolTuner
+{
+    private final static Log log = LogFactory.getLog(ThreadPoolTuner.class);
+
+    private final static String THREAD_NAME               = "BulkFilesystemImport-ThreadPoolTuner";
+    private final static double PLATEAU_IMPROVEMENT       = 1.05;  // An increase must improve throughput by at least 5% to be kept
+    private final static int    MINIMUM_NUMBER_OF_THREADS = 1;
+
+    private final ThreadPoolExecutor   threadPool;
+    private final BulkImportStatusImpl importStatus;
+    private final int                  maximumNumberOfThreads;
+    private final int                  step;
+    private final long                 intervalInMs;
+
+    private volatile Thread tunerThread = null;
+
+    // Only accessed by the tuner thread
+    private long    previousNodes         = -1;
+    private long    previousErrors        = -1;
+    private long    previousTimeNs        = -1;
+    private long    previousErrorDelta    = 0;
+    private double  previousThroughput    = -1;
+    private int     previousSize          = -1;
+    private boolean lastChangeWasIncrease = false;
+    private boolean growing               = true;
+
+
+    /**
+     * @param threadPool             The thread pool to tune <i>(must not be null)</i>.
+     * @param importStatus           The import status to measure throughput and errors from <i>(must not be null)</i>.
+     * @param maximumNumberOfThreads The largest number of threads to grow to <i>(must be &gt; 0)</i>.
+     * @param step                   The number of threads to add or remove at a time <i>(must be &gt; 0)</i>.
+     * @param intervalInMs           How often to measure throughput and adjust the pool <i>(must be &gt; 0)</i>.
+     */
+    public ThreadPoolTuner(final ThreadPoolExecutor   threadPool,
+                           final BulkImportStatusImpl importStatus,
+                           final int                  maximumNumberOfThreads,
+                           final int                  step,
+                           final long                 intervalInMs)
+    {
+        // PRECONDITIONS
+        assert threadPool             != null : "threadPool must not be null.";
+        assert importStatus           != null : "importStatus must not be null.";
+        assert maximumNumberOfThreads > 0     : "maximumNumberOfThreads must be > 0.";
+        assert step                   > 0     : "step must be > 0.";
+        assert intervalInMs           > 0     : "intervalInMs must be > 0.";
+
+        // Body
+        this.threadPool             = threadPool;
+        this.importStatus           = importStatus;
+        this.maximumNumberOfThreads = maximumNumberOfThreads;
+        this.step                   = step;
+        this.intervalInMs           = intervalInMs;
+    }
+
+
+    /**
+     * Starts tuning the thread pool, in the background.
+     */
+    public void start()
+    {
+        final Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (log.isDebugEnabled()) log.debug(Thread.currentThread().getName() + " started.");
+
+                try
+                {
+                    while (!threadPool.isShutdown() && !Thread.currentThread().isInterrupted())
+                    {
+                        Thread.sleep(intervalInMs);
+
+                        if (!threadPool.isShutdown())
+                        {
+                            adjust();
+                        }
+                    }
+                }
+                catch (final InterruptedException ie)
+                {
+                    // Stopped - fall through
+                }
+
+                if (log.isDebugEnabled()) log.debug(Thread.currentThread().getName() + " finished.");
+            }
+        }, THREAD_NAME);
+
+        thread.setDaemon(true);
+        tunerThread = thread;
+        thread.start();
+    }
+
+
+    /**
+     * Stops tuning the thread pool, leaving it at its current size.
+     */
+    public void stop()
+    {
+        final Thread thread = tunerThread;
+
+        if (thread != null)
+        {
+            thread.interrupt();
+            tunerThread = null;
+        }
+    }
+
+
+    /**
+     * @param threadPool The thread pool to check <i>(must not be null)</i>.
+     * @return True if the given thread pool has a bounded number of threads that can be resized - thread-per-task pools
+     *         (see VirtualThreadExecutorFactory) start a thread for every unit of work, so have nothing to resize.
+     */
+    public static boolean isResizable(final ThreadPoolExecutor threadPool)
+    {
+        return(threadPool.getMaximumPoolSize() < Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Resizes the given thread pool, keeping the gap between its core and maximum sizes (if any).
+     *
+     * @param threadPool      The thread pool to resize <i>(must not be null)</i>.
+     * @param numberOfThreads The new (core) number of threads <i>(must be &gt; 0)</i>.
+     */
+    public static void resize(final ThreadPoolExecutor threadPool, final int numberOfThreads)
+    {
+        // PRECONDITIONS
+        assert threadPool      != null : "threadPool must not be null.";
+        assert numberOfThreads > 0     : "numberOfThreads must be > 0.";
+
+        // Body
+        synchronized(threadPool)
+        {
+            final int headroom = Math.max(0, threadPool.getMaximumPoolSize() - threadPool.getCorePoolSize());
+
+            // The maximum size must never be less than the core size, so the order matters
+            if (numberOfThreads > threadPool.getCorePoolSize())
+            {
+                threadPool.setMaximumPoolSize(numberOfThreads + headroom);
+                threadPool.setCorePoolSize(numberOfThreads);
+            }
+            else
+            {
+                threadPool.setCorePoolSize(numberOfThreads);
+                threadPool.setMaximumPoolSize(numberOfThreads + headroom);
+            }
+        }
+    }
+
+
+    private void adjust()
+    {
+        final long   nowNs       = System.nanoTime();
+        final long   nodes       = importStatus.getNumberOfSpaceNodesCreated()   + importStatus.getNumberOfSpaceNodesReplaced() +
+                                   importStatus.getNumberOfContentNodesCreated() + importStatus.getNumberOfContentNodesReplaced();
+        final long   errors      = importStatus.getNumberOfTransactionRetries()  + importStatus.getNumberOfItemsQuarantined();
+        final int    currentSize = threadPool.getCorePoolSize();
+        int          newSize     = currentSize;
+        String       reason      = null;
+
+        if (previousTimeNs >= 0 && nowNs > previousTimeNs)
+        {
+            final double throughput = (nodes - previousNodes) * (double)TimeUnit.SECONDS.toNanos(1) / (nowNs - previousTimeNs);
+            final long   errorDelta = errors - previousErrors;
+
+            if (errorDelta > previousErrorDelta)
+            {
+                newSize = Math.max(MINIMUM_NUMBER_OF_THREADS, currentSize - step);
+                growing = false;
+                reason  = errorDelta + " error(s) in the last interval, up from " + previousErrorDelta;
+            }
+            else if (lastChangeWasIncrease && throughput < previousThroughput * PLATEAU_IMPROVEMENT)
+            {
+                newSize = previousSize;
+                growing = false;
+                reason  = "throughput plateaued at " + (long)throughput + " nodes/s";
+            }
+            else if (growing && currentSize < maximumNumberOfThreads)
+            {
+                newSize = Math.min(maximumNumberOfThreads, currentSize + step);
+                reason  = "throughput of " + (long)throughput + " nodes/s";
+            }
+
+            lastChangeWasIncrease = newSize > currentSize;
+            previousThroughput    = throughput;
+            previousErrorDelta    = errorDelta;
+            previousSize          = currentSize;
+        }
+
+        previousNodes  = nodes;
+        previousErrors = errors;
+        previousTimeNs = nowNs;
+
+        if (newSize != currentSize)
+        {
+            if (log.isInfoEnabled()) log.info("Resizing worker thread pool from " + currentSize + " to " + newSize + " threads (" + reason + ").");
+            resize(threadPool, newSize);
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * This class counts the units of work an import has submitted that haven't yet finished (queued + running), and
+ * signals completion of the import once there are none outstanding.
+ *
+ * Each unit of work is counted <i>before</i> it's submitted and uncounted once it's finished (or discarded), and a
+ * unit of work submits its sub-directories before it finishes, so the count can only reach zero once the entire import
+ * is done.
+ *
+ * Instances are only used for a single import.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+final class UnitOfWorkCounter
+{
+    private final AtomicLong     outstanding = new AtomicLong();
+    private final CountDownLatch complete    = new CountDownLatch(1);
+
+
+    /**
+     * Submits the given unit of work to the given executor.  If the executor rejects it, it's uncounted again before
+     * the rejection is rethrown.
+     *
+     * @param executor   The executor to submit the unit of work to <i>(must not be null)</i>.
+     * @param unitOfWork The unit of work to submit <i>(must not be null)</i>.
+     * @throws RejectedExecutionException If the executor rejected the unit of work.
+     */
+    void submit(final Executor executor, final Runnable unitOfWork)
+    {
+        // PRECONDITIONS
+        assert executor   != null : "executor must not be null.";
+        assert unitOfWork != null : "unitOfWork must not be null.";
+
+        // Body
+        outstanding.incrementAndGet();
+
+        try
+        {
+            executor.execute(unitOfWork);
+        }
+        catch (final RejectedExecutionException ree)
+        {
+            finished(1);
+            throw ree;
+        }
+    }
+
+
+    /**
+     * Notes that the given number of units of work have finished (or will never run), and signals completion once there
+     * are none outstanding.
+     *
+     * @param numberOfUnitsOfWork The number of units of work that finished.
+     */
+    void finished(final long numberOfUnitsOfWork)
+    {
+        if (numberOfUnitsOfWork > 0 && outstanding.addAndGet(-numberOfUnitsOfWork) <= 0)
+        {
+            complete.countDown();
+        }
+    }
+
+
+    /**
+     * @return The number of units of work submitted that haven't yet finished.
+     */
+    long getOutstanding()
+    {
+        return(Math.max(0, outstanding.get()));
+    }
+
+
+    /**
+     * @return True if there are no units of work outstanding.
+     */
+    boolean isComplete()
+    {
+        return(complete.getCount() == 0);
+    }
+
+
+    /**
+     * Waits until there are no units of work outstanding.
+     *
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    void awaitCompletion()
+        throws InterruptedException
+    {
+        complete.await();
+    }
+
+
+    /**
+     * Waits until there are no units of work outstanding, or the given time has elapsed.
+     *
+     * @param timeout The maximum time to wait.
+     * @param unit    The unit of the timeout <i>(must not be null)</i>.
+     * @return True if there are no units of work outstanding, false if the time elapsed first.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    boolean awaitCompletion(final long timeout, final TimeUnit unit)
+        throws InterruptedException
+    {
+        return(complete.await(timeout, unit));
+    }
+
+}
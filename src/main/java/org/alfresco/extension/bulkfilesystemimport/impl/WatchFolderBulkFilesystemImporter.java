@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.alfresco.extension.bulkfilesystemimport.util.DataDictionaryBuilder;
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.repo.policy.BehaviourFilter;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.NodeRef;
+
+
+/**
+ * Bulk Filesystem Importer that asynchronously imports the source (as per the single threaded importer), then continues
+ * to watch it for new and modified files, importing them in micro-batches as they land.  The import remains in progress
+ * until it is explicitly stopped.
+ *
+ * Files are only imported once they've been quiet for <code>quietPeriod</code> ms (so that partially written files aren't
+ * imported), and settled files are imported at least every <code>latencyTarget - quietPeriod</code> ms.  Modified files
+ * are only re-imported if "replace existing" was requested - combining this with delta mode keeps the cost of spurious
+ * events (e.g. touched but unchanged files) to a read-only lookup.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public class WatchFolderBulkFilesystemImporter
+    extends AsynchronousSingleThreadedBulkFilesystemImporter
+{
+    private final static Log log = LogFactory.getLog(WatchFolderBulkFilesystemImporter.class);
+
+    private final static long DEFAULT_QUIET_PERIOD_IN_MS   = 2000;
+    private final static long DEFAULT_LATENCY_TARGET_IN_MS = 5000;
+    private final static long MINIMUM_FLUSH_INTERVAL_IN_MS = 100;
+
+    private long quietPeriod   = DEFAULT_QUIET_PERIOD_IN_MS;
+    private long latencyTarget = DEFAULT_LATENCY_TARGET_IN_MS;
+
+
+    public WatchFolderBulkFilesystemImporter(final ServiceRegistry       serviceRegistry,
+                                             final BehaviourFilter       behaviourFilter,
+                                             final ContentStore          configuredContentStore,
+                                             final BulkImportStatusImpl  importStatus,
+                                             final DataDictionaryBuilder dataDictionaryBuilder,
+                                             final ThreadFactory         threadFactory)
+    {
+        super(serviceRegistry, behaviourFilter, configuredContentStore, importStatus, dataDictionaryBuilder, threadFactory);
+    }
+
+
+    public final void setQuietPeriod(final long quietPeriod)
+    {
+        if (quietPeriod >= 0)
+        {
+            this.quietPeriod = quietPeriod;
+        }
+    }
+
+    public final void setLatencyTarget(final long latencyTarget)
+    {
+        if (latencyTarget > 0)
+        {
+            this.latencyTarget = latencyTarget;
+        }
+    }
+
+
+    /**
+     * Every directory has to be registered with the watcher before it's imported, so descendants can't be coalesced.
+     * 
+     * @see org.alfresco.extension.bulkfilesystemimport.impl.AbstractBulkFilesystemImporter#supportsCoalescing()
+     */
+    @Override
+    protected boolean supportsCoalescing()
+    {
+        return(false);
+    }
+
+
+    /**
+     * @see org.alfresco.extension.bulkfilesystemimport.impl.AsynchronousSingleThreadedBulkFilesystemImporter#importSource(org.alfresco.service.cmr.repository.NodeRef, java.io.File, boolean, boolean)
+     */
+    @Override
+    protected void importSource(final NodeRef target,
+                                final File    source,
+                                final boolean replaceExisting,
+                                final boolean inPlaceImport)
+        throws Throwable
+    {
+        final String             sourceRoot = getFileName(source);
+        final SourceWatcher      watcher    = new SourceWatcher(quietPeriod);
+        final Map<File, NodeRef> targets    = new HashMap<File, NodeRef>();
+
+        try
+        {
+            // Catch up with whatever is already in the source, then import changes as they happen
+            importAndWatchRecursively(watcher, targets, target, false, sourceRoot, source, replaceExisting, inPlaceImport);
+            postProcess();
+
+            if (log.isInfoEnabled()) log.info("Initial import from '" + sourceRoot + "' complete - watching " + targets.size() + " director" + (targets.size() == 1 ? "y" : "ies") + " for changes.");
+
+            watchForChanges(watcher, targets, sourceRoot, replaceExisting, inPlaceImport);
+        }
+        catch (final InterruptedException ie)
+        {
+            // Stopping is the only way a watch-folder import ends, so it's not a failure
+            if (!importStatus.isStopping()) throw ie;
+        }
+        finally
+        {
+            watcher.close();
+        }
+    }
+
+
+    /*
+     * Imports the given directory and all of its sub-directories, watching each one for changes.  Each directory is
+     * registered _before_ it's imported, so that files that land while it's being imported aren't missed.
+     */
+    private final void importAndWatchRecursively(final SourceWatcher      watcher,
+                                                 final Map<File, NodeRef> targets,
+                                                 final NodeRef            target,
+                                                 final boolean            targetIsNew,
+                                                 final String             sourceRoot,
+                                                 final File               source,
+                                                 final boolean            replaceExisting,
+                                                 final boolean            inPlaceImport)
+        throws InterruptedException
+    {
+        if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
+
+        if (watcher.register(source))
+        {
+            targets.put(source, target);
+        }
+
+        final List<Triple<NodeRef, File, Boolean>> subDirectories = importDirectory(target, targetIsNew, sourceRoot, source, replaceExisting, inPlaceImport);
+
+        for (final Triple<NodeRef, File, Boolean> subDirectory : subDirectories)
+        {
+            if (subDirectory != null)
+            {
+                importAndWatchRecursively(watcher, targets, subDirectory.getFirst(), subDirectory.getThird(), sourceRoot, subDirectory.getSecond(), replaceExisting, inPlaceImport);
+            }
+        }
+    }
+
+
+    private final void watchForChanges(final SourceWatcher      watcher,
+                                       final Map<File, NodeRef> targets,
+                                       final String             sourceRoot,
+                                       final boolean            replaceExisting,
+                                       final boolean            inPlaceImport)
+        throws InterruptedException
+    {
+        final long flushIntervalNs = TimeUnit.MILLISECONDS.toNanos(Math.max(MINIMUM_FLUSH_INTERVAL_IN_MS, latencyTarget - quietPeriod));
+        long       nextFlushNs     = System.nanoTime() + flushIntervalNs;
+
+        while (true)
+        {
+            if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted.  Terminating early.");
+
+            importStatus.setCurrentFileBeingProcessed("Watching '" + sourceRoot + "' (" + watcher.getNumberOfPendingChanges() + " pending changes)");
+            watcher.awaitChanges(TimeUnit.NANOSECONDS.toMillis(Math.max(0, nextFlushNs - System.nanoTime())));
+
+            if (System.nanoTime() - nextFlushNs >= 0)
+            {
+                importSettledChanges(watcher, targets, sourceRoot, replaceExisting, inPlaceImport);
+                postProcess();
+                nextFlushNs = System.nanoTime() + flushIntervalNs;
+            }
+        }
+    }
+
+
+    private final void importSettledChanges(final SourceWatcher      watcher,
+                                            final Map<File, NodeRef> targets,
+                                            final String             sourceRoot,
+                                            final boolean            replaceExisting,
+                                            final boolean            inPlaceImport)
+        throws InterruptedException
+    {
+        final Map<File, Set<String>> changes = watcher.takeSettledChanges();
+
+        for (final Map.Entry<File, Set<String>> change : changes.entrySet())
+        {
+            final File    directory = change.getKey();
+            final NodeRef target    = targets.get(directory);
+
+            if (target == null)
+            {
+                if (log.isDebugEnabled()) log.debug("Ignoring changes to '" + getFileName(directory) + "' as it isn't being watched.");
+                continue;
+            }
+
+            if (log.isDebugEnabled()) log.debug("Importing " + change.getValue().size() + " changed file(s) in '" + getFileName(directory) + "'.");
+
+            try
+            {
+                final List<Triple<NodeRef, File, Boolean>> subDirectories = importChangedItems(target, sourceRoot, directory, change.getValue(), replaceExisting, inPlaceImport);
+
+                // Any sub-directories we haven't seen before are new, so import them (and start watching them) in their entirety
+                for (final Triple<NodeRef, File, Boolean> subDirectory : subDirectories)
+                {
+                    if (subDirectory != null && !watcher.isWatched(subDirectory.getSecond()))
+                    {
+                        importAndWatchRecursively(watcher, targets, subDirectory.getFirst(), subDirectory.getThird(), sourceRoot, subDirectory.getSecond(), replaceExisting, inPlaceImport);
+                    }
+                }
+            }
+            catch (final RuntimeException re)
+            {
+                // A long running watch shouldn't be brought down by a single bad drop - log it and carry on
+                if (log.isErrorEnabled()) log.error("Unable to import changes to '" + getFileName(directory) + "'.  They will be retried if they change again.", re);
+            }
+        }
+    }
+
+}
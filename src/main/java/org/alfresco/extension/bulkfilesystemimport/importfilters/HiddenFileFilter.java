@@ -27,6 +27,7 @@ import org.alfresco.extension.bulkfilesystemimport.ImportableItem;
  * This class is an <code>ImportFilter</code> that filters out hidden files.
  * 
  * The exact definition of "hidden" is OS dependent - see http://download.oracle.com/javase/6/docs/api/java/io/File.html#isHidden() for details.
+ * The hidden flag is read from the attribute snapshot taken during directory analysis, so this filter doesn't go back to disk.
  *
  * @author Peter Monks (pmonks@alfresco.com)
  */
@@ -43,7 +44,7 @@ public class HiddenFileFilter
         
         if (importableItem.getHeadRevision().contentFileExists())
         {
-            result = importableItem.getHeadRevision().getContentFile().isHidden();
+            result = importableItem.getHeadRevision().getContentFileAttributes().isHidden();
         }
 
         return(result);
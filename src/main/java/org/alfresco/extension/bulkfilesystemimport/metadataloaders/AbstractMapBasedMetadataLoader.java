@@ -116,7 +116,7 @@ abstract class AbstractMapBasedMetadataLoader
         {
             final File metadataFile = contentAndMetadata.getMetadataFile();
 
-            if (metadataFile.canRead())
+            if (contentAndMetadata.getMetadataFileAttributes().isReadable())
             {
                 Map<String,Serializable> metadataProperties = loadMetadataFromFile(metadataFile);
                 String                   separator          = defaultSeparator;
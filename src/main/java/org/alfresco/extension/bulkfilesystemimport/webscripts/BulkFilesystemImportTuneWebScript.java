@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ * 
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.webscripts;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.extensions.webscripts.Cache;
+import org.springframework.extensions.webscripts.DeclarativeWebScript;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptException;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+
+import org.alfresco.extension.bulkfilesystemimport.BulkFilesystemImporter;
+import org.alfresco.extension.bulkfilesystemimport.TunableBulkFilesystemImporter;
+
+
+/**
+ * Web Script class that changes the number of worker threads and / or the batch weight of the bulk import in progress,
+ * without having to stop and restart it.
+ *
+ * @author Peter Monks (peter.monks@alfresco.com)
+ */
+public class BulkFilesystemImportTuneWebScript
+    extends DeclarativeWebScript
+{
+    private final static Log log = LogFactory.getLog(BulkFilesystemImportTuneWebScript.class);
+    
+    // Web Script parameters
+    private final static String PARAMETER_THREADS      = "threads";
+    private final static String PARAMETER_BATCH_WEIGHT = "batchWeight";
+    
+    private final BulkFilesystemImporter importer;
+    
+    
+    public BulkFilesystemImportTuneWebScript(final BulkFilesystemImporter importer)
+    {
+        // PRECONDITIONS
+        assert importer != null : "importer must not be null.";
+        
+        //BODY
+        this.importer = importer;
+    }    
+
+    
+    /**
+     * @see org.springframework.extensions.webscripts.DeclarativeWebScript#executeImpl(org.springframework.extensions.webscripts.WebScriptRequest, org.springframework.extensions.webscripts.Status, org.springframework.extensions.webscripts.Cache)
+     */
+    @Override
+    protected Map<String, Object> executeImpl(final WebScriptRequest request, final Status status, final Cache cache)
+    {
+        Map<String, Object> result      = new HashMap<String, Object>();
+        List<String>        messages    = new ArrayList<String>();
+        Integer             threads     = parsePositiveInteger(request, PARAMETER_THREADS);
+        Integer             batchWeight = parsePositiveInteger(request, PARAMETER_BATCH_WEIGHT);
+
+        cache.setNeverCache(true);
+        
+        if (!importer.getStatus().inProgress())
+        {
+            messages.add("No imports are in progress.");
+        }
+        else if (!(importer instanceof TunableBulkFilesystemImporter))
+        {
+            messages.add("The configured importer doesn't support tuning an import in progress.");
+        }
+        else if (threads == null && batchWeight == null)
+        {
+            messages.add("Nothing to change - provide parameter '" + PARAMETER_THREADS + "' and / or parameter '" + PARAMETER_BATCH_WEIGHT + "'.");
+        }
+        else
+        {
+            final TunableBulkFilesystemImporter tunableImporter = (TunableBulkFilesystemImporter)importer;
+            
+            if (threads != null)
+            {
+                if (tunableImporter.resizeThreadPool(threads))
+                {
+                    messages.add("Number of worker threads changed to " + threads + ".");
+                }
+                else
+                {
+                    messages.add("The number of worker threads of this importer can't be changed during an import.");
+                }
+            }
+            
+            if (batchWeight != null)
+            {
+                if (tunableImporter.changeBatchWeight(batchWeight))
+                {
+                    messages.add("Batch weight changed to " + importer.getStatus().getBatchWeight() + ".");
+                }
+                else
+                {
+                    messages.add("Unable to change the batch weight - the import may have just finished.");
+                }
+            }
+        }
+        
+        if (log.isDebugEnabled()) log.debug("Tune request processed: " + String.valueOf(messages));
+        
+        result.put("message", join(messages));
+        
+        return(result);
+    }
+    
+    
+    private final Integer parsePositiveInteger(final WebScriptRequest request, final String parameterName)
+    {
+        String  value  = request.getParameter(parameterName);
+        Integer result = null;
+        
+        if (value != null && value.trim().length() > 0)
+        {
+            try
+            {
+                result = Integer.valueOf(value.trim());
+            }
+            catch (final NumberFormatException nfe)
+            {
+                throw new WebScriptException(Status.STATUS_BAD_REQUEST, "Error: parameter '" + parameterName + "' must be a whole number, but was '" + value + "'.", nfe);
+            }
+            
+            if (result <= 0)
+            {
+                throw new WebScriptException(Status.STATUS_BAD_REQUEST, "Error: parameter '" + parameterName + "' must be greater than zero, but was " + result + ".");
+            }
+        }
+        
+        return(result);
+    }
+    
+    
+    private final String join(final List<String> messages)
+    {
+        StringBuilder result = new StringBuilder();
+        
+        for (final String message : messages)
+        {
+            if (result.length() > 0)
+            {
+                result.append("  ");
+            }
+            
+            result.append(message);
+        }
+        
+        return(result.toString());
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+
+/**
+ * Compares the heap used by, and the throughput of, representing every file in a synthetic source tree as an absolute
+ * <code>File</code> with a canonical path (the previous approach) against a <code>SourcePath</code> tree plus leaf
+ * names (the current approach).
+ *
+ * This isn't a unit test (it takes a while, and the numbers need a human to interpret them) - run it by hand:
+ * <pre>java -cp ... org.alfresco.extension.bulkfilesystemimport.SourcePathBenchmark [depth] [directoriesPerDirectory] [filesPerDirectory]</pre>
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public class SourcePathBenchmark
+{
+    private final static int ROUNDS = 5;
+
+
+    public static void main(final String[] args)
+        throws Exception
+    {
+        final int  depth                   = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        final int  directoriesPerDirectory = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+        final int  filesPerDirectory       = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        final File root                    = new File(System.getProperty("java.io.tmpdir"), "SourcePathBenchmark-" + System.nanoTime());
+
+        try
+        {
+            final int numberOfFiles = createTree(root, depth, directoriesPerDirectory, filesPerDirectory);
+
+            System.out.println("Synthetic tree: " + numberOfFiles + " files, depth " + depth + ", " + directoriesPerDirectory + " sub-directories and " + filesPerDirectory + " files per directory.");
+
+            for (int round = 1; round <= ROUNDS; round++)
+            {
+                final Result files       = measure(new FileWalker(),       root);
+                final Result sourcePaths = measure(new SourcePathWalker(), root);
+
+                System.out.println("Round " + round + ":");
+                System.out.println("  File:       " + files);
+                System.out.println("  SourcePath: " + sourcePaths);
+            }
+        }
+        finally
+        {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+
+    private static int createTree(final File directory, final int depth, final int directoriesPerDirectory, final int filesPerDirectory)
+        throws IOException
+    {
+        int result = 0;
+
+        if (!directory.mkdirs() && !directory.isDirectory())
+        {
+            throw new IOException("Unable to create " + directory);
+        }
+
+        for (int i = 0; i < filesPerDirectory; i++)
+        {
+            FileUtils.writeStringToFile(new File(directory, "document-" + i + ".txt"), String.valueOf(i));
+            result++;
+        }
+
+        if (depth > 0)
+        {
+            for (int i = 0; i < directoriesPerDirectory; i++)
+            {
+                result += createTree(new File(directory, "folder-" + i), depth - 1, directoriesPerDirectory, filesPerDirectory);
+            }
+        }
+
+        return(result);
+    }
+
+
+    private static Result measure(final Walker walker, final File root)
+        throws IOException
+    {
+        final List<Object> retained = new ArrayList<Object>();
+        final long         before   = usedHeap();
+        final long         start    = System.nanoTime();
+
+        final long numberOfFiles = walker.walk(root, retained);
+
+        final long end   = System.nanoTime();
+        final long after = usedHeap();
+
+        return(new Result(numberOfFiles, end - start, after - before, retained.size()));
+    }
+
+
+    private static long usedHeap()
+    {
+        final Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++)
+        {
+            System.gc();
+        }
+
+        return(runtime.totalMemory() - runtime.freeMemory());
+    }
+
+
+    private interface Walker
+    {
+        /**
+         * Walks the tree, adding whatever would be held for the duration of an import to <code>retained</code>.
+         * @return The number of files walked.
+         */
+        long walk(File directory, List<Object> retained) throws IOException;
+    }
+
+
+    private final static class FileWalker
+        implements Walker
+    {
+        @Override
+        public long walk(final File directory, final List<Object> retained)
+            throws IOException
+        {
+            long result = 0;
+
+            for (final File file : directory.listFiles())
+            {
+                retained.add(file);
+                retained.add(file.getCanonicalPath());  // What the status and logging previously used
+                result++;
+
+                if (file.isDirectory())
+                {
+                    result += walk(file, retained);
+                }
+            }
+
+            return(result);
+        }
+    }
+
+
+    private final static class SourcePathWalker
+        implements Walker
+    {
+        @Override
+        public long walk(final File directory, final List<Object> retained)
+            throws IOException
+        {
+            final SourcePath directoryPath = SourcePath.forDirectory(directory);
+            long             result        = 0;
+
+            retained.add(directoryPath);
+
+            for (final String leafName : directory.list())
+            {
+                final File file = directoryPath.childFile(leafName);
+
+                retained.add(leafName);
+                directoryPath.getCanonicalPath(leafName);  // Derived on demand, so not retained
+                result++;
+
+                if (file.isDirectory())
+                {
+                    result += walk(file, retained);
+                }
+            }
+
+            return(result);
+        }
+    }
+
+
+    private final static class Result
+    {
+        private final long numberOfFiles;
+        private final long durationNs;
+        private final long heapBytes;
+        private final int  numberOfObjects;
+
+        private Result(final long numberOfFiles, final long durationNs, final long heapBytes, final int numberOfObjects)
+        {
+            this.numberOfFiles   = numberOfFiles;
+            this.durationNs      = durationNs;
+            this.heapBytes       = heapBytes;
+            this.numberOfObjects = numberOfObjects;
+        }
+
+        @Override
+        public String toString()
+        {
+            return(String.format("%,d files/s, %,d bytes retained (%,d bytes/file, %,d objects)",
+                                 (long)(numberOfFiles * 1000000000.0 / Math.max(1, durationNs)),
+                                 heapBytes,
+                                 heapBytes / Math.max(1, numberOfFiles),
+                                 numberOfObjects));
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.alfresco.extension.bulkfilesystemimport.DirectoryAnalyser;
+import org.alfresco.extension.bulkfilesystemimport.MetadataLoader;
+import org.alfresco.extension.bulkfilesystemimport.impl.FilenameClassifier.Classification;
+import org.alfresco.extension.bulkfilesystemimport.impl.FilenameClassifier.Kind;
+import org.junit.Test;
+
+
+/**
+ * Table driven tests proving that <code>FilenameClassifier</code> classifies filenames the same way as the regex based
+ * logic it replaced (which is reproduced here as {@link #legacyClassify(String)}).
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public class FilenameClassifierTest
+{
+    private final static String METADATA_SUFFIX = MetadataLoader.METADATA_SUFFIX + "properties.xml";
+
+    // Filename, expected kind, expected parent filename, expected version label (null if not a version file)
+    private final static Object[][] EXPECTED =
+    {
+        { "foo.txt",                                     Kind.CONTENT,          "foo.txt",                    null  },
+        { "foo",                                         Kind.CONTENT,          "foo",                        null  },
+        { "foo.txt.metadata.properties.xml",             Kind.METADATA,         "foo.txt",                    null  },
+        { "foo.metadata.properties.xml",                 Kind.METADATA,         "foo",                        null  },
+        { "foo.txt.v1",                                  Kind.CONTENT_VERSION,  "foo.txt",                    "1.0" },
+        { "foo.txt.v1.2",                                Kind.CONTENT_VERSION,  "foo.txt",                    "1.2" },
+        { "foo.txt.v10.20",                              Kind.CONTENT_VERSION,  "foo.txt",                    "10.20" },
+        { "foo.txt.v007",                                Kind.CONTENT_VERSION,  "foo.txt",                    "7.0" },
+        { "foo.txt.metadata.properties.xml.v3",          Kind.METADATA_VERSION, "foo.txt",                    "3.0" },
+        { "foo.txt.metadata.properties.xml.v3.1",        Kind.METADATA_VERSION, "foo.txt",                    "3.1" },
+        { "foo.v1.v2",                                   Kind.CONTENT_VERSION,  "foo.v1",                     "2.0" },
+        { "foo.txt.v",                                   Kind.CONTENT,          "foo.txt.v",                  null  },
+        { "foo.txt.v1.",                                 Kind.CONTENT,          "foo.txt.v1.",                null  },
+        { "foo.txt.v1.2.3",                              Kind.CONTENT,          "foo.txt.v1.2.3",             null  },
+        { "foo.txt.V1",                                  Kind.CONTENT,          "foo.txt.V1",                 null  },
+        { "foo.txt.va",                                  Kind.CONTENT,          "foo.txt.va",                 null  },
+        { "foo.txtv1",                                   Kind.CONTENT,          "foo.txtv1",                  null  },
+        { ".v1",                                         Kind.CONTENT,          ".v1",                        null  },
+        { "a.v1",                                        Kind.CONTENT_VERSION,  "a",                          "1.0" },
+        { "1.2",                                         Kind.CONTENT,          "1.2",                        null  },
+        { "foo.v1.2.metadata.properties.xml",            Kind.METADATA,         "foo.v1.2",                   null  },
+        { "foo.metadata.properties.xml.metadata.properties.xml", Kind.METADATA, "foo.metadata.properties.xml", null },
+        { "foo.metadata.properties.xmlx",                Kind.CONTENT,          "foo.metadata.properties.xmlx", null },
+        { "foo.metadata.properties",                     Kind.CONTENT,          "foo.metadata.properties",    null  },
+        { "metadata.properties.xml",                     Kind.CONTENT,          "metadata.properties.xml",    null  },
+        { ".metadata.properties.xml",                    Kind.METADATA,         "",                           null  },
+        { "v1",                                          Kind.CONTENT,          "v1",                         null  },
+        { "foo bar.txt.v2.0",                            Kind.CONTENT_VERSION,  "foo bar.txt",                "2.0" }
+    };
+
+    private final static Pattern VERSION_SUFFIX_PATTERN = Pattern.compile(".+" + DirectoryAnalyser.VERSION_SUFFIX_REGEX);
+
+    private final FilenameClassifier classifier = new FilenameClassifier(METADATA_SUFFIX);
+
+
+    @Test
+    public void testExpectedClassifications()
+    {
+        for (final Object[] row : EXPECTED)
+        {
+            final String         filename       = (String)row[0];
+            final Classification classification = classifier.classify(filename);
+
+            assertEquals(filename, row[1], classification.getKind());
+            assertEquals(filename, row[2], classification.getParentFilename());
+            assertEquals(filename, row[3], versionLabel(classification));
+        }
+    }
+
+
+    @Test
+    public void testMatchesLegacyRegexes()
+    {
+        for (final Object[] row : EXPECTED)
+        {
+            final String filename = (String)row[0];
+
+            assertEquals(filename, legacyClassify(filename), describe(classifier.classify(filename)));
+        }
+    }
+
+
+    @Test
+    public void testStripVersionSuffixMatchesLegacyRegex()
+    {
+        for (final Object[] row : EXPECTED)
+        {
+            final String filename = (String)row[0];
+            final String expected = VERSION_SUFFIX_PATTERN.matcher(filename).matches() ?
+                                    filename.replaceFirst(DirectoryAnalyser.VERSION_SUFFIX_REGEX, "") : filename;
+
+            assertEquals(filename, expected, FilenameClassifier.stripVersionSuffix(filename));
+        }
+    }
+
+
+    @Test
+    public void testNoMetadataSuffix()
+    {
+        final FilenameClassifier noMetadata = new FilenameClassifier(null);
+
+        assertEquals(Kind.CONTENT,         noMetadata.classify("foo.txt.metadata.properties.xml").getKind());
+        assertEquals(Kind.CONTENT_VERSION, noMetadata.classify("foo.txt.metadata.properties.xml.v3").getKind());
+        assertEquals("foo.txt.metadata.properties.xml", noMetadata.classify("foo.txt.metadata.properties.xml.v3").getParentFilename());
+    }
+
+
+    /*
+     * The classification logic from DirectoryAnalyserImpl prior to FilenameClassifier (isVersionFile, isMetadataFile,
+     * getParentOfVersionFile, getParentOfMetadatafile and getVersionLabel), operating on names rather than Files.
+     */
+    private static String legacyClassify(final String filename)
+    {
+        String result = null;
+
+        if (VERSION_SUFFIX_PATTERN.matcher(filename).matches())
+        {
+            String parentFilename = filename.replaceFirst(DirectoryAnalyser.VERSION_SUFFIX_REGEX, "");
+            Kind   kind           = Kind.CONTENT_VERSION;
+
+            if (parentFilename.endsWith(METADATA_SUFFIX))
+            {
+                parentFilename = parentFilename.substring(0, parentFilename.length() - METADATA_SUFFIX.length());
+                kind           = Kind.METADATA_VERSION;
+            }
+
+            final Matcher matcher         = VERSION_SUFFIX_PATTERN.matcher(filename);
+            matcher.matches();
+            final String  majorVersionStr = matcher.group(2);
+            final String  minorVersionStr = matcher.group(4);
+
+            result = kind + "|" + parentFilename + "|" + Integer.parseInt(majorVersionStr) + "." + (minorVersionStr == null ? 0 : Integer.parseInt(minorVersionStr));
+        }
+        else if (filename.endsWith(METADATA_SUFFIX))
+        {
+            result = Kind.METADATA + "|" + filename.substring(0, filename.length() - METADATA_SUFFIX.length()) + "|" + null;
+        }
+        else
+        {
+            result = Kind.CONTENT + "|" + filename + "|" + null;
+        }
+
+        return(result);
+    }
+
+
+    private static String describe(final Classification classification)
+    {
+        return(classification.getKind() + "|" + classification.getParentFilename() + "|" + versionLabel(classification));
+    }
+
+
+    private static String versionLabel(final Classification classification)
+    {
+        return(classification.isVersion() ? classification.getMajorVersion() + "." + classification.getMinorVersion() : null);
+    }
+
+}
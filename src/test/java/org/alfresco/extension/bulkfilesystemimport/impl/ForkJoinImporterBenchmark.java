@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.io.File;
+
+import org.alfresco.extension.bulkfilesystemimport.BulkImportStatus.PipelineStage;
+import org.alfresco.extension.bulkfilesystemimport.BulkImportStatus.PipelineStageStatus;
+import org.alfresco.extension.bulkfilesystemimport.BulkImportStatus.ProcessingState;
+import org.alfresco.extension.bulkfilesystemimport.MetadataLoader;
+import org.alfresco.extension.bulkfilesystemimport.executorfactories.PlatformThreadExecutorFactory;
+import org.alfresco.extension.bulkfilesystemimport.util.DataDictionaryBuilder;
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.repo.policy.BehaviourFilter;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.ServiceRegistry;
+import org.apache.commons.io.FileUtils;
+
+
+/**
+ * Compares the fork/join importer with the multi-threaded importer, on a deep synthetic tree (a binary tree of
+ * directories) and a wide one (one directory with thousands of sub-directories), with the same number of worker threads.
+ *
+ * Both importers run unmodified against a simulated repository (see {@link SimulatedRepository}), in which every
+ * repository write and every commit blocks for a configurable latency (standing in for database round trips), so the
+ * figures reflect how each importer schedules the same work.  For each run it reports:
+ * <ul>
+ *   <li>the elapsed time and throughput;</li>
+ *   <li>the peak number of pending directories (the depth of the worker pool's queue(s), sampled every millisecond);</li>
+ *   <li>the proportion of directories imported by the same thread that created the directory's node - a proxy for
+ *       locality, since a thread that stays within one subtree re-reads the parent directories and nodes it has just
+ *       written.</li>
+ * </ul>
+ * Content staging and metadata preparation are disabled, so that only the worker threads do any work.  Absolute figures
+ * from a simulated repository say nothing about a real one - run the importers against a real repository before
+ * choosing between them.
+ *
+ * This isn't a unit test - run it by hand:
+ * <pre>java -cp ... org.alfresco.extension.bulkfilesystemimport.impl.ForkJoinImporterBenchmark [threads] [writeLatencyInUs] [commitLatencyInUs] [runs]</pre>
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public class ForkJoinImporterBenchmark
+{
+    private final static int DEEP_TREE_DEPTH  = 10;    // 2^11 - 1 = 2,047 directories
+    private final static int DEEP_TREE_FANOUT = 2;
+    private final static int WIDE_TREE_FANOUT = 2000;  // 2,001 directories
+    private final static int FILES_PER_DIR    = 4;
+
+    private enum Importer { MULTI_THREADED, FORK_JOIN }
+
+
+    public static void main(final String[] args)
+        throws Throwable
+    {
+        final int  threads           = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        final long writeLatencyInUs  = args.length > 1 ? Long.parseLong(args[1])    : 200;
+        final long commitLatencyInUs = args.length > 2 ? Long.parseLong(args[2])    : 2000;
+        final int  runs              = args.length > 3 ? Integer.parseInt(args[3])  : 3;
+        final File root              = new File(System.getProperty("java.io.tmpdir"), "ForkJoinImporterBenchmark-" + System.nanoTime());
+        final File deep              = new File(root, "deep");
+        final File wide              = new File(root, "wide");
+
+        AuthenticationUtil.setFullyAuthenticatedUser(AuthenticationUtil.getSystemUserName());
+
+        try
+        {
+            createTree(deep, DEEP_TREE_DEPTH, DEEP_TREE_FANOUT);
+            createTree(wide, 1, WIDE_TREE_FANOUT);
+
+            System.out.println(threads + " worker threads, " + writeLatencyInUs + "us per repository write, " + commitLatencyInUs + "us per commit, " + FILES_PER_DIR + " files per directory.");
+
+            for (final File tree : new File[] { deep, wide })
+            {
+                System.out.println();
+                System.out.println(tree.getName() + " tree:");
+
+                for (int i = 0; i <= runs; i++)
+                {
+                    for (final Importer importer : Importer.values())
+                    {
+                        final Result result = run(importer, tree, threads, writeLatencyInUs * 1000, commitLatencyInUs * 1000);
+
+                        // The first run of each importer is a warm up
+                        if (i > 0)
+                        {
+                            System.out.println(String.format("    %-14s run %d: %,7d ms, %,8.0f nodes/s, peak pending directories %,6d, directories imported by the thread that created them %5.1f%%",
+                                                             importer, i, result.elapsedMs, result.nodes * 1000.0 / Math.max(1, result.elapsedMs), result.peakPending, result.locality * 100));
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+
+    private static void createTree(final File directory, final int depth, final int fanout)
+        throws Exception
+    {
+        for (int i = 0; i < FILES_PER_DIR; i++)
+        {
+            FileUtils.writeStringToFile(new File(directory, "document-" + i + ".txt"), "Document " + i);
+        }
+
+        if (depth > 0)
+        {
+            for (int i = 0; i < fanout; i++)
+            {
+                createTree(new File(directory, "folder-" + i), depth - 1, fanout);
+            }
+        }
+    }
+
+
+    private static Result run(final Importer importer, final File source, final int threads, final long writeLatencyNs, final long commitLatencyNs)
+        throws Throwable
+    {
+        final SimulatedRepository            repository = new SimulatedRepository(writeLatencyNs, commitLatencyNs);
+        final BulkImportStatusImpl           status     = new BulkImportStatusImpl();
+        final AbstractBulkFilesystemImporter bulkImporter;
+        final Result                         result     = new Result();
+
+        if (importer == Importer.MULTI_THREADED)
+        {
+            final MultiThreadedBulkFilesystemImporter multiThreaded = new MultiThreadedBulkFilesystemImporter(repository.stub(ServiceRegistry.class),
+                                                                                                              repository.stub(BehaviourFilter.class),
+                                                                                                              repository.stub(ContentStore.class),
+                                                                                                              status,
+                                                                                                              repository.stub(DataDictionaryBuilder.class));
+            multiThreaded.setExecutorFactory(new PlatformThreadExecutorFactory(threads, threads, -1, null, -1));
+            bulkImporter = multiThreaded;
+        }
+        else
+        {
+            final ForkJoinBulkFilesystemImporter forkJoin = new ForkJoinBulkFilesystemImporter(repository.stub(ServiceRegistry.class),
+                                                                                               repository.stub(BehaviourFilter.class),
+                                                                                               repository.stub(ContentStore.class),
+                                                                                               status,
+                                                                                               repository.stub(DataDictionaryBuilder.class));
+            forkJoin.setParallelism(threads);
+            bulkImporter = forkJoin;
+        }
+
+        final MetadataLoader metadataLoader = new SimulatedRepository.NoMetadataLoader();
+
+        bulkImporter.setMetadataLoader(metadataLoader);
+        bulkImporter.setDirectoryAnalyser(new DirectoryAnalyserImpl(metadataLoader, status));
+        bulkImporter.setDisabledBehaviours("*");
+        bulkImporter.setContentStagingEnabled(false);
+        bulkImporter.setMetadataPreparationEnabled(false);
+
+        final long startNs = System.nanoTime();
+
+        bulkImporter.bulkImport(SimulatedRepository.TARGET, source, false);
+
+        while (status.inProgress())
+        {
+            for (final PipelineStageStatus stage : status.getPipelineStages())
+            {
+                if (stage.getStage() == PipelineStage.COMMIT)
+                {
+                    result.peakPending = Math.max(result.peakPending, stage.getQueueDepth());
+                }
+            }
+
+            Thread.sleep(1);
+        }
+
+        result.elapsedMs = (System.nanoTime() - startNs) / 1000000;
+
+        if (status.getProcessingState() != ProcessingState.SUCCESSFUL)
+        {
+            throw new IllegalStateException(importer + " import of '" + source + "' didn't succeed: " + status.getProcessingState(), status.getLastException());
+        }
+
+        result.nodes    = repository.nodesCreated.get();
+        result.locality = (double)repository.childrenCreatedByParentsCreator.get() / Math.max(1, repository.childrenCreatedInNewFolders.get());
+
+        return(result);
+    }
+
+
+    private final static class Result
+    {
+        private long   elapsedMs   = 0;
+        private long   nodes       = 0;
+        private int    peakPending = 0;
+        private double locality    = 0;
+    }
+
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.io.File;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.alfresco.extension.bulkfilesystemimport.ImportableItem;
+import org.alfresco.extension.bulkfilesystemimport.MetadataLoader;
+import org.alfresco.extension.bulkfilesystemimport.util.DataDictionaryBuilder;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.repo.policy.BehaviourFilter;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.dictionary.ClassDefinition;
+import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.cmr.dictionary.PropertyDefinition;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.namespace.QName;
+import org.apache.commons.io.FileUtils;
+
+
+/**
+ * Counts the repository write calls issued per node created, with and without single call node creation.  Every
+ * repository service the importer uses is replaced by a counting stub, and items are imported via the importer's own
+ * (private) per-item import method, so the figures reflect exactly what the importer asks the repository to do.
+ *
+ * Each counted call issues at least one SQL statement (most issue several, once auditing, policies and the node's
+ * transaction bookkeeping are included), so the write calls per node are a lower bound on, and a reliable proxy for,
+ * the statements issued per node.  Exact statement counts need a live repository with SQL logging enabled.  Note that
+ * writers bound to a node also update the node's content property when they're closed - that write isn't counted.  Both
+ * paths stream content through such a writer (single call creation only writes content once the node exists, so that a
+ * rolled back transaction can't leave orphaned content behind), so this understates both by the same amount.
+ *
+ * This isn't a unit test - run it by hand:
+ * <pre>java -cp ... org.alfresco.extension.bulkfilesystemimport.impl.NodeCreationBenchmark [numberOfFiles] [numberOfDirectories]</pre>
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public class NodeCreationBenchmark
+{
+    // NodeService, ContentService, ContentWriter and VersionService methods that write to the repository
+    private final static Set<String> WRITE_METHODS = new HashSet<String>(Arrays.asList(
+        "createNode", "addAspect", "removeAspect", "setType", "setProperty", "setProperties", "addProperties",
+        "removeProperty", "addChild", "moveNode", "putContent", "createVersion"));
+
+    private final static NodeRef TARGET = new NodeRef("workspace://SpacesStore/benchmark-target");
+
+
+    public static void main(final String[] args)
+        throws Exception
+    {
+        final int  numberOfFiles       = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final int  numberOfDirectories = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final File source              = new File(System.getProperty("java.io.tmpdir"), "NodeCreationBenchmark-" + System.nanoTime());
+
+        try
+        {
+            createSource(source, numberOfFiles, numberOfDirectories);
+
+            System.out.println("Importing " + numberOfFiles + " files and " + numberOfDirectories + " directories, each with 2 metadata properties and 2 aspects.");
+
+            report("Separate calls (singleCallCreate.enabled=false)", run(source, false), numberOfFiles + numberOfDirectories);
+            report("Single call    (singleCallCreate.enabled=true)",  run(source, true),  numberOfFiles + numberOfDirectories);
+        }
+        finally
+        {
+            FileUtils.deleteDirectory(source);
+        }
+    }
+
+
+    private static void createSource(final File source, final int numberOfFiles, final int numberOfDirectories)
+        throws Exception
+    {
+        for (int i = 0; i < numberOfFiles; i++)
+        {
+            FileUtils.writeStringToFile(new File(source, "document-" + i + ".txt"), "Document " + i);
+        }
+
+        for (int i = 0; i < numberOfDirectories; i++)
+        {
+            new File(source, "folder-" + i).mkdirs();
+        }
+    }
+
+
+    private static Map<String, Long> run(final File source, final boolean singleCallCreateEnabled)
+        throws Exception
+    {
+        final Map<String, Long>                   counts   = new TreeMap<String, Long>();
+        final MultiThreadedBulkFilesystemImporter importer = new MultiThreadedBulkFilesystemImporter(stub(ServiceRegistry.class, counts),
+                                                                                                     stub(BehaviourFilter.class, counts),
+                                                                                                     stub(ContentStore.class, counts),
+                                                                                                     new BulkImportStatusImpl(),
+                                                                                                     stub(DataDictionaryBuilder.class, counts));
+        final Method                              importImportableItem = findMethod(AbstractBulkFilesystemImporter.class, "importImportableItem");
+
+        importer.setSingleCallCreateEnabled(singleCallCreateEnabled);
+        importer.setMetadataLoader(new TitledAndAuthoredMetadataLoader());
+        importImportableItem.setAccessible(true);
+
+        for (final File file : source.listFiles())
+        {
+            final ImportableItem importableItem = new ImportableItem(file.getName());
+
+            importableItem.getHeadRevision().setContentFile(file);
+
+            //                          target, sourcePath,           importableItem, replaceExisting, inPlaceImport, sourceSignature, stagedContent, preparedMetadata, childIndex
+            importImportableItem.invoke(importer, TARGET, source.getPath(), importableItem, false,           false,         null,            null,          null,             null);
+        }
+
+        return(counts);
+    }
+
+
+    private static Method findMethod(final Class<?> clazz, final String name)
+    {
+        for (final Method method : clazz.getDeclaredMethods())
+        {
+            if (method.getName().equals(name))
+            {
+                return(method);
+            }
+        }
+
+        throw new IllegalStateException(clazz.getName() + "." + name + " not found.");
+    }
+
+
+    private static void report(final String label, final Map<String, Long> counts, final int numberOfNodes)
+    {
+        long writes = 0;
+        long reads  = 0;
+
+        for (final Map.Entry<String, Long> count : counts.entrySet())
+        {
+            if (WRITE_METHODS.contains(count.getKey().substring(count.getKey().indexOf('.') + 1)))
+            {
+                writes += count.getValue();
+            }
+            else
+            {
+                reads += count.getValue();
+            }
+        }
+
+        System.out.println(label + ": " + String.format("%.2f", (double)writes / numberOfNodes) + " write calls/node, " +
+                                          String.format("%.2f", (double)reads  / numberOfNodes) + " other calls/node");
+
+        for (final Map.Entry<String, Long> count : counts.entrySet())
+        {
+            System.out.println(String.format("    %-40s %,8d", count.getKey(), count.getValue()));
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(final Class<T> serviceInterface, final Map<String, Long> counts)
+    {
+        return((T)Proxy.newProxyInstance(NodeCreationBenchmark.class.getClassLoader(),
+                                         new Class<?>[] { serviceInterface },
+                                         new CountingStub(serviceInterface, counts)));
+    }
+
+
+    /*
+     * Counts every call made to a repository service, and returns just enough for the importer to carry on.  Getters on
+     * the service registry return further counting stubs.
+     */
+    private final static class CountingStub
+        implements InvocationHandler
+    {
+        private final Class<?>                 serviceInterface;
+        private final Map<String, Long>        counts;
+        private final Map<NodeRef, Set<QName>> aspects    = new HashMap<NodeRef, Set<QName>>();
+        private long                           nextNodeId = 0;
+
+        private CountingStub(final Class<?> serviceInterface, final Map<String, Long> counts)
+        {
+            this.serviceInterface = serviceInterface;
+            this.counts           = counts;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args)
+        {
+            final String   name       = method.getName();
+            final Class<?> returnType = method.getReturnType();
+            Object         result     = null;
+
+            if (method.getDeclaringClass() == Object.class)
+            {
+                return(name.equals("equals") ? Boolean.valueOf(proxy == args[0]) : name.equals("hashCode") ? Integer.valueOf(System.identityHashCode(proxy)) : serviceInterface.getSimpleName());
+            }
+
+            if (serviceInterface == ServiceRegistry.class && returnType.isInterface())
+            {
+                return(stub(returnType, counts));
+            }
+
+            // Dictionary lookups are answered from memory, without touching the database, so they aren't counted
+            if (serviceInterface == DictionaryService.class && (name.equals("getType") || name.equals("getProperty")))
+            {
+                return(name.equals("getProperty") ? propertyDefinition((QName)args[0]) : null);
+            }
+
+            final String key   = serviceInterface.getSimpleName() + "." + name;
+            final Long   count = counts.get(key);
+            counts.put(key, count == null ? 1 : count + 1);
+
+            if (name.equals("createNode"))
+            {
+                final NodeRef nodeRef = new NodeRef("workspace://SpacesStore/benchmark-" + nextNodeId++);
+
+                aspects.put(nodeRef, new HashSet<QName>());
+
+                // Aspects are applied implicitly when any of their properties are set
+                if (args.length > 4 && args[4] != null)
+                {
+                    addImplicitAspects(nodeRef, (Map<?, ?>)args[4]);
+                }
+
+                result = new ChildAssociationRef((QName)args[1], (NodeRef)args[0], (QName)args[2], nodeRef);
+            }
+            else if (name.equals("addAspect"))
+            {
+                aspectsOf((NodeRef)args[0]).add((QName)args[1]);
+            }
+            else if (name.equals("addProperties") || name.equals("setProperties"))
+            {
+                addImplicitAspects((NodeRef)args[0], (Map<?, ?>)args[1]);
+            }
+            else if (name.equals("getAspects"))
+            {
+                result = new HashSet<QName>(aspectsOf((NodeRef)args[0]));
+            }
+            else if (name.equals("getType"))
+            {
+                result = ContentModel.TYPE_CONTENT;
+            }
+            else if (name.equals("getWriter"))
+            {
+                result = stub(ContentWriter.class, counts);
+            }
+            else if (name.equals("getContentData"))
+            {
+                result = new ContentData("store://benchmark/" + nextNodeId++ + ".bin", "text/plain", 1L, "UTF-8");
+            }
+            else if (returnType == String.class)
+            {
+                result = "text/plain";
+            }
+            else if (returnType == boolean.class)
+            {
+                result = Boolean.FALSE;
+            }
+            else if (returnType == int.class || returnType == long.class)
+            {
+                result = returnType == int.class ? (Object)Integer.valueOf(0) : (Object)Long.valueOf(0);
+            }
+
+            return(result);
+        }
+
+        /*
+         * Just enough of a property definition for the importer to tell which aspect (if any) the property belongs to.
+         */
+        private static PropertyDefinition propertyDefinition(final QName property)
+        {
+            final QName aspect = ContentModel.PROP_TITLE.equals(property) || ContentModel.PROP_DESCRIPTION.equals(property) ? ContentModel.ASPECT_TITLED :
+                                 ContentModel.PROP_AUTHOR.equals(property) ? ContentModel.ASPECT_AUTHOR : null;
+
+            return(aspect == null ? null : (PropertyDefinition)Proxy.newProxyInstance(NodeCreationBenchmark.class.getClassLoader(),
+                                                                                      new Class<?>[] { PropertyDefinition.class },
+                                                                                      new InvocationHandler()
+            {
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args)
+                {
+                    return(method.getName().equals("getContainerClass") ? aspectDefinition(aspect) : null);
+                }
+            }));
+        }
+
+        private static ClassDefinition aspectDefinition(final QName aspect)
+        {
+            return((ClassDefinition)Proxy.newProxyInstance(NodeCreationBenchmark.class.getClassLoader(),
+                                                           new Class<?>[] { ClassDefinition.class },
+                                                           new InvocationHandler()
+            {
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args)
+                {
+                    return(method.getName().equals("isAspect") ? Boolean.TRUE : method.getName().equals("getName") ? aspect : null);
+                }
+            }));
+        }
+
+        private Set<QName> aspectsOf(final NodeRef nodeRef)
+        {
+            Set<QName> result = aspects.get(nodeRef);
+
+            if (result == null)
+            {
+                result = new HashSet<QName>();
+                aspects.put(nodeRef, result);
+            }
+
+            return(result);
+        }
+
+        private void addImplicitAspects(final NodeRef nodeRef, final Map<?, ?> properties)
+        {
+            if (properties.containsKey(ContentModel.PROP_TITLE) || properties.containsKey(ContentModel.PROP_DESCRIPTION))
+            {
+                aspectsOf(nodeRef).add(ContentModel.ASPECT_TITLED);
+            }
+
+            if (properties.containsKey(ContentModel.PROP_AUTHOR))
+            {
+                aspectsOf(nodeRef).add(ContentModel.ASPECT_AUTHOR);
+            }
+        }
+    }
+
+
+    /*
+     * Typical metadata: a couple of properties, and the aspects they belong to.
+     */
+    private final static class TitledAndAuthoredMetadataLoader
+        implements MetadataLoader
+    {
+        @Override
+        public String getMetadataFileExtension()
+        {
+            return("properties.xml");
+        }
+
+        @Override
+        public void loadMetadata(final ImportableItem.ContentAndMetadata contentAndMetadata, final MetadataLoader.Metadata metadata)
+        {
+            metadata.addAspect(ContentModel.ASPECT_TITLED);
+            metadata.addAspect(ContentModel.ASPECT_AUTHOR);
+            metadata.addProperty(ContentModel.PROP_DESCRIPTION, (Serializable)("Description of " + contentAndMetadata.getParentFileName()));
+            metadata.addProperty(ContentModel.PROP_AUTHOR,      "Benchmark");
+        }
+    }
+
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.alfresco.extension.bulkfilesystemimport.ImportableItem;
+import org.alfresco.extension.bulkfilesystemimport.MetadataLoader;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.namespace.QName;
+
+
+/**
+ * Just enough of a repository for the importers to run in the benchmarks, with every repository write and every commit
+ * blocking for a configurable latency (standing in for database round trips).  Records which thread created each node,
+ * so that the locality of each importer can be measured, and the peak number of transactions open at once.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+final class SimulatedRepository
+    implements InvocationHandler
+{
+    final static NodeRef TARGET = new NodeRef("workspace://SpacesStore/benchmark-target");
+
+    // NodeService, ContentService and ContentWriter methods that write to the repository
+    private final static Set<String> WRITE_METHODS = new HashSet<String>(Arrays.asList(
+        "createNode", "addAspect", "removeAspect", "setType", "setProperty", "setProperties", "addProperties",
+        "removeProperty", "addChild", "moveNode", "putContent", "createVersion"));
+
+    private final long                      writeLatencyNs;
+    private final long                      commitLatencyNs;
+    private final Map<NodeRef, Thread>      creators                        = new ConcurrentHashMap<NodeRef, Thread>();
+    private final Map<NodeRef, QName>       types                           = new ConcurrentHashMap<NodeRef, QName>();
+    private final AtomicLong                nextNodeId                      = new AtomicLong();
+    private final AtomicInteger             openTransactions                = new AtomicInteger();
+    private final RetryingTransactionHelper transactionHelper;
+
+    final AtomicLong    nodesCreated                    = new AtomicLong();
+    final AtomicLong    childrenCreatedInNewFolders     = new AtomicLong();
+    final AtomicLong    childrenCreatedByParentsCreator = new AtomicLong();
+    final AtomicInteger peakOpenTransactions            = new AtomicInteger();
+
+    /**
+     * @param writeLatencyNs  The time each repository write blocks for, in nanoseconds.
+     * @param commitLatencyNs The time each read-write transaction's commit blocks for, in nanoseconds.
+     */
+    SimulatedRepository(final long writeLatencyNs, final long commitLatencyNs)
+    {
+        this.writeLatencyNs    = writeLatencyNs;
+        this.commitLatencyNs   = commitLatencyNs;
+        this.transactionHelper = new RetryingTransactionHelper()
+        {
+            @Override
+            public <R> R doInTransaction(final RetryingTransactionCallback<R> callback, final boolean readOnly, final boolean requiresNew)
+            {
+                recordPeak(peakOpenTransactions, openTransactions.incrementAndGet());
+
+                try
+                {
+                    final R result = callback.execute();
+
+                    if (!readOnly) pause(SimulatedRepository.this.commitLatencyNs);
+
+                    return(result);
+                }
+                catch (final RuntimeException re)
+                {
+                    throw re;
+                }
+                catch (final Throwable t)
+                {
+                    throw new RuntimeException(t);
+                }
+                finally
+                {
+                    openTransactions.decrementAndGet();
+                }
+            }
+        };
+
+        types.put(TARGET, ContentModel.TYPE_FOLDER);
+    }
+
+    /**
+     * @param serviceInterface The interface to stub <i>(must not be null)</i>.
+     * @return A stub of the given interface, backed by this repository <i>(will not be null)</i>.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T stub(final Class<T> serviceInterface)
+    {
+        return((T)Proxy.newProxyInstance(SimulatedRepository.class.getClassLoader(), new Class<?>[] { serviceInterface }, this));
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args)
+    {
+        final String   name       = method.getName();
+        final Class<?> returnType = method.getReturnType();
+        Object         result     = null;
+
+        if (method.getDeclaringClass() == Object.class)
+        {
+            return(name.equals("equals") ? Boolean.valueOf(proxy == args[0]) : name.equals("hashCode") ? Integer.valueOf(System.identityHashCode(proxy)) : "SimulatedRepository");
+        }
+
+        if (method.getDeclaringClass() == ServiceRegistry.class)
+        {
+            return(name.equals("getRetryingTransactionHelper") ? transactionHelper : returnType.isInterface() ? stub(returnType) : null);
+        }
+
+        if (WRITE_METHODS.contains(name))
+        {
+            pause(writeLatencyNs);
+        }
+
+        if (name.equals("createNode"))
+        {
+            final NodeRef parent  = (NodeRef)args[0];
+            final NodeRef nodeRef = new NodeRef("workspace://SpacesStore/benchmark-" + nextNodeId.incrementAndGet());
+            final Thread  creator = creators.get(parent);
+
+            creators.put(nodeRef, Thread.currentThread());
+            types.put(nodeRef, (QName)args[3]);
+            nodesCreated.incrementAndGet();
+
+            if (creator != null)
+            {
+                childrenCreatedInNewFolders.incrementAndGet();
+                if (creator == Thread.currentThread()) childrenCreatedByParentsCreator.incrementAndGet();
+            }
+
+            result = new ChildAssociationRef((QName)args[1], parent, (QName)args[2], nodeRef);
+        }
+        else if (name.equals("getType") && args[0] instanceof NodeRef)
+        {
+            result = types.get((NodeRef)args[0]);
+        }
+        else if (name.equals("getWriter"))
+        {
+            result = stub(ContentWriter.class);
+        }
+        else if (name.equals("getContentData"))
+        {
+            result = new ContentData("store://benchmark/" + nextNodeId.incrementAndGet() + ".bin", "text/plain", 1L, "UTF-8");
+        }
+        else if (name.equals("exists") || name.equals("isSubClass"))
+        {
+            result = Boolean.TRUE;
+        }
+        else if (List.class.isAssignableFrom(returnType) || returnType == Collection.class)
+        {
+            result = new ArrayList<Object>();
+        }
+        else if (Set.class.isAssignableFrom(returnType))
+        {
+            result = new HashSet<Object>();
+        }
+        else if (Map.class.isAssignableFrom(returnType))
+        {
+            result = new HashMap<Object, Object>();
+        }
+        else if (returnType == String.class)
+        {
+            result = "text/plain";
+        }
+        else if (returnType == boolean.class)
+        {
+            result = Boolean.FALSE;
+        }
+        else if (returnType == int.class || returnType == long.class)
+        {
+            result = returnType == int.class ? (Object)Integer.valueOf(0) : (Object)Long.valueOf(0);
+        }
+        else if (returnType.isInterface())
+        {
+            result = stub(returnType);
+        }
+
+        return(result);
+    }
+
+    static void pause(final long ns)
+    {
+        if (ns > 0)
+        {
+            LockSupport.parkNanos(ns);
+        }
+    }
+
+    static void recordPeak(final AtomicInteger peak, final int value)
+    {
+        int current = peak.get();
+
+        while (value > current && !peak.compareAndSet(current, value))
+        {
+            current = peak.get();
+        }
+    }
+
+
+    /*
+     * The benchmarks' synthetic trees have no metadata files.
+     */
+    final static class NoMetadataLoader
+        implements MetadataLoader
+    {
+        @Override
+        public String getMetadataFileExtension()
+        {
+            return("properties.xml");
+        }
+
+        @Override
+        public void loadMetadata(final ImportableItem.ContentAndMetadata contentAndMetadata, final MetadataLoader.Metadata metadata)
+        {
+        }
+    }
+
+}
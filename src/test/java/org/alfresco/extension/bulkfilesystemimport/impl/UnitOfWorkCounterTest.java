@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+
+/**
+ * Stress tests the unit of work accounting the multi-threaded importer uses to detect the end of an import: completion
+ * must never be signalled while a unit of work is queued or running, and must always be signalled once none are.
+ *
+ * Units of work are run on a stub pool that randomly delays, reorders and rejects them, and each unit of work submits
+ * a random number of "sub-directories" before it finishes, exactly as the importer's units of work do.
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public class UnitOfWorkCounterTest
+{
+    private final static int  ROUNDS             = 200;
+    private final static int  MAXIMUM_DEPTH      = 5;
+    private final static int  MAXIMUM_CHILDREN   = 4;
+    private final static int  POOL_SIZE          = 8;
+    private final static long COMPLETION_TIMEOUT = 30;  // Seconds
+
+
+    @Test
+    public void testNeverCompletesEarlyAndAlwaysCompletes()
+        throws Exception
+    {
+        final Random random = new Random(42);
+
+        for (int i = 0; i < ROUNDS; i++)
+        {
+            final StubPool pool = new StubPool(POOL_SIZE, random.nextLong(), i % 2 == 0 ? 0.0 : 0.1);  // Every other round rejects 10% of submissions
+
+            try
+            {
+                runImport(pool, null);
+            }
+            finally
+            {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+
+    @Test
+    public void testCompletesWhenQueuedUnitsOfWorkAreDiscarded()
+        throws Exception
+    {
+        final Random random = new Random(7);
+
+        for (int i = 0; i < ROUNDS; i++)
+        {
+            final StubPool pool = new StubPool(POOL_SIZE, random.nextLong(), 0.0);
+
+            try
+            {
+                runImport(pool, random.nextInt(5));  // Stop the import part way through, as stopImport does
+            }
+            finally
+            {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+
+    @Test
+    public void testCompletesWhenFirstUnitOfWorkIsRejected()
+        throws Exception
+    {
+        final UnitOfWorkCounter counter = new UnitOfWorkCounter();
+        final StubPool          pool    = new StubPool(1, 0, 1.0);
+
+        try
+        {
+            counter.submit(pool, new Runnable() { @Override public void run() {} });
+            fail("Rejection wasn't rethrown.");
+        }
+        catch (final RejectedExecutionException ree)
+        {
+            // Expected
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+
+        assertTrue(counter.isComplete());
+        assertEquals(0, counter.getOutstanding());
+    }
+
+
+    /*
+     * Runs a single "import" of a random tree of units of work, optionally discarding the queued units of work after the
+     * given number of milliseconds, and checks the accounting.
+     */
+    private void runImport(final StubPool pool, final Integer discardAfterMs)
+        throws Exception
+    {
+        final UnitOfWorkCounter counter   = new UnitOfWorkCounter();
+        final AtomicLong        accepted  = new AtomicLong();
+        final AtomicLong        finished  = new AtomicLong();
+        final AtomicLong        discarded = new AtomicLong();
+        final AtomicLong        early     = new AtomicLong();
+
+        submit(counter, pool, new TreeUnitOfWork(counter, pool, 0, accepted, finished, early), accepted);
+
+        if (discardAfterMs != null)
+        {
+            Thread.sleep(discardAfterMs);
+
+            final List<Runnable> remaining = pool.shutdownNow();
+
+            discarded.addAndGet(remaining.size());
+            counter.finished(remaining.size());
+        }
+
+        assertTrue("Completion was never signalled (" + counter.getOutstanding() + " units of work still outstanding).",
+                   counter.awaitCompletion(COMPLETION_TIMEOUT, TimeUnit.SECONDS));
+        assertEquals("Completion was signalled while units of work were still running.", 0, early.get());
+        assertEquals("Completion was signalled before every unit of work had finished or been discarded.", accepted.get(), finished.get() + discarded.get());
+        assertEquals(0, counter.getOutstanding());
+    }
+
+
+    private static void submit(final UnitOfWorkCounter counter, final Executor pool, final Runnable unitOfWork, final AtomicLong accepted)
+    {
+        try
+        {
+            counter.submit(pool, unitOfWork);
+            accepted.incrementAndGet();  // The unit of work is still outstanding here, so this can't race with the completion check
+        }
+        catch (final RejectedExecutionException ree)
+        {
+            // The importer fails the import when this happens, but the accounting must still balance
+        }
+    }
+
+
+    /*
+     * A unit of work that checks completion hasn't been signalled, submits a random number of children, and finishes.
+     */
+    private final static class TreeUnitOfWork
+        implements Runnable
+    {
+        private final UnitOfWorkCounter counter;
+        private final StubPool          pool;
+        private final int               depth;
+        private final AtomicLong        accepted;
+        private final AtomicLong        finished;
+        private final AtomicLong        early;
+
+        private TreeUnitOfWork(final UnitOfWorkCounter counter,
+                               final StubPool          pool,
+                               final int               depth,
+                               final AtomicLong        accepted,
+                               final AtomicLong        finished,
+                               final AtomicLong        early)
+        {
+            this.counter  = counter;
+            this.pool     = pool;
+            this.depth    = depth;
+            this.accepted = accepted;
+            this.finished = finished;
+            this.early    = early;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                if (counter.isComplete()) early.incrementAndGet();
+
+                if (depth < MAXIMUM_DEPTH)
+                {
+                    final int numberOfChildren = pool.nextInt(MAXIMUM_CHILDREN + 1);
+
+                    for (int i = 0; i < numberOfChildren; i++)
+                    {
+                        submit(counter, pool, new TreeUnitOfWork(counter, pool, depth + 1, accepted, finished, early), accepted);
+                        Thread.yield();
+                    }
+                }
+
+                if (counter.isComplete()) early.incrementAndGet();
+            }
+            finally
+            {
+                finished.incrementAndGet();
+                counter.finished(1);
+            }
+        }
+    }
+
+
+    /*
+     * A minimal thread pool that randomly delays submissions (so that they're queued in a different order to the one in
+     * which they were submitted), randomly rejects them, and can be shut down, returning the tasks that never ran.
+     */
+    private final static class StubPool
+        implements Executor
+    {
+        private final LinkedBlockingQueue<Runnable> queue   = new LinkedBlockingQueue<Runnable>();
+        private final List<Thread>                  workers = new ArrayList<Thread>();
+        private final Random                        random;
+        private final double                        rejectionRate;
+        private volatile boolean                    shutdown = false;
+
+        private StubPool(final int numberOfThreads, final long seed, final double rejectionRate)
+        {
+            this.random        = new Random(seed);
+            this.rejectionRate = rejectionRate;
+
+            for (int i = 0; i < numberOfThreads; i++)
+            {
+                final Thread worker = new Thread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            while (!shutdown)
+                            {
+                                if (nextInt(4) == 0) Thread.sleep(nextInt(2));
+
+                                final Runnable task = queue.poll(10, TimeUnit.MILLISECONDS);
+
+                                // Once a task has been taken off the queue it always runs, as it's no longer discardable
+                                if (task != null)
+                                {
+                                    task.run();
+                                }
+                            }
+                        }
+                        catch (final InterruptedException ie)
+                        {
+                            // Shut down
+                        }
+                    }
+                }, "UnitOfWorkCounterTest-" + i);
+
+                worker.setDaemon(true);
+                workers.add(worker);
+                worker.start();
+            }
+        }
+
+        @Override
+        public void execute(final Runnable task)
+        {
+            if (nextInt(2) == 0) Thread.yield();
+
+            // Checking for shutdown and queueing happen atomically, as they do in ThreadPoolExecutor
+            synchronized(this)
+            {
+                if (shutdown || random() < rejectionRate)
+                {
+                    throw new RejectedExecutionException("Rejected by stub pool.");
+                }
+
+                queue.add(task);
+            }
+        }
+
+        private synchronized int nextInt(final int bound)
+        {
+            return(random.nextInt(bound));
+        }
+
+        private synchronized double random()
+        {
+            return(random.nextDouble());
+        }
+
+        private List<Runnable> shutdownNow()
+        {
+            final List<Runnable> result = new ArrayList<Runnable>();
+
+            synchronized(this)
+            {
+                shutdown = true;
+                queue.drainTo(result);
+            }
+
+            for (final Thread worker : workers)
+            {
+                worker.interrupt();
+            }
+
+            return(result);
+        }
+    }
+
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.alfresco.extension.bulkfilesystemimport.AnalysedDirectory;
+import org.alfresco.extension.bulkfilesystemimport.DirectoryAnalyser;
+import org.alfresco.extension.bulkfilesystemimport.FileAttributes;
+import org.alfresco.extension.bulkfilesystemimport.ImportableItem;
+import org.alfresco.extension.bulkfilesystemimport.MetadataLoader;
+import org.apache.commons.io.FileUtils;
+
+
+/**
+ * Measures the analysis of a directory with heavy version histories - every item has a metadata file and many content
+ * and metadata versions, so version files make up almost all of the listing.
+ *
+ * Two things are measured, for each run:
+ * <ol>
+ *   <li>Assembly alone: grouping an in-memory listing into importable items and version entries, first with the regex
+ *       based logic <code>FilenameClassifier</code> replaced (reproduced here as {@link #assembleLegacy(List, List)}: up to
+ *       three regex matches per version file, the metadata suffix rebuilt on every test, and a linear scan of the item's
+ *       version entries per version file), then with <code>FilenameClassifier</code> and the indexed version lookup
+ *       that <code>DirectoryAnalyserImpl</code> now uses.</li>
+ *   <li>The whole analysis: <code>DirectoryAnalyserImpl.analyseDirectory</code> on the directory on disk, listing and
+ *       stat calls included, to show what share of the analysis phase the assembly accounts for.</li>
+ * </ol>
+ *
+ * This isn't a unit test - run it by hand:
+ * <pre>java -cp ... org.alfresco.extension.bulkfilesystemimport.impl.VersionHistoryBenchmark [numberOfItems] [versionsPerItem] [runs]</pre>
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public class VersionHistoryBenchmark
+{
+    private final static MetadataLoader METADATA_LOADER        = new SimulatedRepository.NoMetadataLoader();
+    private final static String         METADATA_SUFFIX        = MetadataLoader.METADATA_SUFFIX + METADATA_LOADER.getMetadataFileExtension();
+    private final static Pattern        VERSION_SUFFIX_PATTERN = Pattern.compile(".+" + DirectoryAnalyser.VERSION_SUFFIX_REGEX);
+
+
+    public static void main(final String[] args)
+        throws Exception
+    {
+        final int  numberOfItems   = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        final int  versionsPerItem = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        final int  runs            = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        final File source          = new File(System.getProperty("java.io.tmpdir"), "VersionHistoryBenchmark-" + System.nanoTime());
+
+        try
+        {
+            createSource(source, numberOfItems, versionsPerItem);
+
+            final List<File>            listing    = Arrays.asList(source.listFiles());
+            final List<FileAttributes>  attributes = new ArrayList<FileAttributes>(listing.size());
+            final DirectoryAnalyserImpl analyser   = new DirectoryAnalyserImpl(METADATA_LOADER, new BulkImportStatusImpl());
+
+            // Assembly is measured without I/O, so the files are stat-ed up front
+            for (final File file : listing)
+            {
+                attributes.add(FileAttributes.read(file));
+            }
+
+            System.out.println(numberOfItems + " items, each with a metadata file and " + versionsPerItem + " content and metadata versions (" + listing.size() + " files).");
+
+            for (int i = 0; i <= runs; i++)
+            {
+                final long legacyNs     = time(new Runnable() { @Override public void run() { check(assembleLegacy(listing, attributes), numberOfItems, versionsPerItem); } });
+                final long classifierNs = time(new Runnable() { @Override public void run() { check(assembleWithClassifier(listing, attributes), numberOfItems, versionsPerItem); } });
+                final long analysisNs   = time(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            check(toMap(analyser.analyseDirectory(source)), numberOfItems, versionsPerItem);
+                        }
+                        catch (final InterruptedException ie)
+                        {
+                            throw new RuntimeException(ie);
+                        }
+                    }
+                });
+
+                // The first run is a warm up
+                if (i > 0)
+                {
+                    System.out.println(String.format("    run %d: assembly (regexes) %,6d ms %,10.0f files/s, assembly (classifier) %,6d ms %,10.0f files/s, whole analysis %,6d ms %,10.0f files/s",
+                                                     i,
+                                                     legacyNs / 1000000,     listing.size() * 1.0e9 / legacyNs,
+                                                     classifierNs / 1000000, listing.size() * 1.0e9 / classifierNs,
+                                                     analysisNs / 1000000,   listing.size() * 1.0e9 / analysisNs));
+                }
+            }
+        }
+        finally
+        {
+            FileUtils.deleteDirectory(source);
+        }
+    }
+
+
+    private static void createSource(final File source, final int numberOfItems, final int versionsPerItem)
+        throws Exception
+    {
+        for (int i = 0; i < numberOfItems; i++)
+        {
+            final String name = "document-" + i + ".txt";
+
+            FileUtils.writeStringToFile(new File(source, name), "Document " + i);
+            FileUtils.writeStringToFile(new File(source, name + METADATA_SUFFIX), "");
+
+            for (int j = 1; j <= versionsPerItem; j++)
+            {
+                // Alternate major and minor versions, as real version histories tend to have both
+                final String versionSuffix = ".v" + ((j + 1) / 2) + (j % 2 == 0 ? ".1" : "");
+
+                FileUtils.writeStringToFile(new File(source, name + versionSuffix), "Document " + i + " version " + j);
+                FileUtils.writeStringToFile(new File(source, name + METADATA_SUFFIX + versionSuffix), "");
+            }
+        }
+    }
+
+
+    private static long time(final Runnable runnable)
+    {
+        final long startNs = System.nanoTime();
+
+        runnable.run();
+
+        return(Math.max(1, System.nanoTime() - startNs));
+    }
+
+
+    private static void check(final Map<String, ImportableItem> importableItems, final int numberOfItems, final int versionsPerItem)
+    {
+        if (importableItems.size() != numberOfItems)
+        {
+            throw new IllegalStateException("Expected " + numberOfItems + " items, found " + importableItems.size() + ".");
+        }
+
+        for (final ImportableItem importableItem : importableItems.values())
+        {
+            if (importableItem.getVersionEntries().size() != versionsPerItem || !importableItem.getHeadRevision().metadataFileExists())
+            {
+                throw new IllegalStateException("'" + importableItem.getParentFilename() + "' was assembled incorrectly.");
+            }
+        }
+    }
+
+
+    private static Map<String, ImportableItem> toMap(final AnalysedDirectory analysedDirectory)
+    {
+        final Map<String, ImportableItem> result = new HashMap<String, ImportableItem>();
+
+        for (final ImportableItem importableItem : analysedDirectory.importableItems)
+        {
+            result.put(importableItem.getParentFilename(), importableItem);
+        }
+
+        return(result);
+    }
+
+
+    /*
+     * How DirectoryAnalyserImpl now groups a listing: one pass of FilenameClassifier per file, and constant time version
+     * entry lookup.
+     */
+    private static Map<String, ImportableItem> assembleWithClassifier(final List<File> listing, final List<FileAttributes> attributes)
+    {
+        final FilenameClassifier          classifier = new FilenameClassifier(METADATA_SUFFIX);
+        final Map<String, ImportableItem> result     = new HashMap<String, ImportableItem>();
+
+        for (int i = 0; i < listing.size(); i++)
+        {
+            final File                              file           = listing.get(i);
+            final FilenameClassifier.Classification classification = classifier.classify(file.getName());
+            final ImportableItem                    importableItem = findOrCreate(result, classification.getParentFilename());
+
+            if (classification.isVersion())
+            {
+                ImportableItem.VersionedContentAndMetadata versionEntry = importableItem.getVersionEntry(classification.getMajorVersion(), classification.getMinorVersion());
+
+                if (versionEntry == null)
+                {
+                    versionEntry = importableItem.new VersionedContentAndMetadata(classification.getMajorVersion(), classification.getMinorVersion());
+                    importableItem.addVersionEntry(versionEntry);
+                }
+
+                if (classification.isMetadata())
+                {
+                    versionEntry.setMetadataFile(file, attributes.get(i));
+                }
+                else
+                {
+                    versionEntry.setContentFile(file, attributes.get(i));
+                }
+            }
+            else if (classification.isMetadata())
+            {
+                importableItem.getHeadRevision().setMetadataFile(file, attributes.get(i));
+            }
+            else
+            {
+                importableItem.getHeadRevision().setContentFile(file, attributes.get(i));
+            }
+        }
+
+        return(result);
+    }
+
+
+    /*
+     * How DirectoryAnalyserImpl grouped a listing before FilenameClassifier (isVersionFile, isMetadataFile,
+     * getParentOfVersionFile, getParentOfMetadatafile, getVersionLabel and ImportableItem.getVersionEntry's linear scan).
+     */
+    private static Map<String, ImportableItem> assembleLegacy(final List<File> listing, final List<FileAttributes> attributes)
+    {
+        final Map<String, ImportableItem> result = new HashMap<String, ImportableItem>();
+
+        for (int i = 0; i < listing.size(); i++)
+        {
+            final File   file     = listing.get(i);
+            final String filename = file.getName();
+
+            if (VERSION_SUFFIX_PATTERN.matcher(filename).matches())
+            {
+                // getParentOfVersionFile (which re-checks isVersionFile)
+                VERSION_SUFFIX_PATTERN.matcher(filename).matches();
+                String  parentFilename   = filename.replaceFirst(DirectoryAnalyser.VERSION_SUFFIX_REGEX, "");
+                boolean isContentVersion = true;
+
+                if (parentFilename.endsWith(MetadataLoader.METADATA_SUFFIX + METADATA_LOADER.getMetadataFileExtension()))
+                {
+                    parentFilename   = parentFilename.substring(0, parentFilename.length() - METADATA_SUFFIX.length());
+                    isContentVersion = false;
+                }
+
+                // getVersionLabel (which also re-checks isVersionFile)
+                VERSION_SUFFIX_PATTERN.matcher(filename).matches();
+                final Matcher matcher = VERSION_SUFFIX_PATTERN.matcher(filename);
+                matcher.matches();
+                final String  versionLabel = Integer.parseInt(matcher.group(2)) + "." + (matcher.group(4) == null ? 0 : Integer.parseInt(matcher.group(4)));
+
+                final ImportableItem                       importableItem = findOrCreate(result, parentFilename);
+                ImportableItem.VersionedContentAndMetadata versionEntry   = null;
+
+                if (importableItem.hasVersionEntries())
+                {
+                    for (final ImportableItem.VersionedContentAndMetadata candidate : importableItem.getVersionEntries())
+                    {
+                        if (candidate.getVersionLabel().equals(versionLabel))
+                        {
+                            versionEntry = candidate;
+                            break;
+                        }
+                    }
+                }
+
+                if (versionEntry == null)
+                {
+                    versionEntry = importableItem.new VersionedContentAndMetadata(versionLabel);
+                    importableItem.addVersionEntry(versionEntry);
+                }
+
+                if (isContentVersion)
+                {
+                    versionEntry.setContentFile(file, attributes.get(i));
+                }
+                else
+                {
+                    versionEntry.setMetadataFile(file, attributes.get(i));
+                }
+            }
+            else if (filename.endsWith(MetadataLoader.METADATA_SUFFIX + METADATA_LOADER.getMetadataFileExtension()))
+            {
+                findOrCreate(result, filename.substring(0, filename.length() - METADATA_SUFFIX.length())).getHeadRevision().setMetadataFile(file, attributes.get(i));
+            }
+            else
+            {
+                findOrCreate(result, filename).getHeadRevision().setContentFile(file, attributes.get(i));
+            }
+        }
+
+        return(result);
+    }
+
+
+    private static ImportableItem findOrCreate(final Map<String, ImportableItem> importableItems, final String parentFilename)
+    {
+        ImportableItem result = importableItems.get(parentFilename);
+
+        if (result == null)
+        {
+            result = new ImportableItem(parentFilename);
+            importableItems.put(parentFilename, result);
+        }
+
+        return(result);
+    }
+
+}
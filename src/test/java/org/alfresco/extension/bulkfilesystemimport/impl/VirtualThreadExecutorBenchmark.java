@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2007-2013 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkfilesystemimport.impl;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.extension.bulkfilesystemimport.AnalysedDirectory;
+import org.alfresco.extension.bulkfilesystemimport.BulkImportStatus.ProcessingState;
+import org.alfresco.extension.bulkfilesystemimport.DirectoryAnalyser;
+import org.alfresco.extension.bulkfilesystemimport.ExecutorFactory;
+import org.alfresco.extension.bulkfilesystemimport.MetadataLoader;
+import org.alfresco.extension.bulkfilesystemimport.executorfactories.PlatformThreadExecutorFactory;
+import org.alfresco.extension.bulkfilesystemimport.executorfactories.VirtualThreadExecutorFactory;
+import org.alfresco.extension.bulkfilesystemimport.util.DataDictionaryBuilder;
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.repo.policy.BehaviourFilter;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.ServiceRegistry;
+import org.apache.commons.io.FileUtils;
+
+
+/**
+ * Compares the multi-threaded importer running on a fixed pool of platform threads with the same importer running a
+ * virtual thread per unit of work (see {@link VirtualThreadExecutorFactory}), under simulated I/O latency.  Both are
+ * given the same limit on concurrent repository work: the platform pool has that many threads, and the virtual threads
+ * have that many transaction permits.  The difference is that a platform thread blocked listing a (slow, e.g. network)
+ * source directory is a thread that can't be writing to the repository, whereas a virtual thread only holds a permit
+ * while it's actually using the repository.  The number of virtual threads listing or importing a directory at once is
+ * itself limited (by default to four per transaction permit), so that listings and analyses in memory stay bounded.
+ *
+ * Every directory listing blocks for a configurable latency (standing in for a network filesystem), and every repository
+ * write and commit does too (see {@link SimulatedRepository}).  For each run it reports the elapsed time and throughput,
+ * and the peak number of directory listings and of transactions in progress at once.
+ *
+ * Virtual threads need JDK 21 or later - on older JVMs the virtual thread factory falls back to a pool of as many
+ * platform threads as it has transaction permits (and the benchmark says so), so both runs should perform the same.  As
+ * with the other benchmarks, absolute figures from a simulated repository say nothing about a real one.
+ *
+ * This isn't a unit test - run it by hand:
+ * <pre>java -cp ... org.alfresco.extension.bulkfilesystemimport.impl.VirtualThreadExecutorBenchmark [concurrency] [readLatencyInUs] [writeLatencyInUs] [commitLatencyInUs] [runs] [unitsOfWorkInFlight]</pre>
+ *
+ * @author Peter Monks (pmonks@alfresco.com)
+ */
+public class VirtualThreadExecutorBenchmark
+{
+    private final static int TREE_DEPTH    = 2;
+    private final static int TREE_FANOUT   = 30;  // 1 + 30 + 900 = 931 directories
+    private final static int FILES_PER_DIR = 4;
+
+    private enum Threads { PLATFORM, VIRTUAL }
+
+
+    public static void main(final String[] args)
+        throws Throwable
+    {
+        final int  concurrency       = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        final long readLatencyInUs   = args.length > 1 ? Long.parseLong(args[1])    : 5000;
+        final long writeLatencyInUs  = args.length > 2 ? Long.parseLong(args[2])    : 200;
+        final long commitLatencyInUs = args.length > 3 ? Long.parseLong(args[3])    : 2000;
+        final int  runs              = args.length > 4 ? Integer.parseInt(args[4])  : 3;
+        final int  unitsInFlight     = args.length > 5 ? Integer.parseInt(args[5])  : -1;
+        final File root              = new File(System.getProperty("java.io.tmpdir"), "VirtualThreadExecutorBenchmark-" + System.nanoTime());
+
+        AuthenticationUtil.setFullyAuthenticatedUser(AuthenticationUtil.getSystemUserName());
+
+        if (!new VirtualThreadExecutorFactory(concurrency, unitsInFlight).isSupported())
+        {
+            System.out.println("Virtual threads aren't supported by this JVM (Java " + System.getProperty("java.version") + ") - the VIRTUAL runs use the platform thread fallback.");
+        }
+
+        try
+        {
+            createTree(root, TREE_DEPTH, TREE_FANOUT);
+
+            System.out.println(concurrency + " platform threads / transaction permits, " + readLatencyInUs + "us per directory listing, " + writeLatencyInUs + "us per repository write, " + commitLatencyInUs + "us per commit, " + FILES_PER_DIR + " files per directory.");
+
+            for (int i = 0; i <= runs; i++)
+            {
+                for (final Threads threads : Threads.values())
+                {
+                    final Result result = run(threads, root, concurrency, unitsInFlight, readLatencyInUs * 1000, writeLatencyInUs * 1000, commitLatencyInUs * 1000);
+
+                    // The first run of each is a warm up
+                    if (i > 0)
+                    {
+                        System.out.println(String.format("    %-8s run %d: %,7d ms, %,8.0f nodes/s, peak directory listings in progress %,5d, peak transactions in progress %,4d",
+                                                         threads, i, result.elapsedMs, result.nodes * 1000.0 / Math.max(1, result.elapsedMs), result.peakReads, result.peakTransactions));
+                    }
+                }
+            }
+        }
+        finally
+        {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+
+    private static void createTree(final File directory, final int depth, final int fanout)
+        throws Exception
+    {
+        for (int i = 0; i < FILES_PER_DIR; i++)
+        {
+            FileUtils.writeStringToFile(new File(directory, "document-" + i + ".txt"), "Document " + i);
+        }
+
+        if (depth > 0)
+        {
+            for (int i = 0; i < fanout; i++)
+            {
+                createTree(new File(directory, "folder-" + i), depth - 1, fanout);
+            }
+        }
+    }
+
+
+    private static Result run(final Threads threads, final File source, final int concurrency, final int unitsInFlight, final long readLatencyNs, final long writeLatencyNs, final long commitLatencyNs)
+        throws Throwable
+    {
+        final SimulatedRepository                 repository   = new SimulatedRepository(writeLatencyNs, commitLatencyNs);
+        final BulkImportStatusImpl                status       = new BulkImportStatusImpl();
+        final MetadataLoader                      loader       = new SimulatedRepository.NoMetadataLoader();
+        final SlowDirectoryAnalyser               analyser     = new SlowDirectoryAnalyser(new DirectoryAnalyserImpl(loader, status), readLatencyNs);
+        final ExecutorFactory                     factory      = threads == Threads.PLATFORM ? new PlatformThreadExecutorFactory(concurrency, concurrency, -1, null, -1) : new VirtualThreadExecutorFactory(concurrency, unitsInFlight);
+        final MultiThreadedBulkFilesystemImporter bulkImporter = new MultiThreadedBulkFilesystemImporter(repository.stub(ServiceRegistry.class),
+                                                                                                         repository.stub(BehaviourFilter.class),
+                                                                                                         repository.stub(ContentStore.class),
+                                                                                                         status,
+                                                                                                         repository.stub(DataDictionaryBuilder.class));
+        final Result                              result       = new Result();
+
+        bulkImporter.setExecutorFactory(factory);
+        bulkImporter.setMetadataLoader(loader);
+        bulkImporter.setDirectoryAnalyser(analyser);
+        bulkImporter.setDisabledBehaviours("*");
+        bulkImporter.setContentStagingEnabled(false);
+        bulkImporter.setMetadataPreparationEnabled(false);
+
+        final long startNs = System.nanoTime();
+
+        bulkImporter.bulkImport(SimulatedRepository.TARGET, source, false);
+
+        while (status.inProgress())
+        {
+            Thread.sleep(1);
+        }
+
+        result.elapsedMs = (System.nanoTime() - startNs) / 1000000;
+
+        if (status.getProcessingState() != ProcessingState.SUCCESSFUL)
+        {
+            throw new IllegalStateException(threads + " import of '" + source + "' didn't succeed: " + status.getProcessingState(), status.getLastException());
+        }
+
+        result.nodes            = repository.nodesCreated.get();
+        result.peakReads        = analyser.peakListings.get();
+        result.peakTransactions = repository.peakOpenTransactions.get();
+
+        return(result);
+    }
+
+
+    private final static class Result
+    {
+        private long elapsedMs        = 0;
+        private long nodes            = 0;
+        private int  peakReads        = 0;
+        private int  peakTransactions = 0;
+    }
+
+
+    /*
+     * A directory analyser whose listings each take (at least) the given time, standing in for a slow filesystem.
+     */
+    private final static class SlowDirectoryAnalyser
+        implements DirectoryAnalyser
+    {
+        private final DirectoryAnalyser delegate;
+        private final long              readLatencyNs;
+        private final AtomicInteger     listings     = new AtomicInteger();
+        private final AtomicInteger     peakListings = new AtomicInteger();
+
+        private SlowDirectoryAnalyser(final DirectoryAnalyser delegate, final long readLatencyNs)
+        {
+            this.delegate      = delegate;
+            this.readLatencyNs = readLatencyNs;
+        }
+
+        @Override
+        public AnalysedDirectory analyseDirectory(final File directory)
+            throws InterruptedException
+        {
+            startListing();
+
+            try
+            {
+                return(delegate.analyseDirectory(directory));
+            }
+            finally
+            {
+                listings.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void analyseDirectory(final File directory, final ImportableItemHandler handler)
+            throws InterruptedException
+        {
+            startListing();
+
+            try
+            {
+                delegate.analyseDirectory(directory, handler);
+            }
+            finally
+            {
+                listings.decrementAndGet();
+            }
+        }
+
+        private void startListing()
+        {
+            SimulatedRepository.recordPeak(peakListings, listings.incrementAndGet());
+            SimulatedRepository.pause(readLatencyNs);
+        }
+    }
+
+}